@@ -0,0 +1,65 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.playblack.pbdbapi.Column;
+import net.playblack.pbdbapi.Column.ColumnType;
+import net.playblack.pbdbapi.Column.DataType;
+import net.playblack.pbdbapi.DataAccess;
+
+/**
+ * The row used by all benchmarks. It has a column of every common type and two list columns.
+ */
+public class BenchRow extends DataAccess {
+
+    public static final String TABLE = "bench_rows";
+
+    @Column(columnName = "id", dataType = DataType.INTEGER, columnType = ColumnType.PRIMARY)
+    public Integer id;
+    @Column(columnName = "name", dataType = DataType.STRING)
+    public String name;
+    @Column(columnName = "score", dataType = DataType.LONG)
+    public Long score;
+    @Column(columnName = "ratio", dataType = DataType.DOUBLE)
+    public Double ratio;
+    @Column(columnName = "active", dataType = DataType.BOOLEAN)
+    public Boolean active;
+    @Column(columnName = "tags", dataType = DataType.STRING, isList = true)
+    public List<String> tags;
+    @Column(columnName = "samples", dataType = DataType.INTEGER, isList = true)
+    public int[] samples;
+
+    public BenchRow() {
+        super(TABLE);
+    }
+
+    /**
+     * Creates a row with values derived from its id.
+     *
+     * @param id
+     *
+     * @return the row
+     */
+    public static BenchRow create(int id) {
+        BenchRow row = new BenchRow();
+
+        row.id = id;
+        row.name = "row-" + id;
+        row.score = id * 31L;
+        row.ratio = id / 7.0;
+        row.active = id % 2 == 0;
+        row.tags = new ArrayList<String>();
+        row.tags.add("tag" + (id % 10));
+        row.tags.add("group" + (id % 100));
+        row.samples = new int[8];
+        for (int i = 0; i < row.samples.length; i++) {
+            row.samples[i] = id + i;
+        }
+        return row;
+    }
+
+    @Override
+    public DataAccess getInstance() {
+        return new BenchRow();
+    }
+}
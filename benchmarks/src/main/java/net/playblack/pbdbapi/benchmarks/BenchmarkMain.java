@@ -0,0 +1,53 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import java.io.IOException;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, but writes the results as JSON
+ * to jmh-result.json unless -rf or -rff say otherwise. The results of two versions can be
+ * compared with any JMH result viewer.
+ * <p/>
+ * The benchmarks work in the current directory, the XML and SQLite backends read
+ * config/ and write to db/ there. MySQL benchmarks need a server and are only run
+ * when -Dpbdbapi.bench.mysql=true is given.
+ * <pre>
+ * java -jar target/benchmarks.jar
+ * java -Dpbdbapi.bench.mysql=true -jar target/benchmarks.jar SqlBenchmark
+ * </pre>
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+
+        if (!cmd.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmd.getResult().hasValue()) {
+            options.result("jmh-result.json");
+        }
+        if (!Boolean.getBoolean("pbdbapi.bench.mysql")) {
+            options.exclude(MySQLBenchmark.class.getSimpleName());
+        }
+        Runner runner = new Runner(options.build());
+
+        if (cmd.shouldList()) {
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
@@ -0,0 +1,81 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.playblack.pbdbapi.Column.DataType;
+import net.playblack.pbdbapi.JDBCHelper;
+import net.playblack.pbdbapi.util.BinaryListCodec;
+import net.playblack.pbdbapi.util.IntArrayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Text and binary encoding of list columns.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListCodecBenchmark {
+
+    @Param({"INTEGER", "STRING"})
+    public DataType type;
+    @Param({"10", "1000"})
+    public int size;
+
+    private List<?> list;
+    private String text;
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        if (type == DataType.INTEGER) {
+            IntArrayList ints = new IntArrayList(size);
+            for (int i = 0; i < size; i++) {
+                ints.addInt(i * 7919 - size);
+            }
+            list = ints;
+        }
+        else {
+            List<String> strings = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                strings.add("element-" + i);
+            }
+            list = strings;
+        }
+        text = JDBCHelper.getListString(list);
+        binary = BinaryListCodec.encode(type, list);
+    }
+
+    @Benchmark
+    public String encodeText() {
+        return JDBCHelper.getListString(list);
+    }
+
+    @Benchmark
+    public List<?> decodeText() {
+        return JDBCHelper.getList(type, text);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryListCodec.encode(type, list);
+    }
+
+    @Benchmark
+    public List<?> decodeBinary() {
+        return BinaryListCodec.decode(type, binary);
+    }
+}
@@ -0,0 +1,60 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import net.playblack.pbdbapi.Column;
+import net.playblack.pbdbapi.exceptions.DatabaseAccessException;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
+import net.playblack.pbdbapi.util.IntArrayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reflection mapping between DataAccess fields and data sets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+
+    private BenchRow row;
+    private BenchRow target;
+    private HashMap<String, Object> dataSet;
+
+    @Setup
+    public void setup() {
+        row = BenchRow.create(42);
+        target = new BenchRow();
+        dataSet = new HashMap<String, Object>();
+        dataSet.put("id", row.id);
+        dataSet.put("name", row.name);
+        dataSet.put("score", row.score);
+        dataSet.put("ratio", row.ratio);
+        dataSet.put("active", row.active);
+        dataSet.put("tags", row.tags);
+        // Decoded integer lists are IntArrayLists
+        dataSet.put("samples", IntArrayList.wrap(row.samples));
+    }
+
+    @Benchmark
+    public HashMap<Column, Object> toDatabaseEntryList() throws DatabaseTableInconsistencyException {
+        return row.toDatabaseEntryList();
+    }
+
+    @Benchmark
+    public BenchRow applyDataSet() throws DatabaseAccessException, IllegalAccessException {
+        target.applyDataSet(dataSet);
+        return target;
+    }
+}
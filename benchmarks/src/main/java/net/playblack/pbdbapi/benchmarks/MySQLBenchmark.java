@@ -0,0 +1,16 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import net.playblack.pbdbapi.Database;
+import net.playblack.pbdbapi.mysql.MySQLDatabase;
+
+/**
+ * { @link SqlBenchmark } on MySQL. Needs a server as configured in config/connection.cfg,
+ * so it only runs when enabled with -Dpbdbapi.bench.mysql=true.
+ */
+public class MySQLBenchmark extends SqlBenchmark {
+
+    @Override
+    protected Database database() {
+        return MySQLDatabase.getInstance();
+    }
+}
@@ -0,0 +1,36 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Generates rows for bulk loads without keeping them in memory.
+ */
+final class Rows implements Iterator<BenchRow> {
+
+    private final int count;
+    private int next;
+
+    Rows(int first, int count) {
+        this.next = first;
+        this.count = first + count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next < count;
+    }
+
+    @Override
+    public BenchRow next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return BenchRow.create(next++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,15 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import net.playblack.pbdbapi.Database;
+import net.playblack.pbdbapi.sqlite.SQLiteDatabase;
+
+/**
+ * { @link SqlBenchmark } on SQLite, using the database configured in config/.
+ */
+public class SQLiteBenchmark extends SqlBenchmark {
+
+    @Override
+    protected Database database() {
+        return SQLiteDatabase.getInstance();
+    }
+}
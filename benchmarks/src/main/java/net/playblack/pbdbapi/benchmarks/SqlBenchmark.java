@@ -0,0 +1,81 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import net.playblack.pbdbapi.AggregateResult;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.Database;
+import net.playblack.pbdbapi.QueryBatch;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inserts and lookups on a SQL backend. Compares executing every insert on its own
+ * with executing a batch of inserts at once, both reported per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class SqlBenchmark {
+
+    /** Rows per batch in the batched benchmark */
+    public static final int BATCH = 100;
+
+    private Database database;
+    private DataAccess template;
+    private int nextId;
+    private int lookup;
+
+    /** @return the backend to benchmark */
+    protected abstract Database database();
+
+    @Setup
+    public void setup() throws DatabaseReadException, DatabaseWriteException {
+        database = database();
+        template = new BenchRow();
+        database.registerTable(template);
+
+        AggregateResult[] max = database.aggregate(database.aggregate().from(template).max("id"));
+        nextId = max.length > 0 && max[0].getValue() != null ? (int) max[0].longValue() + 1 : 0;
+        if (nextId < 1000) {
+            database.bulkLoad(BenchRow.class, new Rows(nextId, 1000 - nextId));
+            nextId = 1000;
+        }
+    }
+
+    @Benchmark
+    public void insertSingle() throws DatabaseWriteException {
+        database.queueQuery(database.insert().from(BenchRow.create(nextId++)));
+        database.executeQueries();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertBatched() throws DatabaseWriteException {
+        QueryBatch batch = database.beginBatch();
+
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(database.insert().from(BenchRow.create(nextId++)));
+        }
+        batch.execute();
+    }
+
+    @Benchmark
+    public DataAccess[] query() throws DatabaseReadException {
+        lookup = (lookup + 7919) % 1000;
+        return database.query(database.select().from(template).where("id", lookup));
+    }
+}
@@ -0,0 +1,75 @@
+package net.playblack.pbdbapi.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.xml.XmlDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single row operations on XML tables of different sizes.
+ * Every operation reads the whole table file, so the table size dominates.
+ * Inserted rows stay in the table, which grows by a few rows per iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class XmlBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private XmlDatabase xml;
+    private DataAccess template;
+    private int nextId;
+    private int lookup;
+
+    @Setup
+    public void setup() throws DatabaseWriteException {
+        xml = XmlDatabase.getInstance();
+        template = new BenchRow();
+        new File("db/" + BenchRow.TABLE + ".xml").delete();
+        xml.bulkLoad(BenchRow.class, new Rows(0, rows));
+        nextId = rows;
+    }
+
+    @Benchmark
+    public DataAccess[] load() throws DatabaseReadException {
+        return xml.load(xml.select().from(template).where("id", nextLookup()));
+    }
+
+    @Benchmark
+    public void update() throws DatabaseWriteException {
+        int id = nextLookup();
+        BenchRow row = BenchRow.create(id);
+
+        row.name = "updated-" + id;
+        xml.update(xml.update().from(row).where("id", id));
+    }
+
+    @Benchmark
+    public void insert() throws DatabaseWriteException {
+        xml.insert(xml.insert().from(BenchRow.create(nextId++)));
+    }
+
+    /** Walks through the table with a stride, so that lookups hit rows all over the file */
+    private int nextLookup() {
+        lookup = (lookup + 7919) % rows;
+        return lookup;
+    }
+}
@@ -0,0 +1,89 @@
+package net.playblack.pbdbapi.tracing.opentelemetry;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import net.playblack.pbdbapi.tracing.QueryTracer;
+import net.playblack.pbdbapi.tracing.TraceSpan;
+import net.playblack.pbdbapi.tracing.Tracing;
+
+/**
+ * Reports the spans of PBDatabaseAPI to OpenTelemetry. Spans are children of the span that is
+ * current when the query is made and are current themselves while they are open,
+ * so waiting for a pooled connection shows up within the query that waited.
+ * <pre>
+ * OpenTelemetryQueryTracer.install(GlobalOpenTelemetry.get());
+ * </pre>
+ * To check the spans in a test, install it with an SDK that exports to an
+ * InMemorySpanExporter from opentelemetry-sdk-testing.
+ */
+public class OpenTelemetryQueryTracer implements QueryTracer {
+
+    /** The instrumentation scope name spans are reported under */
+    public static final String INSTRUMENTATION_NAME = "net.playblack.pbdbapi";
+
+    private final Tracer tracer;
+
+    public OpenTelemetryQueryTracer(OpenTelemetry openTelemetry) {
+        this(openTelemetry.getTracer(INSTRUMENTATION_NAME));
+    }
+
+    public OpenTelemetryQueryTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Creates a tracer and installs it with { @link Tracing#setTracer(QueryTracer) }.
+     *
+     * @param openTelemetry
+     *
+     * @return the installed tracer
+     */
+    public static OpenTelemetryQueryTracer install(OpenTelemetry openTelemetry) {
+        OpenTelemetryQueryTracer tracer = new OpenTelemetryQueryTracer(openTelemetry);
+        Tracing.setTracer(tracer);
+        return tracer;
+    }
+
+    @Override
+    public TraceSpan startSpan(String name, boolean client) {
+        Span span = tracer.spanBuilder(name).setSpanKind(client ? SpanKind.CLIENT : SpanKind.INTERNAL).startSpan();
+        return new OpenTelemetrySpan(span, span.makeCurrent());
+    }
+
+    private static final class OpenTelemetrySpan implements TraceSpan {
+
+        private final Span span;
+        private final Scope scope;
+
+        OpenTelemetrySpan(Span span, Scope scope) {
+            this.span = span;
+            this.scope = scope;
+        }
+
+        @Override
+        public void setAttribute(String key, String value) {
+            span.setAttribute(key, value);
+        }
+
+        @Override
+        public void setAttribute(String key, long value) {
+            span.setAttribute(key, value);
+        }
+
+        @Override
+        public void recordError(Throwable error) {
+            span.recordException(error);
+            span.setStatus(StatusCode.ERROR, String.valueOf(error.getMessage()));
+        }
+
+        @Override
+        public void end() {
+            scope.close();
+            span.end();
+        }
+    }
+}
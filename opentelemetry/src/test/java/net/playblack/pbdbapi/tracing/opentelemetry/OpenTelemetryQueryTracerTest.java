@@ -0,0 +1,123 @@
+package net.playblack.pbdbapi.tracing.opentelemetry;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import java.util.List;
+import junit.framework.TestCase;
+import net.playblack.pbdbapi.queries.Query;
+import net.playblack.pbdbapi.tracing.TraceSpan;
+import net.playblack.pbdbapi.tracing.Tracing;
+
+/**
+ * Tests the spans { @link OpenTelemetryQueryTracer } reports, as the backends start them through { @link Tracing }.
+ */
+public class OpenTelemetryQueryTracerTest extends TestCase {
+
+    private InMemorySpanExporter exporter;
+    private SdkTracerProvider provider;
+    private OpenTelemetrySdk sdk;
+
+    @Override
+    protected void setUp() {
+        exporter = InMemorySpanExporter.create();
+        provider = SdkTracerProvider.builder().addSpanProcessor(SimpleSpanProcessor.create(exporter)).build();
+        sdk = OpenTelemetrySdk.builder().setTracerProvider(provider).build();
+        OpenTelemetryQueryTracer.install(sdk);
+    }
+
+    @Override
+    protected void tearDown() {
+        Tracing.setTracer(null);
+        provider.shutdown();
+    }
+
+    public void testQuerySpan() {
+        TraceSpan span = Tracing.startQuery("mysql", Query.Type.SELECT, "users");
+        span.setAttribute(Tracing.ROWS, 3);
+        span.end();
+
+        SpanData data = single("SELECT users");
+        assertEquals(SpanKind.CLIENT, data.getKind());
+        assertEquals("mysql", data.getAttributes().get(AttributeKey.stringKey(Tracing.DB_SYSTEM)));
+        assertEquals("SELECT", data.getAttributes().get(AttributeKey.stringKey(Tracing.DB_OPERATION)));
+        assertEquals("users", data.getAttributes().get(AttributeKey.stringKey(Tracing.DB_TABLE)));
+        assertEquals(Long.valueOf(3), data.getAttributes().get(AttributeKey.longKey(Tracing.ROWS)));
+        assertEquals(StatusCode.UNSET, data.getStatus().getStatusCode());
+        assertFalse(data.getParentSpanContext().isValid());
+    }
+
+    public void testBorrowSpan() {
+        Tracing.startBorrow("sqlite").end();
+
+        SpanData data = single("pool.borrow");
+        assertEquals(SpanKind.INTERNAL, data.getKind());
+        assertEquals("sqlite", data.getAttributes().get(AttributeKey.stringKey(Tracing.DB_SYSTEM)));
+    }
+
+    public void testErrorStatus() {
+        TraceSpan span = Tracing.startQuery("sqlite", Query.Type.INSERT, "users");
+        span.recordError(new IllegalStateException("disk full"));
+        span.end();
+
+        SpanData data = single("INSERT users");
+        assertEquals(StatusCode.ERROR, data.getStatus().getStatusCode());
+        assertEquals("disk full", data.getStatus().getDescription());
+        assertEquals(1, data.getEvents().size());
+        assertEquals("exception", data.getEvents().get(0).getName());
+    }
+
+    public void testBorrowNestsUnderQuery() {
+        TraceSpan query = Tracing.startQuery("mysql", Query.Type.UPDATE, "users");
+        Tracing.startBorrow("mysql").end();
+        query.end();
+
+        SpanData parent = single("UPDATE users");
+        SpanData borrow = single("pool.borrow");
+        assertEquals(parent.getTraceId(), borrow.getTraceId());
+        assertEquals(parent.getSpanId(), borrow.getParentSpanId());
+    }
+
+    public void testQueryNestsUnderCurrentSpan() {
+        Span request = sdk.getTracer("test").spanBuilder("request").startSpan();
+        Scope scope = request.makeCurrent();
+        try {
+            Tracing.startQuery("xml", Query.Type.DELETE, "users").end();
+        }
+        finally {
+            scope.close();
+            request.end();
+        }
+
+        assertEquals(single("request").getSpanId(), single("DELETE users").getParentSpanId());
+    }
+
+    public void testEndRestoresCurrentSpan() {
+        Tracing.startQuery("mysql", Query.Type.SELECT, "users").end();
+        Tracing.startBorrow("mysql").end();
+
+        assertFalse(single("pool.borrow").getParentSpanContext().isValid());
+        assertFalse(Span.current().getSpanContext().isValid());
+    }
+
+    private SpanData single(String name) {
+        List<SpanData> spans = exporter.getFinishedSpanItems();
+        SpanData found = null;
+
+        for (SpanData span : spans) {
+            if (span.getName().equals(name)) {
+                assertNull("More than one span " + name + " in " + spans, found);
+                found = span;
+            }
+        }
+        assertNotNull("No span " + name + " in " + spans, found);
+        return found;
+    }
+}
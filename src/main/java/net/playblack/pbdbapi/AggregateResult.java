@@ -0,0 +1,73 @@
+package net.playblack.pbdbapi;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single row returned from an { @link net.playblack.pbdbapi.queries.Aggregate } query.
+ * Holds the values of the grouped columns (in the order they were given to groupBy)
+ * and the computed aggregate value.
+ */
+public final class AggregateResult {
+
+    private final List<Object> group;
+    private final Object value;
+
+    public AggregateResult(List<Object> group, Object value) {
+        this.group = Collections.unmodifiableList(group);
+        this.value = value;
+    }
+
+    /**
+     * Gets the values of the grouped columns for this result.
+     *
+     * @return The group values, empty if the query was not grouped.
+     */
+    public List<Object> getGroup() {
+        return group;
+    }
+
+    /**
+     * Gets the value of a grouped column.
+     *
+     * @param index The index of the column in the groupBy list.
+     * @return The group value.
+     */
+    public Object getGroupValue(int index) {
+        return group.get(index);
+    }
+
+    /**
+     * Gets the computed aggregate value. COUNT results are always a Long,
+     * SUM results are a Long for integral columns and a Double otherwise.
+     * MIN and MAX return the value as stored in the column, or null if there were no rows.
+     *
+     * @return The aggregate value.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the aggregate value as a long.
+     *
+     * @return The aggregate value, or 0 if it is null or not numeric.
+     */
+    public long longValue() {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    /**
+     * Gets the aggregate value as a double.
+     *
+     * @return The aggregate value, or 0 if it is null or not numeric.
+     */
+    public double doubleValue() {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0D;
+    }
+
+    @Override
+    public String toString() {
+        return "AggregateResult " + group + " = " + value;
+    }
+}
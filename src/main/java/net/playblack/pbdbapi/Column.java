@@ -15,7 +15,17 @@ import java.lang.annotation.Target;
 @Target(ElementType.FIELD)
 public @interface Column {
     public enum DataType {
-        INTEGER(Integer.class), FLOAT(Float.class), DOUBLE(Double.class), LONG(Long.class), SHORT(Short.class), BYTE(Byte.class), STRING(String.class), BOOLEAN(Boolean.class);
+        INTEGER(Integer.class), FLOAT(Float.class), DOUBLE(Double.class), LONG(Long.class), SHORT(Short.class), BYTE(Byte.class), STRING(String.class), BOOLEAN(Boolean.class),
+        /** A String of at most { @link Column#length() } characters, can be indexed */
+        VARCHAR(String.class),
+        /** A byte array, of at most { @link Column#length() } bytes if a length is set */
+        BINARY(byte[].class),
+        /** A java.util.UUID, stored as 16 bytes */
+        UUID(java.util.UUID.class),
+        /** A java.util.Date, read back as java.sql.Timestamp with millisecond precision */
+        TIMESTAMP(java.util.Date.class),
+        /** A java.math.BigDecimal with { @link Column#precision() } and { @link Column#scale() } */
+        DECIMAL(java.math.BigDecimal.class);
 
         private Class<?> cls;
 
@@ -45,6 +55,15 @@ public @interface Column {
         UNIQUE, PRIMARY, NORMAL;
     }
 
+    /**
+     * How list columns are stored in SQL databases.
+     * TEXT joins the elements with a separator, BINARY packs them into a BLOB.
+     * Switching an existing column from TEXT to BINARY is safe, old rows are read as text until they are written again.
+     */
+    public enum ListEncoding {
+        TEXT, BINARY;
+    }
+
     String columnName();
 
     DataType dataType();
@@ -57,4 +76,26 @@ public @interface Column {
     /** Is this field an implementation of the List interface? */
     boolean isList() default false;
 
+    /**
+     * Maximum length of VARCHAR and BINARY columns.
+     * 0 means the default, 255 characters for VARCHAR and an unbounded blob for BINARY
+     */
+    int length() default 0;
+
+    /** Total number of digits of DECIMAL columns */
+    int precision() default 19;
+
+    /** Number of digits after the decimal point of DECIMAL columns */
+    int scale() default 4;
+
+    /** How is this list stored? Only used if isList is true */
+    ListEncoding listEncoding() default ListEncoding.TEXT;
+
+    /**
+     * Should this list be decoded only when it is used? Only used if isList is true.
+     * Lazy lists are loaded into List fields as { @link net.playblack.pbdbapi.util.LazyList },
+     * fields of other types, like arrays, still get the decoded list.
+     */
+    boolean lazy() default false;
+
 }
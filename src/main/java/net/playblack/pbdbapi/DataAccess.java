@@ -1,16 +1,22 @@
 package net.playblack.pbdbapi;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import net.playblack.pbdbapi.exceptions.DatabaseAccessException;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
 import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
 import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.queries.Select;
+import net.playblack.pbdbapi.util.ListColumns;
 
 public abstract class DataAccess {
 
@@ -18,6 +24,9 @@ public abstract class DataAccess {
     private boolean isInconsistent = false;
     private boolean isLoaded = false;
     private boolean hasData = false;
+    private boolean isPartial = false;
+    /** The database a partial DataAccess was loaded from */
+    private Database partialOf;
 
     /**
      * Construct a new DataAccess object that represents a table
@@ -68,6 +77,163 @@ public abstract class DataAccess {
         isLoaded = true;
     }
 
+    /**
+     * Load the columns of a lazy { @link net.playblack.pbdbapi.queries.Select } into this DataAccess.
+     * Only the fields of the given columns are set, the DataAccess is partial until { @link #fetch() } is called.
+     *
+     * @param dataSet
+     *         the data of some columns
+     * @param database
+     *         the database the row was read from, { @link #fetch() } reads the other columns from it
+     *
+     * @throws DatabaseAccessException
+     */
+    public final void loadPartial(HashMap<String, Object> dataSet, Database database) throws DatabaseAccessException {
+        Field[] fields = this.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]);
+
+        try {
+            for (Field field : fields) {
+                Column col = field == null ? null : field.getAnnotation(Column.class);
+
+                if (col == null || !dataSet.containsKey(col.columnName())) {
+                    continue;
+                }
+                if (col.isList()) {
+                    field.set(this, ListColumns.toFieldValue(field.getType(), dataSet.get(col.columnName())));
+                }
+                else {
+                    field.set(this, dataSet.get(col.columnName()));
+                }
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
+        catch (IllegalArgumentException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
+        isPartial = true;
+        partialOf = database;
+        hasData = dataSet.size() > 0;
+        isLoaded = true;
+    }
+
+    /**
+     * Loads the columns of a partial DataAccess that were left out, by its primary key.
+     * Java cannot tell when a field is read, so this has to be called before fields other
+     * than the primary key are used. Does nothing if this DataAccess is not partial.
+     * <p/>
+     * The columns are read from the database the row was loaded from, outside of any transaction.
+     *
+     * @throws DatabaseReadException
+     *         if the row could not be read or does not exist anymore
+     */
+    public final void fetch() throws DatabaseReadException {
+        if (!isPartial) {
+            return;
+        }
+        try {
+            Column key = this.getPrimaryKey();
+            Database database = partialOf != null ? partialOf : Database.get();
+            Select select = database.select().from(this).where(key.columnName(), this.getColumnValues().get(key)).limit(1);
+            DataAccess[] found = database.query(select);
+
+            if (found.length == 0) {
+                throw new DatabaseReadException("Cannot fetch " + getClass().getSimpleName() + ", the row does not exist anymore");
+            }
+            HashMap<String, Object> dataSet = new HashMap<String, Object>();
+            for (Map.Entry<Column, Object> entry : found[0].getColumnValues().entrySet()) {
+                dataSet.put(entry.getKey().columnName(), entry.getValue());
+            }
+            this.applyDataSet(dataSet);
+            isPartial = false;
+            partialOf = null;
+            hasData = true;
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseReadException("Cannot fetch " + getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+        catch (DatabaseAccessException e) {
+            throw new DatabaseReadException("Cannot fetch " + getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseReadException("Cannot fetch " + getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Creates a copy of this DataAccess that shares no mutable column values with it,
+     * so one query result can be handed to several callers.
+     *
+     * @return the copy
+     *
+     * @throws DatabaseAccessException
+     */
+    final DataAccess copy() throws DatabaseAccessException {
+        Field[] fields = this.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]);
+
+        try {
+            DataAccess copy = getClass().newInstance();
+
+            for (Field field : fields) {
+                Column col = field == null ? null : field.getAnnotation(Column.class);
+
+                if (col == null) {
+                    continue;
+                }
+                Object value = field.get(this);
+
+                if (col.isList()) {
+                    value = ListColumns.copy(field.getType(), value);
+                }
+                else if (value instanceof byte[]) {
+                    value = ((byte[]) value).clone();
+                }
+                else if (value instanceof Date) {
+                    value = ((Date) value).clone();
+                }
+                field.set(copy, value);
+            }
+            copy.isInconsistent = isInconsistent;
+            copy.isLoaded = isLoaded;
+            copy.hasData = hasData;
+            copy.isPartial = isPartial;
+            copy.partialOf = partialOf;
+            return copy;
+        }
+        catch (InstantiationException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
+    }
+
+    /**
+     * Checks if only some columns were loaded, see { @link #loadPartial(HashMap) }.
+     *
+     * @return true if partial
+     */
+    public final boolean isPartial() {
+        return isPartial;
+    }
+
+    /**
+     * Gets the primary key column of the table.
+     *
+     * @return the column of { @link Column.ColumnType#PRIMARY }, or null if there is none
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    public final Column getPrimaryKey() throws DatabaseTableInconsistencyException {
+        for (Column column : this.getTableLayout()) {
+            if (column.columnType() == Column.ColumnType.PRIMARY) {
+                return column;
+            }
+        }
+        return null;
+    }
+
     /**
      * Creates a HashMap containing all relevant fields for the database, which will then
      * be saved into the database along with their values
@@ -75,9 +241,16 @@ public abstract class DataAccess {
      * @return HashMap that maps the Column meta data to the data present in database.
      *
      * @throws DatabaseTableInconsistencyException
-     *
+     *         also if this DataAccess is partial, as writing it would overwrite the columns that were not loaded
      */
     public final HashMap<Column, Object> toDatabaseEntryList() throws DatabaseTableInconsistencyException {
+        if (isPartial) {
+            throw new DatabaseTableInconsistencyException(getClass().getSimpleName() + " is partially loaded, fetch() it first");
+        }
+        return this.getColumnValues();
+    }
+
+    private HashMap<Column, Object> getColumnValues() throws DatabaseTableInconsistencyException {
         List<Field> fields = Arrays.asList(this.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]));
         HashMap<Column, Object> fieldMap = new HashMap<Column, Object>();
 
@@ -121,7 +294,12 @@ public abstract class DataAccess {
                 isInconsistent = true;
                 throw new DatabaseAccessException("Cannot apply data to " + getClass().getSimpleName() + ". Column name mismatches! (" + col.columnName() + " does not exist) - " + dataSet.keySet().toString());
             }
-            field.set(this, dataSet.get(col.columnName()));
+            if (col.isList()) {
+                field.set(this, ListColumns.toFieldValue(field.getType(), dataSet.get(col.columnName())));
+            }
+            else {
+                field.set(this, dataSet.get(col.columnName()));
+            }
             columnFields++;
         }
         // If the columnFields is not the size of the dataSet,
@@ -165,6 +343,63 @@ public abstract class DataAccess {
         return layout;
     }
 
+    /**
+     * Gets the indexes of the table, as declared by { @link Index } and { @link Indexes } annotations
+     * and by columns of { @link Column.ColumnType#UNIQUE }.
+     *
+     * @return the indexes, by name
+     *
+     * @throws DatabaseTableInconsistencyException
+     *         if an index refers to a column that does not exist, or two indexes have the same name
+     */
+    public final Map<String, IndexDefinition> getIndexes() throws DatabaseTableInconsistencyException {
+        Field[] fields = this.safeArrayMerge(getClass().getFields(), getClass().getDeclaredFields(), new Field[1]);
+        List<IndexDefinition> declared = new ArrayList<IndexDefinition>();
+        HashSet<String> columns = new HashSet<String>();
+        Indexes indexes = getClass().getAnnotation(Indexes.class);
+        Index index = getClass().getAnnotation(Index.class);
+
+        if (indexes != null) {
+            for (Index i : indexes.value()) {
+                declared.add(new IndexDefinition(i.name(), Arrays.asList(i.columns()), i.unique()));
+            }
+        }
+        if (index != null) {
+            declared.add(new IndexDefinition(index.name(), Arrays.asList(index.columns()), index.unique()));
+        }
+        for (Field field : fields) {
+            Column col = field == null ? null : field.getAnnotation(Column.class);
+
+            if (col == null) {
+                continue;
+            }
+            columns.add(col.columnName());
+            index = field.getAnnotation(Index.class);
+            if (index != null) {
+                List<String> indexed = index.columns().length > 0 ? Arrays.asList(index.columns()) : Collections.singletonList(col.columnName());
+                declared.add(new IndexDefinition(index.name(), indexed, index.unique()));
+            }
+            if (col.columnType() == Column.ColumnType.UNIQUE) {
+                declared.add(new IndexDefinition(null, true, col.columnName()));
+            }
+        }
+        LinkedHashMap<String, IndexDefinition> toRet = new LinkedHashMap<String, IndexDefinition>();
+
+        for (IndexDefinition definition : declared) {
+            if (definition.getColumns().isEmpty()) {
+                throw new DatabaseTableInconsistencyException("Index on " + getClass().getSimpleName() + " has no columns");
+            }
+            if (!columns.containsAll(definition.getColumns())) {
+                throw new DatabaseTableInconsistencyException("Index " + definition.getName() + " refers to a column that does not exist in " + getClass().getSimpleName());
+            }
+            IndexDefinition existing = toRet.put(definition.getName(), definition);
+            if (existing != null && !existing.equals(definition)) {
+                throw new DatabaseTableInconsistencyException("Found duplicate index name: " + definition.getName());
+            }
+        }
+        return toRet;
+    }
+
     /**
      * This shall return the name of the Table this DataAccess belongs to
      *
@@ -229,10 +464,13 @@ public abstract class DataAccess {
         }
     }
 
-    /** Makes sure the database file for this DataAccess exists before anything starts to use it */
+    /**
+     * Makes sure the database file for this DataAccess exists before anything starts to use it.
+     * The schema is only verified for the first instance of a table, see { @link Database#registerTable(DataAccess) }
+     */
     private void createTable() {
         try {
-            Database.get().updateSchema(Database.get().updateSchema().from(this));
+            Database.get().registerTable(this);
         }
         catch (DatabaseWriteException e) {
             PBDatabaseAPI.logger().log(Level.WARNING, e.getMessage(), e);
@@ -250,7 +488,7 @@ public abstract class DataAccess {
         StringBuilder sb = new StringBuilder();
         Map<Column, Object> columns = null;
         try {
-            columns = this.toDatabaseEntryList();
+            columns = this.getColumnValues();
         }
         catch (DatabaseTableInconsistencyException dtie) {
 
@@ -0,0 +1,71 @@
+package net.playblack.pbdbapi;
+
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+
+/**
+ * A forward-only cursor over the rows of a table.
+ * Rows are read from the backend one at a time as the cursor advances,
+ * so only the current row is held in memory.
+ * Cursors hold on to backend resources and must be closed after use.
+ */
+public abstract class DataAccessCursor {
+
+    private DataAccess current = null;
+
+    /**
+     * Advances the cursor to the next row.
+     *
+     * @return true if there is another row, false at the end of the table
+     *
+     * @throws DatabaseReadException
+     *         when something went wrong while reading the row
+     */
+    public final boolean next() throws DatabaseReadException {
+        current = this.read();
+        return current != null;
+    }
+
+    /**
+     * Gets the row the cursor currently points at.
+     *
+     * @return the current row, or null before the first call to next() and after the last row
+     */
+    public final DataAccess get() {
+        return current;
+    }
+
+    /**
+     * Reads the next row from the backend.
+     *
+     * @return the next row, or null if there are no more rows
+     *
+     * @throws DatabaseReadException
+     */
+    protected abstract DataAccess read() throws DatabaseReadException;
+
+    /** Releases all backend resources held by this cursor */
+    public abstract void close();
+
+    /**
+     * Creates a cursor over the given rows, for backends that can only read whole results.
+     *
+     * @param rows
+     *         the rows to iterate
+     *
+     * @return cursor
+     */
+    public static DataAccessCursor of(final DataAccess[] rows) {
+        return new DataAccessCursor() {
+            private int index = 0;
+
+            @Override
+            protected DataAccess read() {
+                return index < rows.length ? rows[index++] : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
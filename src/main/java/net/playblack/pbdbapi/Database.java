@@ -1,16 +1,31 @@
 package net.playblack.pbdbapi;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import net.playblack.pbdbapi.exceptions.DatabaseException;
 import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
 import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.metrics.Metrics;
 import net.playblack.pbdbapi.mysql.MySQLDatabase;
+import net.playblack.pbdbapi.mysql.ShardedMySQLDatabase;
+import net.playblack.pbdbapi.queries.Aggregate;
 import net.playblack.pbdbapi.queries.Delete;
 import net.playblack.pbdbapi.queries.Insert;
 import net.playblack.pbdbapi.queries.Query;
+import net.playblack.pbdbapi.queries.QueryEntry;
 import net.playblack.pbdbapi.queries.Select;
 import net.playblack.pbdbapi.queries.Update;
 import net.playblack.pbdbapi.queries.UpdateSchema;
@@ -30,32 +45,133 @@ public abstract class Database {
      * @author chris
      */
     public static class Type {
-        private static HashMap<String, Database> registeredDatabases = new HashMap<String, Database>();
+        private static ConcurrentHashMap<String, Database> registeredDatabases = new ConcurrentHashMap<String, Database>();
+        /** Databases that are not created yet, see { @link DatabaseProvider } */
+        private static HashMap<String, DatabaseProvider> registeredProviders = new HashMap<String, DatabaseProvider>();
 
-        public static void registerDatabase(String name, Database db) throws DatabaseException {
-            if (registeredDatabases.containsKey(name)) {
+        public static synchronized void registerDatabase(String name, Database db) throws DatabaseException {
+            if (registeredDatabases.containsKey(name) || registeredProviders.containsKey(name)) {
                 throw new DatabaseException(name + " cannot be registered. Type already exists");
             }
             registeredDatabases.put(name, db);
         }
 
+        /**
+         * Registers a database that is only created when it is first used.
+         *
+         * @param provider
+         *         the provider of the database
+         *
+         * @throws DatabaseException
+         *         if a database of the same name is registered already
+         */
+        public static synchronized void registerProvider(DatabaseProvider provider) throws DatabaseException {
+            String name = provider.getName();
+
+            if (registeredDatabases.containsKey(name) || registeredProviders.containsKey(name)) {
+                throw new DatabaseException(name + " cannot be registered. Type already exists");
+            }
+            registeredProviders.put(name, provider);
+        }
+
+        /**
+         * Gets a database by name, creating it if it was registered with a { @link DatabaseProvider }.
+         *
+         * @param name
+         *
+         * @return the database, or null if there is none of that name or it could not be created
+         */
         public static Database getDatabaseFromType(String name) {
-            return registeredDatabases.get(name);
+            Database db = registeredDatabases.get(name);
+
+            return db != null ? db : createDatabase(name);
         }
 
-        static {
+        private static synchronized Database createDatabase(String name) {
+            Database db = registeredDatabases.get(name);
+            DatabaseProvider provider = registeredProviders.get(name);
+
+            if (db != null || provider == null) {
+                return db;
+            }
             try {
-                Database.Type.registerDatabase("xml", XmlDatabase.getInstance());
-                Database.Type.registerDatabase("mysql", MySQLDatabase.getInstance());
-                Database.Type.registerDatabase("sqlite", SQLiteDatabase.getInstance());
+                db = provider.getDatabase();
             }
             catch (DatabaseException e) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "Could not create database " + name, e);
+            }
+            catch (RuntimeException e) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "Could not create database " + name, e);
+            }
+            if (db != null) {
+                registeredProviders.remove(name);
+                registeredDatabases.put(name, db);
+            }
+            return db;
+        }
+
+        static {
+            for (String name : new String[]{ "xml", "mysql", "sqlite", "mysql-sharded" }) {
+                registeredProviders.put(name, new BuiltInProvider(name));
             }
+            Iterator<DatabaseProvider> providers = ServiceLoader.load(DatabaseProvider.class, Type.class.getClassLoader()).iterator();
+
+            while (true) {
+                try {
+                    if (!providers.hasNext()) {
+                        break;
+                    }
+                    registerProvider(providers.next());
+                }
+                catch (ServiceConfigurationError e) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, "Could not load a database provider", e);
+                }
+                catch (DatabaseException e) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, "Could not add database", e);
+                }
+            }
+        }
+    }
+
+    /** The databases that come with PBDatabaseAPI */
+    private static final class BuiltInProvider implements DatabaseProvider {
+
+        private final String name;
+
+        BuiltInProvider(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Database getDatabase() {
+            if (name.equals("mysql")) {
+                return MySQLDatabase.getInstance();
+            }
+            if (name.equals("sqlite")) {
+                return SQLiteDatabase.getInstance();
+            }
+            if (name.equals("mysql-sharded")) {
+                return ShardedMySQLDatabase.getInstance();
+            }
+            return XmlDatabase.getInstance();
         }
     }
 
-    protected static LinkedList<Query> queue = new LinkedList<Query>();
-    protected static final Object lock = new Object();
+    /** Queries queued with { @link #queueQuery(Query...) }, each is taken out by exactly one flush */
+    private final LinkedBlockingDeque<Query> queue = new LinkedBlockingDeque<Query>();
+    /** The size of the queue, kept apart so recording it does not take the lock of the queue */
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    /** The transaction running on each thread, see { @link #transaction(TransactionWork) } */
+    private final ThreadLocal<Transaction> transactions = new ThreadLocal<Transaction>();
+    /** Table name to the registration of its schema, see { @link #registerTable(DataAccess) } */
+    private final ConcurrentHashMap<String, Registration> registeredTables = new ConcurrentHashMap<String, Registration>();
+    /** Identical selects running at the same time, see { @link #query(Select) } */
+    private final QueryCoalescer coalescer = new QueryCoalescer(this);
 
     public static Database get() {
         Database ret = Database.Type.getDatabaseFromType(PBDatabaseAPI.get().getDatabaseConfig().getDatasourceType());
@@ -108,10 +224,19 @@ public abstract class Database {
         return (UpdateSchema) Query.Type.UPDATE_SCHEMA.newQuery();
     }
 
+    /**
+     * Creates a new Aggregate Query.
+     * @return A new Query Instance.
+     */
+    public Aggregate aggregate() {
+        return (Aggregate) Query.Type.AGGREGATE.newQuery();
+    }
 
 
     /**
      * Executes a Read query from the database assortment of { @link Query } objects.
+     * Identical selects that run at the same time share one execution, each caller gets its own copies of the rows.
+     * Set query-coalescing to false to give every select its own execution.
      *
      * @param query
      *         the queries to execute.
@@ -119,29 +244,505 @@ public abstract class Database {
      * @throws DatabaseReadException
      *         when something went wrong during the write operation
      */
-    public abstract DataAccess[] query(Select query) throws DatabaseReadException;
+    public DataAccess[] query(Select query) throws DatabaseReadException {
+        if (!PBDatabaseAPI.get().getDatabaseConfig().isQueryCoalescing() || this.isRecentWriter()) {
+            return this.executeSelect(query);
+        }
+        return coalescer.query(query);
+    }
+
+    /**
+     * Checks if the selects of the current thread have to see its own recent writes, which other
+     * threads' selects may not, ie: because those read from a lagging replica.
+     * Such selects never share the execution of another thread.
+     *
+     * @return true if the current thread wrote recently and reads from somewhere else than other threads
+     */
+    protected boolean isRecentWriter() {
+        return false;
+    }
+
+    /**
+     * Executes a { @link Select } on the backend, see { @link #query(Select) }.
+     *
+     * @param query
+     *         the select to execute.
+     *
+     * @return the rows found
+     *
+     * @throws DatabaseReadException
+     *         when something went wrong during the read operation
+     */
+    protected abstract DataAccess[] executeSelect(Select query) throws DatabaseReadException;
+
+    /**
+     * Gets how many selects were answered by an identical select of another thread.
+     *
+     * @return the number of coalesced selects
+     */
+    public long getCoalescedQueryCount() {
+        return coalescer.getCoalescedCount();
+    }
+
+    /**
+     * Executes an { @link Aggregate } query. The aggregate is computed by the
+     * backend, no { @link DataAccess } objects are created.
+     *
+     * @param query
+     *         the aggregate query to execute.
+     *
+     * @return one result per group, or a single result if the query is not grouped
+     *
+     * @throws DatabaseReadException
+     *         when something went wrong during the read operation
+     */
+    public abstract AggregateResult[] aggregate(Aggregate query) throws DatabaseReadException;
+
+    /**
+     * Counts the rows matching the given { @link Select }. The limit of the Select is ignored.
+     *
+     * @param query
+     *         the select to count the rows for.
+     *
+     * @return number of matching rows
+     *
+     * @throws DatabaseReadException
+     *         when something went wrong during the read operation
+     */
+    public long count(Select query) throws DatabaseReadException {
+        Aggregate aggregate = this.aggregate().from(query.from()).count();
+
+        for (QueryEntry entry : query.getWheres()) {
+            aggregate.where(entry.getColumnName(), entry.getColumnValue());
+        }
+        AggregateResult[] result = this.aggregate(aggregate);
+        return result.length > 0 ? result[0].longValue() : 0L;
+    }
+
+    /**
+     * Opens a cursor over all rows of the given table. Backends stream the rows
+     * so that only the current row is held in memory.
+     * The default implementation reads the whole table at once.
+     *
+     * @param table
+     *         the DataAccess class of the table to read
+     *
+     * @return an open cursor, which must be closed by the caller
+     *
+     * @throws DatabaseReadException
+     *         when something went wrong during the read operation
+     */
+    public DataAccessCursor stream(Class<? extends DataAccess> table) throws DatabaseReadException {
+        Select select = this.select().from(newTemplate(table)).limit(Integer.MAX_VALUE);
+        return DataAccessCursor.of(this.query(select));
+    }
+
+    /**
+     * Inserts all given rows into the table of the given DataAccess class.
+     * Unlike queued { @link Insert } queries, rows are not checked for existing entries
+     * and are written in large batches. Backends override this with their fastest
+     * loading path, the default implementation executes a batch of inserts.
+     *
+     * @param table
+     *         the DataAccess class of the table to load into
+     * @param rows
+     *         the rows to insert
+     *
+     * @return number of rows inserted
+     *
+     * @throws DatabaseWriteException
+     *         when something went wrong during the write operation
+     */
+    public int bulkLoad(Class<? extends DataAccess> table, Iterator<? extends DataAccess> rows) throws DatabaseWriteException {
+        QueryBatch batch = this.beginBatch();
+
+        while (rows.hasNext()) {
+            batch.add(this.insert().from(rows.next()));
+        }
+        batch.execute();
+        return batch.size();
+    }
+
+    /**
+     * Streams all rows of the given table into a tab separated file.
+     *
+     * @param table
+     *         the DataAccess class of the table to export
+     * @param file
+     *         the file to write to
+     *
+     * @return number of rows exported
+     *
+     * @throws DatabaseReadException
+     *         when something went wrong while reading or writing the rows
+     * @see TableExportWriter
+     */
+    public long bulkExport(Class<? extends DataAccess> table, File file) throws DatabaseReadException {
+        DataAccessCursor cursor = this.stream(table);
+        TableExportWriter writer = null;
+        long count = 0;
+
+        try {
+            writer = new TableExportWriter(file, newTemplate(table));
+            while (cursor.next()) {
+                writer.write(cursor.get());
+                count++;
+            }
+            writer.close();
+        }
+        catch (IOException e) {
+            throw new DatabaseReadException("Error exporting " + table.getSimpleName() + " to " + file.getPath(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseReadException("Error exporting " + table.getSimpleName() + " to " + file.getPath(), e);
+        }
+        finally {
+            cursor.close();
+        }
+        return count;
+    }
+
+    /**
+     * Creates an empty instance of the given DataAccess class,
+     * used to look up table name and layout.
+     *
+     * @param table
+     *         the DataAccess class
+     *
+     * @return a new instance
+     *
+     * @throws DatabaseReadException
+     *         when the class cannot be instantiated
+     */
+    protected static DataAccess newTemplate(Class<? extends DataAccess> table) throws DatabaseReadException {
+        try {
+            return table.newInstance();
+        }
+        catch (InstantiationException e) {
+            throw new DatabaseReadException("Could not create instance of " + table.getName(), e);
+        }
+        catch (IllegalAccessException e) {
+            throw new DatabaseReadException("Could not create instance of " + table.getName(), e);
+        }
+    }
+
+    /**
+     * Opens the connections of the backend ahead of the first query, see { @link DatabaseBootstrap }.
+     * Backends without connections do nothing.
+     */
+    public void openConnections() {
+    }
+
+    /**
+     * Makes sure the table of the given DataAccess exists and matches its layout.
+     * The schema is only verified the first time a table is registered, later calls return right away.
+     * Threads registering a table that is being verified by another thread wait for it to finish.
+     * If the verification fails, the next registration tries again.
+     *
+     * @param data
+     *         the DataAccess of the table
+     *
+     * @throws DatabaseWriteException
+     *         when the schema could not be updated
+     */
+    public void registerTable(DataAccess data) throws DatabaseWriteException {
+        Registration registration = registeredTables.get(data.getName());
+
+        if (registration == null) {
+            Registration mine = new Registration();
+            registration = registeredTables.putIfAbsent(data.getName(), mine);
+            if (registration == null) {
+                try {
+                    this.updateSchema(this.updateSchema().from(data));
+                    mine.done = true;
+                }
+                finally {
+                    if (!mine.done) {
+                        registeredTables.remove(data.getName(), mine);
+                    }
+                    mine.latch.countDown();
+                }
+                return;
+            }
+        }
+        if (registration.owner == Thread.currentThread()) {
+            // The schema update itself created an instance of the table
+            return;
+        }
+        if (!this.canWaitForSchema()) {
+            // The owner's update may be queued behind this thread, verify the schema here instead
+            this.updateSchema(this.updateSchema().from(data));
+            return;
+        }
+        try {
+            registration.latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseWriteException("Interrupted while waiting for the schema of " + data.getName(), e);
+        }
+        if (!registration.done) {
+            this.registerTable(data);
+        }
+    }
+
+    /**
+     * Checks if the current thread may wait for the schema verification of another thread,
+     * see { @link #registerTable(DataAccess) }. Backends that run schema updates on a thread of their own
+     * return false on that thread, it verifies the schema itself instead of waiting for an update that waits for it.
+     *
+     * @return true if the current thread may wait
+     */
+    protected boolean canWaitForSchema() {
+        return true;
+    }
+
+    /**
+     * Makes sure the table of the given DataAccess class exists and matches its layout.
+     *
+     * @param table
+     *         the DataAccess class
+     *
+     * @throws DatabaseWriteException
+     *         when the class cannot be instantiated or the schema could not be updated
+     * @see #registerTable(DataAccess)
+     */
+    public void registerTable(Class<? extends DataAccess> table) throws DatabaseWriteException {
+        try {
+            this.registerTable(newTemplate(table));
+        }
+        catch (DatabaseReadException e) {
+            throw new DatabaseWriteException(e.getMessage(), e);
+        }
+    }
 
     /**
      * Queues a write query to be executed during a data dump.
+     * The queue is shared by all threads, use { @link #beginBatch() } to keep queries apart.
      *
      * @param query
      *         the queries to queue.
      */
     public void queueQuery(Query... query) {
-        synchronized (lock) {
-            if (query != null) {
-                queue.addAll(Arrays.asList(query));
+        if (query != null) {
+            queue.addAll(Arrays.asList(query));
+            Metrics.get().recordQueueDepth(Math.max(0, queueDepth.addAndGet(query.length)));
+        }
+    }
+
+    /**
+     * Starts a batch of write queries. The queries are only executed by { @link QueryBatch#execute() }
+     * and never by { @link #executeQueries() }.
+     *
+     * @return a new, empty batch
+     */
+    public QueryBatch beginBatch() {
+        return new QueryBatch(this);
+    }
+
+    /**
+     * Executes all the queued Write Queries. The queue is drained first, so every query is executed once,
+     * even if other threads flush at the same time. Queries queued while this runs are left for the next flush.
+     * <p/>
+     * If the queries fail on a deadlock or lock wait timeout they are put back at the head of the queue,
+     * in their order, and the next flush tries them again. On any other failure they are executed one by one,
+     * queries that still fail are logged and dropped, so they cannot block the queue for good.
+     *
+     * @throws DatabaseWriteException
+     *         when something went wrong during the write operation, also if queries were dropped
+     */
+    public void executeQueries() throws DatabaseWriteException {
+        List<Query> queries = new ArrayList<Query>();
+        Query query;
+
+        while ((query = queue.poll()) != null) {
+            queries.add(query);
+        }
+        if (queries.isEmpty()) {
+            return;
+        }
+        Metrics.get().recordQueueDepth(Math.max(0, queueDepth.addAndGet(-queries.size())));
+        try {
+            this.executeQueries(queries);
+        }
+        catch (DatabaseWriteException ex) {
+            if (JDBCTransaction.isRetryable(ex)) {
+                this.requeue(queries);
+                throw ex;
             }
+            this.executeEach(queries);
+        }
+        catch (RuntimeException ex) {
+            this.executeEach(queries);
         }
     }
 
     /**
-     * Executes all the queued Write Queries.
+     * Executes queued queries that failed together one by one, to find the ones that cannot succeed.
+     * Those are dropped, the others are committed. Queries from a retryable failure on are queued again.
+     *
+     * @param queries
+     *
+     * @throws DatabaseWriteException
+     *         when queries were dropped or queued again
+     */
+    private void executeEach(List<Query> queries) throws DatabaseWriteException {
+        Exception first = null;
+        int dropped = 0;
+
+        for (int i = 0; i < queries.size(); i++) {
+            Query query = queries.get(i);
+            Exception error;
+
+            try {
+                this.executeQueries(Arrays.asList(query));
+                continue;
+            }
+            catch (DatabaseWriteException ex) {
+                if (JDBCTransaction.isRetryable(ex)) {
+                    this.requeue(queries.subList(i, queries.size()));
+                    throw ex;
+                }
+                error = ex;
+            }
+            catch (RuntimeException ex) {
+                error = ex;
+            }
+            first = first == null ? error : first;
+            dropped++;
+            PBDatabaseAPI.logger().log(Level.SEVERE, "Dropping queued " + query.getType() + " on " + query.from().getName() + ", it cannot be executed", error);
+        }
+        if (dropped > 0) {
+            throw new DatabaseWriteException("Dropped " + dropped + " of " + queries.size() + " queued queries that failed: " + first.getMessage(), first);
+        }
+    }
+
+    /** Puts queries that failed back at the head of the queue, ahead of everything queued since */
+    private void requeue(List<Query> queries) {
+        for (int i = queries.size() - 1; i >= 0; i--) {
+            queue.addFirst(queries.get(i));
+        }
+        Metrics.get().recordQueueDepth(Math.max(0, queueDepth.addAndGet(queries.size())));
+    }
+
+    /**
+     * Executes the given Write Queries in order, in a transaction.
+     * If one fails, none of them are committed.
+     *
+     * @param queries
+     *         the queries to execute, owned by the calling thread
      *
      * @throws DatabaseWriteException
      *         when something went wrong during the write operation
      */
-    public abstract void executeQueries() throws DatabaseWriteException;
+    protected void executeQueries(final List<Query> queries) throws DatabaseWriteException {
+        this.transaction(new TransactionWork<Void>() {
+            @Override
+            public Void run(Transaction transaction) throws DatabaseWriteException {
+                transaction.executeQueries(queries);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Runs work in a transaction with the configured isolation level, see { @link #transaction(Transaction.Isolation, TransactionWork) }.
+     *
+     * @param work
+     *
+     * @return the result of the work
+     *
+     * @throws DatabaseWriteException
+     *         when the work failed or the transaction could not be committed
+     */
+    public <T> T transaction(TransactionWork<T> work) throws DatabaseWriteException {
+        return this.transaction(PBDatabaseAPI.get().getDatabaseConfig().getTransactionIsolation(), work);
+    }
+
+    /**
+     * Runs work in a transaction. The transaction is committed when the work returns
+     * and rolled back when it throws. After a deadlock or lock wait timeout the transaction
+     * is rolled back and the work runs again, up to transaction-retries times with a growing pause.
+     * <p/>
+     * A transaction started while another one runs on the same thread becomes part of it:
+     * its work runs within a savepoint and is rolled back on its own if it fails.
+     *
+     * @param isolation
+     *         the isolation level, ignored for nested transactions
+     * @param work
+     *
+     * @return the result of the work
+     *
+     * @throws DatabaseWriteException
+     *         when the work failed or the transaction could not be committed
+     */
+    public <T> T transaction(Transaction.Isolation isolation, TransactionWork<T> work) throws DatabaseWriteException {
+        Transaction current = transactions.get();
+
+        if (current != null) {
+            return current.nested(work);
+        }
+        try {
+            return this.beginTransaction(isolation, work);
+        }
+        finally {
+            // Selects running from before the commit must not be joined anymore
+            this.recordWrite();
+        }
+    }
+
+    /**
+     * Records that the tables were written to, so identical selects that started before
+     * are not joined anymore, see { @link QueryCoalescer }. Transactions record their writes,
+     * backends call this after writes that bypass them, like bulk loads and schema updates,
+     * also when the write failed part way.
+     */
+    protected final void recordWrite() {
+        coalescer.recordWrite();
+    }
+
+    /**
+     * Gets the transaction running on the current thread.
+     *
+     * @return the transaction, or null
+     */
+    public Transaction getCurrentTransaction() {
+        return transactions.get();
+    }
+
+    /**
+     * Starts a new transaction, runs the work with { @link #runWork(Transaction, TransactionWork) }
+     * and commits or rolls back.
+     *
+     * @param isolation
+     * @param work
+     *
+     * @return the result of the work
+     *
+     * @throws DatabaseWriteException
+     */
+    protected abstract <T> T beginTransaction(Transaction.Isolation isolation, TransactionWork<T> work) throws DatabaseWriteException;
+
+    /**
+     * Runs work as the current transaction of this thread.
+     *
+     * @param transaction
+     * @param work
+     *
+     * @return the result of the work
+     *
+     * @throws DatabaseReadException
+     * @throws DatabaseWriteException
+     */
+    protected final <T> T runWork(Transaction transaction, TransactionWork<T> work) throws DatabaseReadException, DatabaseWriteException {
+        transactions.set(transaction);
+        try {
+            return work.run(transaction);
+        }
+        finally {
+            transactions.remove();
+        }
+    }
 
     /**
      * Updates the database table fields for the given { @link UpdateSchema } object.
@@ -151,4 +752,12 @@ public abstract class Database {
      *         the new schema update.
      */
     public abstract void updateSchema(UpdateSchema... udpateSchema) throws DatabaseWriteException;
+
+    /** Schema verification of a single table, see { @link #registerTable(DataAccess) } */
+    private static final class Registration {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread owner = Thread.currentThread();
+        volatile boolean done = false;
+    }
 }
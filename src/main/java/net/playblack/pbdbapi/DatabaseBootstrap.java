@@ -0,0 +1,295 @@
+package net.playblack.pbdbapi;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Prepares the database at startup: opens the connections of the backend and verifies the schemas
+ * of all known tables, so the first query of each table does not have to.
+ * The connections are opened while the schemas are verified, the schemas are verified by
+ * bootstrap-threads threads at the same time, see { @link Database#registerTable(DataAccess) }.
+ * <p/>
+ * Tables are added with { @link #addTable(Class) } or listed in
+ * <code>META-INF/services/net.playblack.pbdbapi.DataAccess</code> files, one class name per line,
+ * see { @link #discoverTables(ClassLoader) }.
+ */
+public final class DatabaseBootstrap {
+
+    /** The resource listing the DataAccess classes of a jar */
+    public static final String TABLES_RESOURCE = "META-INF/services/" + DataAccess.class.getName();
+
+    private final Database database;
+    private final Set<Class<? extends DataAccess>> tables = new LinkedHashSet<Class<? extends DataAccess>>();
+
+    /** Creates a bootstrap for the configured database */
+    public DatabaseBootstrap() {
+        this(Database.get());
+    }
+
+    /**
+     * Creates a bootstrap for the given database.
+     *
+     * @param database
+     */
+    public DatabaseBootstrap(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Adds a table to verify.
+     *
+     * @param table
+     *         the DataAccess class of the table
+     *
+     * @return this bootstrap for convenience
+     */
+    public DatabaseBootstrap addTable(Class<? extends DataAccess> table) {
+        tables.add(table);
+        return this;
+    }
+
+    /**
+     * Adds the tables listed in the { @link #TABLES_RESOURCE } files of the class loader.
+     * Classes that cannot be found or are not DataAccess classes are logged and skipped.
+     *
+     * @param loader
+     *         the class loader to search
+     *
+     * @return this bootstrap for convenience
+     */
+    public DatabaseBootstrap discoverTables(ClassLoader loader) {
+        Enumeration<URL> resources;
+
+        try {
+            resources = loader.getResources(TABLES_RESOURCE);
+        }
+        catch (IOException e) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Could not look up " + TABLES_RESOURCE, e);
+            return this;
+        }
+        while (resources.hasMoreElements()) {
+            URL resource = resources.nextElement();
+
+            for (String name : readClassNames(resource)) {
+                try {
+                    // Not initialized here, the bootstrap threads create the first instance
+                    tables.add(Class.forName(name, false, loader).asSubclass(DataAccess.class));
+                }
+                catch (ClassNotFoundException e) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, "Table " + name + " listed in " + resource + " does not exist");
+                }
+                catch (ClassCastException e) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, "Table " + name + " listed in " + resource + " is not a DataAccess");
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Gets the tables that will be verified.
+     *
+     * @return the DataAccess classes, in the order they were added
+     */
+    public Set<Class<? extends DataAccess>> getTables() {
+        return Collections.unmodifiableSet(tables);
+    }
+
+    /**
+     * Opens the connections and verifies the schemas of all tables, returns when all of them are done.
+     * Tables that fail are reported, they do not stop the other tables.
+     *
+     * @return the timings of the bootstrap
+     */
+    public Report run() {
+        long start = System.nanoTime();
+        int threads = Math.min(PBDatabaseAPI.get().getDatabaseConfig().getBootstrapThreads(), tables.size() + 1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PBDatabaseAPI bootstrap " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Report report = new Report();
+
+        try {
+            Future<Long> connections = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() {
+                    long connecting = System.nanoTime();
+                    database.openConnections();
+                    return System.nanoTime() - connecting;
+                }
+            });
+            Map<Class<? extends DataAccess>, Future<Long>> verifying = new LinkedHashMap<Class<? extends DataAccess>, Future<Long>>();
+
+            for (final Class<? extends DataAccess> table : tables) {
+                verifying.put(table, executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        long verifyStart = System.nanoTime();
+                        database.registerTable(Database.newTemplate(table));
+                        return System.nanoTime() - verifyStart;
+                    }
+                }));
+            }
+            report.connectionTime = millis(await(connections, "connections", report));
+            for (Map.Entry<Class<? extends DataAccess>, Future<Long>> entry : verifying.entrySet()) {
+                Long time = await(entry.getValue(), entry.getKey().getName(), report);
+                if (time != null) {
+                    report.tableTimes.put(entry.getKey().getName(), millis(time));
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        report.totalTime = millis(System.nanoTime() - start);
+        report.log();
+        return report;
+    }
+
+    /**
+     * Runs the bootstrap on a background thread, see { @link #run() }.
+     *
+     * @return the report, once the bootstrap finished
+     */
+    public Future<Report> start() {
+        FutureTask<Report> task = new FutureTask<Report>(new Callable<Report>() {
+            @Override
+            public Report call() {
+                return run();
+            }
+        });
+        Thread thread = new Thread(task, "PBDatabaseAPI bootstrap");
+
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /** @return the result of the task, or null if it failed */
+    private static Long await(Future<Long> future, String name, Report report) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report.failures.put(name, e);
+        }
+        catch (ExecutionException e) {
+            report.failures.put(name, e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+        return null;
+    }
+
+    private static long millis(Long nanos) {
+        return nanos == null ? -1L : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /** Reads the class names of a { @link #TABLES_RESOURCE } file, without comments and blank lines */
+    private static List<String> readClassNames(URL resource) {
+        List<String> names = new ArrayList<String>();
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(resource.openStream(), "UTF-8"));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                line = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                if (!line.isEmpty()) {
+                    names.add(line);
+                }
+            }
+        }
+        catch (IOException e) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Could not read " + resource, e);
+        }
+        finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException e) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, e.getMessage(), e);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * The timings of a bootstrap. Times are in milliseconds.
+     */
+    public static final class Report {
+
+        private long totalTime;
+        private long connectionTime = -1L;
+        private final Map<String, Long> tableTimes = new LinkedHashMap<String, Long>();
+        private final Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+
+        private Report() {
+        }
+
+        /** @return the time the whole bootstrap took */
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /** @return the time opening the connections took, -1 if it failed */
+        public long getConnectionTime() {
+            return connectionTime;
+        }
+
+        /** @return the time verifying each table took, by DataAccess class name */
+        public Map<String, Long> getTableTimes() {
+            return Collections.unmodifiableMap(tableTimes);
+        }
+
+        /** @return why tables, or the connections, failed, by DataAccess class name or "connections" */
+        public Map<String, Exception> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+
+        /** @return true if nothing failed */
+        public boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+
+        private void log() {
+            PBDatabaseAPI.logger().log(Level.INFO, "Database bootstrap verified " + tableTimes.size() + " tables in " + totalTime + " ms, opening connections took " + connectionTime + " ms");
+            for (Map.Entry<String, Long> entry : tableTimes.entrySet()) {
+                PBDatabaseAPI.logger().log(Level.INFO, "  " + entry.getKey() + ": " + entry.getValue() + " ms");
+            }
+            for (Map.Entry<String, Exception> entry : failures.entrySet()) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "Database bootstrap failed for " + entry.getKey() + ": " + entry.getValue().getMessage(), entry.getValue());
+            }
+        }
+    }
+}
@@ -1,24 +1,56 @@
 package net.playblack.pbdbapi;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.logging.Level;
 
 import net.playblack.pbdbapi.exceptions.DatabaseException;
-import net.visualillusionsent.utils.PropertiesFile;
-import net.visualillusionsent.utils.UtilityException;
 
 /**
  * Checks a database folder in CanaryMods root folder for
  * external Database Implementations and loads them
+ * <p/>
+ * Jars list their databases in a <code>META-INF/services/net.playblack.pbdbapi.DatabaseProvider</code> file,
+ * see { @link DatabaseProvider }. Jars with a Canary.inf naming a main-class with a static getInstance()
+ * method are still supported. Either way a database is only created when it is used.
+ * <p/>
+ * The jars are scanned in parallel. What was found in each jar is kept in an index file in the folder,
+ * jars that did not change since are not opened again.
  *
  * @author chris
  */
 public class DatabaseLoader {
+
+    /** The file in the database folder caching what was found in each jar */
+    private static final String INDEX_FILE = ".index";
+    private static final String PROVIDERS_RESOURCE = "META-INF/services/" + DatabaseProvider.class.getName();
+
     /**
      * Scans database folder, loads all valid databases and registers them
      * at Database.Type. This must be the first bootstrapping step,
@@ -26,57 +58,404 @@ public class DatabaseLoader {
      * This also means this must not make use of anything that isn't loaded already
      */
     public static void load() {
-        File dbFolder = new File("databases/");
+        load(new File("databases/"));
+    }
+
+    /**
+     * Scans the given folder for database jars and registers their databases at Database.Type.
+     * Jars that cannot be loaded are logged and skipped.
+     *
+     * @param dbFolder
+     *         the folder to scan
+     */
+    public static void load(File dbFolder) {
         if (!dbFolder.exists()) {
             dbFolder.mkdirs();
         }
-        for (File file : dbFolder.listFiles()) {
-            if (!file.getName().endsWith(".jar")) {
+        File[] files = dbFolder.listFiles();
+        List<File> jars = new ArrayList<File>();
+
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.getName().endsWith(".jar")) {
+                    jars.add(file);
+                }
+            }
+        }
+        File indexFile = new File(dbFolder, INDEX_FILE);
+        Properties index = readIndex(indexFile);
+        List<JarIndex> scanned = scan(jars, index);
+        Properties updated = new Properties();
+
+        for (int i = 0; i < jars.size(); i++) {
+            JarIndex jar = scanned.get(i);
+
+            if (jar == null) {
                 continue;
             }
-            URLClassLoader loader;
-            try {
-                loader = new URLClassLoader(new URL[] {file.toURI().toURL()}, Thread.currentThread().getContextClassLoader());
+            updated.setProperty(jars.get(i).getName(), jar.toString());
+            if (!jar.isEmpty()) {
+                register(jars.get(i), jar);
             }
-            catch (MalformedURLException ex) {
-                PBDatabaseAPI.logger().log(Level.WARNING, "Exception while loading database jar", ex);
-                return;
+        }
+        if (!updated.equals(index)) {
+            writeIndex(indexFile, updated);
+        }
+    }
+
+    /**
+     * Indexes the jars in parallel.
+     *
+     * @return the index of each jar, null for jars that could not be read
+     */
+    private static List<JarIndex> scan(List<File> jars, final Properties index) {
+        List<JarIndex> scanned = new ArrayList<JarIndex>(jars.size());
+
+        if (jars.isEmpty()) {
+            return scanned;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(jars.size(), Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PBDatabaseAPI database loader");
+                thread.setDaemon(true);
+                return thread;
             }
-            PropertiesFile inf = new PropertiesFile(file.getAbsolutePath(), "Canary.inf");
-            try {
-                String mainclass = inf.getString("main-class");
-                String dbName = inf.getString("database-name");
-                Class<?> dbClass = loader.loadClass(mainclass);
-                Method m = dbClass.getMethod("getInstance", new Class[0]);
-                Database db = (Database) m.invoke(dbClass, new Object[0]);
-                if (db != null) {
-                    Database.Type.registerDatabase(dbName, db);
+        });
+        List<Future<JarIndex>> futures = new ArrayList<Future<JarIndex>>(jars.size());
+
+        try {
+            for (final File jar : jars) {
+                futures.add(executor.submit(new Callable<JarIndex>() {
+                    @Override
+                    public JarIndex call() throws IOException {
+                        return JarIndex.of(jar, JarIndex.parse(index.getProperty(jar.getName())));
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    scanned.add(futures.get(i).get());
                 }
+                catch (ExecutionException e) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, "Could not read database jar " + jars.get(i).getName(), e.getCause());
+                    scanned.add(null);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            PBDatabaseAPI.logger().log(Level.WARNING, "Interrupted while loading database jars", e);
+            while (scanned.size() < jars.size()) {
+                scanned.add(null);
             }
-            catch (UtilityException e) {
-                PBDatabaseAPI.logger().log(Level.WARNING, "Could not find databases mainclass", e);
-                return;
+        }
+        finally {
+            executor.shutdown();
+        }
+        return scanned;
+    }
+
+    /** Registers the providers of a jar, the database classes themselves are not loaded yet */
+    private static void register(File file, JarIndex jar) {
+        URLClassLoader loader;
+
+        try {
+            loader = new URLClassLoader(new URL[] {file.toURI().toURL()}, Thread.currentThread().getContextClassLoader());
+        }
+        catch (MalformedURLException ex) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Exception while loading database jar", ex);
+            return;
+        }
+        for (String name : jar.providers) {
+            try {
+                Database.Type.registerProvider(loader.loadClass(name).asSubclass(DatabaseProvider.class).newInstance());
             }
             catch (ClassNotFoundException e) {
-                PBDatabaseAPI.logger().log(Level.WARNING, "Could not find databases mainclass", e);
+                PBDatabaseAPI.logger().log(Level.WARNING, "Could not find database provider " + name + " in " + file.getName(), e);
+            }
+            catch (ClassCastException e) {
+                PBDatabaseAPI.logger().log(Level.WARNING, name + " in " + file.getName() + " is not a DatabaseProvider", e);
+            }
+            catch (InstantiationException e) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "Could not create database provider " + name, e);
             }
             catch (IllegalAccessException e) {
-                PBDatabaseAPI.logger().log(Level.WARNING, "Could not create database", e);
+                PBDatabaseAPI.logger().log(Level.WARNING, "Could not create database provider " + name, e);
             }
             catch (DatabaseException e) {
                 PBDatabaseAPI.logger().log(Level.WARNING, "Could not add database", e);
             }
-            catch (SecurityException e) {
+        }
+        if (jar.databaseName != null) {
+            try {
+                Database.Type.registerProvider(new InfProvider(jar.databaseName, jar.mainClass, loader));
+            }
+            catch (DatabaseException e) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "Could not add database", e);
+            }
+        }
+    }
+
+    private static Properties readIndex(File file) {
+        Properties index = new Properties();
+
+        if (!file.exists()) {
+            return index;
+        }
+        InputStream in = null;
+
+        try {
+            in = new FileInputStream(file);
+            index.load(in);
+        }
+        catch (IOException e) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Could not read the database jar index, all jars are scanned", e);
+            index.clear();
+        }
+        finally {
+            close(in);
+        }
+        return index;
+    }
+
+    private static void writeIndex(File file, Properties index) {
+        OutputStream out = null;
+
+        try {
+            out = new FileOutputStream(file);
+            index.store(out, "Database jars and what they contain, generated by PBDatabaseAPI");
+        }
+        catch (IOException e) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Could not write the database jar index", e);
+        }
+        finally {
+            close(out);
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException e) {
                 PBDatabaseAPI.logger().log(Level.WARNING, e.getMessage(), e);
             }
+        }
+    }
+
+    /**
+     * What a jar contains, as stored in the index:
+     * modified time, length, SHA-1, Canary.inf database name and main-class, provider class names.
+     */
+    private static final class JarIndex {
+
+        long modified;
+        long length;
+        String sha1;
+        String databaseName;
+        String mainClass;
+        final List<String> providers = new ArrayList<String>();
+
+        /**
+         * Indexes a jar. The jar is only opened if it differs from its cached index.
+         *
+         * @param jar
+         * @param cached
+         *         the index stored for the jar, or null
+         *
+         * @return the index
+         *
+         * @throws IOException
+         */
+        static JarIndex of(File jar, JarIndex cached) throws IOException {
+            if (cached != null && cached.modified == jar.lastModified() && cached.length == jar.length()) {
+                return cached;
+            }
+            String sha1 = sha1(jar);
+
+            if (cached != null && cached.sha1.equals(sha1)) {
+                // Touched, but not changed
+                cached.modified = jar.lastModified();
+                cached.length = jar.length();
+                return cached;
+            }
+            JarIndex index = new JarIndex();
+            JarFile file = new JarFile(jar);
+
+            index.modified = jar.lastModified();
+            index.length = jar.length();
+            index.sha1 = sha1;
+            try {
+                JarEntry services = file.getJarEntry(PROVIDERS_RESOURCE);
+                if (services != null) {
+                    index.providers.addAll(readClassNames(file.getInputStream(services)));
+                }
+                JarEntry inf = file.getJarEntry("Canary.inf");
+                if (inf != null) {
+                    Properties properties = new Properties();
+                    InputStream in = file.getInputStream(inf);
+                    try {
+                        properties.load(in);
+                    }
+                    finally {
+                        in.close();
+                    }
+                    index.databaseName = properties.getProperty("database-name");
+                    index.mainClass = properties.getProperty("main-class");
+                    if (index.databaseName == null || index.mainClass == null) {
+                        PBDatabaseAPI.logger().log(Level.WARNING, "Canary.inf of " + jar.getName() + " needs database-name and main-class");
+                        index.databaseName = null;
+                        index.mainClass = null;
+                    }
+                }
+            }
+            finally {
+                file.close();
+            }
+            return index;
+        }
+
+        /**
+         * Reads an index from the index file.
+         *
+         * @return the index, or null if there is none or it is damaged
+         */
+        static JarIndex parse(String line) {
+            if (line == null) {
+                return null;
+            }
+            String[] parts = line.split(",", -1);
+
+            if (parts.length != 6) {
+                return null;
+            }
+            JarIndex index = new JarIndex();
+            try {
+                index.modified = Long.parseLong(parts[0]);
+                index.length = Long.parseLong(parts[1]);
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+            index.sha1 = parts[2];
+            index.databaseName = parts[3].isEmpty() ? null : parts[3];
+            index.mainClass = parts[4].isEmpty() ? null : parts[4];
+            for (String provider : parts[5].split(" ")) {
+                if (!provider.isEmpty()) {
+                    index.providers.add(provider);
+                }
+            }
+            return index;
+        }
+
+        /** @return true if the jar contains no database */
+        boolean isEmpty() {
+            return providers.isEmpty() && databaseName == null;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append(modified).append(',').append(length).append(',').append(sha1).append(',');
+            sb.append(databaseName == null ? "" : databaseName).append(',').append(mainClass == null ? "" : mainClass).append(',');
+            for (String provider : providers) {
+                sb.append(provider).append(' ');
+            }
+            return sb.toString().trim();
+        }
+
+        private static String sha1(File jar) throws IOException {
+            MessageDigest digest;
+
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-1 is not available", e);
+            }
+            InputStream in = new FileInputStream(jar);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            finally {
+                in.close();
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+
+        /** Reads the class names of a service file, without comments and blank lines */
+        private static List<String> readClassNames(InputStream in) throws IOException {
+            List<String> names = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comment = line.indexOf('#');
+                    line = (comment >= 0 ? line.substring(0, comment) : line).trim();
+                    if (!line.isEmpty()) {
+                        names.add(line);
+                    }
+                }
+            }
+            finally {
+                reader.close();
+            }
+            return names;
+        }
+    }
+
+    /** A database of a jar with a Canary.inf, created with the static getInstance() method of its main-class */
+    private static final class InfProvider implements DatabaseProvider {
+
+        private final String name;
+        private final String mainClass;
+        private final ClassLoader loader;
+
+        InfProvider(String name, String mainClass, ClassLoader loader) {
+            this.name = name;
+            this.mainClass = mainClass;
+            this.loader = loader;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Database getDatabase() throws DatabaseException {
+            try {
+                Class<?> dbClass = loader.loadClass(mainClass);
+                Method m = dbClass.getMethod("getInstance", new Class[0]);
+                return (Database) m.invoke(dbClass, new Object[0]);
+            }
+            catch (ClassNotFoundException e) {
+                throw new DatabaseException("Could not find databases mainclass " + mainClass, e);
+            }
             catch (NoSuchMethodException e) {
-                PBDatabaseAPI.logger().log(Level.WARNING, "Database does not contain a static getInstance() method!", e);
+                throw new DatabaseException("Database " + mainClass + " does not contain a static getInstance() method!", e);
             }
-            catch (IllegalArgumentException e) {
-                PBDatabaseAPI.logger().log(Level.WARNING, e.getMessage(), e);
+            catch (IllegalAccessException e) {
+                throw new DatabaseException("Could not create database " + name, e);
             }
             catch (InvocationTargetException e) {
-                PBDatabaseAPI.logger().log(Level.WARNING, e.getMessage(), e);
+                throw new DatabaseException("Could not create database " + name, e.getCause());
+            }
+            catch (ClassCastException e) {
+                throw new DatabaseException(mainClass + " is not a Database", e);
             }
         }
     }
@@ -0,0 +1,31 @@
+package net.playblack.pbdbapi;
+
+import net.playblack.pbdbapi.exceptions.DatabaseException;
+
+/**
+ * Makes a { @link Database } available under a name, without creating it until it is used.
+ * Providers are registered with { @link Database.Type#registerProvider(DatabaseProvider) }, or found
+ * in <code>META-INF/services/net.playblack.pbdbapi.DatabaseProvider</code> files on the class path
+ * and in the jars of the databases folder, see { @link DatabaseLoader }.
+ * <p/>
+ * Providers found in service files need a public constructor without arguments, which should do no work.
+ */
+public interface DatabaseProvider {
+
+    /**
+     * Gets the name of the database, ie: the data-source in db.cfg that selects it.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Creates the database. Called once, when the database is first used.
+     *
+     * @return the database
+     *
+     * @throws DatabaseException
+     *         when the database cannot be created
+     */
+    Database getDatabase() throws DatabaseException;
+}
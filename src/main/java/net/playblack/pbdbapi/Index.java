@@ -0,0 +1,30 @@
+package net.playblack.pbdbapi;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares an index on a DataAccess table.
+ * On a column field, the index covers that column unless columns are given.
+ * On a DataAccess class, the columns must be given. Use { @link Indexes } to declare more than one index on a class.
+ * <p/>
+ * Indexes are created with the table and kept in sync by schema updates,
+ * indexes that are no longer declared are dropped. Columns with { @link Column.ColumnType#UNIQUE } get a unique index as well.
+ */
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.FIELD })
+public @interface Index {
+
+    /** Name of the index. Generated from the columns if empty, ie: idx_owner_world */
+    String name() default "";
+
+    /** Names of the indexed columns, in index order */
+    String[] columns() default {};
+
+    /** Should the combination of the indexed columns be unique? */
+    boolean unique() default false;
+}
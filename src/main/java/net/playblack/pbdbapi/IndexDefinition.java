@@ -0,0 +1,89 @@
+package net.playblack.pbdbapi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An index of a table, as declared by { @link Index } annotations or found in the database.
+ */
+public final class IndexDefinition {
+
+    /** MySQL limits identifiers to 64 characters */
+    private static final int MAX_NAME_LENGTH = 64;
+
+    private final String name;
+    private final List<String> columns;
+    private final boolean unique;
+
+    /**
+     * Creates an index definition.
+     *
+     * @param name
+     *         the name of the index, generated from the columns if null or empty
+     * @param columns
+     *         the indexed columns, in index order
+     * @param unique
+     *         whether the indexed columns are unique
+     */
+    public IndexDefinition(String name, List<String> columns, boolean unique) {
+        this.columns = Collections.unmodifiableList(columns);
+        this.unique = unique;
+        this.name = name == null || name.isEmpty() ? generateName(columns, unique) : name;
+    }
+
+    public IndexDefinition(String name, boolean unique, String... columns) {
+        this(name, Arrays.asList(columns), unique);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public boolean isUnique() {
+        return unique;
+    }
+
+    /**
+     * Gets a copy of this index with a different name.
+     *
+     * @param name
+     *
+     * @return the renamed index
+     */
+    public IndexDefinition rename(String name) {
+        return new IndexDefinition(name, columns, unique);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IndexDefinition)) {
+            return false;
+        }
+        IndexDefinition other = (IndexDefinition) o;
+        return name.equals(other.name) && columns.equals(other.columns) && unique == other.unique;
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode() * 31 + columns.hashCode() + (unique ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return (unique ? "UNIQUE " : "") + "INDEX " + name + " " + columns;
+    }
+
+    private static String generateName(List<String> columns, boolean unique) {
+        StringBuilder sb = new StringBuilder(unique ? "uq" : "idx");
+
+        for (String column : columns) {
+            sb.append('_').append(column);
+        }
+        return sb.length() > MAX_NAME_LENGTH ? sb.substring(0, MAX_NAME_LENGTH) : sb.toString();
+    }
+}
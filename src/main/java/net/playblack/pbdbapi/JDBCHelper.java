@@ -7,9 +7,20 @@
  */
 package net.playblack.pbdbapi;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.playblack.pbdbapi.queries.Aggregate;
+import net.playblack.pbdbapi.util.BinaryListCodec;
+import net.playblack.pbdbapi.util.LazyList;
+import net.playblack.pbdbapi.util.ListCodec;
+import net.playblack.pbdbapi.util.ListColumns;
+import net.playblack.pbdbapi.util.TextValues;
 
 /**
  *
@@ -17,88 +28,102 @@ import java.util.List;
  */
 public class JDBCHelper {
 
-    private static final String LIST_REGEX = "\u00B6";
-
     /**
      * Get the database entry for a Java List.
      *
      * @param list
      *
      * @return a string representation of the passed list.
+     *
+     * @see ListCodec#encode(List)
      */
     public static String getListString(List<?> list) {
-        StringBuilder sb = new StringBuilder();
-        Iterator<?> it = list.iterator();
-        while (it.hasNext()) {
-            Object o = it.next();
-            sb.append(String.valueOf(o));
-            if (it.hasNext()) {
-                sb.append(LIST_REGEX);
-            }
-        }
-        return sb.toString();
+        return ListCodec.encode(list);
+    }
+
+    /**
+     * Get the database entry for the value of a list column,
+     * which may be a List or an int[], long[], double[] or byte[].
+     *
+     * @param value
+     *
+     * @return a string representation of the passed value, null if the value is null.
+     *
+     * @see ListColumns#asList(Object)
+     */
+    public static String getListString(Object value) {
+        return value == null ? null : ListCodec.encode(ListColumns.asList(value));
     }
 
     /**
      * Gets a Java List representation from the mysql String.
+     * Integer, long and double lists are backed by primitive arrays.
      *
      * @param type
      * @param field
      *
      * @return
+     *
+     * @see ListCodec#decode(Column.DataType, String)
+     */
+    public static List<?> getList(Column.DataType type, String field) {
+        return ListCodec.decode(type, field);
+    }
+
+    /**
+     * Get the database entry for the value of a list column, according to its { @link Column.ListEncoding }.
+     *
+     * @param column
+     * @param value
+     *
+     * @return a String for text encoded columns, a byte array for binary encoded columns, or null
      */
-    public static List<Comparable<?>> getList(Column.DataType type, String field) {
-        List<Comparable<?>> list = new ArrayList<Comparable<?>>();
-        if (field == null) {
-            return list;
+    public static Object getListValue(Column column, Object value) {
+        if (value == null) {
+            return null;
         }
-        switch (type) {
-            case BYTE:
-                for (String s : field.split(LIST_REGEX)) {
-                    list.add(Byte.valueOf(s));
-                }
-                break;
-            case INTEGER:
-                for (String s : field.split(LIST_REGEX)) {
-                    list.add(Integer.valueOf(s));
-                }
-                break;
-            case FLOAT:
-                for (String s : field.split(LIST_REGEX)) {
-                    list.add(Float.valueOf(s));
-                }
-                break;
-            case DOUBLE:
-                for (String s : field.split(LIST_REGEX)) {
-                    list.add(Double.valueOf(s));
-                }
-                break;
-            case LONG:
-                for (String s : field.split(LIST_REGEX)) {
-                    list.add(Long.valueOf(s));
-                }
-                break;
-            case SHORT:
-                for (String s : field.split(LIST_REGEX)) {
-                    list.add(Short.valueOf(s));
-                }
-                break;
-            case STRING:
-                for (String s : field.split(LIST_REGEX)) {
-                    list.add(s);
-                }
-                break;
-            case BOOLEAN:
-                for (String s : field.split(LIST_REGEX)) {
-                    list.add(Boolean.valueOf(s));
-                }
-                break;
+        if (value instanceof LazyList) {
+            // A lazy list that was never used is written as it was read, if it is in the right encoding
+            Object raw = ((LazyList<?>) value).getRaw();
+            boolean binary = column.listEncoding() == Column.ListEncoding.BINARY;
+            if (binary ? raw instanceof byte[] : raw instanceof String) {
+                return raw;
+            }
+        }
+        if (column.listEncoding() == Column.ListEncoding.BINARY) {
+            return BinaryListCodec.encode(column.dataType(), ListColumns.asList(value));
+        }
+        return getListString(value);
+    }
+
+    /**
+     * Reads the value of a list column from a ResultSet.
+     * Binary and text encoded values are both accepted, regardless of the { @link Column.ListEncoding }
+     * of the column, so that columns can be switched between encodings.
+     * Lazy columns are not decoded, see { @link Column#lazy() }.
+     *
+     * @param column
+     * @param rs
+     *
+     * @return the list
+     *
+     * @throws SQLException
+     */
+    public static List<?> getList(Column column, ResultSet rs) throws SQLException {
+        Object raw = rs.getObject(column.columnName());
+
+        if (column.lazy()) {
+            return new LazyList<Object>(column.dataType(), raw instanceof byte[] || raw == null ? raw : raw.toString());
         }
-        return list;
+        if (raw instanceof byte[]) {
+            return BinaryListCodec.decode(column.dataType(), (byte[]) raw);
+        }
+        return getList(column.dataType(), raw == null ? null : raw.toString());
     }
 
     /**
      * Replaces '*' character with '\\*' if the Object is a String.
+     * UUIDs are converted to 16 bytes and Dates to Timestamps.
      *
      * @param o
      *
@@ -108,9 +133,204 @@ public class JDBCHelper {
         if (o instanceof String && ((String) o).contains("*")) {
             ((String) o).replace("*", "\\*");
         }
+        else if (o instanceof UUID) {
+            return TextValues.toBytes((UUID) o);
+        }
+        else if (o instanceof Date && !(o instanceof Timestamp)) {
+            return new Timestamp(((Date) o).getTime());
+        }
         return o;
     }
 
+    /**
+     * Reads the value of a column that is not a list from a ResultSet.
+     *
+     * @param column
+     * @param rs
+     *
+     * @return the value, in the type of the column's DataType
+     *
+     * @throws SQLException
+     */
+    public static Object getValue(Column column, ResultSet rs) throws SQLException {
+        String name = column.columnName();
+
+        switch (column.dataType()) {
+            case VARCHAR:
+                return rs.getString(name);
+            case BINARY:
+                return rs.getBytes(name);
+            case TIMESTAMP:
+                return rs.getTimestamp(name);
+            case DECIMAL:
+                return rs.getBigDecimal(name);
+            case UUID:
+                Object raw = rs.getObject(name);
+                if (raw instanceof byte[]) {
+                    return TextValues.toUUID((byte[]) raw);
+                }
+                // Tables that stored UUIDs as text before
+                return raw == null ? null : UUID.fromString(raw.toString());
+            default:
+                Object value = rs.getObject(name);
+                if (value instanceof Boolean) {
+                    return rs.getBoolean(name);
+                }
+                return value;
+        }
+    }
+
+    /**
+     * Gets the value to bind to a statement for the given column.
+     * Lists are converted into their string or binary representation.
+     *
+     * @param column
+     * @param value
+     *
+     * @return the value to bind
+     */
+    public static Object getDatabaseValue(Column column, Object value) {
+        if (column.isList()) {
+            return getListValue(column, value);
+        }
+        return convert(value);
+    }
+
+    /**
+     * Gets the SQL expression for the function of an aggregate query.
+     *
+     * @param aggregate
+     *
+     * @return the expression, ie: COUNT(*) or SUM(`column`)
+     */
+    public static String getAggregateExpression(Aggregate aggregate) {
+        String column = aggregate.column() == null ? "*" : "`" + aggregate.column() + "`";
+        return aggregate.function().name() + "(" + column + ")";
+    }
+
+    /**
+     * Reads the value of an aggregate function from a ResultSet.
+     * COUNT is always read as Long, SUM as Long, Double or BigDecimal depending on the column type.
+     *
+     * @param rs
+     * @param index
+     * @param function
+     * @param type
+     *         the DataType of the aggregated column, may be null for COUNT
+     *
+     * @return the aggregate value
+     *
+     * @throws SQLException
+     */
+    public static Object getAggregateValue(ResultSet rs, int index, Aggregate.Function function, Column.DataType type) throws SQLException {
+        Object value;
+        switch (function) {
+            case COUNT:
+                return rs.getLong(index);
+            case SUM:
+                if (type == Column.DataType.FLOAT || type == Column.DataType.DOUBLE) {
+                    value = rs.getDouble(index);
+                }
+                else if (type == Column.DataType.DECIMAL) {
+                    value = rs.getBigDecimal(index);
+                }
+                else {
+                    value = rs.getLong(index);
+                }
+                return rs.wasNull() ? null : value;
+            default:
+                value = rs.getObject(index);
+                if (value instanceof Number && type != null) {
+                    return toDataType((Number) value, type);
+                }
+                return value;
+        }
+    }
+
+    /**
+     * Converts a number returned by a driver to the boxed type of the given DataType.
+     *
+     * @param number
+     * @param type
+     *
+     * @return the converted number
+     */
+    public static Object toDataType(Number number, Column.DataType type) {
+        switch (type) {
+            case BYTE:
+                return number.byteValue();
+            case SHORT:
+                return number.shortValue();
+            case INTEGER:
+                return number.intValue();
+            case LONG:
+                return number.longValue();
+            case FLOAT:
+                return number.floatValue();
+            case DOUBLE:
+                return number.doubleValue();
+            default:
+                return number;
+        }
+    }
+
+    /**
+     * Gets the index clause for CREATE TABLE and ALTER TABLE, ie: UNIQUE INDEX `uq_name` (`name`(191)).
+     * TEXT and BLOB columns are indexed by their first 191 characters, MySQL cannot index them in full.
+     *
+     * @param index
+     * @param columns
+     *         the columns of the table by name
+     *
+     * @return the index clause
+     */
+    public static String getIndexSyntax(IndexDefinition index, Map<String, Column> columns) {
+        StringBuilder sb = new StringBuilder(index.isUnique() ? "UNIQUE INDEX `" : "INDEX `");
+
+        sb.append(index.getName()).append("` (");
+        for (int i = 0; i < index.getColumns().size(); i++) {
+            String name = index.getColumns().get(i);
+            Column column = columns.get(name);
+            String type = column == null ? "" : getDataTypeSyntax(column);
+
+            sb.append(i == 0 ? "`" : ", `").append(name).append("`");
+            if (type.endsWith("TEXT") || type.endsWith("BLOB")) {
+                sb.append("(191)");
+            }
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * Gets the SQL type of a column. List columns are stored as TEXT or MEDIUMBLOB, depending on their encoding.
+     *
+     * @param column
+     *
+     * @return the type syntax
+     */
+    public static String getDataTypeSyntax(Column column) {
+        if (column.isList()) {
+            return column.listEncoding() == Column.ListEncoding.BINARY ? "MEDIUMBLOB" : "TEXT";
+        }
+        switch (column.dataType()) {
+            case VARCHAR:
+                return "VARCHAR(" + (column.length() > 0 ? column.length() : 255) + ")";
+            case BINARY:
+                return column.length() > 0 ? "VARBINARY(" + column.length() + ")" : "MEDIUMBLOB";
+            case DECIMAL:
+                return "DECIMAL(" + column.precision() + "," + column.scale() + ")";
+            default:
+                return getDataTypeSyntax(column.dataType());
+        }
+    }
+
+    /**
+     * Gets the SQL type of a single value of the given data type.
+     *
+     * @param type
+     *
+     * @return the type syntax
+     */
     public static String getDataTypeSyntax(Column.DataType type) {
         switch (type) {
             case BYTE:
@@ -118,7 +338,7 @@ public class JDBCHelper {
             case INTEGER:
                 return "INT";
             case FLOAT:
-                return "DOUBLE";
+                return "FLOAT";
             case DOUBLE:
                 return "DOUBLE";
             case LONG:
@@ -129,6 +349,16 @@ public class JDBCHelper {
                 return "TEXT";
             case BOOLEAN:
                 return "BOOLEAN";
+            case VARCHAR:
+                return "VARCHAR(255)";
+            case BINARY:
+                return "MEDIUMBLOB";
+            case UUID:
+                return "BINARY(16)";
+            case TIMESTAMP:
+                return "DATETIME(3)";
+            case DECIMAL:
+                return "DECIMAL(19,4)";
         }
         return "";
     }
@@ -0,0 +1,272 @@
+package net.playblack.pbdbapi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.queries.Aggregate;
+import net.playblack.pbdbapi.queries.Query;
+import net.playblack.pbdbapi.queries.Select;
+
+/**
+ * A transaction on a JDBC connection, used by the MySQL and SQLite backends.
+ * Savepoints are set with SAVEPOINT, ROLLBACK TO SAVEPOINT and RELEASE SAVEPOINT, which both understand.
+ */
+public final class JDBCTransaction extends Transaction {
+
+    /** What a JDBC backend does on the connection of a transaction */
+    public interface Backend {
+
+        /**
+         * Executes write queries on the given connection, without committing.
+         *
+         * @param queries
+         * @param conn
+         *
+         * @throws DatabaseWriteException
+         */
+        void executeQueries(List<Query> queries, Connection conn) throws DatabaseWriteException;
+
+        /**
+         * Reads the rows of a select on the connection. Failures must be thrown with their SQLException
+         * as cause, so deadlocks and lock wait timeouts retry the work instead of it going on with no rows.
+         */
+        List<DataAccess> load(Select query, Connection conn) throws DatabaseReadException;
+
+        List<AggregateResult> aggregate(Aggregate query, Connection conn) throws DatabaseReadException;
+    }
+
+    /** The SQLSTATE of serialization failures, which includes deadlocks */
+    private static final String SERIALIZATION_FAILURE = "40001";
+    /** ER_LOCK_WAIT_TIMEOUT, ER_LOCK_DEADLOCK, SQLITE_BUSY and SQLITE_LOCKED */
+    private static final List<Integer> RETRYABLE_ERRORS = Arrays.asList(1205, 1213, 5, 6);
+    private static final Random random = new Random();
+
+    private final Connection conn;
+    private final Backend backend;
+
+    private JDBCTransaction(Isolation isolation, Connection conn, Backend backend) {
+        super(isolation);
+        this.conn = conn;
+        this.backend = backend;
+    }
+
+    /**
+     * Runs work in a transaction on the given connection, retrying after deadlocks and lock wait timeouts.
+     * The auto-commit mode and isolation level of the connection are restored afterwards.
+     *
+     * @param database
+     *         the database the work runs on
+     * @param conn
+     *         the connection, which must not be used by anything else meanwhile
+     * @param isolation
+     * @param work
+     * @param backend
+     *
+     * @return the result of the work
+     *
+     * @throws DatabaseWriteException
+     *         when the work failed or the transaction could not be committed
+     */
+    public static <T> T run(Database database, Connection conn, Isolation isolation, TransactionWork<T> work, Backend backend) throws DatabaseWriteException {
+        int retries = PBDatabaseAPI.get().getDatabaseConfig().getTransactionRetries();
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return runOnce(database, conn, isolation, work, backend);
+            }
+            catch (DatabaseWriteException ex) {
+                if (attempt >= retries || !isRetryable(ex)) {
+                    throw ex;
+                }
+                PBDatabaseAPI.logger().log(Level.FINE, "Retrying transaction after: " + ex.getMessage());
+                pauseBeforeRetry(attempt);
+            }
+        }
+    }
+
+    /**
+     * Waits before a transaction is tried again. The pause doubles with every attempt,
+     * starting at transaction-retry-backoff milliseconds.
+     *
+     * @param attempt
+     *         the attempt that failed, starting at 0
+     *
+     * @throws DatabaseWriteException
+     *         when interrupted
+     */
+    public static void pauseBeforeRetry(int attempt) throws DatabaseWriteException {
+        pause(PBDatabaseAPI.get().getDatabaseConfig().getTransactionRetryBackoff() << attempt);
+    }
+
+    private static <T> T runOnce(Database database, Connection conn, Isolation isolation, TransactionWork<T> work, Backend backend) throws DatabaseWriteException {
+        JDBCTransaction transaction = new JDBCTransaction(isolation, conn, backend);
+        boolean autoCommit;
+        int level;
+
+        try {
+            autoCommit = conn.getAutoCommit();
+            level = conn.getTransactionIsolation();
+            if (isolation.getLevel() >= 0 && isolation.getLevel() != level) {
+                if (conn.getMetaData().supportsTransactionIsolationLevel(isolation.getLevel())) {
+                    conn.setTransactionIsolation(isolation.getLevel());
+                }
+                else {
+                    PBDatabaseAPI.logger().log(Level.FINE, "Isolation level " + isolation + " is not supported, using the default");
+                }
+            }
+            conn.setAutoCommit(false);
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Could not start transaction: " + ex.getMessage(), ex);
+        }
+        boolean committed = false;
+
+        try {
+            T result = database.runWork(transaction, work);
+            if (!transaction.isRollbackOnly()) {
+                conn.commit();
+                committed = true;
+            }
+            return result;
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Could not commit transaction: " + ex.getMessage(), ex);
+        }
+        catch (DatabaseReadException ex) {
+            throw new DatabaseWriteException("Transaction failed: " + ex.getMessage(), ex);
+        }
+        finally {
+            if (!committed) {
+                rollback(conn);
+            }
+            transaction.end();
+            restore(conn, autoCommit, level);
+        }
+    }
+
+    /**
+     * Checks if an exception, or one of its causes, is a deadlock or lock wait timeout.
+     *
+     * @param ex
+     *
+     * @return true if the transaction can be tried again
+     */
+    public static boolean isRetryable(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (!(cause instanceof SQLException)) {
+                continue;
+            }
+            SQLException sqle = (SQLException) cause;
+            String message = String.valueOf(sqle.getMessage());
+
+            if (SERIALIZATION_FAILURE.equals(sqle.getSQLState()) || RETRYABLE_ERRORS.contains(sqle.getErrorCode())) {
+                return true;
+            }
+            // Older sqlite-jdbc versions report no error code
+            if (message.contains("SQLITE_BUSY") || message.contains("SQLITE_LOCKED") || message.contains("database is locked")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public DataAccess[] query(Select query) throws DatabaseReadException {
+        List<DataAccess> toRet = backend.load(query, conn);
+        return toRet.toArray(new DataAccess[toRet.size()]);
+    }
+
+    @Override
+    public AggregateResult[] aggregate(Aggregate query) throws DatabaseReadException {
+        List<AggregateResult> toRet = backend.aggregate(query, conn);
+        return toRet.toArray(new AggregateResult[toRet.size()]);
+    }
+
+    @Override
+    protected void executeQueries(List<Query> queries) throws DatabaseWriteException {
+        backend.executeQueries(queries, conn);
+    }
+
+    @Override
+    protected void createSavepoint(String name) throws DatabaseWriteException {
+        this.execute("SAVEPOINT " + name);
+    }
+
+    @Override
+    protected void rollbackSavepoint(String name) throws DatabaseWriteException {
+        this.execute("ROLLBACK TO SAVEPOINT " + name);
+    }
+
+    @Override
+    protected void removeSavepoint(String name) throws DatabaseWriteException {
+        this.execute("RELEASE SAVEPOINT " + name);
+    }
+
+    private void execute(String sql) throws DatabaseWriteException {
+        Statement statement = null;
+
+        try {
+            statement = conn.createStatement();
+            statement.execute(sql);
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error executing " + sql + ": " + ex.getMessage(), ex);
+        }
+        finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                }
+                catch (SQLException ex) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+
+    private static void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        }
+        catch (SQLException ex) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Could not roll back transaction: " + ex.getMessage(), ex);
+        }
+    }
+
+    private static void restore(Connection conn, boolean autoCommit, int level) {
+        try {
+            conn.setAutoCommit(autoCommit);
+            if (conn.getTransactionIsolation() != level) {
+                conn.setTransactionIsolation(level);
+            }
+        }
+        catch (SQLException ex) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Could not reset connection after transaction: " + ex.getMessage(), ex);
+        }
+    }
+
+    /** Waits before a retry, with up to 50% random jitter so retrying transactions do not collide again */
+    private static void pause(long millis) throws DatabaseWriteException {
+        if (millis <= 0) {
+            return;
+        }
+        long jitter;
+
+        synchronized (random) {
+            jitter = (long) (random.nextDouble() * millis / 2);
+        }
+        try {
+            Thread.sleep(millis + jitter);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseWriteException("Interrupted while waiting to retry the transaction", ex);
+        }
+    }
+}
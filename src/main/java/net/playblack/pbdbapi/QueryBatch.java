@@ -0,0 +1,82 @@
+package net.playblack.pbdbapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * A unit of work: write queries that are collected and then executed together, in the order they were added.
+ * Unlike { @link Database#queueQuery(Query...) } a batch is not shared, so flushing it
+ * never runs queries of other threads. A batch belongs to the thread that started it and can be executed once.
+ * <pre>
+ * QueryBatch batch = Database.get().beginBatch();
+ * batch.add(Database.get().insert().from(row));
+ * batch.add(Database.get().update().from(other).where("id", 1));
+ * batch.execute();
+ * </pre>
+ */
+public final class QueryBatch {
+
+    private final Database database;
+    private final List<Query> queries = new ArrayList<Query>();
+    private boolean executed;
+
+    QueryBatch(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Adds write queries to this batch.
+     *
+     * @param query
+     *         the queries to add
+     *
+     * @return this batch
+     *
+     * @throws IllegalStateException
+     *         if the batch was executed already
+     */
+    public QueryBatch add(Query... query) {
+        if (executed) {
+            throw new IllegalStateException("The batch was executed already");
+        }
+        queries.addAll(Arrays.asList(query));
+        return this;
+    }
+
+    /** @return the number of queries in this batch */
+    public int size() {
+        return queries.size();
+    }
+
+    /** @return the queries of this batch, in order */
+    public List<Query> getQueries() {
+        return Collections.unmodifiableList(queries);
+    }
+
+    /** @return true if { @link #execute() } was called */
+    public boolean isExecuted() {
+        return executed;
+    }
+
+    /**
+     * Executes the queries of this batch.
+     *
+     * @throws DatabaseWriteException
+     *         when something went wrong during the write operation
+     * @throws IllegalStateException
+     *         if the batch was executed already
+     */
+    public void execute() throws DatabaseWriteException {
+        if (executed) {
+            throw new IllegalStateException("The batch was executed already");
+        }
+        executed = true;
+        if (!queries.isEmpty()) {
+            database.executeQueries(queries);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package net.playblack.pbdbapi;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import net.playblack.pbdbapi.exceptions.DatabaseAccessException;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.queries.QueryEntry;
+import net.playblack.pbdbapi.queries.Select;
+
+/**
+ * Lets identical selects that run at the same time share one execution.
+ * The first thread runs the select, threads asking for the same table, wheres and limit
+ * while it runs wait for its result instead of going to the backend themselves.
+ * Each of them gets its own copies of the rows, see { @link DataAccess#copy() }.
+ * <p/>
+ * Selects never join an execution that started before the last write of the database,
+ * be it a transaction, a bulk load or a schema update, so a thread always sees its own
+ * committed writes, see { @link Database#recordWrite() }. A thread that reads from the primary
+ * after its own writes while others read from replicas does not coalesce, see { @link Database#isRecentWriter() }.
+ */
+final class QueryCoalescer {
+
+    private final Database database;
+    private final ConcurrentHashMap<List<Object>, Flight> flights = new ConcurrentHashMap<List<Object>, Flight>();
+    /** Counts writes, executions from before a write are not joined */
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    QueryCoalescer(Database database) {
+        this.database = database;
+    }
+
+    /**
+     * Runs the select, or waits for an identical select that is already running.
+     *
+     * @param query
+     *
+     * @return rows that are not shared with any other caller
+     *
+     * @throws DatabaseReadException
+     *         when the select failed, also if it was run by another thread
+     */
+    DataAccess[] query(Select query) throws DatabaseReadException {
+        List<Object> key = getKey(query);
+
+        if (key == null) {
+            return database.executeSelect(query);
+        }
+        while (true) {
+            Flight mine = new Flight(writes.get());
+            Flight flight = flights.putIfAbsent(key, mine);
+
+            if (flight != null && flight.writes != mine.writes) {
+                // The running select may not see the last commit, start a new one
+                flight = flights.replace(key, flight, mine) ? null : flight;
+            }
+            if (flight == null) {
+                return this.run(key, mine, query);
+            }
+            if (flight.join()) {
+                return this.await(flight, query);
+            }
+            // The select finished before we could join, try again
+        }
+    }
+
+    /** Called after each write */
+    void recordWrite() {
+        writes.incrementAndGet();
+    }
+
+    /**
+     * Gets how many selects were answered by the execution of another thread.
+     *
+     * @return the number of coalesced selects
+     */
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    private DataAccess[] run(List<Object> key, Flight mine, Select query) throws DatabaseReadException {
+        int waiters = 0;
+
+        try {
+            mine.result = database.executeSelect(query);
+        }
+        catch (DatabaseReadException e) {
+            mine.error = e;
+            throw e;
+        }
+        catch (RuntimeException e) {
+            mine.error = e;
+            throw e;
+        }
+        finally {
+            flights.remove(key, mine);
+            waiters = mine.close();
+            mine.latch.countDown();
+        }
+        // The waiters copy the result right now, so it is only handed out as is if nobody is waiting
+        return waiters == 0 ? mine.result : copy(mine.result, query);
+    }
+
+    private DataAccess[] await(Flight flight, Select query) throws DatabaseReadException {
+        try {
+            flight.latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseReadException("Interrupted while waiting for a select on " + query.from().getName(), e);
+        }
+        if (flight.error != null) {
+            throw new DatabaseReadException("Select on " + query.from().getName() + " failed: " + flight.error.getMessage(), flight.error);
+        }
+        coalesced.incrementAndGet();
+        return copy(flight.result, query);
+    }
+
+    private static DataAccess[] copy(DataAccess[] rows, Select query) throws DatabaseReadException {
+        DataAccess[] toRet = new DataAccess[rows.length];
+
+        try {
+            for (int i = 0; i < rows.length; i++) {
+                toRet[i] = rows[i].copy();
+            }
+        }
+        catch (DatabaseAccessException e) {
+            throw new DatabaseReadException("Could not copy the rows of " + query.from().getName() + ": " + e.getMessage(), e);
+        }
+        return toRet;
+    }
+
+    /**
+     * Gets what makes two selects identical.
+     *
+     * @param query
+     *
+     * @return the key, or null if the select has a where value that cannot be compared, like an array
+     */
+    private static List<Object> getKey(Select query) {
+        List<QueryEntry> wheres = query.getWheres();
+        List<Object> key = new ArrayList<Object>(4 + wheres.size() * 2);
+
+        key.add(query.from().getClass());
+        key.add(query.from().getName());
+        key.add(query.limit());
+        key.add(query.isLazy());
+        for (QueryEntry entry : wheres) {
+            Object value = entry.getColumnValue();
+
+            if (!(value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value instanceof Character || value instanceof Enum || value instanceof UUID || value instanceof Date)) {
+                return null;
+            }
+            key.add(entry.getColumnName());
+            key.add(value);
+        }
+        return key;
+    }
+
+    /** An execution of a select and the threads waiting for it */
+    private static final class Flight {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long writes;
+        DataAccess[] result;
+        Exception error;
+        private int waiters = 0;
+        private boolean closed = false;
+
+        Flight(long writes) {
+            this.writes = writes;
+        }
+
+        /** @return false if the select already finished */
+        synchronized boolean join() {
+            if (closed) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /** @return the number of threads that joined */
+        synchronized int close() {
+            closed = true;
+            return waiters;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package net.playblack.pbdbapi;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the column the rows of a table are distributed by on a sharded database.
+ * Goes on the field of the column, a table has at most one shard key.
+ * Tables without a shard key are kept on shard 0.
+ * <p/>
+ * Rows stay on the shard they were written to. Changing the strategy, the ranges
+ * or the number of shards does not move existing rows.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ShardKey {
+
+    /** How key values are mapped to shards */
+    public enum Strategy {
+        /** By hash of the value, spreading rows evenly over all shards */
+        HASH,
+        /** By numeric ranges, see { @link ShardKey#ranges() } */
+        RANGE;
+    }
+
+    Strategy strategy() default Strategy.HASH;
+
+    /**
+     * The lowest value of each shard but the first, in ascending order. Only used by RANGE.
+     * With { 1000, 5000 } shard 0 holds values below 1000, shard 1 values from 1000 to 4999
+     * and shard 2 all values from 5000.
+     */
+    long[] ranges() default {};
+}
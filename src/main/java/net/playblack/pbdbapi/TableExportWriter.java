@@ -0,0 +1,119 @@
+package net.playblack.pbdbapi;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
+import net.playblack.pbdbapi.util.TextValues;
+
+/**
+ * Writes table rows to a tab separated file, one row per line, with a header line
+ * containing the column names. Tabs, line breaks and backslashes inside values are
+ * escaped with a backslash. Null values are written as \N.
+ */
+public class TableExportWriter {
+
+    private final Writer out;
+    private final List<Column> columns;
+
+    /**
+     * Opens the given file for writing and writes the header line.
+     *
+     * @param file
+     *         the file to write to. It will be overwritten
+     * @param template
+     *         a DataAccess describing the table layout
+     *
+     * @throws IOException
+     * @throws DatabaseTableInconsistencyException
+     */
+    public TableExportWriter(File file, DataAccess template) throws IOException, DatabaseTableInconsistencyException {
+        this.columns = new ArrayList<Column>(template.getTableLayout());
+        Collections.sort(columns, new Comparator<Column>() {
+            @Override
+            public int compare(Column o1, Column o2) {
+                return o1.columnName().compareTo(o2.columnName());
+            }
+        });
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                out.write('\t');
+            }
+            writeEscaped(columns.get(i).columnName());
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Writes a single row.
+     *
+     * @param row
+     *
+     * @throws IOException
+     * @throws DatabaseTableInconsistencyException
+     */
+    public void write(DataAccess row) throws IOException, DatabaseTableInconsistencyException {
+        Map<Column, Object> values = row.toDatabaseEntryList();
+
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            Object value = values.get(column);
+
+            if (i > 0) {
+                out.write('\t');
+            }
+            if (value == null) {
+                out.write("\\N");
+            }
+            else if (column.isList()) {
+                writeEscaped(JDBCHelper.getListString(value));
+            }
+            else {
+                writeEscaped(TextValues.format(value));
+            }
+        }
+        out.write('\n');
+    }
+
+    /**
+     * Flushes and closes the file.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '\t':
+                    out.write("\\t");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                default:
+                    out.write(c);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package net.playblack.pbdbapi;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.queries.Aggregate;
+import net.playblack.pbdbapi.queries.Query;
+import net.playblack.pbdbapi.queries.Select;
+
+/**
+ * A transaction, started with { @link Database#transaction(TransactionWork) }.
+ * Queries executed through the transaction are committed together when the work returns,
+ * or rolled back together when it throws or { @link #setRollbackOnly() } was called.
+ * <p/>
+ * Reads through { @link Database#query(Select) } do not see the changes of a running transaction,
+ * use { @link #query(Select) } for that.
+ */
+public abstract class Transaction {
+
+    private static final Pattern SAVEPOINT_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final Isolation isolation;
+    private boolean rollbackOnly;
+    private boolean active = true;
+    private int nested;
+
+    /**
+     * Isolation levels. SQLite transactions are always serializable and the XML backend
+     * runs one transaction at a time, so the level only changes anything on MySQL.
+     */
+    public enum Isolation {
+        /** Keep the level the database is configured with */
+        DEFAULT(-1),
+        READ_UNCOMMITTED(Connection.TRANSACTION_READ_UNCOMMITTED),
+        READ_COMMITTED(Connection.TRANSACTION_READ_COMMITTED),
+        REPEATABLE_READ(Connection.TRANSACTION_REPEATABLE_READ),
+        SERIALIZABLE(Connection.TRANSACTION_SERIALIZABLE);
+
+        private final int level;
+
+        private Isolation(int level) {
+            this.level = level;
+        }
+
+        /** @return the JDBC level, -1 for DEFAULT */
+        public int getLevel() {
+            return level;
+        }
+    }
+
+    protected Transaction(Isolation isolation) {
+        this.isolation = isolation;
+    }
+
+    public Isolation getIsolation() {
+        return isolation;
+    }
+
+    /**
+     * Executes write queries within this transaction, in order.
+     *
+     * @param queries
+     *         the Insert, Update, Delete and UpdateSchema queries to execute
+     *
+     * @throws DatabaseWriteException
+     */
+    public void execute(Query... queries) throws DatabaseWriteException {
+        this.checkActive();
+        this.executeQueries(Arrays.asList(queries));
+    }
+
+    /**
+     * Reads within this transaction, seeing its uncommitted changes.
+     *
+     * @param query
+     *
+     * @return the matching rows
+     *
+     * @throws DatabaseReadException
+     */
+    public abstract DataAccess[] query(Select query) throws DatabaseReadException;
+
+    /**
+     * Aggregates within this transaction, seeing its uncommitted changes.
+     *
+     * @param query
+     *
+     * @return one result per group
+     *
+     * @throws DatabaseReadException
+     */
+    public abstract AggregateResult[] aggregate(Aggregate query) throws DatabaseReadException;
+
+    /**
+     * Sets a savepoint that the transaction can be rolled back to.
+     *
+     * @param name
+     *         a name made of letters, digits and underscores
+     *
+     * @throws DatabaseWriteException
+     */
+    public void setSavepoint(String name) throws DatabaseWriteException {
+        this.checkActive();
+        this.createSavepoint(checkName(name));
+    }
+
+    /**
+     * Rolls back everything done after the savepoint was set. The savepoint stays valid.
+     *
+     * @param name
+     *
+     * @throws DatabaseWriteException
+     */
+    public void rollbackToSavepoint(String name) throws DatabaseWriteException {
+        this.checkActive();
+        this.rollbackSavepoint(checkName(name));
+    }
+
+    /**
+     * Removes a savepoint, keeping the changes made after it.
+     *
+     * @param name
+     *
+     * @throws DatabaseWriteException
+     */
+    public void releaseSavepoint(String name) throws DatabaseWriteException {
+        this.checkActive();
+        this.removeSavepoint(checkName(name));
+    }
+
+    /** Makes the transaction roll back instead of committing when the work returns */
+    public void setRollbackOnly() {
+        rollbackOnly = true;
+    }
+
+    public boolean isRollbackOnly() {
+        return rollbackOnly;
+    }
+
+    /** @return false once the transaction was committed or rolled back */
+    public boolean isActive() {
+        return active;
+    }
+
+    protected abstract void executeQueries(List<Query> queries) throws DatabaseWriteException;
+
+    protected abstract void createSavepoint(String name) throws DatabaseWriteException;
+
+    protected abstract void rollbackSavepoint(String name) throws DatabaseWriteException;
+
+    protected abstract void removeSavepoint(String name) throws DatabaseWriteException;
+
+    /** Called once the transaction was committed or rolled back */
+    protected void end() {
+        active = false;
+    }
+
+    /**
+     * Runs work of a transaction started within this one. The work gets its own savepoint,
+     * so it can fail and roll back without affecting the rest of this transaction.
+     */
+    <T> T nested(TransactionWork<T> work) throws DatabaseWriteException {
+        String savepoint = "pbdbapi_nested_" + (++nested);
+
+        this.setSavepoint(savepoint);
+        try {
+            T result = work.run(this);
+            this.releaseSavepoint(savepoint);
+            return result;
+        }
+        catch (DatabaseReadException ex) {
+            this.rollbackToSavepoint(savepoint);
+            throw new DatabaseWriteException("Nested transaction failed: " + ex.getMessage(), ex);
+        }
+        catch (DatabaseWriteException ex) {
+            this.rollbackToSavepoint(savepoint);
+            throw ex;
+        }
+        catch (RuntimeException ex) {
+            this.rollbackToSavepoint(savepoint);
+            throw ex;
+        }
+        finally {
+            nested--;
+        }
+    }
+
+    private void checkActive() {
+        if (!active) {
+            throw new IllegalStateException("The transaction has ended");
+        }
+    }
+
+    private static String checkName(String name) {
+        if (name == null || !SAVEPOINT_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid savepoint name: " + name);
+        }
+        return name;
+    }
+}
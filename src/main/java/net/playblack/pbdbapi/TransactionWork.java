@@ -0,0 +1,28 @@
+package net.playblack.pbdbapi;
+
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+
+/**
+ * Work that runs within a { @link Transaction }, see { @link Database#transaction(TransactionWork) }.
+ * The work may run more than once if the transaction is retried after a deadlock,
+ * so it should not have side effects outside of the database.
+ *
+ * @param <T>
+ *         the result of the work
+ */
+public interface TransactionWork<T> {
+
+    /**
+     * Runs the work. Throwing rolls the transaction back.
+     *
+     * @param transaction
+     *         the transaction to run queries in
+     *
+     * @return the result of the work
+     *
+     * @throws DatabaseReadException
+     * @throws DatabaseWriteException
+     */
+    T run(Transaction transaction) throws DatabaseReadException, DatabaseWriteException;
+}
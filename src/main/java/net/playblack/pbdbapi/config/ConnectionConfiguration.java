@@ -11,12 +11,21 @@ import net.playblack.pbdbapi.PBDatabaseAPI;
 import net.visualillusionsent.utils.PropertiesFile;
 
 /**
+ * The connection settings of connection.cfg.
+ * <p/>
+ * For sharded databases the file lists further connections, one per shard. The settings of shard n
+ * are prefixed with shard.n., ie: shard.1.host. Settings a shard does not list are the same as the
+ * settings without prefix, which are those of shard 0.
+ * <p/>
+ * Read replicas of the database are listed the same way, with the prefix replica.n., starting at replica.0.
  *
  * @author somners
  */
 public class ConnectionConfiguration {
 
     private PropertiesFile cfg;
+    /** The prefix of the settings of a shard, empty for shard 0 */
+    private final String prefix;
 
     public ConnectionConfiguration(String path) {
         File test = new File(path);
@@ -25,9 +34,15 @@ public class ConnectionConfiguration {
             PBDatabaseAPI.logger().log(Level.INFO, "Could not find the database configuration at " + path + ", creating default.");
         }
         this.cfg = new PropertiesFile(path);
+        this.prefix = "";
         verifyConfig();
     }
 
+    private ConnectionConfiguration(PropertiesFile cfg, String prefix) {
+        this.cfg = cfg;
+        this.prefix = prefix;
+    }
+
     /** Reloads the configuration file */
     public void reload() {
         cfg.reload();
@@ -50,6 +65,87 @@ public class ConnectionConfiguration {
         cfg.save();
     }
 
+    /**
+     * Get the number of shards, each of which is a database of its own.
+     * Only used by sharded databases, the default is a single shard.
+     *
+     * @return number of shards
+     */
+    public int getShardCount() {
+        return Math.max(1, cfg.getInt("shards", 1));
+    }
+
+    /**
+     * Get the connection settings of a shard.
+     *
+     * @param shard
+     *         the index of the shard, from 0 to getShardCount() - 1
+     *
+     * @return the settings, this configuration for shard 0
+     */
+    public ConnectionConfiguration getShard(int shard) {
+        if (shard == 0) {
+            return this;
+        }
+        return new ConnectionConfiguration(cfg, "shard." + shard + ".");
+    }
+
+    /**
+     * Get the number of read replicas. MySQL sends reads to the replicas and writes to this database.
+     *
+     * @return number of replicas, 0 if there are none
+     */
+    public int getReplicaCount() {
+        return Math.max(0, cfg.getInt("replicas", 0));
+    }
+
+    /**
+     * Get the connection settings of a read replica.
+     *
+     * @param replica
+     *         the index of the replica, from 0 to getReplicaCount() - 1
+     *
+     * @return the settings
+     */
+    public ConnectionConfiguration getReplica(int replica) {
+        return new ConnectionConfiguration(cfg, "replica." + replica + ".");
+    }
+
+    /**
+     * Get how reads are spread over the replicas. round-robin takes the replicas in turn,
+     * least-loaded the replica with the fewest connections in use.
+     *
+     * @return round-robin or least-loaded
+     */
+    public String getReplicaRouting() {
+        String routing = cfg.getString("replica-routing", "round-robin").toLowerCase();
+
+        if (!routing.equals("round-robin") && !routing.equals("least-loaded")) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Unknown replica-routing " + routing + ", using round-robin");
+            return "round-robin";
+        }
+        return routing;
+    }
+
+    /**
+     * Get how long a thread keeps reading from the primary after it wrote,
+     * so it sees its own writes while the replicas catch up.
+     *
+     * @return the time in milliseconds, 0 to read from the replicas right away
+     */
+    public long getReadYourWritesWindow() {
+        return Math.max(0, cfg.getLong("read-your-writes-window", 2000));
+    }
+
+    /**
+     * Get the time between health checks of the replicas. Replicas that fail a check get no reads until they pass one.
+     *
+     * @return the time in seconds
+     */
+    public int getReplicaHealthInterval() {
+        return Math.max(1, cfg.getInt("replica-health-interval", 5));
+    }
+
     /**
      * Get the URL to the database.
      * This is a combination of host, port and database
@@ -71,7 +167,7 @@ public class ConnectionConfiguration {
      * @return database host
      */
     public String getDatabaseHost() {
-        return cfg.getString("host", "localhost");
+        return getString("host", "localhost");
     }
 
     /**
@@ -80,7 +176,7 @@ public class ConnectionConfiguration {
      * @return The configured port or 0
      */
     public int getDatabasePort() {
-        return cfg.getInt("port", 0);
+        return getInt("port", 0);
     }
 
     /**
@@ -89,7 +185,7 @@ public class ConnectionConfiguration {
      * @return database name
      */
     public String getDatabaseName() {
-        return cfg.getString("name", "minecraft");
+        return getString("name", "minecraft");
     }
 
     /**
@@ -99,7 +195,7 @@ public class ConnectionConfiguration {
      * @return database username
      */
     public String getDatabaseUser() {
-        return cfg.getString("username");
+        return getString("username", null);
     }
 
     /**
@@ -109,7 +205,7 @@ public class ConnectionConfiguration {
      * @return database password
      */
     public String getDatabasePassword() {
-        return cfg.getString("password");
+        return getString("password", null);
     }
 
     /**
@@ -119,6 +215,21 @@ public class ConnectionConfiguration {
      * @return database maximum connections
      */
     public int getDatabaseMaxConnections() {
-        return cfg.getInt("maxConnections");
+        return getInt("maxConnections", -1);
+    }
+
+    /** Gets a setting of this shard, or the setting without prefix if the shard does not list it */
+    private String getString(String key, String def) {
+        if (!prefix.isEmpty() && cfg.containsKey(prefix + key)) {
+            return cfg.getString(prefix + key);
+        }
+        return def == null ? cfg.getString(key) : cfg.getString(key, def);
+    }
+
+    private int getInt(String key, int def) {
+        if (!prefix.isEmpty() && cfg.containsKey(prefix + key)) {
+            return cfg.getInt(prefix + key);
+        }
+        return def == -1 ? cfg.getInt(key) : cfg.getInt(key, def);
     }
 }
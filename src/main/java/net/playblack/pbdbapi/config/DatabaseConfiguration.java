@@ -1,9 +1,12 @@
 package net.playblack.pbdbapi.config;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import net.playblack.pbdbapi.Database;
 import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.Transaction;
 import net.visualillusionsent.utils.PropertiesFile;
 
 /**
@@ -13,6 +16,11 @@ import net.visualillusionsent.utils.PropertiesFile;
  * @author Jason (darkdiplomat)
  */
 public class DatabaseConfiguration {
+    private static final List<String> JOURNAL_MODES = Arrays.asList("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+    private static final List<String> SYNCHRONOUS_LEVELS = Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA", "0", "1", "2", "3");
+    private static final List<String> TEMP_STORES = Arrays.asList("DEFAULT", "FILE", "MEMORY", "0", "1", "2");
+    private static final List<String> ISOLATION_LEVELS = Arrays.asList("DEFAULT", "READ_UNCOMMITTED", "READ_COMMITTED", "REPEATABLE_READ", "SERIALIZABLE");
+
     private PropertiesFile cfg;
 
     public DatabaseConfiguration(String path) {
@@ -40,13 +48,14 @@ public class DatabaseConfiguration {
     private void verifyConfig() {
         cfg.getString("data-source", "xml");
         cfg.getString("database-path", "db");
+        cfg.getString("sqlite-profile", "safe");
         cfg.save();
     }
 
     /**
      * Get datasource type
      *
-     * @return datasource type
+     * @return datasource type, ie: xml, mysql, mysql-sharded or sqlite
      */
     public String getDatasourceType() {
         return cfg.getString("data-source", "xml");
@@ -59,4 +68,196 @@ public class DatabaseConfiguration {
     public String getDatabasePath() {
         return cfg.getString("database-path", "db");
     }
+
+    /**
+     * Gets the SQLite tuning preset. Defaults to SAFE.
+     *
+     * @return the { @link SQLiteProfile }
+     */
+    public SQLiteProfile getSQLiteProfile() {
+        return SQLiteProfile.fromString(cfg.getString("sqlite-profile", "safe"));
+    }
+
+    /**
+     * Gets the SQLite journal_mode. Can be overridden with sqlite-journal-mode.
+     *
+     * @return the journal mode
+     */
+    public String getSQLiteJournalMode() {
+        return getChoice("sqlite-journal-mode", JOURNAL_MODES, getSQLiteProfile().getJournalMode());
+    }
+
+    /**
+     * Gets the SQLite synchronous level. Can be overridden with sqlite-synchronous.
+     *
+     * @return the synchronous level
+     */
+    public String getSQLiteSynchronous() {
+        return getChoice("sqlite-synchronous", SYNCHRONOUS_LEVELS, getSQLiteProfile().getSynchronous());
+    }
+
+    /**
+     * Gets the SQLite cache_size. Positive values are pages, negative values KiB.
+     * Can be overridden with sqlite-cache-size.
+     *
+     * @return the cache size
+     */
+    public int getSQLiteCacheSize() {
+        return cfg.containsKey("sqlite-cache-size") ? cfg.getInt("sqlite-cache-size") : getSQLiteProfile().getCacheSize();
+    }
+
+    /**
+     * Gets the SQLite mmap_size in bytes. Can be overridden with sqlite-mmap-size.
+     * Needs SQLite 3.7.17 or later, older versions ignore it.
+     *
+     * @return the mmap size
+     */
+    public long getSQLiteMmapSize() {
+        return cfg.containsKey("sqlite-mmap-size") ? cfg.getLong("sqlite-mmap-size") : getSQLiteProfile().getMmapSize();
+    }
+
+    /**
+     * Gets the SQLite temp_store. Can be overridden with sqlite-temp-store.
+     *
+     * @return the temp store
+     */
+    public String getSQLiteTempStore() {
+        return getChoice("sqlite-temp-store", TEMP_STORES, getSQLiteProfile().getTempStore());
+    }
+
+    /**
+     * Gets the SQLite busy_timeout in milliseconds. Can be overridden with sqlite-busy-timeout.
+     * Needs SQLite 3.7.15 or later, older versions ignore it.
+     *
+     * @return the busy timeout
+     */
+    public int getSQLiteBusyTimeout() {
+        return cfg.containsKey("sqlite-busy-timeout") ? cfg.getInt("sqlite-busy-timeout") : getSQLiteProfile().getBusyTimeout();
+    }
+
+    /**
+     * Gets the seconds between two WAL checkpoints.
+     * Can be overridden with sqlite-checkpoint-interval, 0 disables the background checkpoint.
+     *
+     * @return the checkpoint interval
+     */
+    public int getSQLiteCheckpointInterval() {
+        return cfg.containsKey("sqlite-checkpoint-interval") ? cfg.getInt("sqlite-checkpoint-interval") : getSQLiteProfile().getCheckpointInterval();
+    }
+
+    /**
+     * Gets the maximum number of read-only SQLite connections.
+     * Defaults to the number of available processors.
+     *
+     * @return number of read connections
+     */
+    public int getSQLiteReadConnections() {
+        return cfg.getInt("sqlite-read-connections", Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Checks if schema updates are only planned and logged instead of applied.
+     * Set with schema-dry-run, defaults to false.
+     *
+     * @return true if schema changes are not applied
+     */
+    public boolean isSchemaDryRun() {
+        return cfg.getBoolean("schema-dry-run", false);
+    }
+
+    /**
+     * Gets the time in milliseconds above which queries are written to the slow query log.
+     * Set with slow-query-threshold, negative values (the default) disable the log.
+     *
+     * @return the threshold
+     */
+    public long getSlowQueryThreshold() {
+        return cfg.containsKey("slow-query-threshold") ? cfg.getLong("slow-query-threshold") : -1L;
+    }
+
+    /**
+     * Gets the file of the slow query log. Set with slow-query-log, defaults to slow-queries.log.
+     *
+     * @return the path of the log file
+     */
+    public String getSlowQueryLogFile() {
+        return cfg.getString("slow-query-log", "slow-queries.log");
+    }
+
+    /**
+     * Checks if bound values are left out of the slow query log. Set with slow-query-redact, defaults to false.
+     *
+     * @return true if values are logged as ?
+     */
+    public boolean isSlowQueryRedacted() {
+        return cfg.getBoolean("slow-query-redact", false);
+    }
+
+    /**
+     * Checks if identical selects that run at the same time share one execution.
+     * Set with query-coalescing, defaults to true.
+     *
+     * @return true if selects are coalesced
+     */
+    public boolean isQueryCoalescing() {
+        return cfg.getBoolean("query-coalescing", true);
+    }
+
+    /**
+     * Gets the number of threads that verify table schemas at startup, see { @link net.playblack.pbdbapi.DatabaseBootstrap }.
+     * Set with bootstrap-threads, defaults to 4.
+     *
+     * @return the number of threads, at least 1
+     */
+    public int getBootstrapThreads() {
+        return Math.max(1, cfg.getInt("bootstrap-threads", 4));
+    }
+
+    /**
+     * Gets the isolation level of transactions that do not ask for one.
+     * Set with transaction-isolation to DEFAULT, READ_UNCOMMITTED, READ_COMMITTED, REPEATABLE_READ
+     * or SERIALIZABLE. DEFAULT (the default) keeps the level of the database.
+     *
+     * @return the isolation level
+     */
+    public Transaction.Isolation getTransactionIsolation() {
+        return Transaction.Isolation.valueOf(getChoice("transaction-isolation", ISOLATION_LEVELS, "DEFAULT"));
+    }
+
+    /**
+     * Gets how often a transaction is retried after a deadlock or lock wait timeout.
+     * Set with transaction-retries, defaults to 3.
+     *
+     * @return the number of retries
+     */
+    public int getTransactionRetries() {
+        return Math.max(0, cfg.getInt("transaction-retries", 3));
+    }
+
+    /**
+     * Gets the time in milliseconds to wait before the first retry of a transaction.
+     * The wait doubles with every retry. Set with transaction-retry-backoff, defaults to 20.
+     *
+     * @return the backoff
+     */
+    public long getTransactionRetryBackoff() {
+        return Math.max(0L, cfg.getLong("transaction-retry-backoff", 20L));
+    }
+
+    /**
+     * Gets a value that must be one of the given choices.
+     * Invalid values are reported and replaced with the default.
+     */
+    private String getChoice(String key, List<String> choices, String def) {
+        if (!cfg.containsKey(key)) {
+            return def;
+        }
+        String value = cfg.getString(key, def).trim().toUpperCase();
+
+        if (!choices.contains(value)) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Invalid value for " + key + ": " + value + ", using " + def);
+            return def;
+        }
+        return value;
+    }
 }
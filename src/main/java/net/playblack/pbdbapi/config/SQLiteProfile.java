@@ -0,0 +1,78 @@
+package net.playblack.pbdbapi.config;
+
+/**
+ * Preset PRAGMA settings for the SQLite backend.
+ * Each setting can be overridden on its own in the database configuration.
+ * <ul>
+ * <li>SAFE: write-ahead log with full sync. No committed transaction is lost on power failure.</li>
+ * <li>FAST: write-ahead log with normal sync, large page cache and memory mapped IO.
+ * The database cannot be corrupted, but the last transactions may be lost on power failure.</li>
+ * </ul>
+ */
+public enum SQLiteProfile {
+
+    SAFE("WAL", "FULL", -2000, 0, "DEFAULT", 5000, 300),
+    FAST("WAL", "NORMAL", -65536, 268435456L, "MEMORY", 5000, 60);
+
+    private final String journalMode;
+    private final String synchronous;
+    private final int cacheSize;
+    private final long mmapSize;
+    private final String tempStore;
+    private final int busyTimeout;
+    private final int checkpointInterval;
+
+    SQLiteProfile(String journalMode, String synchronous, int cacheSize, long mmapSize, String tempStore, int busyTimeout, int checkpointInterval) {
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+        this.busyTimeout = busyTimeout;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /** @return journal_mode, ie: WAL */
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    /** @return synchronous level, ie: FULL or NORMAL */
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /** @return cache_size in pages, or in KiB if negative */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /** @return mmap_size in bytes */
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    /** @return temp_store, ie: MEMORY */
+    public String getTempStore() {
+        return tempStore;
+    }
+
+    /** @return busy_timeout in milliseconds */
+    public int getBusyTimeout() {
+        return busyTimeout;
+    }
+
+    /** @return seconds between WAL checkpoints, 0 to leave checkpointing to SQLite */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public static SQLiteProfile fromString(String in) {
+        for (SQLiteProfile p : SQLiteProfile.values()) {
+            if (p.name().equalsIgnoreCase(in)) {
+                return p;
+            }
+        }
+        return SAFE;
+    }
+}
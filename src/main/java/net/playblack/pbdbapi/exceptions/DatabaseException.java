@@ -7,4 +7,8 @@ public class DatabaseException extends Exception {
     public DatabaseException(String str) {
         super(str);
     }
+
+    public DatabaseException(String str, Throwable t) {
+        super(str, t);
+    }
 }
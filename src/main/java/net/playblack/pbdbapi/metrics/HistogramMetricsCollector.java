@@ -0,0 +1,133 @@
+package net.playblack.pbdbapi.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * Keeps latency histograms and counters per table in memory.
+ * Read them directly, through { @link MetricsJmxExporter } or with { @link MetricsTextDump }.
+ */
+public class HistogramMetricsCollector implements MetricsCollector {
+
+    /**
+     * Notified when a table is measured for the first time.
+     */
+    public interface TableListener {
+
+        void tableAdded(TableMetrics metrics);
+    }
+
+    private final ConcurrentHashMap<String, TableMetrics> tables = new ConcurrentHashMap<String, TableMetrics>();
+    private final CopyOnWriteArrayList<TableListener> listeners = new CopyOnWriteArrayList<TableListener>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    @Override
+    public void recordLatency(String table, Query.Type operation, long nanos) {
+        this.getTable(table).getLatency(operation).record(nanos);
+    }
+
+    @Override
+    public void recordRowsRead(String table, long rows) {
+        this.getTable(table).addRowsRead(rows);
+    }
+
+    @Override
+    public void recordRowsWritten(String table, long rows) {
+        this.getTable(table).addRowsWritten(rows);
+    }
+
+    @Override
+    public void recordBytesWritten(String table, long bytes) {
+        this.getTable(table).addBytesWritten(bytes);
+    }
+
+    @Override
+    public void recordPrepare(String table) {
+        this.getTable(table).addPrepare();
+    }
+
+    @Override
+    public void recordQueueDepth(int depth) {
+        queueDepth.set(depth);
+
+        int current = maxQueueDepth.get();
+        while (depth > current && !maxQueueDepth.compareAndSet(current, depth)) {
+            current = maxQueueDepth.get();
+        }
+    }
+
+    /**
+     * Gets the metrics of all tables measured so far.
+     *
+     * @return the metrics, sorted by table name
+     */
+    public List<TableMetrics> getTables() {
+        List<String> names = new ArrayList<String>(tables.keySet());
+        List<TableMetrics> toRet = new ArrayList<TableMetrics>(names.size());
+
+        Collections.sort(names);
+        for (String name : names) {
+            toRet.add(tables.get(name));
+        }
+        return toRet;
+    }
+
+    /**
+     * Gets the metrics of a table.
+     *
+     * @param table
+     *
+     * @return the metrics, or null if the table has not been measured
+     */
+    public TableMetrics getTableMetrics(String table) {
+        return tables.get(table);
+    }
+
+    /** @return the last recorded depth of the query queue */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /** @return the largest recorded depth of the query queue */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public void addListener(TableListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TableListener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Clears all measurements. Tables stay known */
+    public void reset() {
+        for (TableMetrics metrics : tables.values()) {
+            metrics.reset();
+        }
+        maxQueueDepth.set(queueDepth.get());
+    }
+
+    private TableMetrics getTable(String table) {
+        TableMetrics metrics = tables.get(table);
+
+        if (metrics == null) {
+            TableMetrics created = new TableMetrics(table);
+            metrics = tables.putIfAbsent(table, created);
+            if (metrics == null) {
+                metrics = created;
+                for (TableListener listener : listeners) {
+                    listener.tableAdded(created);
+                }
+            }
+        }
+        return metrics;
+    }
+}
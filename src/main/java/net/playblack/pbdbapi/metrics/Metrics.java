@@ -0,0 +1,53 @@
+package net.playblack.pbdbapi.metrics;
+
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * Holds the { @link MetricsCollector } the backends report to.
+ * By default measurements are discarded. To find out which tables are slow:
+ * <pre>
+ * HistogramMetricsCollector metrics = new HistogramMetricsCollector();
+ * Metrics.setCollector(metrics);
+ * new MetricsJmxExporter(metrics).start();
+ * ...
+ * PBDatabaseAPI.logger().info(MetricsTextDump.toString(metrics));
+ * </pre>
+ */
+public final class Metrics {
+
+    private static volatile MetricsCollector collector = NoopMetricsCollector.INSTANCE;
+
+    private Metrics() {
+    }
+
+    /**
+     * Gets the current collector.
+     *
+     * @return the collector, never null
+     */
+    public static MetricsCollector get() {
+        return collector;
+    }
+
+    /**
+     * Sets the collector all backends report to.
+     *
+     * @param collector
+     *         the collector, or null to discard measurements
+     */
+    public static void setCollector(MetricsCollector collector) {
+        Metrics.collector = collector == null ? NoopMetricsCollector.INSTANCE : collector;
+    }
+
+    /**
+     * Records the latency of an operation that started at the given time.
+     *
+     * @param table
+     * @param operation
+     * @param start
+     *         the start time, from System.nanoTime()
+     */
+    public static void recordSince(String table, Query.Type operation, long start) {
+        collector.recordLatency(table, operation, System.nanoTime() - start);
+    }
+}
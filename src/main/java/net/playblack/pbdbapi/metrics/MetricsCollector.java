@@ -0,0 +1,63 @@
+package net.playblack.pbdbapi.metrics;
+
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * Receives measurements from the database backends.
+ * Implementations are called on the hot path of every query, from any thread,
+ * so they must be thread safe and must not block.
+ *
+ * @see Metrics#setCollector(MetricsCollector)
+ */
+public interface MetricsCollector {
+
+    /**
+     * Records how long an operation on a table took.
+     *
+     * @param table
+     *         the table name
+     * @param operation
+     *         the type of the query
+     * @param nanos
+     *         the duration in nanoseconds
+     */
+    void recordLatency(String table, Query.Type operation, long nanos);
+
+    /**
+     * Records rows read from a table.
+     *
+     * @param table
+     * @param rows
+     */
+    void recordRowsRead(String table, long rows);
+
+    /**
+     * Records rows inserted, updated or deleted in a table.
+     *
+     * @param table
+     * @param rows
+     */
+    void recordRowsWritten(String table, long rows);
+
+    /**
+     * Records bytes serialized for a table, ie: the size of an XML table file that was written.
+     *
+     * @param table
+     * @param bytes
+     */
+    void recordBytesWritten(String table, long bytes);
+
+    /**
+     * Records that a statement was prepared for a table.
+     *
+     * @param table
+     */
+    void recordPrepare(String table);
+
+    /**
+     * Records the number of queries waiting in the query queue.
+     *
+     * @param depth
+     */
+    void recordQueueDepth(int depth);
+}
@@ -0,0 +1,246 @@
+package net.playblack.pbdbapi.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * Publishes the measurements of a { @link HistogramMetricsCollector } as MBeans:
+ * net.playblack.pbdbapi:type=Table,name=&lt;table&gt; for every table,
+ * with count, mean, p50, p99 and max latency in microseconds per operation (ie: insertP99Micros),
+ * and net.playblack.pbdbapi:type=Queue for the query queue.
+ * Tables measured after { @link #start() } are published as they appear.
+ */
+public class MetricsJmxExporter implements HistogramMetricsCollector.TableListener {
+
+    private static final String DOMAIN = "net.playblack.pbdbapi";
+
+    private final HistogramMetricsCollector metrics;
+    private final MBeanServer server;
+    private final CopyOnWriteArrayList<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+
+    public MetricsJmxExporter(HistogramMetricsCollector metrics) {
+        this(metrics, ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public MetricsJmxExporter(HistogramMetricsCollector metrics, MBeanServer server) {
+        this.metrics = metrics;
+        this.server = server;
+    }
+
+    /** Registers the MBeans of all tables measured so far and of the tables that follow */
+    public void start() {
+        metrics.addListener(this);
+        this.register(new QueueMBean(metrics), DOMAIN + ":type=Queue");
+        for (TableMetrics table : metrics.getTables()) {
+            this.tableAdded(table);
+        }
+    }
+
+    /** Unregisters all MBeans */
+    public void stop() {
+        metrics.removeListener(this);
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            }
+            catch (JMException e) {
+                PBDatabaseAPI.logger().log(Level.FINE, "Could not unregister " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    @Override
+    public void tableAdded(TableMetrics table) {
+        this.register(new TableMBean(table), DOMAIN + ":type=Table,name=" + ObjectName.quote(table.getTable()));
+    }
+
+    private void register(DynamicMBean bean, String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(bean, objectName);
+                registered.add(objectName);
+            }
+        }
+        catch (JMException e) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Could not register MBean " + name, e);
+        }
+    }
+
+    /** A read-only MBean of long attributes */
+    private abstract static class ReadOnlyMBean implements DynamicMBean {
+
+        private final MBeanInfo info;
+
+        ReadOnlyMBean(String description, List<String> attributes) {
+            MBeanAttributeInfo[] infos = new MBeanAttributeInfo[attributes.size()];
+
+            for (int i = 0; i < infos.length; i++) {
+                infos[i] = new MBeanAttributeInfo(attributes.get(i), "long", attributes.get(i), true, false, false);
+            }
+            info = new MBeanInfo(getClass().getName(), description, infos, null, null, null);
+        }
+
+        abstract Long read(String attribute);
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = this.read(attribute);
+
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+
+            for (String attribute : attributes) {
+                Long value = this.read(attribute);
+                if (value != null) {
+                    list.add(new Attribute(attribute, value));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return info;
+        }
+    }
+
+    private static final class TableMBean extends ReadOnlyMBean {
+
+        private static final String[] STATISTICS = {"Count", "MeanMicros", "P50Micros", "P99Micros", "MaxMicros"};
+
+        private final TableMetrics table;
+
+        TableMBean(TableMetrics table) {
+            super("Query metrics of " + table.getTable(), attributes());
+            this.table = table;
+        }
+
+        private static List<String> attributes() {
+            List<String> attributes = new ArrayList<String>();
+
+            for (Query.Type type : Query.Type.values()) {
+                for (String statistic : STATISTICS) {
+                    attributes.add(prefix(type) + statistic);
+                }
+            }
+            attributes.add("RowsRead");
+            attributes.add("RowsWritten");
+            attributes.add("BytesWritten");
+            attributes.add("PrepareCount");
+            return attributes;
+        }
+
+        /** UPDATE_SCHEMA becomes updateSchema */
+        private static String prefix(Query.Type type) {
+            StringBuilder sb = new StringBuilder();
+
+            for (String part : type.name().toLowerCase().split("_")) {
+                sb.append(sb.length() == 0 ? part : Character.toUpperCase(part.charAt(0)) + part.substring(1));
+            }
+            return sb.toString();
+        }
+
+        @Override
+        Long read(String attribute) {
+            if (attribute.equals("RowsRead")) {
+                return table.getRowsRead();
+            }
+            if (attribute.equals("RowsWritten")) {
+                return table.getRowsWritten();
+            }
+            if (attribute.equals("BytesWritten")) {
+                return table.getBytesWritten();
+            }
+            if (attribute.equals("PrepareCount")) {
+                return table.getPrepareCount();
+            }
+            for (Query.Type type : Query.Type.values()) {
+                String prefix = prefix(type);
+
+                if (!attribute.startsWith(prefix)) {
+                    continue;
+                }
+                LatencyHistogram latency = table.getLatency(type);
+                String statistic = attribute.substring(prefix.length());
+
+                if (statistic.equals("Count")) {
+                    return latency.getCount();
+                }
+                if (statistic.equals("MeanMicros")) {
+                    return (long) latency.getMean() / 1000;
+                }
+                if (statistic.equals("P50Micros")) {
+                    return latency.getValueAtPercentile(50) / 1000;
+                }
+                if (statistic.equals("P99Micros")) {
+                    return latency.getValueAtPercentile(99) / 1000;
+                }
+                if (statistic.equals("MaxMicros")) {
+                    return latency.getMax() / 1000;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class QueueMBean extends ReadOnlyMBean {
+
+        private final HistogramMetricsCollector metrics;
+
+        QueueMBean(HistogramMetricsCollector metrics) {
+            super("Query queue metrics", Arrays.asList("Depth", "MaxDepth"));
+            this.metrics = metrics;
+        }
+
+        @Override
+        Long read(String attribute) {
+            if (attribute.equals("Depth")) {
+                return (long) metrics.getQueueDepth();
+            }
+            if (attribute.equals("MaxDepth")) {
+                return (long) metrics.getMaxQueueDepth();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package net.playblack.pbdbapi.metrics;
+
+import java.io.IOException;
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * Formats the measurements of a { @link HistogramMetricsCollector } as a plain text table,
+ * one line per table and operation, with latencies in microseconds.
+ */
+public final class MetricsTextDump {
+
+    private static final String HEADER = "%-24s %-13s %10s %12s %10s %10s %10s%n";
+    private static final String LINE = "%-24s %-13s %10d %12.1f %10d %10d %10d%n";
+
+    private MetricsTextDump() {
+    }
+
+    /**
+     * Writes the measurements.
+     *
+     * @param metrics
+     * @param out
+     *
+     * @throws IOException
+     */
+    public static void write(HistogramMetricsCollector metrics, Appendable out) throws IOException {
+        out.append(String.format(HEADER, "table", "operation", "count", "mean(us)", "p50(us)", "p99(us)", "max(us)"));
+        for (TableMetrics table : metrics.getTables()) {
+            for (Query.Type type : Query.Type.values()) {
+                LatencyHistogram latency = table.getLatency(type);
+
+                if (latency.getCount() == 0) {
+                    continue;
+                }
+                out.append(String.format(LINE, table.getTable(), type, latency.getCount(), latency.getMean() / 1000,
+                        latency.getValueAtPercentile(50) / 1000, latency.getValueAtPercentile(99) / 1000, latency.getMax() / 1000));
+            }
+            out.append(String.format("%-24s rows read %d, rows written %d, bytes written %d, statements prepared %d%n",
+                    table.getTable(), table.getRowsRead(), table.getRowsWritten(), table.getBytesWritten(), table.getPrepareCount()));
+        }
+        out.append(String.format("queue depth %d (max %d)%n", metrics.getQueueDepth(), metrics.getMaxQueueDepth()));
+    }
+
+    /**
+     * Formats the measurements.
+     *
+     * @param metrics
+     *
+     * @return the text table
+     */
+    public static String toString(HistogramMetricsCollector metrics) {
+        StringBuilder sb = new StringBuilder();
+
+        try {
+            write(metrics, sb);
+        }
+        catch (IOException e) {
+            // StringBuilder does not throw
+        }
+        return sb.toString();
+    }
+}
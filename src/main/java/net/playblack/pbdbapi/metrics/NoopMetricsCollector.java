@@ -0,0 +1,38 @@
+package net.playblack.pbdbapi.metrics;
+
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * Discards all measurements. This is the collector used unless another one is set.
+ */
+public final class NoopMetricsCollector implements MetricsCollector {
+
+    public static final NoopMetricsCollector INSTANCE = new NoopMetricsCollector();
+
+    private NoopMetricsCollector() {
+    }
+
+    @Override
+    public void recordLatency(String table, Query.Type operation, long nanos) {
+    }
+
+    @Override
+    public void recordRowsRead(String table, long rows) {
+    }
+
+    @Override
+    public void recordRowsWritten(String table, long rows) {
+    }
+
+    @Override
+    public void recordBytesWritten(String table, long bytes) {
+    }
+
+    @Override
+    public void recordPrepare(String table) {
+    }
+
+    @Override
+    public void recordQueueDepth(int depth) {
+    }
+}
@@ -0,0 +1,278 @@
+package net.playblack.pbdbapi.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.config.DatabaseConfiguration;
+import net.playblack.pbdbapi.queries.Query;
+import net.playblack.pbdbapi.queries.QueryEntry;
+import net.playblack.pbdbapi.util.TextValues;
+
+/**
+ * Logs queries that take longer than a threshold, with their SQL, bound values, rows
+ * and the time spent in the JDBC driver versus mapping rows to DataAccess objects.
+ * The XML backend logs the operation, table and where values, without SQL.
+ * <p/>
+ * Entries are handed to a background thread that writes the log file, so logging adds no I/O to the query.
+ * If the writer falls behind, entries are dropped and the number of dropped entries is logged with the next one.
+ * Configured in db.cfg with slow-query-threshold (milliseconds, negative disables the log),
+ * slow-query-log (the file) and slow-query-redact (log bound values as ?).
+ */
+public final class SlowQueryLog {
+
+    private static final int QUEUE_SIZE = 4096;
+    private static final int MAX_VALUE_LENGTH = 200;
+    private static volatile SlowQueryLog instance;
+
+    private final long thresholdNanos;
+    private final File file;
+    private final boolean redact;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>(QUEUE_SIZE);
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Creates a slow query log.
+     *
+     * @param thresholdMillis
+     *         queries taking at least this long are logged, negative disables the log
+     * @param file
+     *         the file to append to
+     * @param redact
+     *         true to log bound values as ?
+     */
+    public SlowQueryLog(long thresholdMillis, File file, boolean redact) {
+        this.thresholdNanos = thresholdMillis < 0 ? -1 : thresholdMillis * 1000000L;
+        this.file = file;
+        this.redact = redact;
+    }
+
+    /**
+     * Gets the slow query log, creating it from the configuration on first use.
+     *
+     * @return the slow query log
+     */
+    public static SlowQueryLog get() {
+        SlowQueryLog log = instance;
+
+        if (log == null) {
+            synchronized (SlowQueryLog.class) {
+                if (instance == null) {
+                    DatabaseConfiguration cfg = PBDatabaseAPI.get().getDatabaseConfig();
+                    instance = new SlowQueryLog(cfg.getSlowQueryThreshold(), new File(cfg.getSlowQueryLogFile()), cfg.isSlowQueryRedacted());
+                }
+                log = instance;
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Replaces the slow query log. The old log writes its pending entries and stops.
+     *
+     * @param log
+     *         the new log, or null to create it from the configuration again
+     */
+    public static void setInstance(SlowQueryLog log) {
+        SlowQueryLog old;
+
+        synchronized (SlowQueryLog.class) {
+            old = instance;
+            instance = log;
+        }
+        if (old != null && old != log) {
+            old.close();
+        }
+    }
+
+    /**
+     * Checks if a query that took the given time has to be logged.
+     * Check this before collecting the values to log, so fast queries cost nothing.
+     *
+     * @param nanos
+     *
+     * @return true if the query is slow
+     */
+    public static boolean isSlow(long nanos) {
+        long threshold = get().thresholdNanos;
+        return threshold >= 0 && nanos >= threshold;
+    }
+
+    /**
+     * Queues a slow query for the log file.
+     *
+     * @param table
+     * @param type
+     * @param statement
+     *         the SQL, or null for the XML backend
+     * @param binds
+     *         the bound values, may be null
+     * @param rows
+     *         rows read or written
+     * @param driverNanos
+     *         time spent in the JDBC driver or, for XML, reading and writing the file
+     * @param mappingNanos
+     *         time spent converting between rows and DataAccess objects
+     */
+    public static void log(String table, Query.Type type, String statement, List<QueryEntry> binds, long rows, long driverNanos, long mappingNanos) {
+        get().offer(new Entry(System.currentTimeMillis(), table, type, statement, binds, rows, driverNanos, mappingNanos));
+    }
+
+    /** @return the number of entries dropped because the writer fell behind */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** Stops the writer once it has written the pending entries */
+    public void close() {
+        Thread current;
+
+        synchronized (this) {
+            closed = true;
+            current = writer;
+        }
+        if (current != null) {
+            current.interrupt();
+        }
+    }
+
+    private void offer(Entry entry) {
+        if (closed) {
+            return;
+        }
+        this.ensureStarted();
+        if (!queue.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private synchronized void ensureStarted() {
+        if (writer != null || closed) {
+            return;
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeEntries();
+            }
+        }, "PBDatabaseAPI-SlowQueryLog");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void writeEntries() {
+        List<Entry> batch = new ArrayList<Entry>();
+        long reported = 0;
+
+        while (!closed || !queue.isEmpty()) {
+            try {
+                batch.add(queue.take());
+            }
+            catch (InterruptedException e) {
+                // close() was called, write what is left
+                if (queue.isEmpty()) {
+                    break;
+                }
+            }
+            queue.drainTo(batch);
+
+            Writer out = null;
+            try {
+                File parent = file.getAbsoluteFile().getParentFile();
+                if (parent != null && !parent.exists()) {
+                    parent.mkdirs();
+                }
+                out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+                long lost = dropped.get();
+                if (lost > reported) {
+                    out.write(TextValues.format(new Date()) + " " + (lost - reported) + " slow queries were not logged\n");
+                    reported = lost;
+                }
+                for (Entry entry : batch) {
+                    out.write(this.format(entry));
+                    out.write('\n');
+                }
+            }
+            catch (IOException e) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "Could not write the slow query log " + file, e);
+            }
+            finally {
+                batch.clear();
+                if (out != null) {
+                    try {
+                        out.close();
+                    }
+                    catch (IOException e) {
+                        PBDatabaseAPI.logger().log(Level.WARNING, "Could not write the slow query log " + file, e);
+                    }
+                }
+            }
+        }
+    }
+
+    private String format(Entry entry) {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(TextValues.format(new Date(entry.time))).append(' ');
+        sb.append(entry.type).append(' ').append(entry.table).append(' ');
+        sb.append(millis(entry.driverNanos + entry.mappingNanos)).append(" ms (driver ").append(millis(entry.driverNanos));
+        sb.append(" ms, mapping ").append(millis(entry.mappingNanos)).append(" ms) rows ").append(entry.rows).append(':');
+        if (entry.statement != null) {
+            sb.append(' ').append(entry.statement);
+        }
+        if (entry.binds != null && !entry.binds.isEmpty()) {
+            sb.append(" [");
+            for (int i = 0; i < entry.binds.size(); i++) {
+                QueryEntry bind = entry.binds.get(i);
+                sb.append(i == 0 ? "" : ", ").append(bind.getColumnName()).append('=');
+                if (redact) {
+                    sb.append('?');
+                }
+                else {
+                    String value = TextValues.format(bind.getColumnValue());
+                    sb.append(value.length() > MAX_VALUE_LENGTH ? value.substring(0, MAX_VALUE_LENGTH) + "..." : value);
+                }
+            }
+            sb.append(']');
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1000000.0);
+    }
+
+    private static final class Entry {
+
+        final long time;
+        final String table;
+        final Query.Type type;
+        final String statement;
+        final List<QueryEntry> binds;
+        final long rows;
+        final long driverNanos;
+        final long mappingNanos;
+
+        Entry(long time, String table, Query.Type type, String statement, List<QueryEntry> binds, long rows, long driverNanos, long mappingNanos) {
+            this.time = time;
+            this.table = table;
+            this.type = type;
+            this.statement = statement;
+            this.binds = binds;
+            this.rows = rows;
+            this.driverNanos = driverNanos;
+            this.mappingNanos = mappingNanos;
+        }
+    }
+}
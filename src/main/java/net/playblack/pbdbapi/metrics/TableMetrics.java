@@ -0,0 +1,84 @@
+package net.playblack.pbdbapi.metrics;
+
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * The measurements of a single table, as collected by { @link HistogramMetricsCollector }.
+ * Latencies are in nanoseconds.
+ */
+public final class TableMetrics {
+
+    private final String table;
+    private final EnumMap<Query.Type, LatencyHistogram> latencies = new EnumMap<Query.Type, LatencyHistogram>(Query.Type.class);
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong prepares = new AtomicLong();
+
+    TableMetrics(String table) {
+        this.table = table;
+        // Filled up front, so the map is never modified once it is shared
+        for (Query.Type type : Query.Type.values()) {
+            latencies.put(type, new LatencyHistogram());
+        }
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Gets the latency histogram of an operation.
+     *
+     * @param operation
+     *
+     * @return the histogram, in nanoseconds
+     */
+    public LatencyHistogram getLatency(Query.Type operation) {
+        return latencies.get(operation);
+    }
+
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getPrepareCount() {
+        return prepares.get();
+    }
+
+    void addRowsRead(long rows) {
+        rowsRead.addAndGet(rows);
+    }
+
+    void addRowsWritten(long rows) {
+        rowsWritten.addAndGet(rows);
+    }
+
+    void addBytesWritten(long bytes) {
+        bytesWritten.addAndGet(bytes);
+    }
+
+    void addPrepare() {
+        prepares.incrementAndGet();
+    }
+
+    void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        rowsRead.set(0);
+        rowsWritten.set(0);
+        bytesWritten.set(0);
+        prepares.set(0);
+    }
+}
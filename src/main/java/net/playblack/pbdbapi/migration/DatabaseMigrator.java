@@ -0,0 +1,251 @@
+package net.playblack.pbdbapi.migration;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.DataAccessCursor;
+import net.playblack.pbdbapi.Database;
+import net.playblack.pbdbapi.exceptions.DatabaseException;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.xml.XmlDatabase;
+
+/**
+ * Copies tables from one database backend to another, for example from xml to mysql.
+ * Every table is read from the source as a stream and written to the target in
+ * batches through { @link Database#bulkLoad(Class, Iterator)}, so memory use does not
+ * depend on the size of the table. Tables are migrated in parallel.
+ * <p/>
+ * Rows are appended to the target tables, existing rows in the target are left alone.
+ */
+public class DatabaseMigrator {
+
+    private final Database source;
+    private final Database target;
+    private int batchSize = 10000;
+    private int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private MigrationListener listener = new LoggingMigrationListener();
+
+    /**
+     * Creates a migrator between two database backends,
+     * which can be looked up by name through { @link Database.Type#getDatabaseFromType(String)}.
+     *
+     * @param source
+     *         the database to read from
+     * @param target
+     *         the database to write to
+     */
+    public DatabaseMigrator(Database source, Database target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * Sets the number of rows written per bulk load.
+     * XML targets are always written in a single batch, as every batch rewrites the table file.
+     *
+     * @param batchSize
+     * @return This migrator for convenience.
+     */
+    public DatabaseMigrator setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of tables migrated at the same time.
+     *
+     * @param threads
+     * @return This migrator for convenience.
+     */
+    public DatabaseMigrator setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Sets the listener that receives progress updates.
+     *
+     * @param listener
+     * @return This migrator for convenience.
+     */
+    public DatabaseMigrator setListener(MigrationListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Migrates all given tables and waits for them to finish.
+     *
+     * @param tables
+     *         the DataAccess classes of the tables to migrate
+     *
+     * @return total number of rows migrated
+     *
+     * @throws DatabaseException
+     *         if any of the tables failed to migrate. The other tables are migrated regardless
+     */
+    public long migrate(Class<? extends DataAccess>... tables) throws DatabaseException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, tables.length)));
+        List<Future<Long>> results = new ArrayList<Future<Long>>(tables.length);
+        long total = 0;
+        DatabaseException failure = null;
+
+        try {
+            for (final Class<? extends DataAccess> table : tables) {
+                results.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return migrateTable(table);
+                    }
+                }));
+            }
+            for (int i = 0; i < tables.length; i++) {
+                try {
+                    total += results.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = new DatabaseException("Failed to migrate " + tables[i].getSimpleName(), e.getCause());
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DatabaseException("Interrupted while migrating", e);
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return total;
+    }
+
+    /**
+     * Migrates a single table.
+     *
+     * @param table
+     *
+     * @return number of rows migrated
+     *
+     * @throws DatabaseException
+     */
+    public long migrateTable(Class<? extends DataAccess> table) throws DatabaseException {
+        String name = table.getSimpleName();
+        long start = System.currentTimeMillis();
+        long rows = 0;
+        DataAccessCursor cursor = null;
+
+        listener.tableStarted(name);
+        try {
+            target.registerTable(table);
+            cursor = source.stream(table);
+            BatchIterator batch = new BatchIterator(cursor, target instanceof XmlDatabase ? Integer.MAX_VALUE : batchSize);
+
+            while (batch.nextBatch()) {
+                target.bulkLoad(table, batch);
+                rows += batch.getCount();
+                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                listener.progress(name, rows, rows * 1000D / elapsed);
+            }
+        }
+        catch (CursorException e) {
+            listener.tableFailed(name, e.getCause());
+            throw new DatabaseException("Failed to read " + name + " from the source", e.getCause());
+        }
+        catch (Exception e) {
+            listener.tableFailed(name, e);
+            throw new DatabaseException("Failed to migrate " + name, e);
+        }
+        finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        listener.tableFinished(name, rows, System.currentTimeMillis() - start);
+        return rows;
+    }
+
+    /**
+     * Hands out at most batchSize rows of a cursor per batch, reading them only as they are requested.
+     */
+    private static final class BatchIterator implements Iterator<DataAccess> {
+
+        private final DataAccessCursor cursor;
+        private final int batchSize;
+        private int count;
+        private boolean fetched = false;
+        private boolean exhausted = false;
+
+        BatchIterator(DataAccessCursor cursor, int batchSize) {
+            this.cursor = cursor;
+            this.batchSize = batchSize;
+        }
+
+        /** Starts the next batch, returns false if the cursor has no more rows */
+        boolean nextBatch() {
+            count = 0;
+            return hasNext();
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (count >= batchSize || exhausted) {
+                return false;
+            }
+            if (!fetched) {
+                try {
+                    exhausted = !cursor.next();
+                }
+                catch (DatabaseReadException e) {
+                    throw new CursorException(e);
+                }
+                fetched = true;
+            }
+            return !exhausted;
+        }
+
+        @Override
+        public DataAccess next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+            count++;
+            return cursor.get();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** Carries read errors of the source through the Iterator handed to the target */
+    private static final class CursorException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        CursorException(DatabaseReadException cause) {
+            super(cause);
+        }
+
+        @Override
+        public DatabaseReadException getCause() {
+            return (DatabaseReadException) super.getCause();
+        }
+    }
+}
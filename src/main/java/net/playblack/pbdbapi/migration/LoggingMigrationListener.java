@@ -0,0 +1,30 @@
+package net.playblack.pbdbapi.migration;
+
+import java.util.logging.Level;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+
+/**
+ * Reports migration progress to the PBDatabaseAPI logger.
+ */
+public class LoggingMigrationListener implements MigrationListener {
+
+    @Override
+    public void tableStarted(String table) {
+        PBDatabaseAPI.logger().log(Level.INFO, "Migrating table " + table + "...");
+    }
+
+    @Override
+    public void progress(String table, long rows, double rowsPerSecond) {
+        PBDatabaseAPI.logger().log(Level.INFO, String.format("Migrating table %s: %d rows (%.0f rows/s)", table, rows, rowsPerSecond));
+    }
+
+    @Override
+    public void tableFinished(String table, long rows, long millis) {
+        PBDatabaseAPI.logger().log(Level.INFO, String.format("Migrated table %s: %d rows in %.1fs", table, rows, millis / 1000D));
+    }
+
+    @Override
+    public void tableFailed(String table, Exception cause) {
+        PBDatabaseAPI.logger().log(Level.SEVERE, "Failed to migrate table " + table, cause);
+    }
+}
@@ -0,0 +1,51 @@
+package net.playblack.pbdbapi.migration;
+
+/**
+ * Receives progress updates from a { @link DatabaseMigrator }.
+ * Tables are migrated in parallel, so implementations must be thread safe.
+ */
+public interface MigrationListener {
+
+    /**
+     * Called before the first row of a table is read.
+     *
+     * @param table
+     *         the table name
+     */
+    public void tableStarted(String table);
+
+    /**
+     * Called after each written batch of rows.
+     *
+     * @param table
+     *         the table name
+     * @param rows
+     *         number of rows migrated so far
+     * @param rowsPerSecond
+     *         average throughput since the table was started
+     */
+    public void progress(String table, long rows, double rowsPerSecond);
+
+    /**
+     * Called after all rows of a table have been written.
+     *
+     * @param table
+     *         the table name
+     * @param rows
+     *         number of rows migrated
+     * @param millis
+     *         time the migration of this table took
+     */
+    public void tableFinished(String table, long rows, long millis);
+
+    /**
+     * Called when the migration of a table failed.
+     * Rows written in earlier batches remain in the target.
+     *
+     * @param table
+     *         the table name
+     * @param cause
+     *         the error
+     */
+    public void tableFailed(String table, Exception cause);
+}
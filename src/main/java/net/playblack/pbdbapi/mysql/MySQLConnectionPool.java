@@ -3,11 +3,22 @@ package net.playblack.pbdbapi.mysql;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import net.playblack.pbdbapi.Database;
 import net.playblack.pbdbapi.PBDatabaseAPI;
 import net.playblack.pbdbapi.config.ConnectionConfiguration;
+import net.playblack.pbdbapi.tracing.TraceSpan;
+import net.playblack.pbdbapi.tracing.Tracing;
 
 
 /**
@@ -19,24 +30,88 @@ import net.playblack.pbdbapi.config.ConnectionConfiguration;
  */
 public class MySQLConnectionPool {
 
+    /** Most connections opened at the same time while the pool is created */
+    private final int OPEN_THREADS = 8;
+
     private ConnectionConfiguration config;
     private LinkedList<Connection> connectionPool;
+    /** Connections taken from the pool and not returned yet */
+    private int borrowed = 0;
 
     public MySQLConnectionPool() {
-        // Only establish the data and connections of the configuration is valid
-        if (!PBDatabaseAPI.get().getDatabaseConfig().getDatasourceType().equalsIgnoreCase("mysql")) {
-            return;
-        }
-        config = PBDatabaseAPI.get().getConnectionConfig();
+        this(PBDatabaseAPI.get().getConnectionConfig());
+    }
+
+    /**
+     * Creates a pool of connections to the database of the given configuration,
+     * ie: a shard of { @link ConnectionConfiguration#getShard(int) }.
+     *
+     * @param config
+     *         the connection settings
+     */
+    public MySQLConnectionPool(ConnectionConfiguration config) {
+        this.config = config;
         connectionPool = new LinkedList<Connection>();
         this.initializeConnectionPool();
     }
 
-    /** Creates the connection pool. */
+    /** Creates the connection pool. The connections are opened in parallel. */
     private void initializeConnectionPool() {
         PBDatabaseAPI.logger().log(Level.INFO, "Creating MySQL Connection pool.");
-        while (!this.isConnectionPoolFull()) {
-            this.addNewConnectionToPool();
+        int missing;
+
+        synchronized (this) {
+            // The pool is full with one connection more than the maximum, see isConnectionPoolFull()
+            missing = config.getDatabaseMaxConnections() + 1 - connectionPool.size();
+        }
+        if (missing <= 0) {
+            return;
+        }
+        ExecutorService opener = Executors.newFixedThreadPool(Math.min(missing, OPEN_THREADS), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PBDatabaseAPI MySQL connect " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<Connection>> opening = new ArrayList<Future<Connection>>(missing);
+        int opened = 0;
+
+        try {
+            for (int i = 0; i < missing; i++) {
+                opening.add(opener.submit(new Callable<Connection>() {
+                    @Override
+                    public Connection call() {
+                        return openConnection();
+                    }
+                }));
+            }
+            for (Future<Connection> future : opening) {
+                Connection connection = future.get();
+                if (connection != null) {
+                    synchronized (this) {
+                        connectionPool.addLast(connection);
+                    }
+                    opened++;
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            PBDatabaseAPI.logger().log(Level.WARNING, "Interrupted while creating MySQL Connection pool.", ie);
+        }
+        catch (ExecutionException ee) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Error creating MySQL Connection pool.", ee.getCause());
+        }
+        finally {
+            opener.shutdown();
+        }
+        if (opened < missing) {
+            // The server is not reachable, connections are opened when they are needed
+            PBDatabaseAPI.logger().log(Level.WARNING, "Could not fill MySQL Connection pool for " + config.getDatabaseHost() + ", opened " + opened + " of " + missing + " connections");
         }
         PBDatabaseAPI.logger().log(Level.INFO, "Finished creating MySQL Connection pool.");
     }
@@ -61,16 +136,36 @@ public class MySQLConnectionPool {
         return connectionPool.isEmpty();
     }
 
-    /** Adds a new Connection to the pool. */
-    private void addNewConnectionToPool() {
+    /**
+     * Adds a new Connection to the pool.
+     *
+     * @return true if a connection was added
+     */
+    private synchronized boolean addNewConnectionToPool() {
+        Connection connection = this.openConnection();
+
+        if (connection != null) {
+            connectionPool.addLast(connection);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens a new Connection, without adding it to the pool.
+     *
+     * @return the connection, or null if none could be opened
+     */
+    private Connection openConnection() {
         Connection connection;
 
         try {
             Class.forName("com.mysql.jdbc.Driver").newInstance();
             connection = DriverManager.getConnection(config.getDatabaseUrl("mysql"), config.getDatabaseUser(), config.getDatabasePassword());
             if (connection.isValid(5)) {
-                connectionPool.addLast(connection);
+                return connection;
             }
+            connection.close();
         }
         catch (SQLException sqle) {
             PBDatabaseAPI.logger().log(Level.WARNING, "SQLException Adding Connection to MySQL Pool.", sqle);
@@ -84,6 +179,7 @@ public class MySQLConnectionPool {
         catch (IllegalAccessException iae) {
             PBDatabaseAPI.logger().log(Level.WARNING, "IllegalAccessException Adding Connection to MySQL Pool.", iae);
         }
+        return null;
     }
 
     /**
@@ -93,13 +189,65 @@ public class MySQLConnectionPool {
      *
      * @see MySQLConnectionPool#returnConnectionToPool(Connection)
      */
-    public synchronized Connection getConnectionFromPool() {
+    public Connection getConnectionFromPool() {
+        // Traced outside of the lock, so waiting for other threads shows up in the span
+        TraceSpan span = Tracing.startBorrow("mysql");
+
+        try {
+            return this.borrowConnection();
+        }
+        catch (RuntimeException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    private synchronized Connection borrowConnection() {
         if (this.isConnectionPoolEmpty()) {
             this.addNewConnectionToPool();
             PBDatabaseAPI.logger().log(Level.WARNING, "Adding new connection to MySQL connection " + "pool. Why are you running out of connections?");
         }
 
-        return connectionPool.removeFirst();
+        Connection connection = connectionPool.removeFirst();
+        borrowed++;
+        return connection;
+    }
+
+    /**
+     * Gets the number of connections taken from the pool and not returned yet.
+     *
+     * @return connections in use
+     */
+    public synchronized int getBorrowedCount() {
+        return borrowed;
+    }
+
+    /**
+     * Gets the number of connections waiting in the pool.
+     *
+     * @return idle connections
+     */
+    public synchronized int getIdleCount() {
+        return connectionPool.size();
+    }
+
+    /**
+     * Closes a connection taken from the pool instead of returning it, ie: because it is broken.
+     *
+     * @param connection
+     *         The connection to close.
+     */
+    public synchronized void discardConnection(Connection connection) {
+        borrowed--;
+        try {
+            connection.close();
+        }
+        catch (SQLException sqle) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "SQLException closing MySQL Connection.", sqle);
+        }
     }
 
     /**
@@ -109,6 +257,7 @@ public class MySQLConnectionPool {
      *         The connection to return.
      */
     public synchronized void returnConnectionToPool(Connection connection) {
+        borrowed--;
         if (!this.isConnectionPoolFull()) {
             connectionPool.add(connection);
         }
@@ -132,7 +281,7 @@ public class MySQLConnectionPool {
                 PBDatabaseAPI.logger().log(Level.WARNING, "SQLException closing MySQL Connection.", sqle);
             }
         }
-        connectionPool = null;
+        connectionPool.clear();
         this.initializeConnectionPool();
     }
 }
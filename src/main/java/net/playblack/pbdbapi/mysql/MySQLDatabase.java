@@ -1,31 +1,40 @@
 package net.playblack.pbdbapi.mysql;
 
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.playblack.pbdbapi.AggregateResult;
 import net.playblack.pbdbapi.Column;
 import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.DataAccessCursor;
 import net.playblack.pbdbapi.Database;
 import net.playblack.pbdbapi.JDBCHelper;
+import net.playblack.pbdbapi.JDBCTransaction;
 import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.Transaction;
+import net.playblack.pbdbapi.TransactionWork;
 import net.playblack.pbdbapi.exceptions.DatabaseAccessException;
 import net.playblack.pbdbapi.exceptions.DatabaseReadException;
 import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
 import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.metrics.Metrics;
+import net.playblack.pbdbapi.metrics.SlowQueryLog;
+import net.playblack.pbdbapi.queries.Aggregate;
 import net.playblack.pbdbapi.queries.Delete;
 import net.playblack.pbdbapi.queries.Insert;
 import net.playblack.pbdbapi.queries.Query;
+import static net.playblack.pbdbapi.queries.Query.Type.AGGREGATE;
 import static net.playblack.pbdbapi.queries.Query.Type.DELETE;
 import static net.playblack.pbdbapi.queries.Query.Type.INSERT;
 import static net.playblack.pbdbapi.queries.Query.Type.SELECT;
@@ -35,32 +44,45 @@ import net.playblack.pbdbapi.queries.QueryEntry;
 import net.playblack.pbdbapi.queries.Select;
 import net.playblack.pbdbapi.queries.Update;
 import net.playblack.pbdbapi.queries.UpdateSchema;
+import net.playblack.pbdbapi.tracing.TraceSpan;
+import net.playblack.pbdbapi.tracing.Tracing;
 import net.playblack.pbdbapi.queries.Where;
 
-/** @author Somners */
-public class MySQLDatabase extends Database {
+/**
+ * MySQL Database. Writes go to the database configured in connection.cfg, reads go to its
+ * read replicas if there are any, see { @link ReplicaSet }.
+ *
+ * @author Somners
+ */
+public class MySQLDatabase extends Database implements JDBCTransaction.Backend {
 
     private static MySQLDatabase instance;
     private static MySQLConnectionPool pool;
+    private static ReplicaSet replicas;
     /** Takes: Table Name, Column Names, Values */
     private final String INSERT = "INSERT INTO `%s` (%s) VALUES (%s)";
-    /** Takes: Table Name, Conditions, Limit */
-    private final String SELECT = "SELECT * FROM `%s` WHERE %s LIMIT %s";
-    /** Takes: Table Name, Limit */
-    private final String SELECT_ALL = "SELECT * FROM `%s` LIMIT %s";
-    /** Takes: Table Name, Column Data */
-    private final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `%s` (%s) ENGINE = INNODB";
+    /** Takes: Columns, Table Name, Conditions, Limit */
+    private final String SELECT = "SELECT %s FROM `%s` WHERE %s LIMIT %s";
+    /** Takes: Table Name */
+    private final String SELECT_TABLE = "SELECT * FROM `%s`";
+    /** Takes: Columns, Table Name, Limit */
+    private final String SELECT_ALL = "SELECT %s FROM `%s` LIMIT %s";
+    /** Takes: Selected Columns, Table Name, Conditions, Grouping */
+    private final String AGGREGATE = "SELECT %s FROM `%s`%s%s";
+    /** Number of rows written per batch in bulkLoad */
+    private final int BULK_BATCH_SIZE = 500;
     /** Takes: Table Name, Column Name, JDBC Data Type Syntax */
     private final String INSERT_COLUMN = "ALTER TABLE `%s` ADD `%s` %s";
+    /** Takes: Table Name, Column Name, JDBC Data Type Syntax */
+    private final String MODIFY_COLUMN = "ALTER TABLE `%s` MODIFY `%s` %s";
     /** Takes: Table Name, Column Name */
     private final String DELETE_COLUMN = "ALTER TABLE `%s` DROP `%s`";
 
+    private final MySQLSchemaManager schema = new MySQLSchemaManager();
+    /** The db.system of trace spans */
+    private final String DB_SYSTEM = "mysql";
+
     private MySQLDatabase() {
-        try {
-            pool = new MySQLConnectionPool();
-        }
-        catch (Exception e) {
-        }
     }
 
     public static MySQLDatabase getInstance() {
@@ -70,63 +92,392 @@ public class MySQLDatabase extends Database {
         return instance;
     }
 
+    /**
+     * Gets the connection pool, creating it on first use. The pool is not created
+     * with the database so that no connections are opened unless MySQL is actually used.
+     *
+     * @return the connection pool
+     */
+    private static synchronized MySQLConnectionPool getPool() {
+        if (pool == null) {
+            pool = new MySQLConnectionPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Gets the read replicas, see { @link ReplicaSet }. Without replicas in connection.cfg
+     * all reads go to the primary pool.
+     *
+     * @return the replicas
+     */
+    private static synchronized ReplicaSet getReplicas() {
+        if (replicas == null) {
+            replicas = new ReplicaSet(getPool(), PBDatabaseAPI.get().getConnectionConfig());
+        }
+        return replicas;
+    }
+
+    @Override
+    public void openConnections() {
+        getReplicas();
+    }
+
+    /** Reads of recent writers go to the primary, other threads' identical selects may hit a lagging replica */
+    @Override
+    protected boolean isRecentWriter() {
+        return getReplicas().isRecentWriter();
+    }
+
+    @Override
+    protected DataAccess[] executeSelect(Select query) throws DatabaseReadException {
+        long start = System.nanoTime();
+        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.SELECT, query.from().getName());
+
+        Connection conn = getReplicas().getReadConnection();
+        try {
+            List<DataAccess> toRet;
+
+            try {
+                toRet = this.load(query, conn);
+            }
+            catch (DatabaseReadException ex) {
+                Connection retry = getReplicas().failOver(conn, ex);
+                if (retry == null) {
+                    throw ex;
+                }
+                conn = retry;
+                toRet = this.load(query, conn);
+            }
+            Metrics.recordSince(query.from().getName(), Query.Type.SELECT, start);
+            Metrics.get().recordRowsRead(query.from().getName(), toRet.size());
+            span.setAttribute(Tracing.ROWS, toRet.size());
+            return toRet.toArray(new DataAccess[toRet.size()]);
+        }
+        catch (DatabaseReadException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            getReplicas().returnReadConnection(conn);
+            span.end();
+        }
+    }
+
+    @Override
+    public AggregateResult[] aggregate(Aggregate query) throws DatabaseReadException {
+        long start = System.nanoTime();
+        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.AGGREGATE, query.from().getName());
+        Connection conn = getReplicas().getReadConnection();
+        try {
+            List<AggregateResult> toRet;
+
+            try {
+                toRet = this.aggregate(query, conn);
+            }
+            catch (DatabaseReadException ex) {
+                Connection retry = getReplicas().failOver(conn, ex);
+                if (retry == null) {
+                    throw ex;
+                }
+                conn = retry;
+                toRet = this.aggregate(query, conn);
+            }
+            span.setAttribute(Tracing.ROWS, toRet.size());
+            return toRet.toArray(new AggregateResult[toRet.size()]);
+        }
+        catch (DatabaseReadException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            getReplicas().returnReadConnection(conn);
+            Metrics.recordSince(query.from().getName(), Query.Type.AGGREGATE, start);
+            span.end();
+        }
+    }
+
     @Override
-    public DataAccess[] query(Select query) throws DatabaseReadException {
-        Connection conn = pool.getConnectionFromPool();
-        List<DataAccess> toRet = this.load(query, conn);
-        pool.returnConnectionToPool(conn);
-        return toRet.toArray(new DataAccess[toRet.size()]);
+    public DataAccessCursor stream(Class<? extends DataAccess> table) throws DatabaseReadException {
+        DataAccess template = newTemplate(table);
+        Connection conn = getReplicas().getReadConnection();
+
+        try {
+            return this.stream(template, conn);
+        }
+        catch (DatabaseReadException ex) {
+            Connection retry = getReplicas().failOver(conn, ex);
+            if (retry == null) {
+                getReplicas().returnReadConnection(conn);
+                throw ex;
+            }
+            conn = retry;
+        }
+        try {
+            return this.stream(template, conn);
+        }
+        catch (DatabaseReadException ex) {
+            getReplicas().returnReadConnection(conn);
+            throw ex;
+        }
+    }
+
+    /** Opens the cursor on the given read connection, which is returned when the cursor is closed, but not if it fails to open */
+    private DataAccessCursor stream(final DataAccess template, final Connection conn) throws DatabaseReadException {
+        PreparedStatement ps = null;
+
+        try {
+            final HashSet<Column> layout = template.getTableLayout();
+            ps = conn.prepareStatement(String.format(SELECT_TABLE, template.getName()), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            Metrics.get().recordPrepare(template.getName());
+            // Integer.MIN_VALUE makes Connector/J stream rows one by one instead of buffering the whole result
+            ps.setFetchSize(Integer.MIN_VALUE);
+            final ResultSet rs = ps.executeQuery();
+            final PreparedStatement st = ps;
+
+            return new DataAccessCursor() {
+                private HashMap<String, Object> dataSet = new HashMap<String, Object>();
+
+                @Override
+                protected DataAccess read() throws DatabaseReadException {
+                    try {
+                        if (!rs.next()) {
+                            return null;
+                        }
+                        DataAccess access = readRow(rs, template, layout, dataSet, null);
+                        dataSet.clear();
+                        return access;
+                    }
+                    catch (SQLException ex) {
+                        throw new DatabaseReadException("Error streaming MySQL table " + template.getName(), ex);
+                    }
+                    catch (DatabaseAccessException ex) {
+                        throw new DatabaseReadException("Error streaming MySQL table " + template.getName(), ex);
+                    }
+                    catch (InstantiationException ex) {
+                        throw new DatabaseReadException("Error streaming MySQL table " + template.getName(), ex);
+                    }
+                    catch (IllegalAccessException ex) {
+                        throw new DatabaseReadException("Error streaming MySQL table " + template.getName(), ex);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    closeRS(rs);
+                    closePS(st);
+                    getReplicas().returnReadConnection(conn);
+                }
+            };
+        }
+        catch (SQLException ex) {
+            this.closePS(ps);
+            throw new DatabaseReadException("Error streaming MySQL table " + template.getName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseReadException("Error streaming MySQL table " + template.getName(), ex);
+        }
     }
 
     @Override
-    public void executeQueries() throws DatabaseWriteException {
+    public int bulkLoad(Class<? extends DataAccess> table, Iterator<? extends DataAccess> rows) throws DatabaseWriteException {
+        Connection conn = getPool().getConnectionFromPool();
         try {
-            Connection conn = pool.getConnectionFromPool();
+            return this.bulkLoad(table, rows, conn);
+        }
+        finally {
+            getPool().returnConnectionToPool(conn);
+            getReplicas().recordWrite();
+            this.recordWrite();
+        }
+    }
+
+    /**
+     * Inserts all rows using multi-row INSERT statements of { @link #BULK_BATCH_SIZE} rows,
+     * in a single transaction.
+     */
+    public int bulkLoad(Class<? extends DataAccess> table, Iterator<? extends DataAccess> rows, Connection conn) throws DatabaseWriteException {
+        PreparedStatement ps = null;
+        int count = 0;
+
+        try {
+            DataAccess template = newTemplate(table);
+            List<Column> columns = this.getInsertColumns(template);
+            List<DataAccess> pending = new ArrayList<DataAccess>(BULK_BATCH_SIZE);
+
             conn.setAutoCommit(false);
-            synchronized (lock) {
-                for (Query query : super.queue) {
-                    switch(query.getType()) {
-                        case DELETE:
-                            this.remove((Delete) query, conn);
-                            break;
-                        case INSERT:
-                            this.insert((Insert) query, conn);
-                            break;
-                        case UPDATE:
-                            this.update((Update) query, conn);
-                            break;
-                        case SELECT:
-                            // Aren't capable of returning anything, so just skip it.
-                            break;
-                        case UPDATE_SCHEMA:
-                            this.updateSchema((UpdateSchema) query, conn);
-                            break;
+            while (rows.hasNext()) {
+                pending.add(rows.next());
+                if (pending.size() == BULK_BATCH_SIZE) {
+                    if (ps == null) {
+                        ps = conn.prepareStatement(this.getBulkInsert(template.getName(), columns, BULK_BATCH_SIZE));
+                        Metrics.get().recordPrepare(template.getName());
                     }
+                    count += this.executeBulkInsert(ps, columns, pending);
+                    pending.clear();
                 }
             }
-            conn.setAutoCommit(true);
-            pool.returnConnectionToPool(conn);
-        } catch (SQLException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            if (!pending.isEmpty()) {
+                PreparedStatement rest = conn.prepareStatement(this.getBulkInsert(template.getName(), columns, pending.size()));
+                Metrics.get().recordPrepare(template.getName());
+                try {
+                    count += this.executeBulkInsert(rest, columns, pending);
+                }
+                finally {
+                    this.closePS(rest);
+                }
+            }
+            conn.commit();
+            Metrics.get().recordRowsWritten(template.getName(), count);
+        }
+        catch (SQLException ex) {
+            this.rollback(conn);
+            throw new DatabaseWriteException("Error bulk loading MySQL table for " + table.getSimpleName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            this.rollback(conn);
+            throw new DatabaseWriteException("Error bulk loading MySQL table for " + table.getSimpleName(), ex);
+        }
+        catch (DatabaseReadException ex) {
+            throw new DatabaseWriteException(ex.getMessage(), ex);
+        }
+        finally {
+            this.closePS(ps);
+            try {
+                conn.setAutoCommit(true);
+            }
+            catch (SQLException ex) {
+                PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            }
+        }
+        return count;
+    }
+
+    private String getBulkInsert(String tableName, List<Column> columns, int rows) {
+        StringBuilder fields = new StringBuilder(), values = new StringBuilder("(");
+
+        for (Column column : columns) {
+            fields.append("`").append(column.columnName()).append("`").append(",");
+            values.append("?").append(",");
+        }
+        /* Deletes the trailing comma's for proper syntax */
+        fields.deleteCharAt(fields.length() - 1);
+        values.setCharAt(values.length() - 1, ')');
+
+        StringBuilder allValues = new StringBuilder(values.length() * rows + rows);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                allValues.append(",");
+            }
+            allValues.append(values);
+        }
+        // The INSERT template wraps the values in braces already
+        return String.format(INSERT, tableName, fields, allValues.substring(1, allValues.length() - 1));
+    }
+
+    private int executeBulkInsert(PreparedStatement ps, List<Column> columns, List<DataAccess> rows) throws SQLException, DatabaseTableInconsistencyException {
+        int index = 1;
+
+        for (DataAccess row : rows) {
+            index = this.bindRow(ps, index, columns, row);
+        }
+        return ps.executeUpdate();
+    }
+
+    @Override
+    protected <T> T beginTransaction(Transaction.Isolation isolation, TransactionWork<T> work) throws DatabaseWriteException {
+        Connection conn = getPool().getConnectionFromPool();
+
+        try {
+            return JDBCTransaction.run(this, conn, isolation, work, this);
+        }
+        finally {
+            getPool().returnConnectionToPool(conn);
+            getReplicas().recordWrite();
+        }
+    }
+
+    /**
+     * Executes write queries on the given connection, without committing. Failures are thrown.
+     *
+     * @param queries
+     * @param conn
+     *
+     * @throws DatabaseWriteException
+     */
+    @Override
+    public void executeQueries(List<Query> queries, Connection conn) throws DatabaseWriteException {
+        for (Query query : queries) {
+            if (query.getType() == Query.Type.SELECT || query.getType() == Query.Type.AGGREGATE) {
+                // Aren't capable of returning anything, so just skip it.
+                continue;
+            }
+            long start = System.nanoTime();
+            TraceSpan span = Tracing.startQuery(DB_SYSTEM, query.getType(), query.from().getName());
+
+            try {
+                switch(query.getType()) {
+                    case DELETE:
+                        this.remove((Delete) query, conn);
+                        break;
+                    case INSERT:
+                        this.insert((Insert) query, conn);
+                        break;
+                    case UPDATE:
+                        this.update((Update) query, conn);
+                        break;
+                    case UPDATE_SCHEMA:
+                        this.updateSchema((UpdateSchema) query, conn);
+                        break;
+                }
+            }
+            catch (DatabaseWriteException ex) {
+                span.recordError(ex);
+                throw ex;
+            }
+            finally {
+                span.end();
+            }
+            Metrics.recordSince(query.from().getName(), query.getType(), start);
         }
     }
 
     @Override
     public void updateSchema(UpdateSchema... udpateSchema) throws DatabaseWriteException {
-        Connection conn = pool.getConnectionFromPool();
-        for (Query query : udpateSchema) {
-            this.updateSchema((UpdateSchema) query, conn);
+        Connection conn = getPool().getConnectionFromPool();
+        try {
+            for (Query query : udpateSchema) {
+                long start = System.nanoTime();
+                TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.UPDATE_SCHEMA, query.from().getName());
+                try {
+                    this.updateSchema((UpdateSchema) query, conn);
+                }
+                catch (DatabaseWriteException ex) {
+                    span.recordError(ex);
+                    throw ex;
+                }
+                finally {
+                    span.end();
+                }
+                Metrics.recordSince(query.from().getName(), UPDATE_SCHEMA, start);
+            }
+        }
+        finally {
+            getPool().returnConnectionToPool(conn);
+            getReplicas().recordWrite();
+            this.recordWrite();
         }
-        pool.returnConnectionToPool(conn);
     }
 
     public void insert(Insert query, Connection conn) throws DatabaseWriteException {
+        long start = System.nanoTime();
         if (this.doesEntryExist(conn, query.from())) {
             return;
         }
         PreparedStatement ps = null;
 
         try {
+            long mapStart = System.nanoTime();
             StringBuilder fields = new StringBuilder(), values = new StringBuilder();
             HashMap<Column, Object> columns = query.from().toDatabaseEntryList();
             Iterator<Column> it = columns.keySet().iterator();
@@ -144,14 +495,18 @@ public class MySQLDatabase extends Database {
             fields.deleteCharAt(fields.length() - 1);
             values.deleteCharAt(values.length() - 1);
 
-            ps = conn.prepareStatement(String.format(INSERT, query.from().getName(), fields, values));
+            String statement = String.format(INSERT, query.from().getName(), fields, values);
+            long mapping = System.nanoTime() - mapStart;
+            ps = conn.prepareStatement(statement);
+            Metrics.get().recordPrepare(query.from().getName());
 
             /* Inserts values to columns */
+            mapStart = System.nanoTime();
             int i = 1;
             for (Column c : columns.keySet()) {
                 if (!c.autoIncrement()) {
                     if (c.isList()) {
-                        ps.setObject(i, JDBCHelper.getListString((List<?>) columns.get(c)));
+                        ps.setObject(i, JDBCHelper.getListValue(c, columns.get(c)));
                     }
                     else {
                         ps.setObject(i, JDBCHelper.convert(columns.get(c)));
@@ -159,16 +514,22 @@ public class MySQLDatabase extends Database {
                     i++;
                 }
             }
+            mapping += System.nanoTime() - mapStart;
 
             if (ps.executeUpdate() == 0) {
                 throw new DatabaseWriteException("Error inserting MySQL: no rows updated!");
             }
+            Metrics.get().recordRowsWritten(query.from().getName(), 1);
+            long elapsed = System.nanoTime() - start;
+            if (SlowQueryLog.isSlow(elapsed)) {
+                SlowQueryLog.log(query.from().getName(), Query.Type.INSERT, statement, this.getBinds(columns), 1, elapsed - mapping, mapping);
+            }
         }
         catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error inserting MySQL into " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dtie.getMessage(), dtie);
+            throw new DatabaseWriteException("Error inserting MySQL into " + query.from().getName() + ": " + dtie.getMessage(), dtie);
         }
         finally {
             this.closePS(ps);
@@ -176,14 +537,17 @@ public class MySQLDatabase extends Database {
     }
 
     public void update(Update query, Connection conn) throws DatabaseWriteException {
+        long start = System.nanoTime();
         if (!this.doesEntryExist(conn, query.from())) {
             return;
         }
         ResultSet rs = null;
 
         try {
+            long mapStart = System.nanoTime();
             HashMap<Column, Object> columns = query.from().toDatabaseEntryList();
             Select select = this.getSelectFromWhere(query);
+            long mapping = System.nanoTime() - mapStart;
 
             rs = this.getResultSet(conn, select);
 
@@ -194,13 +558,18 @@ public class MySQLDatabase extends Database {
                     while (it.hasNext()) {
                         column = it.next();
                         if (column.isList()) {
-                            rs.updateObject(column.columnName(), JDBCHelper.getListString((List<?>) columns.get(column)));
+                            rs.updateObject(column.columnName(), JDBCHelper.getListValue(column, columns.get(column)));
                         }
                         else {
-                            rs.updateObject(column.columnName(), columns.get(column));
+                            rs.updateObject(column.columnName(), JDBCHelper.convert(columns.get(column)));
                         }
                     }
                     rs.updateRow();
+                    Metrics.get().recordRowsWritten(query.from().getName(), 1);
+                    long elapsed = System.nanoTime() - start;
+                    if (SlowQueryLog.isSlow(elapsed)) {
+                        SlowQueryLog.log(query.from().getName(), Query.Type.UPDATE, this.getSelectStatement(select), this.getBinds(columns), 1, elapsed - mapping, mapping);
+                    }
                 }
                 else {
                     throw new DatabaseWriteException("Error updating DataAccess to MySQL, no such entry: " + query.from().toString());
@@ -208,13 +577,13 @@ public class MySQLDatabase extends Database {
             }
         }
         catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error updating MySQL in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dtie.getMessage(), dtie);
+            throw new DatabaseWriteException("Error updating MySQL in " + query.from().getName() + ": " + dtie.getMessage(), dtie);
         }
         catch (DatabaseReadException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            throw new DatabaseWriteException("Error updating MySQL in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         finally {
             try {
@@ -229,6 +598,7 @@ public class MySQLDatabase extends Database {
     }
 
     public void remove(Delete query, Connection conn) throws DatabaseWriteException {
+        long start = System.nanoTime();
         ResultSet rs = null;
 
         try {
@@ -239,18 +609,23 @@ public class MySQLDatabase extends Database {
             if (rs != null) {
                 if (rs.next()) {
                     rs.deleteRow();
+                    Metrics.get().recordRowsWritten(query.from().getName(), 1);
+                    long elapsed = System.nanoTime() - start;
+                    if (SlowQueryLog.isSlow(elapsed)) {
+                        SlowQueryLog.log(query.from().getName(), Query.Type.DELETE, this.getSelectStatement(select), select.getWheres(), 1, elapsed, 0);
+                    }
                 }
             }
 
         }
         catch (DatabaseReadException dre) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dre.getMessage(), dre);
+            throw new DatabaseWriteException("Error deleting MySQL from " + query.from().getName() + ": " + dre.getMessage(), dre);
         }
         catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error deleting MySQL from " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            throw new DatabaseWriteException("Error deleting MySQL from " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         finally {
             try {
@@ -264,7 +639,37 @@ public class MySQLDatabase extends Database {
         }
     }
 
+    /**
+     * Loads the rows of a select on the given connection.
+     *
+     * @param query
+     * @param conn
+     *
+     * @return the rows
+     *
+     * @throws DatabaseReadException
+     *         when the select failed, a failing statement keeps its SQLException as cause
+     */
     public List<DataAccess> load(Select query, Connection conn) throws DatabaseReadException {
+        return this.load(query, conn, this);
+    }
+
+    /**
+     * Loads the rows of a select on the given connection for another database, ie: a sharded one.
+     *
+     * @param query
+     * @param conn
+     * @param owner
+     *         the database the rows of a lazy select fetch their other columns from
+     *
+     * @return the rows
+     *
+     * @throws DatabaseReadException
+     *         when the select failed, a failing statement keeps its SQLException as cause
+     */
+    public List<DataAccess> load(Select query, Connection conn, Database owner) throws DatabaseReadException {
+        long start = System.nanoTime();
+        long mapping = 0;
         List<DataAccess> toRet = new ArrayList<DataAccess>();
         ResultSet rs = null;
         HashMap<String, Object> dataSet = new HashMap<String, Object>();
@@ -272,46 +677,32 @@ public class MySQLDatabase extends Database {
             rs = this.getResultSet(conn, query);
 
             if (rs != null) {
-                while (rs.next()) {
-
-
-                    for (Column column : query.from().getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), JDBCHelper.getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (rs.getObject(column.columnName()) instanceof Boolean) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
+                Column key = this.getLazyKey(query);
+                HashSet<Column> layout = key != null ? new HashSet<Column>(Collections.singleton(key)) : query.from().getTableLayout();
 
-                    DataAccess access = null;
-                    access = query.from().getClass().newInstance();
-                    access.load(dataSet);
-                    toRet.add(access);
+                while (rs.next()) {
+                    long mapStart = System.nanoTime();
+                    toRet.add(this.readRow(rs, query.from(), layout, dataSet, key != null ? owner : null));
                     dataSet.clear(); // Don't forget to clear the hashmap for the next dataset :)
+                    mapping += System.nanoTime() - mapStart;
                 }
             }
         }
-        catch (DatabaseReadException dre) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dre.getMessage(), dre);
-        }
         catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            // Keeps the SQLException as cause, callers tell broken connections and deadlocks apart by its SQLState
+            throw new DatabaseReadException("Error Querying MySQL in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dtie.getMessage(), dtie);
+            throw new DatabaseReadException("Error Querying MySQL in " + query.from().getName() + ": " + dtie.getMessage(), dtie);
         }
         catch (DatabaseAccessException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            throw new DatabaseReadException("Error Querying MySQL in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (InstantiationException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            throw new DatabaseReadException("Error Querying MySQL in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (IllegalAccessException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            throw new DatabaseReadException("Error Querying MySQL in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         finally {
             try {
@@ -323,60 +714,135 @@ public class MySQLDatabase extends Database {
                 PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
             }
         }
+        long elapsed = System.nanoTime() - start;
+        if (SlowQueryLog.isSlow(elapsed)) {
+            SlowQueryLog.log(query.from().getName(), Query.Type.SELECT, this.getSelectStatement(query), query.getWheres(), toRet.size(), elapsed - mapping, mapping);
+        }
         return toRet;
     }
 
-    public void updateSchema(UpdateSchema query, Connection conn) throws DatabaseWriteException {
+    public List<AggregateResult> aggregate(Aggregate query, Connection conn) throws DatabaseReadException {
+        long start = System.nanoTime();
+        List<AggregateResult> toRet = new ArrayList<AggregateResult>();
         PreparedStatement ps = null;
         ResultSet rs = null;
+        String statement = null;
 
         try {
-            // First check if the table exists, if it doesn't we'll skip the rest
-            // of this method since we're creating it fresh.
-            DatabaseMetaData metadata = conn.getMetaData();
-            rs = metadata.getTables(null, null, query.from().getName(), null);
-            if (!rs.first()) {
-                this.createTable(conn, query.from());
-            }
-            else {
+            List<String> groupBy = query.getGroupBy();
+            StringBuilder columns = new StringBuilder(), conditions = new StringBuilder(), grouping = new StringBuilder();
 
-                LinkedList<String> toRemove = new LinkedList<String>();
-                HashMap<String, Column> toAdd = new HashMap<String, Column>();
-                Iterator<Column> it = query.from().getTableLayout().iterator();
+            for (String column : groupBy) {
+                columns.append("`").append(column).append("`, ");
+                grouping.append(grouping.length() == 0 ? " GROUP BY " : ", ").append("`").append(column).append("`");
+            }
+            columns.append(JDBCHelper.getAggregateExpression(query));
+            for (QueryEntry entry : query.getWheres()) {
+                conditions.append(conditions.length() == 0 ? " WHERE " : " AND ").append("`").append(entry.getColumnName()).append("`=?");
+            }
+            statement = String.format(AGGREGATE, columns, query.from().getName(), conditions, grouping);
+            ps = conn.prepareStatement(statement);
+            Metrics.get().recordPrepare(query.from().getName());
 
-                Column column;
-                while (it.hasNext()) {
-                    column = it.next();
-                    toAdd.put(column.columnName(), column);
+            int i = 1;
+            for (QueryEntry entry : query.getWheres()) {
+                ps.setObject(i, JDBCHelper.convert(entry.getColumnValue()));
+                i++;
+            }
+            Column.DataType type = null;
+            for (Column column : query.from().getTableLayout()) {
+                if (column.columnName().equals(query.column())) {
+                    type = column.dataType();
                 }
+            }
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                List<Object> group = new ArrayList<Object>(groupBy.size());
 
-                for (String col : this.getColumnNames(query.from())) {
-                    if (!toAdd.containsKey(col)) {
-                        toRemove.add(col);
-                    }
-                    else {
-                        toAdd.remove(col);
-                    }
+                for (int j = 1; j <= groupBy.size(); j++) {
+                    group.add(rs.getObject(j));
                 }
+                toRet.add(new AggregateResult(group, JDBCHelper.getAggregateValue(rs, groupBy.size() + 1, query.function(), type)));
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Error Querying MySQL aggregate in " + query.from().getName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException dtie) {
+            throw new DatabaseReadException("Error Querying MySQL aggregate in " + query.from().getName(), dtie);
+        }
+        finally {
+            this.closeRS(rs);
+            this.closePS(ps);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (SlowQueryLog.isSlow(elapsed)) {
+            SlowQueryLog.log(query.from().getName(), Query.Type.AGGREGATE, statement, query.getWheres(), toRet.size(), elapsed, 0);
+        }
+        return toRet;
+    }
 
-                for (String name : toRemove) {
-                    this.deleteColumn(conn, query.from().getName(), name);
-                }
-                for (Map.Entry<String, Column> entry : toAdd.entrySet()) {
-                    this.insertColumn(conn, query.from().getName(), entry.getValue());
-                }
+    public void updateSchema(UpdateSchema query, Connection conn) throws DatabaseWriteException {
+        try {
+            MySQLSchemaDiff diff = schema.diff(conn, query.from());
+
+            if (!diff.getUnsafeClauses().isEmpty()) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "Not changing column types of " + diff.getTable() + " that could lose data, apply them by hand: " + diff.getUnsafeClauses());
+            }
+            if (diff.isEmpty()) {
+                return;
             }
+            if (PBDatabaseAPI.get().getDatabaseConfig().isSchemaDryRun()) {
+                PBDatabaseAPI.logger().log(Level.INFO, "Schema dry run, not applying " + diff);
+                return;
+            }
+            schema.apply(conn, diff);
         }
         catch (SQLException sqle) {
-            throw new DatabaseWriteException("Error updating MySQL schema: " + sqle.getMessage());
+            throw new DatabaseWriteException("Error updating MySQL schema: " + sqle.getMessage(), sqle);
         }
         catch (DatabaseTableInconsistencyException dtie) {
             PBDatabaseAPI.logger().log(Level.WARNING, "Error updating MySQL schema." + dtie.getMessage(), dtie);
         }
+    }
+
+    /**
+     * Compares the tables of the given queries to their layouts without changing anything.
+     *
+     * @param queries
+     *
+     * @return the changes updateSchema would apply, one per table
+     *
+     * @throws DatabaseReadException
+     */
+    public List<MySQLSchemaDiff> planSchema(UpdateSchema... queries) throws DatabaseReadException {
+        List<MySQLSchemaDiff> plan = new ArrayList<MySQLSchemaDiff>(queries.length);
+        Connection conn = getPool().getConnectionFromPool();
+
+        try {
+            for (UpdateSchema query : queries) {
+                plan.add(schema.diff(conn, query.from()));
+            }
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Error comparing MySQL schema: " + ex.getMessage(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseReadException("Error comparing MySQL schema: " + ex.getMessage(), ex);
+        }
         finally {
-            this.closeRS(rs);
-            this.closePS(ps);
+            getPool().returnConnectionToPool(conn);
         }
+        return plan;
+    }
+
+    /**
+     * Gets the schema manager, which compares tables to their layouts.
+     *
+     * @return the schema manager
+     */
+    public MySQLSchemaManager getSchemaManager() {
+        return schema;
     }
 
     public ResultSet getResultSet(Connection conn, Select select) throws DatabaseReadException {
@@ -384,32 +850,18 @@ public class MySQLDatabase extends Database {
         ResultSet toRet = null;
 
         try {
-            if (select.getWheres().size() > 0) {
-                StringBuilder sb = new StringBuilder();
-
-                for (QueryEntry entry : select.getWheres()) {
-                    sb.append(" AND `").append(entry.getColumnName()).append("`=?");
-                }
-                sb.delete(0, 5);
+            ps = conn.prepareStatement(this.getSelectStatement(select));
+            Metrics.get().recordPrepare(select.from().getName());
 
-                ps = conn.prepareStatement(String.format(SELECT, select.from().getName(), sb, select.limit()));
-
-                int i = 0;
-                for (QueryEntry entry : select.getWheres()) {
-                    ps.setObject(i + 1, JDBCHelper.convert(entry.getColumnValue()));
-                    i++;
-                }
-                toRet = ps.executeQuery();
-            }
-            else {
-                ps = conn.prepareStatement(String.format(SELECT_ALL, select.from().getName(), select.limit()));
-
-                toRet = ps.executeQuery();
+            int i = 0;
+            for (QueryEntry entry : select.getWheres()) {
+                ps.setObject(i + 1, JDBCHelper.convert(entry.getColumnValue()));
+                i++;
             }
+            toRet = ps.executeQuery();
         }
         catch (SQLException ex) {
-            throw new DatabaseReadException("Error Querying MySQL ResultSet in "
-                    + select.from().getName());
+            throw new DatabaseReadException("Error Querying MySQL ResultSet in " + select.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (Exception ex) {
             Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
@@ -417,8 +869,62 @@ public class MySQLDatabase extends Database {
         return toRet;
     }
 
+    /**
+     * Gets the SQL of a Select, with a ? for the value of every where.
+     *
+     * @param select
+     *
+     * @return the SELECT statement
+     */
+    private String getSelectStatement(Select select) {
+        Column key = this.getLazyKey(select);
+        String columns = key != null ? "`" + key.columnName() + "`" : "*";
+
+        if (select.getWheres().isEmpty()) {
+            return String.format(SELECT_ALL, columns, select.from().getName(), select.limit());
+        }
+        StringBuilder sb = new StringBuilder();
+
+        for (QueryEntry entry : select.getWheres()) {
+            sb.append(sb.length() == 0 ? "" : " AND ").append("`").append(entry.getColumnName()).append("`=?");
+        }
+        return String.format(SELECT, columns, select.from().getName(), sb, select.limit());
+    }
+
+    /**
+     * Gets the only column a lazy Select reads, see { @link Select#lazy() }.
+     *
+     * @param select
+     *
+     * @return the primary key, or null if all columns are read
+     */
+    private Column getLazyKey(Select select) {
+        if (!select.isLazy()) {
+            return null;
+        }
+        try {
+            return select.from().getPrimaryKey();
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            // Tables without a usable layout are read as a whole
+            return null;
+        }
+    }
+
+    /** Gets the values of a row as QueryEntries, for the slow query log */
+    private List<QueryEntry> getBinds(HashMap<Column, Object> columns) {
+        List<QueryEntry> binds = new ArrayList<QueryEntry>(columns.size());
+
+        for (Map.Entry<Column, Object> entry : columns.entrySet()) {
+            if (!entry.getKey().autoIncrement()) {
+                binds.add(new QueryEntry(entry.getKey().columnName(), entry.getValue()));
+            }
+        }
+        return binds;
+    }
+
     public boolean doesEntryExist(Connection conn, DataAccess data) throws DatabaseWriteException {
-//        Connection conn = pool.getConnectionFromPool();
+//        Connection conn = getPool().getConnectionFromPool();
         ResultSet rs = null;
         boolean toRet = false;
 
@@ -455,7 +961,7 @@ public class MySQLDatabase extends Database {
         ArrayList<String> columns = new ArrayList<String>();
         String columnName;
 
-        Connection connection = pool.getConnectionFromPool();
+        Connection connection = getPool().getConnectionFromPool();
         try {
             statement = connection.createStatement();
             resultSet = statement.executeQuery("SHOW COLUMNS FROM `" + data.getName() + "`");
@@ -477,7 +983,7 @@ public class MySQLDatabase extends Database {
                     Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
                 }
             }
-            pool.returnConnectionToPool(connection);
+            getPool().returnConnectionToPool(connection);
         }
         return columns;
     }
@@ -486,30 +992,7 @@ public class MySQLDatabase extends Database {
         PreparedStatement ps = null;
 
         try {
-            StringBuilder fields = new StringBuilder();
-            HashMap<Column, Object> columns = data.toDatabaseEntryList();
-            Iterator<Column> it = columns.keySet().iterator();
-            String primary = null;
-
-            Column column;
-            while (it.hasNext()) {
-                column = it.next();
-                fields.append("`").append(column.columnName()).append("` ");
-                fields.append(JDBCHelper.getDataTypeSyntax(column.dataType()));
-                if (column.autoIncrement()) {
-                    fields.append(" AUTO_INCREMENT");
-                }
-                if (column.columnType().equals(Column.ColumnType.PRIMARY)) {
-                    primary = column.columnName();
-                }
-                if (it.hasNext()) {
-                    fields.append(", ");
-                }
-            }
-            if (primary != null) {
-                fields.append(", PRIMARY KEY(`").append(primary).append("`)");
-            }
-            ps = conn.prepareStatement(String.format(CREATE_TABLE, data.getName(), fields.toString()));
+            ps = conn.prepareStatement(schema.getCreateStatement(data));
             ps.execute();
         }
         catch (SQLException ex) {
@@ -528,7 +1011,7 @@ public class MySQLDatabase extends Database {
 
         try {
             if (column != null && !column.columnName().trim().equals("")) {
-                ps = conn.prepareStatement(String.format(DELETE_COLUMN, tableName, column.columnName(), JDBCHelper.getDataTypeSyntax(column.dataType())));
+                ps = conn.prepareStatement(String.format(INSERT_COLUMN, tableName, column.columnName(), JDBCHelper.getDataTypeSyntax(column)));
                 ps.execute();
             }
         }
@@ -541,6 +1024,30 @@ public class MySQLDatabase extends Database {
 
     }
 
+    /**
+     * Changes the type of a column to the type of its current definition.
+     *
+     * @param conn
+     * @param tableName
+     * @param column
+     *
+     * @throws DatabaseWriteException
+     */
+    public void modifyColumn(Connection conn, String tableName, Column column) throws DatabaseWriteException {
+        PreparedStatement ps = null;
+
+        try {
+            ps = conn.prepareStatement(String.format(MODIFY_COLUMN, tableName, column.columnName(), JDBCHelper.getDataTypeSyntax(column)));
+            ps.execute();
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error modifying MySQL column: " + column.columnName(), ex);
+        }
+        finally {
+            this.closePS(ps);
+        }
+    }
+
     public void deleteColumn(Connection conn, String tableName, String columnName) throws DatabaseWriteException {
         PreparedStatement ps = null;
 
@@ -573,6 +1080,88 @@ public class MySQLDatabase extends Database {
         return select;
     }
 
+    /**
+     * Creates a DataAccess from the current row of the ResultSet.
+     *
+     * @param rs
+     * @param template
+     *         the DataAccess describing the table
+     * @param layout
+     *         the table layout of the template
+     * @param dataSet
+     *         map to collect the row data in
+     * @param partialOf
+     *         the database partial rows fetch their other columns from, null if the layout holds all columns
+     *
+     * @return a new, loaded DataAccess
+     */
+    private DataAccess readRow(ResultSet rs, DataAccess template, HashSet<Column> layout, HashMap<String, Object> dataSet, Database partialOf) throws SQLException, DatabaseAccessException, InstantiationException, IllegalAccessException {
+        for (Column column : layout) {
+            if (column.isList()) {
+                dataSet.put(column.columnName(), JDBCHelper.getList(column, rs));
+            }
+            else {
+                dataSet.put(column.columnName(), JDBCHelper.getValue(column, rs));
+            }
+        }
+        DataAccess access = template.getClass().newInstance();
+        if (partialOf != null) {
+            access.loadPartial(dataSet, partialOf);
+        }
+        else {
+            access.load(dataSet);
+        }
+        return access;
+    }
+
+    /**
+     * Gets the columns that are written on insert, that is all but auto-increment columns.
+     *
+     * @param template
+     *
+     * @return the columns in a fixed order
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    private List<Column> getInsertColumns(DataAccess template) throws DatabaseTableInconsistencyException {
+        List<Column> columns = new ArrayList<Column>();
+
+        for (Column column : template.getTableLayout()) {
+            if (!column.autoIncrement()) {
+                columns.add(column);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Binds the values of a row to the statement, starting at the given parameter index.
+     *
+     * @return the next free parameter index
+     */
+    private int bindRow(PreparedStatement ps, int index, List<Column> columns, DataAccess row) throws SQLException, DatabaseTableInconsistencyException {
+        HashMap<Column, Object> values = row.toDatabaseEntryList();
+
+        for (Column column : columns) {
+            ps.setObject(index++, JDBCHelper.getDatabaseValue(column, values.get(column)));
+        }
+        return index;
+    }
+
+    /**
+     * Rolls back the current transaction of the connection, if possible.
+     *
+     * @param conn
+     */
+    private void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        }
+        catch (SQLException ex) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Error rolling back MySQL transaction.", ex);
+        }
+    }
+
     /**
      * Safely Close a ResultSet.
      *
@@ -0,0 +1,98 @@
+package net.playblack.pbdbapi.mysql;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes that bring a MySQL table in line with the layout of its DataAccess.
+ * A table that does not exist yet is created with a single CREATE TABLE,
+ * all other changes are combined into the clauses of a single ALTER TABLE.
+ * Type changes that could lose data are only reported, they are not part of the statement.
+ */
+public final class MySQLSchemaDiff {
+
+    private final String table;
+    private final String create;
+    private final List<String> clauses;
+    private final List<String> unsafe;
+
+    MySQLSchemaDiff(String table, String create, List<String> clauses, List<String> unsafe) {
+        this.table = table;
+        this.create = create;
+        this.clauses = Collections.unmodifiableList(clauses);
+        this.unsafe = Collections.unmodifiableList(unsafe);
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /** @return true if the table does not exist and is created */
+    public boolean isCreate() {
+        return create != null;
+    }
+
+    /** @return true if the table already matches its layout */
+    public boolean isEmpty() {
+        return create == null && clauses.isEmpty();
+    }
+
+    /**
+     * Gets the ALTER TABLE clauses, ie: ADD `name` TEXT or DROP INDEX `pbdb_idx_name`.
+     * Drops come first, then added columns, modified columns and added indexes.
+     *
+     * @return the clauses, empty if the table is created or current
+     */
+    public List<String> getClauses() {
+        return clauses;
+    }
+
+    /**
+     * Gets the MODIFY clauses that are not applied because they could truncate or round values,
+     * ie: MODIFY `name` VARCHAR(16) on a TEXT column. They have to be applied by hand.
+     *
+     * @return the clauses, empty if all changes are safe
+     */
+    public List<String> getUnsafeClauses() {
+        return unsafe;
+    }
+
+    /**
+     * Gets the statement that applies this diff, without an ALGORITHM clause.
+     *
+     * @return the CREATE TABLE or ALTER TABLE statement, or null if there is nothing to do
+     */
+    public String getStatement() {
+        if (create != null) {
+            return create;
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        return "ALTER TABLE `" + table + "` " + getClauseList();
+    }
+
+    String getClauseList() {
+        StringBuilder sb = new StringBuilder();
+
+        for (String clause : clauses) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(clause);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        String changes = isEmpty() ? table + ": up to date" : table + ": " + getStatement();
+
+        if (unsafe.isEmpty()) {
+            return changes;
+        }
+        StringBuilder sb = new StringBuilder(changes).append(", not applied because data could be lost: ");
+
+        for (int i = 0; i < unsafe.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(unsafe.get(i));
+        }
+        return sb.toString();
+    }
+}
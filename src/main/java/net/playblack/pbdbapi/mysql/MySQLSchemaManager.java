@@ -0,0 +1,482 @@
+package net.playblack.pbdbapi.mysql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.playblack.pbdbapi.Column;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.IndexDefinition;
+import net.playblack.pbdbapi.JDBCHelper;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
+
+/**
+ * Compares MySQL tables to the layout of their DataAccess and applies the differences.
+ * Columns are compared by name and type, indexes by name, columns and uniqueness.
+ * Declared indexes are created with the { @link #INDEX_PREFIX } prefix, and only indexes with that prefix
+ * are ever dropped, so indexes added by hand, ie: for foreign keys, are left alone.
+ * <p/>
+ * All changes to a table are applied with a single ALTER TABLE, so InnoDB rebuilds the table
+ * at most once. The statement is first tried with ALGORITHM=INSTANT, then with ALGORITHM=INPLACE
+ * and only then without an algorithm, which lets MySQL fall back to copying the table.
+ * Servers before MySQL 5.6 do not know the ALGORITHM clause at all, they only get the plain statement.
+ * <p/>
+ * TIMESTAMP columns are DATETIME(3), which needs MySQL 5.6.4 or newer.
+ * <p/>
+ * Column types are only modified when no value can be lost, like widening an INT to a BIGINT.
+ * Other type changes are reported by the diff, see { @link MySQLSchemaDiff#getUnsafeClauses() },
+ * and have to be applied by hand.
+ */
+public class MySQLSchemaManager {
+
+    /** The prefix of the names of indexes this manager creates */
+    public static final String INDEX_PREFIX = "pbdb_";
+    /** MySQL limits identifiers to 64 characters */
+    private static final int MAX_NAME_LENGTH = 64;
+
+    /** Takes: Table Name, Column Data */
+    private final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `%s` (%s) ENGINE = INNODB";
+    /** Takes: Table Name */
+    private final String SHOW_COLUMNS = "SHOW COLUMNS FROM `%s`";
+    /** Takes: Table Name */
+    private final String SHOW_INDEX = "SHOW INDEX FROM `%s`";
+    /** The algorithms to try, in order. Anything that fails with both is left to MySQL */
+    private final List<String> ALGORITHMS = Arrays.asList("INSTANT", "INPLACE");
+    /** ER_UNKNOWN_ALTER_ALGORITHM, ER_ALTER_OPERATION_NOT_SUPPORTED and ER_ALTER_OPERATION_NOT_SUPPORTED_REASON */
+    private final List<Integer> UNSUPPORTED_ALGORITHM = Arrays.asList(1800, 1845, 1846);
+    /** ER_PARSE_ERROR, what MySQL 5.5 and older answer to any ALGORITHM clause */
+    private final int PARSE_ERROR = 1064;
+    /** Integer display widths mean nothing to MySQL and are not reported since 8.0.19 */
+    private static final Pattern INTEGER_WIDTH = Pattern.compile("^(tinyint|smallint|mediumint|int|bigint)\\(\\d+\\)");
+    /** Splits a type into its name, length or precision, scale and attributes, ie: decimal(10,2) unsigned */
+    private static final Pattern TYPE = Pattern.compile("^([a-z]+)(?:\\((\\d+)(?:,(\\d+))?\\))?(.*)$");
+    /** Integer types, each one can hold all values of the ones before it */
+    private static final List<String> INTEGERS = Arrays.asList("tinyint", "smallint", "mediumint", "int", "bigint");
+    /** Text and blob types by how many bytes they can hold */
+    private static final Map<String, Long> LOB_SIZES = new HashMap<String, Long>();
+
+    static {
+        LOB_SIZES.put("tinytext", 255L);
+        LOB_SIZES.put("text", 65535L);
+        LOB_SIZES.put("mediumtext", 16777215L);
+        LOB_SIZES.put("longtext", 4294967295L);
+        LOB_SIZES.put("tinyblob", 255L);
+        LOB_SIZES.put("blob", 65535L);
+        LOB_SIZES.put("mediumblob", 16777215L);
+        LOB_SIZES.put("longblob", 4294967295L);
+    }
+
+    /** Cleared when the server does not know ALGORITHM=INSTANT, which was added with MySQL 8.0 */
+    private volatile boolean instantSupported = true;
+    /** Cleared when the server does not know the ALGORITHM clause, which was added with MySQL 5.6 */
+    private volatile boolean algorithmSupported = true;
+
+    /**
+     * Compares the table of a DataAccess to its layout. Nothing is changed.
+     *
+     * @param conn
+     * @param data
+     *
+     * @return the changes, which may be empty
+     *
+     * @throws SQLException
+     * @throws DatabaseTableInconsistencyException
+     */
+    public MySQLSchemaDiff diff(Connection conn, DataAccess data) throws SQLException, DatabaseTableInconsistencyException {
+        String table = data.getName();
+
+        if (!this.tableExists(conn, table)) {
+            return new MySQLSchemaDiff(table, this.getCreateStatement(data), new ArrayList<String>(), new ArrayList<String>());
+        }
+        Map<String, Column> wanted = getColumnsByName(data);
+        Map<String, String> existing = this.getColumnTypes(conn, table);
+        Map<String, IndexDefinition> declaredIndexes = data.getIndexes();
+        Map<String, IndexDefinition> existingIndexes = this.getIndexes(conn, table);
+        List<String> drops = new ArrayList<String>();
+        List<String> changes = new ArrayList<String>();
+        List<String> unsafe = new ArrayList<String>();
+
+        Map<String, IndexDefinition> managedIndexes = new HashMap<String, IndexDefinition>();
+
+        for (IndexDefinition index : declaredIndexes.values()) {
+            IndexDefinition managed = getManagedIndex(index);
+            managedIndexes.put(managed.getName(), managed);
+        }
+        for (IndexDefinition index : existingIndexes.values()) {
+            if (index.getName().startsWith(INDEX_PREFIX) && !index.equals(managedIndexes.get(index.getName()))) {
+                drops.add("DROP INDEX `" + index.getName() + "`");
+            }
+        }
+        for (String column : existing.keySet()) {
+            if (!wanted.containsKey(column)) {
+                drops.add("DROP `" + column + "`");
+            }
+        }
+        for (Column column : data.getTableLayout()) {
+            if (!existing.containsKey(column.columnName())) {
+                changes.add("ADD `" + column.columnName() + "` " + JDBCHelper.getDataTypeSyntax(column));
+            }
+        }
+        for (Map.Entry<String, String> column : existing.entrySet()) {
+            Column declared = wanted.get(column.getKey());
+
+            if (declared == null || isTypeCurrent(declared, column.getValue())) {
+                continue;
+            }
+            String modify = "MODIFY `" + declared.columnName() + "` " + getColumnDefinition(declared);
+
+            if (isLossless(column.getValue(), JDBCHelper.getDataTypeSyntax(declared))) {
+                changes.add(modify);
+            }
+            else {
+                unsafe.add(modify);
+            }
+        }
+        for (IndexDefinition index : declaredIndexes.values()) {
+            IndexDefinition managed = getManagedIndex(index);
+
+            // Indexes of older versions have no prefix, one that matches its declaration is kept
+            if (!managed.equals(existingIndexes.get(managed.getName())) && !index.equals(existingIndexes.get(index.getName()))) {
+                changes.add("ADD " + JDBCHelper.getIndexSyntax(managed, wanted));
+            }
+        }
+        drops.addAll(changes);
+        return new MySQLSchemaDiff(table, null, drops, unsafe);
+    }
+
+    /**
+     * Applies a diff. ALTER TABLE statements are tried with ALGORITHM=INSTANT and ALGORITHM=INPLACE first,
+     * unless the server is older than MySQL 5.6.
+     *
+     * @param conn
+     * @param diff
+     *
+     * @throws SQLException
+     */
+    public void apply(Connection conn, MySQLSchemaDiff diff) throws SQLException {
+        if (diff.isEmpty()) {
+            return;
+        }
+        Statement statement = conn.createStatement();
+
+        try {
+            if (diff.isCreate()) {
+                statement.execute(diff.getStatement());
+                return;
+            }
+            boolean parseError = false;
+
+            for (String algorithm : ALGORITHMS) {
+                if (!algorithmSupported || algorithm.equals("INSTANT") && !instantSupported) {
+                    continue;
+                }
+                try {
+                    statement.execute(diff.getStatement() + ", ALGORITHM=" + algorithm);
+                    if (parseError) {
+                        instantSupported = false;
+                    }
+                    return;
+                }
+                catch (SQLException ex) {
+                    // Either the server does not know ALGORITHM or the statement is broken, the plain statement tells
+                    parseError = ex.getErrorCode() == PARSE_ERROR;
+                    if (parseError) {
+                        PBDatabaseAPI.logger().log(Level.FINE, "ALGORITHM=" + algorithm + " not understood for " + diff.getTable() + ": " + ex.getMessage());
+                        continue;
+                    }
+                    if (!UNSUPPORTED_ALGORITHM.contains(ex.getErrorCode())) {
+                        throw ex;
+                    }
+                    if (ex.getErrorCode() == 1800 && algorithm.equals("INSTANT")) {
+                        instantSupported = false;
+                    }
+                    PBDatabaseAPI.logger().log(Level.FINE, "ALGORITHM=" + algorithm + " not possible for " + diff.getTable() + ": " + ex.getMessage());
+                }
+            }
+            statement.execute(diff.getStatement());
+            if (parseError) {
+                PBDatabaseAPI.logger().log(Level.INFO, "MySQL does not support the ALGORITHM clause, schema changes are applied without it");
+                algorithmSupported = false;
+            }
+        }
+        finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Gets the CREATE TABLE statement for a DataAccess, including its primary key and indexes.
+     *
+     * @param data
+     *
+     * @return the statement
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    public String getCreateStatement(DataAccess data) throws DatabaseTableInconsistencyException {
+        StringBuilder fields = new StringBuilder();
+        String primary = null;
+
+        for (Column column : data.getTableLayout()) {
+            if (fields.length() > 0) {
+                fields.append(", ");
+            }
+            fields.append("`").append(column.columnName()).append("` ");
+            fields.append(JDBCHelper.getDataTypeSyntax(column));
+            if (column.autoIncrement()) {
+                fields.append(" AUTO_INCREMENT");
+            }
+            if (column.columnType().equals(Column.ColumnType.PRIMARY)) {
+                primary = column.columnName();
+            }
+        }
+        if (primary != null) {
+            fields.append(", PRIMARY KEY(`").append(primary).append("`)");
+        }
+        Map<String, Column> byName = getColumnsByName(data);
+        for (IndexDefinition index : data.getIndexes().values()) {
+            fields.append(", ").append(JDBCHelper.getIndexSyntax(getManagedIndex(index), byName));
+        }
+        return String.format(CREATE_TABLE, data.getName(), fields.toString());
+    }
+
+    private boolean tableExists(Connection conn, String tableName) throws SQLException {
+        ResultSet rs = conn.getMetaData().getTables(null, null, tableName, null);
+
+        try {
+            return rs.next();
+        }
+        finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Gets the names and types of the columns of a table.
+     *
+     * @param conn
+     * @param tableName
+     *
+     * @return column name to lower case type, ie: mediumblob or int(11)
+     *
+     * @throws SQLException
+     */
+    private Map<String, String> getColumnTypes(Connection conn, String tableName) throws SQLException {
+        Map<String, String> columns = new LinkedHashMap<String, String>();
+        Statement statement = conn.createStatement();
+
+        try {
+            ResultSet resultSet = statement.executeQuery(String.format(SHOW_COLUMNS, tableName));
+            while (resultSet.next()) {
+                columns.put(resultSet.getString("field"), resultSet.getString("type").toLowerCase());
+            }
+            resultSet.close();
+        }
+        finally {
+            statement.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Gets the secondary indexes of a table, that is all but the primary key.
+     *
+     * @param conn
+     * @param tableName
+     *
+     * @return the indexes by name
+     *
+     * @throws SQLException
+     */
+    private Map<String, IndexDefinition> getIndexes(Connection conn, String tableName) throws SQLException {
+        Map<String, List<String>> columns = new LinkedHashMap<String, List<String>>();
+        HashSet<String> unique = new HashSet<String>();
+        Statement statement = conn.createStatement();
+
+        try {
+            // Rows are ordered by index and position in the index
+            ResultSet resultSet = statement.executeQuery(String.format(SHOW_INDEX, tableName));
+            while (resultSet.next()) {
+                String name = resultSet.getString("Key_name");
+                if (name.equals("PRIMARY")) {
+                    continue;
+                }
+                if (!columns.containsKey(name)) {
+                    columns.put(name, new ArrayList<String>());
+                }
+                columns.get(name).add(resultSet.getString("Column_name"));
+                if (resultSet.getInt("Non_unique") == 0) {
+                    unique.add(name);
+                }
+            }
+            resultSet.close();
+        }
+        finally {
+            statement.close();
+        }
+        Map<String, IndexDefinition> indexes = new LinkedHashMap<String, IndexDefinition>();
+
+        for (Map.Entry<String, List<String>> entry : columns.entrySet()) {
+            indexes.put(entry.getKey(), new IndexDefinition(entry.getKey(), entry.getValue(), unique.contains(entry.getKey())));
+        }
+        return indexes;
+    }
+
+    private static Map<String, Column> getColumnsByName(DataAccess data) throws DatabaseTableInconsistencyException {
+        Map<String, Column> columns = new HashMap<String, Column>();
+
+        for (Column column : data.getTableLayout()) {
+            columns.put(column.columnName(), column);
+        }
+        return columns;
+    }
+
+    /** Gets a declared index under the name it has in MySQL, see { @link #INDEX_PREFIX } */
+    private static IndexDefinition getManagedIndex(IndexDefinition index) {
+        String name = INDEX_PREFIX + index.getName();
+        return index.rename(name.length() > MAX_NAME_LENGTH ? name.substring(0, MAX_NAME_LENGTH) : name);
+    }
+
+    /** The definition used to MODIFY a column, which has to repeat AUTO_INCREMENT */
+    private static String getColumnDefinition(Column column) {
+        return JDBCHelper.getDataTypeSyntax(column) + (column.autoIncrement() ? " AUTO_INCREMENT" : "");
+    }
+
+    /**
+     * Checks if the type of a column in the database matches its declaration.
+     * List columns are current as long as the type can hold their encoding.
+     * Types older versions created are current as well: DOUBLE for FLOAT columns,
+     * and text types for UUID columns, which are still read from their string form.
+     *
+     * @param column
+     * @param type
+     *         the lower case type as reported by SHOW COLUMNS
+     *
+     * @return true if the column does not need to be modified
+     */
+    static boolean isTypeCurrent(Column column, String type) {
+        if (column.isList()) {
+            return isListTypeCurrent(column, type);
+        }
+        if (column.dataType() == Column.DataType.FLOAT && type.equals("double")) {
+            return true;
+        }
+        if (column.dataType() == Column.DataType.UUID && (type.startsWith("varchar") || type.startsWith("char") || type.endsWith("text"))) {
+            return true;
+        }
+        return normalizeType(JDBCHelper.getDataTypeSyntax(column)).equals(normalizeType(type));
+    }
+
+    /**
+     * Checks if the type of a list column in the database can hold its encoding.
+     * Binary columns must be blobs. Text columns may be blobs as well, those still read and write fine
+     * and converting them back could fail on rows that are binary encoded.
+     */
+    private static boolean isListTypeCurrent(Column column, String type) {
+        if (type.endsWith("blob")) {
+            return true;
+        }
+        return column.listEncoding() == Column.ListEncoding.TEXT && type.endsWith("text");
+    }
+
+    /**
+     * Checks if MODIFY can change a column from one type to another without losing or altering any value.
+     * Only widening conversions are lossless: a larger integer type, FLOAT to DOUBLE, a DECIMAL with
+     * at least as many digits on both sides of the point, a longer VARCHAR or VARBINARY, a larger
+     * TEXT or BLOB, text to blobs of at least the same size and more fractional digits for DATETIME.
+     *
+     * @param from
+     *         the lower case type as reported by SHOW COLUMNS
+     * @param to
+     *         the declared type
+     *
+     * @return true if the conversion is known to be lossless
+     */
+    static boolean isLossless(String from, String to) {
+        Matcher source = TYPE.matcher(normalizeType(from));
+        Matcher target = TYPE.matcher(normalizeType(to));
+
+        if (!source.matches() || !target.matches()) {
+            return false;
+        }
+        String fromName = source.group(1);
+        String toName = target.group(1);
+        boolean fromUnsigned = source.group(4).contains("unsigned");
+        boolean toUnsigned = target.group(4).contains("unsigned");
+
+        if (INTEGERS.contains(fromName) && INTEGERS.contains(toName)) {
+            if (fromUnsigned == toUnsigned) {
+                return INTEGERS.indexOf(toName) >= INTEGERS.indexOf(fromName);
+            }
+            // Unsigned values fit into the next larger signed type
+            return fromUnsigned && INTEGERS.indexOf(toName) > INTEGERS.indexOf(fromName);
+        }
+        if (fromUnsigned && !toUnsigned) {
+            return false;
+        }
+        if (fromName.equals("float") && toName.equals("double")) {
+            return true;
+        }
+        if (fromName.equals("decimal") && toName.equals("decimal")) {
+            int fromScale = getNumber(source.group(3), 0);
+            int toScale = getNumber(target.group(3), 0);
+            // DECIMAL without a precision is DECIMAL(10,0)
+            return toScale >= fromScale && getNumber(target.group(2), 10) - toScale >= getNumber(source.group(2), 10) - fromScale;
+        }
+        if (fromName.equals("datetime") && toName.equals("datetime")) {
+            return getNumber(target.group(2), 0) >= getNumber(source.group(2), 0);
+        }
+        if ((fromName.equals("varchar") || fromName.equals("char")) && toName.equals("varchar")) {
+            return getNumber(target.group(2), 0) >= getNumber(source.group(2), 1);
+        }
+        if (fromName.equals("varbinary") && toName.equals("varbinary")) {
+            return getNumber(target.group(2), 0) >= getNumber(source.group(2), 1);
+        }
+        Long capacity = LOB_SIZES.get(toName);
+
+        if (capacity == null || toName.endsWith("text") && !isText(fromName)) {
+            return false;
+        }
+        // Text moves into blobs byte by byte, a character takes up to 4 bytes
+        if (fromName.equals("varchar") || fromName.equals("char")) {
+            return capacity >= getNumber(source.group(2), 1) * 4L;
+        }
+        if (fromName.equals("varbinary") || fromName.equals("binary")) {
+            return toName.endsWith("blob") && capacity >= getNumber(source.group(2), 1);
+        }
+        Long size = LOB_SIZES.get(fromName);
+        return size != null && capacity >= size;
+    }
+
+    private static boolean isText(String type) {
+        return type.equals("varchar") || type.equals("char") || type.endsWith("text");
+    }
+
+    private static int getNumber(String number, int def) {
+        return number == null ? def : Integer.parseInt(number);
+    }
+
+    /** Brings a type into the form SHOW COLUMNS reports it in, without display widths */
+    private static String normalizeType(String type) {
+        String normalized = type.toLowerCase().trim();
+
+        if (normalized.equals("boolean") || normalized.equals("bool")) {
+            return "tinyint";
+        }
+        if (normalized.startsWith("integer")) {
+            normalized = "int" + normalized.substring(7);
+        }
+        return INTEGER_WIDTH.matcher(normalized).replaceFirst("$1");
+    }
+}
@@ -0,0 +1,294 @@
+package net.playblack.pbdbapi.mysql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.config.ConnectionConfiguration;
+
+/**
+ * The read replicas of a MySQL database, see { @link ConnectionConfiguration#getReplica(int) }.
+ * Reads are spread over the healthy replicas, round-robin or to the replica with the fewest connections in use.
+ * They go to the primary instead when there are no healthy replicas, or when the reading thread wrote
+ * within the read-your-writes window.
+ * <p/>
+ * A replica is taken out when a connection to it cannot be opened, breaks during a read or fails a health check,
+ * and gets reads again once it passes a health check. Health checks run in the background.
+ * Connections to replicas are validated when they are borrowed, dead ones are closed.
+ */
+final class ReplicaSet {
+
+    /** Seconds a connection has to answer a health check */
+    private final int HEALTH_TIMEOUT = 2;
+    /** Seconds a connection has to answer when it is borrowed */
+    private final int VALIDATE_TIMEOUT = 1;
+
+    private final MySQLConnectionPool primary;
+    private final List<Replica> replicas = new ArrayList<Replica>();
+    private final boolean leastLoaded;
+    private final long window;
+    private final AtomicInteger next = new AtomicInteger();
+    /** When each thread last wrote, in System.nanoTime() */
+    private final ThreadLocal<Long> lastWrite = new ThreadLocal<Long>();
+    /** The replica each read connection was taken from */
+    private final Map<Connection, Replica> borrowed = new IdentityHashMap<Connection, Replica>();
+    private ScheduledExecutorService healthCheck;
+
+    ReplicaSet(MySQLConnectionPool primary, ConnectionConfiguration config) {
+        this.primary = primary;
+        this.leastLoaded = config.getReplicaRouting().equals("least-loaded");
+        this.window = TimeUnit.MILLISECONDS.toNanos(config.getReadYourWritesWindow());
+
+        for (int i = 0; i < config.getReplicaCount(); i++) {
+            ConnectionConfiguration replica = config.getReplica(i);
+            replicas.add(new Replica(i, replica.getDatabaseHost() + ":" + replica.getDatabasePort(), new MySQLConnectionPool(replica)));
+        }
+        if (!replicas.isEmpty()) {
+            healthCheck = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PBDatabaseAPI MySQL replica health check");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            healthCheck.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkHealth();
+                }
+            }, config.getReplicaHealthInterval(), config.getReplicaHealthInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Gets a connection for a read. Return it with { @link #returnReadConnection(Connection) }.
+     *
+     * @return a connection to a replica, or to the primary
+     */
+    Connection getReadConnection() {
+        Replica replica;
+
+        while (!this.isRecentWriter() && (replica = this.chooseReplica()) != null) {
+            try {
+                Connection conn = this.borrowValid(replica);
+                if (conn == null) {
+                    continue;
+                }
+                synchronized (borrowed) {
+                    borrowed.put(conn, replica);
+                }
+                return conn;
+            }
+            catch (NoSuchElementException ex) {
+                // No connection could be opened, the pool logged why
+                this.markDown(replica, "no connection");
+            }
+        }
+        return primary.getConnectionFromPool();
+    }
+
+    /**
+     * Returns a connection taken with { @link #getReadConnection() } to its pool.
+     *
+     * @param conn
+     */
+    void returnReadConnection(Connection conn) {
+        Replica replica;
+
+        synchronized (borrowed) {
+            replica = borrowed.remove(conn);
+        }
+        (replica != null ? replica.pool : primary).returnConnectionToPool(conn);
+    }
+
+    /**
+     * Takes over a read that failed on a connection from { @link #getReadConnection() }.
+     * If the connection to a replica broke, it is closed, the replica is taken out
+     * and the read can be retried on the primary.
+     *
+     * @param conn
+     *         the connection the read failed on
+     * @param error
+     *         why the read failed
+     *
+     * @return a connection to the primary to retry the read on, or null if the read should not be retried.
+     *         The failed connection must only be returned if this is null
+     */
+    Connection failOver(Connection conn, Exception error) {
+        SQLException failure = getConnectionFailure(error);
+
+        if (failure == null) {
+            return null;
+        }
+        Replica replica;
+
+        synchronized (borrowed) {
+            replica = borrowed.remove(conn);
+        }
+        if (replica == null) {
+            // A connection to the primary, nothing to fail over to
+            return null;
+        }
+        replica.pool.discardConnection(conn);
+        this.markDown(replica, failure.getMessage());
+        return primary.getConnectionFromPool();
+    }
+
+    /** Sends the reads of the current thread to the primary for the read-your-writes window */
+    void recordWrite() {
+        if (window > 0 && !replicas.isEmpty()) {
+            lastWrite.set(System.nanoTime());
+        }
+    }
+
+    /** @return true if the reads of the current thread go to the primary because it wrote within the window */
+    boolean isRecentWriter() {
+        Long written = lastWrite.get();
+
+        if (written == null) {
+            return false;
+        }
+        if (System.nanoTime() - written < window) {
+            return true;
+        }
+        lastWrite.remove();
+        return false;
+    }
+
+    /**
+     * Borrows a connection of a replica that still answers. Dead connections, like those the server
+     * closed after wait_timeout, are closed until the pool opens a new one. If that is dead as well,
+     * the replica is taken out.
+     *
+     * @return a valid connection, or null if the replica was taken out
+     */
+    private Connection borrowValid(Replica replica) {
+        int attempts = replica.pool.getIdleCount() + 1;
+
+        for (int i = 0; i < attempts; i++) {
+            Connection conn = replica.pool.getConnectionFromPool();
+
+            try {
+                if (conn.isValid(VALIDATE_TIMEOUT)) {
+                    return conn;
+                }
+            }
+            catch (SQLException ex) {
+                PBDatabaseAPI.logger().log(Level.FINE, "Could not validate a connection to MySQL replica " + replica.index, ex);
+            }
+            replica.pool.discardConnection(conn);
+        }
+        this.markDown(replica, "connections are not valid");
+        return null;
+    }
+
+    /**
+     * Finds out if a read failed because its connection broke, as opposed to an error in the query.
+     * Connector/J reports those with a SQLState of class 08, ie: 08S01 for a communications link failure.
+     *
+     * @return the exception of the broken connection, or null if the connection is fine
+     */
+    private static SQLException getConnectionFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                if (state != null && state.startsWith("08")) {
+                    return (SQLException) cause;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return a healthy replica, or null if there is none */
+    private Replica chooseReplica() {
+        if (replicas.isEmpty()) {
+            return null;
+        }
+        if (leastLoaded) {
+            Replica best = null;
+            int load = Integer.MAX_VALUE;
+
+            for (Replica replica : replicas) {
+                if (replica.healthy && replica.pool.getBorrowedCount() < load) {
+                    best = replica;
+                    load = replica.pool.getBorrowedCount();
+                }
+            }
+            return best;
+        }
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /** Checks every replica with a connection from its pool */
+    private void checkHealth() {
+        for (Replica replica : replicas) {
+            Connection conn;
+
+            try {
+                conn = replica.pool.getConnectionFromPool();
+            }
+            catch (NoSuchElementException ex) {
+                this.markDown(replica, "no connection");
+                continue;
+            }
+            try {
+                if (conn.isValid(HEALTH_TIMEOUT)) {
+                    replica.pool.returnConnectionToPool(conn);
+                    if (!replica.healthy) {
+                        replica.healthy = true;
+                        PBDatabaseAPI.logger().log(Level.INFO, "MySQL replica " + replica.index + " (" + replica.address + ") is back, sending reads to it");
+                    }
+                    continue;
+                }
+                replica.pool.discardConnection(conn);
+                this.markDown(replica, "connection is not valid");
+            }
+            catch (SQLException ex) {
+                replica.pool.discardConnection(conn);
+                this.markDown(replica, ex.getMessage());
+            }
+        }
+    }
+
+    private void markDown(Replica replica, String reason) {
+        if (replica.healthy) {
+            replica.healthy = false;
+            PBDatabaseAPI.logger().log(Level.WARNING, "MySQL replica " + replica.index + " (" + replica.address + ") failed, sending its reads elsewhere: " + reason);
+        }
+    }
+
+    /** A replica and its connection pool */
+    private static final class Replica {
+
+        final int index;
+        final String address;
+        final MySQLConnectionPool pool;
+        volatile boolean healthy = true;
+
+        Replica(int index, String address, MySQLConnectionPool pool) {
+            this.index = index;
+            this.address = address;
+            this.pool = pool;
+        }
+    }
+}
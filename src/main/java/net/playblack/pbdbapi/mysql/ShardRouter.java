@@ -0,0 +1,190 @@
+package net.playblack.pbdbapi.mysql;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.playblack.pbdbapi.Column;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.ShardKey;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
+import net.playblack.pbdbapi.queries.QueryEntry;
+
+/**
+ * Maps rows and queries to shards by the { @link ShardKey } of their table.
+ * The shard key of each DataAccess class is looked up once.
+ */
+final class ShardRouter {
+
+    /** Returned for queries that have to ask every shard */
+    static final int ALL_SHARDS = -1;
+
+    private final ConcurrentHashMap<Class<?>, Route> routes = new ConcurrentHashMap<Class<?>, Route>();
+
+    /**
+     * Gets the shard a row belongs on.
+     *
+     * @param row
+     * @param shards
+     *         the number of shards
+     *
+     * @return the shard
+     *
+     * @throws DatabaseTableInconsistencyException
+     *         if the shard key is declared wrong or no shard takes the value
+     */
+    int getShard(DataAccess row, int shards) throws DatabaseTableInconsistencyException {
+        Route route = this.getRoute(row);
+
+        if (route.column == null) {
+            return 0;
+        }
+        return route.getShard(row.toDatabaseEntryList().get(route.column), shards);
+    }
+
+    /**
+     * Gets the shard a query is limited to by its conditions.
+     *
+     * @param table
+     *         the DataAccess of the queried table
+     * @param wheres
+     *         the conditions of the query
+     * @param shards
+     *         the number of shards
+     *
+     * @return the shard, or { @link #ALL_SHARDS } if the conditions do not include the shard key
+     *
+     * @throws DatabaseTableInconsistencyException
+     *         if the shard key is declared wrong or no shard takes the value
+     */
+    int getShard(DataAccess table, List<QueryEntry> wheres, int shards) throws DatabaseTableInconsistencyException {
+        Route route = this.getRoute(table);
+
+        if (route.column == null) {
+            return 0;
+        }
+        for (QueryEntry entry : wheres) {
+            if (entry.getColumnName().equals(route.column.columnName())) {
+                return route.getShard(entry.getColumnValue(), shards);
+            }
+        }
+        return ALL_SHARDS;
+    }
+
+    private Route getRoute(DataAccess data) throws DatabaseTableInconsistencyException {
+        Route route = routes.get(data.getClass());
+
+        if (route == null) {
+            route = findRoute(data.getClass());
+            routes.put(data.getClass(), route);
+        }
+        return route;
+    }
+
+    /**
+     * Reads the shard key of a DataAccess class.
+     *
+     * @param type
+     *         the DataAccess class
+     *
+     * @return the route of the table, { @link Route#NONE } if it has no shard key
+     *
+     * @throws DatabaseTableInconsistencyException
+     *         if the shard key is declared wrong
+     */
+    static Route findRoute(Class<?> type) throws DatabaseTableInconsistencyException {
+        Field[] fields = DataAccess.safeArrayMerge(type.getFields(), type.getDeclaredFields(), new Field[1]);
+        Route route = Route.NONE;
+
+        for (Field field : fields) {
+            ShardKey key = field == null ? null : field.getAnnotation(ShardKey.class);
+
+            if (key == null) {
+                continue;
+            }
+            Column column = field.getAnnotation(Column.class);
+            if (column == null) {
+                throw new DatabaseTableInconsistencyException("Shard key " + field.getName() + " of " + type.getSimpleName() + " is not a column");
+            }
+            if (route != Route.NONE) {
+                throw new DatabaseTableInconsistencyException("Found more than one shard key in " + type.getSimpleName());
+            }
+            long[] ranges = key.ranges();
+            for (int i = 1; i < ranges.length; i++) {
+                if (ranges[i] <= ranges[i - 1]) {
+                    throw new DatabaseTableInconsistencyException("Shard key ranges of " + type.getSimpleName() + " are not ascending: " + Arrays.toString(ranges));
+                }
+            }
+            if (key.strategy() == ShardKey.Strategy.RANGE && ranges.length == 0) {
+                throw new DatabaseTableInconsistencyException("Shard key of " + type.getSimpleName() + " has no ranges");
+            }
+            route = new Route(column, key.strategy(), ranges);
+        }
+        return route;
+    }
+
+    /** The shard key of a table */
+    static final class Route {
+
+        static final Route NONE = new Route(null, null, null);
+
+        final Column column;
+        final ShardKey.Strategy strategy;
+        final long[] ranges;
+
+        Route(Column column, ShardKey.Strategy strategy, long[] ranges) {
+            this.column = column;
+            this.strategy = strategy;
+            this.ranges = ranges;
+        }
+
+        /**
+         * Gets the shard a value of the shard key belongs on.
+         *
+         * @param value
+         * @param shards
+         *         the number of shards
+         *
+         * @return the shard
+         *
+         * @throws DatabaseTableInconsistencyException
+         *         if no shard takes the value
+         */
+        int getShard(Object value, int shards) throws DatabaseTableInconsistencyException {
+            int shard;
+
+            if (strategy == ShardKey.Strategy.RANGE) {
+                if (!(value instanceof Number)) {
+                    throw new DatabaseTableInconsistencyException("Shard key " + column.columnName() + " must be a number to be sharded by range, got " + value);
+                }
+                long number = ((Number) value).longValue();
+                shard = 0;
+                while (shard < ranges.length && number >= ranges[shard]) {
+                    shard++;
+                }
+                if (shard >= shards) {
+                    throw new DatabaseTableInconsistencyException("No shard for " + column.columnName() + " " + value + ", there are only " + shards + " shards");
+                }
+                return shard;
+            }
+            int hash = hash(value);
+            return (hash % shards + shards) % shards;
+        }
+
+        /**
+         * A hash that is the same on every JVM and for every integral type, so that
+         * a key read back as a Long ends up on the shard it was written to as an Integer.
+         */
+        private static int hash(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                long number = ((Number) value).longValue();
+                return (int) (number ^ (number >>> 32));
+            }
+            return String.valueOf(value).hashCode();
+        }
+    }
+}
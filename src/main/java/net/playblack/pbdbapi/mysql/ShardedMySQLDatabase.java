@@ -0,0 +1,522 @@
+package net.playblack.pbdbapi.mysql;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import net.playblack.pbdbapi.AggregateResult;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.Database;
+import net.playblack.pbdbapi.JDBCTransaction;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.Transaction;
+import net.playblack.pbdbapi.TransactionWork;
+import net.playblack.pbdbapi.config.ConnectionConfiguration;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.metrics.Metrics;
+import net.playblack.pbdbapi.queries.Aggregate;
+import net.playblack.pbdbapi.queries.Query;
+import net.playblack.pbdbapi.queries.QueryEntry;
+import net.playblack.pbdbapi.queries.Select;
+import net.playblack.pbdbapi.queries.UpdateSchema;
+import net.playblack.pbdbapi.tracing.TraceSpan;
+import net.playblack.pbdbapi.tracing.Tracing;
+
+/**
+ * A MySQL database whose tables are split over several MySQL databases, the shards.
+ * Each shard is configured in connection.cfg, see { @link ConnectionConfiguration#getShard(int) },
+ * and has its own connection pool.
+ * <p/>
+ * Rows are placed by the { @link net.playblack.pbdbapi.ShardKey } of their table. Queries that have
+ * the shard key in their conditions go to a single shard, all others are sent to every shard in parallel
+ * and their results merged. Tables without a shard key are kept on shard 0. Schema updates are applied to all shards.
+ * <p/>
+ * The SQL is the same as that of { @link MySQLDatabase }, which runs the queries on the connections of the shards.
+ */
+public class ShardedMySQLDatabase extends Database {
+
+    private static ShardedMySQLDatabase instance;
+    /** The db.system of trace spans */
+    private final String DB_SYSTEM = "mysql";
+    /** The trace attribute holding the number of shards a query was sent to */
+    private final String SHARDS = "pbdbapi.shards";
+
+    private final MySQLDatabase backend = MySQLDatabase.getInstance();
+    private final ShardRouter router = new ShardRouter();
+    private List<MySQLConnectionPool> pools;
+    private ExecutorService executor;
+
+    private ShardedMySQLDatabase() {
+    }
+
+    public static ShardedMySQLDatabase getInstance() {
+        if (instance == null) {
+            instance = new ShardedMySQLDatabase();
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the pools of all shards, creating them on first use like { @link MySQLDatabase } does.
+     *
+     * @return the pools, by shard
+     */
+    private synchronized List<MySQLConnectionPool> getPools() {
+        if (pools == null) {
+            ConnectionConfiguration config = PBDatabaseAPI.get().getConnectionConfig();
+            List<MySQLConnectionPool> created = new ArrayList<MySQLConnectionPool>();
+
+            for (int i = 0; i < config.getShardCount(); i++) {
+                created.add(new MySQLConnectionPool(config.getShard(i)));
+            }
+            pools = Collections.unmodifiableList(created);
+        }
+        return pools;
+    }
+
+    /** The threads that query the shards in parallel. Idle threads end after a minute */
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PBDatabaseAPI shard query " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Gets the number of shards.
+     *
+     * @return number of shards, at least 1
+     */
+    public int getShardCount() {
+        return this.getPools().size();
+    }
+
+    MySQLConnectionPool getPool(int shard) {
+        return this.getPools().get(shard);
+    }
+
+    MySQLDatabase getBackend() {
+        return backend;
+    }
+
+    /**
+     * Gets the shards a query has to be sent to.
+     *
+     * @param shard
+     *         a shard or { @link ShardRouter#ALL_SHARDS }
+     *
+     * @return the indexes of the shards
+     */
+    int[] getShards(int shard) {
+        if (shard != ShardRouter.ALL_SHARDS) {
+            return new int[]{ shard };
+        }
+        int[] all = new int[this.getShardCount()];
+
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        return all;
+    }
+
+    /**
+     * Gets the shard a read is limited to by its conditions.
+     *
+     * @param table
+     * @param wheres
+     *
+     * @return the shard, or { @link ShardRouter#ALL_SHARDS }
+     *
+     * @throws DatabaseReadException
+     *         if the shard key of the table is declared wrong
+     */
+    int getShard(DataAccess table, List<QueryEntry> wheres) throws DatabaseReadException {
+        try {
+            return router.getShard(table, wheres, this.getShardCount());
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseReadException("Error routing query on " + table.getName() + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Gets the shard a write goes to, by the shard key of its row.
+     *
+     * @param query
+     *
+     * @return the shard
+     *
+     * @throws DatabaseWriteException
+     *         if the shard key of the table is declared wrong
+     */
+    int getShard(Query query) throws DatabaseWriteException {
+        try {
+            return router.getShard(query.from(), this.getShardCount());
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseWriteException("Error routing query on " + query.from().getName() + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    public void openConnections() {
+        this.getPools();
+    }
+
+    @Override
+    protected DataAccess[] executeSelect(final Select query) throws DatabaseReadException {
+        long start = System.nanoTime();
+        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.SELECT, query.from().getName());
+
+        try {
+            int[] shards = this.getShards(this.getShard(query.from(), query.getWheres()));
+            List<List<DataAccess>> results = this.scatter(shards, new ShardQuery<List<DataAccess>>() {
+                @Override
+                public List<DataAccess> run(Connection conn) throws DatabaseReadException {
+                    return backend.load(query, conn, ShardedMySQLDatabase.this);
+                }
+            });
+            List<DataAccess> toRet = mergeRows(results, query.limit());
+
+            Metrics.recordSince(query.from().getName(), Query.Type.SELECT, start);
+            Metrics.get().recordRowsRead(query.from().getName(), toRet.size());
+            span.setAttribute(SHARDS, shards.length);
+            span.setAttribute(Tracing.ROWS, toRet.size());
+            return toRet.toArray(new DataAccess[toRet.size()]);
+        }
+        catch (DatabaseReadException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    @Override
+    public AggregateResult[] aggregate(final Aggregate query) throws DatabaseReadException {
+        long start = System.nanoTime();
+        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.AGGREGATE, query.from().getName());
+
+        try {
+            int[] shards = this.getShards(this.getShard(query.from(), query.getWheres()));
+            List<List<AggregateResult>> results = this.scatter(shards, new ShardQuery<List<AggregateResult>>() {
+                @Override
+                public List<AggregateResult> run(Connection conn) throws DatabaseReadException {
+                    return backend.aggregate(query, conn);
+                }
+            });
+            List<AggregateResult> toRet = mergeAggregates(query, results);
+
+            span.setAttribute(SHARDS, shards.length);
+            span.setAttribute(Tracing.ROWS, toRet.size());
+            return toRet.toArray(new AggregateResult[toRet.size()]);
+        }
+        catch (DatabaseReadException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            Metrics.recordSince(query.from().getName(), Query.Type.AGGREGATE, start);
+            span.end();
+        }
+    }
+
+    /**
+     * Loads the rows shard by shard. The rows are sorted by shard first,
+     * so all rows are held in memory until they are written.
+     */
+    @Override
+    public int bulkLoad(Class<? extends DataAccess> table, Iterator<? extends DataAccess> rows) throws DatabaseWriteException {
+        List<List<DataAccess>> byShard = new ArrayList<List<DataAccess>>();
+        int count = 0;
+
+        for (int i = 0; i < this.getShardCount(); i++) {
+            byShard.add(new ArrayList<DataAccess>());
+        }
+        try {
+            while (rows.hasNext()) {
+                DataAccess row = rows.next();
+                byShard.get(router.getShard(row, byShard.size())).add(row);
+            }
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseWriteException("Error routing rows of " + table.getSimpleName() + ": " + ex.getMessage(), ex);
+        }
+        try {
+            for (int i = 0; i < byShard.size(); i++) {
+                if (byShard.get(i).isEmpty()) {
+                    continue;
+                }
+                MySQLConnectionPool pool = this.getPool(i);
+                Connection conn = pool.getConnectionFromPool();
+                try {
+                    count += backend.bulkLoad(table, byShard.get(i).iterator(), conn);
+                }
+                finally {
+                    pool.returnConnectionToPool(conn);
+                }
+            }
+        }
+        finally {
+            this.recordWrite();
+        }
+        return count;
+    }
+
+    /**
+     * Runs the work in a transaction across all shards it touches, see { @link ShardedTransaction }.
+     * Deadlocks are retried like on { @link MySQLDatabase }, unless some shards were committed already.
+     */
+    @Override
+    protected <T> T beginTransaction(Transaction.Isolation isolation, TransactionWork<T> work) throws DatabaseWriteException {
+        int retries = PBDatabaseAPI.get().getDatabaseConfig().getTransactionRetries();
+
+        for (int attempt = 0; ; attempt++) {
+            ShardedTransaction transaction = new ShardedTransaction(isolation, this);
+
+            try {
+                T result = this.runWork(transaction, work);
+                if (!transaction.isRollbackOnly()) {
+                    transaction.commit();
+                }
+                return result;
+            }
+            catch (DatabaseReadException ex) {
+                throw new DatabaseWriteException("Transaction failed: " + ex.getMessage(), ex);
+            }
+            catch (DatabaseWriteException ex) {
+                if (attempt >= retries || transaction.isPartiallyCommitted() || !JDBCTransaction.isRetryable(ex)) {
+                    throw ex;
+                }
+                PBDatabaseAPI.logger().log(Level.FINE, "Retrying transaction after: " + ex.getMessage());
+            }
+            finally {
+                transaction.close();
+            }
+            JDBCTransaction.pauseBeforeRetry(attempt);
+        }
+    }
+
+    @Override
+    public void updateSchema(UpdateSchema... udpateSchema) throws DatabaseWriteException {
+        try {
+            for (int i = 0; i < this.getShardCount(); i++) {
+                MySQLConnectionPool pool = this.getPool(i);
+                Connection conn = pool.getConnectionFromPool();
+
+                try {
+                    for (UpdateSchema query : udpateSchema) {
+                        long start = System.nanoTime();
+                        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.UPDATE_SCHEMA, query.from().getName());
+                        try {
+                            backend.updateSchema(query, conn);
+                        }
+                        catch (DatabaseWriteException ex) {
+                            span.recordError(ex);
+                            throw new DatabaseWriteException("Error updating schema of shard " + i + ": " + ex.getMessage(), ex);
+                        }
+                        finally {
+                            span.end();
+                        }
+                        Metrics.recordSince(query.from().getName(), Query.Type.UPDATE_SCHEMA, start);
+                    }
+                }
+                finally {
+                    pool.returnConnectionToPool(conn);
+                }
+            }
+        }
+        finally {
+            this.recordWrite();
+        }
+    }
+
+    /**
+     * Runs a read on the given shards, in parallel if there is more than one.
+     *
+     * @param shards
+     * @param query
+     *
+     * @return the results, in the order of the shards
+     *
+     * @throws DatabaseReadException
+     *         when the read failed on any shard, the results of the other shards are dropped
+     *         so a partial result is never merged
+     */
+    private <T> List<T> scatter(int[] shards, final ShardQuery<T> query) throws DatabaseReadException {
+        List<T> results = new ArrayList<T>(shards.length);
+
+        if (shards.length == 1) {
+            results.add(this.runOnShard(shards[0], query));
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<Future<T>>(shards.length);
+
+        for (final int shard : shards) {
+            futures.add(this.getExecutor().submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return runOnShard(shard, query);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                try {
+                    results.add(futures.get(i).get());
+                }
+                catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof DatabaseReadException) {
+                        throw (DatabaseReadException) ex.getCause();
+                    }
+                    throw new DatabaseReadException("Error querying shard " + shards[i] + ": " + ex.getCause().getMessage(), ex.getCause());
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseReadException("Interrupted while querying shards", ex);
+        }
+        finally {
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    private <T> T runOnShard(int shard, ShardQuery<T> query) throws DatabaseReadException {
+        MySQLConnectionPool pool = this.getPool(shard);
+        Connection conn = pool.getConnectionFromPool();
+
+        try {
+            return query.run(conn);
+        }
+        catch (DatabaseReadException ex) {
+            throw new DatabaseReadException("Error querying shard " + shard + ": " + ex.getMessage(), ex);
+        }
+        finally {
+            pool.returnConnectionToPool(conn);
+        }
+    }
+
+    /**
+     * Merges the rows of several shards.
+     *
+     * @param results
+     *         the rows of each shard
+     * @param limit
+     *         the limit of the query, which each shard applied on its own
+     *
+     * @return at most limit rows
+     */
+    static <T> List<T> mergeRows(List<List<T>> results, int limit) {
+        if (results.size() == 1) {
+            return results.get(0);
+        }
+        List<T> merged = new ArrayList<T>();
+
+        for (List<T> result : results) {
+            merged.addAll(result);
+        }
+        return merged.size() > limit ? merged.subList(0, limit) : merged;
+    }
+
+    /**
+     * Merges the aggregates of several shards, group by group. Counts and sums are added up,
+     * of minimums and maximums the smallest and largest is kept.
+     *
+     * @param query
+     * @param results
+     *         the aggregates of each shard
+     *
+     * @return one result per group
+     */
+    @SuppressWarnings("unchecked")
+    static List<AggregateResult> mergeAggregates(Aggregate query, List<List<AggregateResult>> results) {
+        if (results.size() == 1) {
+            return results.get(0);
+        }
+        Map<List<Object>, Object> merged = new LinkedHashMap<List<Object>, Object>();
+
+        for (List<AggregateResult> result : results) {
+            for (AggregateResult row : result) {
+                if (!merged.containsKey(row.getGroup())) {
+                    merged.put(row.getGroup(), row.getValue());
+                    continue;
+                }
+                Object current = merged.get(row.getGroup());
+                Object value = row.getValue();
+
+                if (value == null) {
+                    continue;
+                }
+                if (current == null) {
+                    merged.put(row.getGroup(), value);
+                    continue;
+                }
+                switch (query.function()) {
+                    case COUNT:
+                    case SUM:
+                        if (current instanceof Long && value instanceof Long) {
+                            merged.put(row.getGroup(), (Long) current + (Long) value);
+                        }
+                        else if (current instanceof BigDecimal || value instanceof BigDecimal) {
+                            // DECIMAL sums stay exact, a double would round them
+                            merged.put(row.getGroup(), new BigDecimal(current.toString()).add(new BigDecimal(value.toString())));
+                        }
+                        else {
+                            merged.put(row.getGroup(), ((Number) current).doubleValue() + ((Number) value).doubleValue());
+                        }
+                        break;
+                    case MIN:
+                        if (((Comparable<Object>) value).compareTo(current) < 0) {
+                            merged.put(row.getGroup(), value);
+                        }
+                        break;
+                    case MAX:
+                        if (((Comparable<Object>) value).compareTo(current) > 0) {
+                            merged.put(row.getGroup(), value);
+                        }
+                        break;
+                }
+            }
+        }
+        List<AggregateResult> toRet = new ArrayList<AggregateResult>(merged.size());
+
+        for (Map.Entry<List<Object>, Object> entry : merged.entrySet()) {
+            toRet.add(new AggregateResult(entry.getKey(), entry.getValue()));
+        }
+        return toRet;
+    }
+
+    /** A read on the connection of a single shard */
+    private interface ShardQuery<T> {
+
+        T run(Connection conn) throws DatabaseReadException;
+    }
+}
@@ -0,0 +1,277 @@
+package net.playblack.pbdbapi.mysql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import net.playblack.pbdbapi.AggregateResult;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.Transaction;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.queries.Aggregate;
+import net.playblack.pbdbapi.queries.Query;
+import net.playblack.pbdbapi.queries.Select;
+
+/**
+ * A transaction of { @link ShardedMySQLDatabase }. Each shard the transaction touches
+ * gets a connection of its own, which is only taken from the shard's pool when it is first used.
+ * <p/>
+ * The shards are committed one after another. This is not a two-phase commit: if the commit
+ * of a shard fails after others were committed, those stay committed.
+ */
+final class ShardedTransaction extends Transaction {
+
+    private final ShardedMySQLDatabase database;
+    /** The shards touched so far, by index, so they are always committed in the same order */
+    private final Map<Integer, Branch> branches = new TreeMap<Integer, Branch>();
+    /** The savepoints of the transaction, in the order they were set */
+    private final List<String> savepoints = new ArrayList<String>();
+    private int committed = 0;
+
+    ShardedTransaction(Isolation isolation, ShardedMySQLDatabase database) {
+        super(isolation);
+        this.database = database;
+    }
+
+    @Override
+    public DataAccess[] query(Select query) throws DatabaseReadException {
+        int shard = database.getShard(query.from(), query.getWheres());
+        List<List<DataAccess>> results = new ArrayList<List<DataAccess>>();
+
+        try {
+            for (int i : database.getShards(shard)) {
+                results.add(this.load(query, i));
+            }
+        }
+        catch (DatabaseWriteException ex) {
+            throw new DatabaseReadException(ex.getMessage(), ex);
+        }
+        // Only reached when every shard answered, load throws otherwise
+        List<DataAccess> toRet = ShardedMySQLDatabase.mergeRows(results, query.limit());
+        return toRet.toArray(new DataAccess[toRet.size()]);
+    }
+
+    @Override
+    public AggregateResult[] aggregate(Aggregate query) throws DatabaseReadException {
+        int shard = database.getShard(query.from(), query.getWheres());
+        List<List<AggregateResult>> results = new ArrayList<List<AggregateResult>>();
+
+        try {
+            for (int i : database.getShards(shard)) {
+                results.add(database.getBackend().aggregate(query, this.getConnection(i)));
+            }
+        }
+        catch (DatabaseWriteException ex) {
+            throw new DatabaseReadException(ex.getMessage(), ex);
+        }
+        List<AggregateResult> toRet = ShardedMySQLDatabase.mergeAggregates(query, results);
+        return toRet.toArray(new AggregateResult[toRet.size()]);
+    }
+
+    @Override
+    protected void executeQueries(List<Query> queries) throws DatabaseWriteException {
+        for (Query query : queries) {
+            if (query.getType() == Query.Type.SELECT || query.getType() == Query.Type.AGGREGATE) {
+                continue;
+            }
+            List<Query> single = Collections.singletonList(query);
+            int shard = query.getType() == Query.Type.UPDATE_SCHEMA ? ShardRouter.ALL_SHARDS : database.getShard(query);
+
+            for (int i : database.getShards(shard)) {
+                database.getBackend().executeQueries(single, this.getConnection(i));
+            }
+        }
+    }
+
+    @Override
+    protected void createSavepoint(String name) throws DatabaseWriteException {
+        for (Branch branch : branches.values()) {
+            execute(branch.conn, "SAVEPOINT " + name);
+            branch.savepoints.remove(name);
+            branch.savepoints.add(name);
+        }
+        savepoints.remove(name);
+        savepoints.add(name);
+    }
+
+    @Override
+    protected void rollbackSavepoint(String name) throws DatabaseWriteException {
+        if (!savepoints.contains(name)) {
+            throw new DatabaseWriteException("Savepoint " + name + " does not exist");
+        }
+        for (Branch branch : branches.values()) {
+            if (branch.savepoints.contains(name)) {
+                execute(branch.conn, "ROLLBACK TO SAVEPOINT " + name);
+                truncate(branch.savepoints, name, false);
+            }
+            else {
+                // The shard was first used after the savepoint, so all of its work is undone
+                try {
+                    branch.conn.rollback();
+                }
+                catch (SQLException ex) {
+                    throw new DatabaseWriteException("Error rolling back shard " + branch.shard + ": " + ex.getMessage(), ex);
+                }
+                branch.savepoints.clear();
+            }
+        }
+        truncate(savepoints, name, false);
+    }
+
+    @Override
+    protected void removeSavepoint(String name) throws DatabaseWriteException {
+        if (!savepoints.contains(name)) {
+            throw new DatabaseWriteException("Savepoint " + name + " does not exist");
+        }
+        for (Branch branch : branches.values()) {
+            if (branch.savepoints.contains(name)) {
+                execute(branch.conn, "RELEASE SAVEPOINT " + name);
+                truncate(branch.savepoints, name, true);
+            }
+        }
+        truncate(savepoints, name, true);
+    }
+
+    /** @return true if some, but not all shards were committed */
+    boolean isPartiallyCommitted() {
+        return committed > 0 && committed < branches.size();
+    }
+
+    /**
+     * Commits all shards, in order.
+     *
+     * @throws DatabaseWriteException
+     *         when a shard could not be committed
+     */
+    void commit() throws DatabaseWriteException {
+        for (Branch branch : branches.values()) {
+            try {
+                branch.conn.commit();
+                committed++;
+            }
+            catch (SQLException ex) {
+                if (committed > 0) {
+                    PBDatabaseAPI.logger().log(Level.SEVERE, "Commit of shard " + branch.shard + " failed after " + committed + " shards were committed, the shards are inconsistent", ex);
+                }
+                throw new DatabaseWriteException("Could not commit shard " + branch.shard + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /** Rolls back all shards that were not committed and returns their connections to the pools */
+    void close() {
+        int i = 0;
+
+        for (Branch branch : branches.values()) {
+            if (i++ >= committed) {
+                try {
+                    branch.conn.rollback();
+                }
+                catch (SQLException ex) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, "Could not roll back shard " + branch.shard + ": " + ex.getMessage(), ex);
+                }
+            }
+            try {
+                branch.conn.setAutoCommit(branch.autoCommit);
+                if (branch.conn.getTransactionIsolation() != branch.level) {
+                    branch.conn.setTransactionIsolation(branch.level);
+                }
+            }
+            catch (SQLException ex) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "Could not reset connection after transaction: " + ex.getMessage(), ex);
+            }
+            database.getPool(branch.shard).returnConnectionToPool(branch.conn);
+        }
+        branches.clear();
+        this.end();
+    }
+
+    /** Loads the rows of a select from one shard, failures name the shard and keep their cause */
+    private List<DataAccess> load(Select query, int shard) throws DatabaseReadException, DatabaseWriteException {
+        try {
+            return database.getBackend().load(query, this.getConnection(shard), database);
+        }
+        catch (DatabaseReadException ex) {
+            throw new DatabaseReadException("Error querying shard " + shard + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /** Gets the connection of a shard, starting the transaction on it the first time */
+    private Connection getConnection(int shard) throws DatabaseWriteException {
+        Branch branch = branches.get(shard);
+
+        if (branch != null) {
+            return branch.conn;
+        }
+        Connection conn = database.getPool(shard).getConnectionFromPool();
+
+        try {
+            branch = new Branch(shard, conn, conn.getAutoCommit(), conn.getTransactionIsolation());
+            int level = this.getIsolation().getLevel();
+            if (level >= 0 && level != branch.level && conn.getMetaData().supportsTransactionIsolationLevel(level)) {
+                conn.setTransactionIsolation(level);
+            }
+            conn.setAutoCommit(false);
+        }
+        catch (SQLException ex) {
+            database.getPool(shard).returnConnectionToPool(conn);
+            throw new DatabaseWriteException("Could not start transaction on shard " + shard + ": " + ex.getMessage(), ex);
+        }
+        branches.put(shard, branch);
+        return conn;
+    }
+
+    /** Removes the savepoints set after the given one, and the savepoint itself if inclusive */
+    private static void truncate(List<String> savepoints, String name, boolean inclusive) {
+        int index = savepoints.indexOf(name);
+
+        savepoints.subList(inclusive ? index : index + 1, savepoints.size()).clear();
+    }
+
+    private static void execute(Connection conn, String sql) throws DatabaseWriteException {
+        Statement statement = null;
+
+        try {
+            statement = conn.createStatement();
+            statement.execute(sql);
+        }
+        catch (SQLException ex) {
+            throw new DatabaseWriteException("Error executing " + sql + ": " + ex.getMessage(), ex);
+        }
+        finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                }
+                catch (SQLException ex) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+                }
+            }
+        }
+    }
+
+    /** The part of the transaction on a single shard */
+    private static final class Branch {
+
+        final int shard;
+        final Connection conn;
+        final boolean autoCommit;
+        final int level;
+        /** The savepoints set on this shard, a shard first used after a savepoint does not have it */
+        final List<String> savepoints = new ArrayList<String>();
+
+        Branch(int shard, Connection conn, boolean autoCommit, int level) {
+            this.shard = shard;
+            this.conn = conn;
+            this.autoCommit = autoCommit;
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package net.playblack.pbdbapi.queries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An aggregate Query. Computes a single value (COUNT, SUM, MIN or MAX) over
+ * all matching rows, optionally grouped by one or more columns, without
+ * loading the rows as { @link net.playblack.pbdbapi.DataAccess } objects.
+ * The limit of this query is ignored.
+ */
+public class Aggregate extends Where<Aggregate> {
+
+    public enum Function {
+
+        COUNT, SUM, MIN, MAX;
+    }
+
+    private Function function = Function.COUNT;
+    private String column = null;
+    private List<String> groupBy = new ArrayList<String>();
+
+    /**
+     * Counts all matching rows.
+     *
+     * @return This Query for convenience.
+     */
+    public Aggregate count() {
+        return this.apply(Function.COUNT, null);
+    }
+
+    /**
+     * Counts all matching rows where the given column is not null.
+     *
+     * @param column The name of the column to count.
+     * @return This Query for convenience.
+     */
+    public Aggregate count(String column) {
+        return this.apply(Function.COUNT, column);
+    }
+
+    /**
+     * Sums up the values of the given column.
+     *
+     * @param column The name of the column to sum.
+     * @return This Query for convenience.
+     */
+    public Aggregate sum(String column) {
+        return this.apply(Function.SUM, column);
+    }
+
+    /**
+     * Selects the smallest value of the given column.
+     *
+     * @param column The name of the column.
+     * @return This Query for convenience.
+     */
+    public Aggregate min(String column) {
+        return this.apply(Function.MIN, column);
+    }
+
+    /**
+     * Selects the largest value of the given column.
+     *
+     * @param column The name of the column.
+     * @return This Query for convenience.
+     */
+    public Aggregate max(String column) {
+        return this.apply(Function.MAX, column);
+    }
+
+    /**
+     * Groups the result by the given columns. One { @link net.playblack.pbdbapi.AggregateResult }
+     * is returned per distinct combination of values.
+     *
+     * @param columns The names of the columns to group by.
+     * @return This Query for convenience.
+     */
+    public Aggregate groupBy(String... columns) {
+        groupBy.addAll(Arrays.asList(columns));
+        return this;
+    }
+
+    /**
+     * Gets the aggregate function of this query.
+     *
+     * @return The aggregate { @link Function }.
+     */
+    public Function function() {
+        return function;
+    }
+
+    /**
+     * Gets the column the aggregate function is applied to.
+     *
+     * @return The column name, or null for COUNT over all rows.
+     */
+    public String column() {
+        return column;
+    }
+
+    /**
+     * Gets the columns this query groups by.
+     *
+     * @return A list of column names, empty if the query is not grouped.
+     */
+    public List<String> getGroupBy() {
+        return new ArrayList<String>(groupBy);
+    }
+
+    private Aggregate apply(Function function, String column) {
+        this.function = function;
+        this.column = column;
+        return this;
+    }
+
+    @Override
+    public Type getType() {
+        return Type.AGGREGATE;
+    }
+}
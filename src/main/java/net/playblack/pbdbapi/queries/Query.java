@@ -16,7 +16,8 @@ public abstract class Query<T extends Query> {
         INSERT(Insert.class),
         SELECT(Select.class),
         UPDATE(Update.class),
-        UPDATE_SCHEMA(UpdateSchema.class);
+        UPDATE_SCHEMA(UpdateSchema.class),
+        AGGREGATE(Aggregate.class);
 
         private Class<? extends Query> query;
 
@@ -33,7 +34,7 @@ public abstract class Query<T extends Query> {
             } catch (IllegalAccessException ex) {
                 PBDatabaseAPI.logger().log(Level.WARNING, "Error creating new instance of " + query.getName(), ex);
             }
-            return null;
+            return toRet;
         }
 
     }
@@ -29,6 +29,6 @@ public final class QueryEntry {
      * @return The column value.
      */
     public Object getColumnValue() {
-        return this.column;
+        return this.value;
     }
 }
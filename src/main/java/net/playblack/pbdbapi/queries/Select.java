@@ -10,6 +10,29 @@ package net.playblack.pbdbapi.queries;
  */
 public class Select extends Where<Select> {
 
+    private boolean lazy = false;
+
+    /**
+     * Loads only the primary key of each row. The rows are partial, see { @link net.playblack.pbdbapi.DataAccess#isPartial() },
+     * until { @link net.playblack.pbdbapi.DataAccess#fetch() } loads their other columns.
+     * Tables without a primary key are loaded completely.
+     *
+     * @return This Query for convenience.
+     */
+    public Select lazy() {
+        this.lazy = true;
+        return this;
+    }
+
+    /**
+     * Checks if only the primary keys are loaded.
+     *
+     * @return true if lazy
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
     @Override
     public Type getType() {
         return Type.SELECT;
@@ -0,0 +1,143 @@
+package net.playblack.pbdbapi.sqlite;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.tracing.TraceSpan;
+import net.playblack.pbdbapi.tracing.Tracing;
+
+/**
+ * A pool of read-only connections to the SQLite database.
+ * Connections are opened on demand, up to the configured size. Once all connections
+ * are in use, further requests wait for one to be returned.
+ * Please Note that you must return all connections used to the pool.
+ */
+public class SQLiteConnectionPool {
+
+    /** SQLITE_OPEN_READONLY, see sqlite3_open_v2 */
+    private static final String OPEN_READONLY = "1";
+
+    private final String url;
+    private final int size;
+    private final List<String> pragmas;
+    private final LinkedBlockingQueue<Connection> connectionPool = new LinkedBlockingQueue<Connection>();
+    private int opened = 0;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param url
+     *         the JDBC url of the database
+     * @param size
+     *         the maximum number of connections
+     * @param pragmas
+     *         PRAGMA statements to run on every new connection
+     */
+    public SQLiteConnectionPool(String url, int size, List<String> pragmas) {
+        this.url = url;
+        this.size = Math.max(1, size);
+        this.pragmas = pragmas;
+    }
+
+    /**
+     * Gets a Connection from the pool. Remember to return it!
+     *
+     * @return A connection from the pool.
+     *
+     * @throws SQLException
+     *         if a new connection could not be opened
+     * @see SQLiteConnectionPool#returnConnectionToPool(Connection)
+     */
+    public Connection getConnectionFromPool() throws SQLException {
+        TraceSpan span = Tracing.startBorrow("sqlite");
+
+        try {
+            return this.borrowConnection();
+        }
+        catch (SQLException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    private Connection borrowConnection() throws SQLException {
+        Connection connection = connectionPool.poll();
+
+        if (connection != null) {
+            return connection;
+        }
+        synchronized (this) {
+            if (opened < size) {
+                opened++;
+                try {
+                    return this.openConnection();
+                }
+                catch (SQLException sqle) {
+                    opened--;
+                    throw sqle;
+                }
+            }
+        }
+        try {
+            return connectionPool.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a SQLite connection");
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param connection
+     *         The connection to return.
+     */
+    public void returnConnectionToPool(Connection connection) {
+        if (connection != null) {
+            connectionPool.offer(connection);
+        }
+    }
+
+    /** Closes all idle connections in the pool. */
+    public synchronized void close() {
+        Connection connection;
+
+        while ((connection = connectionPool.poll()) != null) {
+            try {
+                connection.close();
+            }
+            catch (SQLException sqle) {
+                PBDatabaseAPI.logger().log(Level.WARNING, "SQLException closing SQLite Connection.", sqle);
+            }
+            opened--;
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        Properties properties = new Properties();
+
+        properties.setProperty("open_mode", OPEN_READONLY);
+        Connection connection = DriverManager.getConnection(url, properties);
+        Statement st = connection.createStatement();
+
+        try {
+            for (String pragma : pragmas) {
+                st.execute(pragma);
+            }
+        }
+        finally {
+            st.close();
+        }
+        return connection;
+    }
+}
@@ -2,33 +2,49 @@ package net.playblack.pbdbapi.sqlite;
 
 import java.io.File;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import net.playblack.pbdbapi.AggregateResult;
 import net.playblack.pbdbapi.Column;
 import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.DataAccessCursor;
 import net.playblack.pbdbapi.Database;
 import net.playblack.pbdbapi.JDBCHelper;
+import net.playblack.pbdbapi.JDBCTransaction;
 import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.Transaction;
+import net.playblack.pbdbapi.TransactionWork;
+import net.playblack.pbdbapi.config.DatabaseConfiguration;
 import net.playblack.pbdbapi.exceptions.DatabaseAccessException;
 import net.playblack.pbdbapi.exceptions.DatabaseReadException;
 import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
 import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.metrics.Metrics;
+import net.playblack.pbdbapi.metrics.SlowQueryLog;
 import net.playblack.pbdbapi.mysql.MySQLDatabase;
+import net.playblack.pbdbapi.queries.Aggregate;
 import net.playblack.pbdbapi.queries.Delete;
 import net.playblack.pbdbapi.queries.Insert;
 import net.playblack.pbdbapi.queries.Query;
+import static net.playblack.pbdbapi.queries.Query.Type.AGGREGATE;
 import static net.playblack.pbdbapi.queries.Query.Type.DELETE;
 import static net.playblack.pbdbapi.queries.Query.Type.INSERT;
 import static net.playblack.pbdbapi.queries.Query.Type.SELECT;
@@ -39,30 +55,41 @@ import net.playblack.pbdbapi.queries.Select;
 import net.playblack.pbdbapi.queries.Update;
 import net.playblack.pbdbapi.queries.UpdateSchema;
 import net.playblack.pbdbapi.queries.Where;
+import net.playblack.pbdbapi.tracing.TraceSpan;
+import net.playblack.pbdbapi.tracing.Tracing;
 
 /**
  * SQLite Database
  *
  * @author Jason (darkdiplomat)
  */
-public class SQLiteDatabase extends Database {
+public class SQLiteDatabase extends Database implements JDBCTransaction.Backend {
 
-    private Connection conn; // One Connection, All the Time
+    private Connection conn; // The writer connection, only used on the writer thread
+    private SQLiteConnectionPool readers;
+    /** Runs all writes and checkpoints, one at a time, on the writer connection */
+    private final ScheduledExecutorService writer;
+    private Thread writerThread;
+    private final SQLiteSchemaManager schema = new SQLiteSchemaManager();
+    /** The db.system of trace spans */
+    private final String DB_SYSTEM = "sqlite";
     private static SQLiteDatabase instance;
     private final String LIST_REGEX = "\u00B6";
     private final String database;
     /** Takes: Table Name, Column Names, Values */
     private final String INSERT = "INSERT INTO `%s` (%s) VALUES (%s)";
-    /** Takes: Table Name, Conditions, Limit */
-    private final String SELECT = "SELECT * FROM `%s` WHERE %s LIMIT %s";
-    /** Takes: Table Name, Limit */
-    private final String SELECT_ALL = "SELECT * FROM `%s` LIMIT %s";
-    /** Takes: Table Name, Column Data */
-    private final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `%s` (%s) ENGINE = INNODB";
-    /** Takes: Table Name, Column Name, JDBC Data Type Syntax */
-    private final String INSERT_COLUMN = "ALTER TABLE `%s` ADD `%s` %s";
-    /** Takes: Table Name, Column Name */
-    private final String DELETE_COLUMN = "ALTER TABLE `%s` DROP `%s`";
+    /** Takes: Columns, Table Name, Conditions, Limit */
+    private final String SELECT = "SELECT %s FROM `%s` WHERE %s LIMIT %s";
+    /** Takes: Table Name */
+    private final String SELECT_TABLE = "SELECT * FROM `%s`";
+    /** Takes: Columns, Table Name, Limit */
+    private final String SELECT_ALL = "SELECT %s FROM `%s` LIMIT %s";
+    /** Takes: Selected Columns, Table Name, Conditions, Grouping */
+    private final String AGGREGATE = "SELECT %s FROM `%s`%s%s";
+    /** Number of rows written per batch in bulkLoad */
+    private final int BULK_BATCH_SIZE = 1000;
+    /** The oldest SQLite that applies all settings of the profiles */
+    private static final String MIN_VERSION = "3.7.17";
 
     private SQLiteDatabase() {
         File path = new File("db/");
@@ -71,12 +98,172 @@ public class SQLiteDatabase extends Database {
             path.mkdirs();
         }
         database = PBDatabaseAPI.get().getConnectionConfig().getDatabaseName();
+        DatabaseConfiguration cfg = PBDatabaseAPI.get().getDatabaseConfig();
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                writerThread = new Thread(r, "PBDatabaseAPI SQLite writer");
+                writerThread.setDaemon(true);
+                return writerThread;
+            }
+        });
         try {
             conn = DriverManager.getConnection("jdbc:sqlite:" + database + ".db");
+            Statement st = conn.createStatement();
+            try {
+                this.checkVersion(st);
+                for (String pragma : this.getProfilePragmas(true)) {
+                    st.execute(pragma);
+                }
+            }
+            finally {
+                this.closePS(st);
+            }
         }
         catch (Exception ex) {
             PBDatabaseAPI.logger().log(Level.WARNING, "Failed to create connection to SQLite database", ex);
         }
+        readers = new SQLiteConnectionPool("jdbc:sqlite:" + database + ".db", cfg.getSQLiteReadConnections(), this.getProfilePragmas(false));
+        if (conn != null && cfg.getSQLiteJournalMode().equals("WAL") && cfg.getSQLiteCheckpointInterval() > 0) {
+            // Checkpoints go through the writer so they never overlap a write transaction
+            writer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkpoint();
+                }
+            }, cfg.getSQLiteCheckpointInterval(), cfg.getSQLiteCheckpointInterval(), TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Warns if the SQLite library of the driver is older than { @link #MIN_VERSION }.
+     * Older versions ignore PRAGMA busy_timeout and mmap_size without an error.
+     *
+     * @param st
+     *
+     * @throws SQLException
+     */
+    private void checkVersion(Statement st) throws SQLException {
+        ResultSet rs = st.executeQuery("SELECT sqlite_version()");
+
+        try {
+            String version = rs.next() ? rs.getString(1) : "";
+            String[] parts = version.split("\\.");
+            int[] required = { 3, 7, 17 };
+
+            for (int i = 0; i < required.length; i++) {
+                int part = i < parts.length && parts[i].matches("\\d+") ? Integer.parseInt(parts[i]) : 0;
+                if (part != required[i]) {
+                    if (part < required[i]) {
+                        PBDatabaseAPI.logger().log(Level.WARNING, "SQLite " + version + " is older than " + MIN_VERSION + ", sqlite-busy-timeout and sqlite-mmap-size have no effect. Update sqlite-jdbc.");
+                    }
+                    break;
+                }
+            }
+        }
+        finally {
+            this.closeRS(rs);
+        }
+    }
+
+    /**
+     * Gets the PRAGMA statements of the configured { @link net.playblack.pbdbapi.config.SQLiteProfile}.
+     * journal_mode and synchronous are database wide or write related and are only set on the writer.
+     * busy_timeout needs SQLite 3.7.15 and mmap_size SQLite 3.7.17, see { @link #MIN_VERSION }.
+     *
+     * @param writer
+     *         true for the writer connection, false for read connections
+     *
+     * @return the PRAGMA statements
+     */
+    private List<String> getProfilePragmas(boolean writer) {
+        DatabaseConfiguration cfg = PBDatabaseAPI.get().getDatabaseConfig();
+        List<String> pragmas = new ArrayList<String>();
+
+        // busy_timeout first, switching the journal mode needs the lock
+        pragmas.add("PRAGMA busy_timeout = " + cfg.getSQLiteBusyTimeout());
+        if (writer) {
+            pragmas.add("PRAGMA journal_mode = " + cfg.getSQLiteJournalMode());
+            pragmas.add("PRAGMA synchronous = " + cfg.getSQLiteSynchronous());
+        }
+        pragmas.add("PRAGMA cache_size = " + cfg.getSQLiteCacheSize());
+        pragmas.add("PRAGMA mmap_size = " + cfg.getSQLiteMmapSize());
+        pragmas.add("PRAGMA temp_store = " + cfg.getSQLiteTempStore());
+        return pragmas;
+    }
+
+    /** Runs a passive WAL checkpoint, which never blocks readers or writers */
+    public void checkpoint() {
+        Statement st = null;
+
+        try {
+            st = conn.createStatement();
+            st.execute("PRAGMA wal_checkpoint(PASSIVE)");
+        }
+        catch (SQLException ex) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Error running SQLite WAL checkpoint.", ex);
+        }
+        finally {
+            this.closePS(st);
+        }
+    }
+
+    /**
+     * Runs a write task on the writer thread and waits for it to finish.
+     * Tasks submitted from the writer thread itself run right away.
+     *
+     * @param task
+     *
+     * @return the result of the task
+     *
+     * @throws DatabaseWriteException
+     *         if the task failed
+     */
+    private <T> T write(Callable<T> task) throws DatabaseWriteException {
+        try {
+            if (Thread.currentThread() == writerThread) {
+                return task.call();
+            }
+            return writer.submit(task).get();
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof DatabaseWriteException) {
+                throw (DatabaseWriteException) ex.getCause();
+            }
+            throw new DatabaseWriteException("Error writing to SQLite: " + ex.getCause().getMessage(), ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseWriteException("Interrupted while waiting for the SQLite writer", ex);
+        }
+        catch (DatabaseWriteException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            throw new DatabaseWriteException("Error writing to SQLite: " + ex.getMessage(), ex);
+        }
+    }
+
+    @Override
+    protected boolean canWaitForSchema() {
+        // Schema updates of other threads are queued behind the writer
+        return Thread.currentThread() != writerThread;
+    }
+
+    /**
+     * Borrows a read-only connection.
+     *
+     * @return connection, which must be handed back to the reader pool
+     *
+     * @throws DatabaseReadException
+     */
+    private Connection getReader() throws DatabaseReadException {
+        try {
+            return readers.getConnectionFromPool();
+        }
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Failed to open SQLite read connection", ex);
+        }
     }
 
     public static SQLiteDatabase getInstance() {
@@ -86,57 +273,324 @@ public class SQLiteDatabase extends Database {
         return SQLiteDatabase.instance;
     }
 
+    /**
+     * Gets the schema manager, which caches the known table layouts.
+     * Invalidate a table here after changing it outside of the API.
+     *
+     * @return the schema manager
+     */
+    public SQLiteSchemaManager getSchemaManager() {
+        return schema;
+    }
+
     @Override
-    public DataAccess[] query(Select query) throws DatabaseReadException {
-        List<DataAccess> toRet = this.load(query, conn);
-        return toRet.toArray(new DataAccess[toRet.size()]);
+    protected DataAccess[] executeSelect(Select query) throws DatabaseReadException {
+        long start = System.nanoTime();
+        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.SELECT, query.from().getName());
+        Connection reader = null;
+        try {
+            reader = this.getReader();
+            List<DataAccess> toRet = this.load(query, reader);
+            Metrics.get().recordRowsRead(query.from().getName(), toRet.size());
+            span.setAttribute(Tracing.ROWS, toRet.size());
+            return toRet.toArray(new DataAccess[toRet.size()]);
+        }
+        catch (DatabaseReadException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            if (reader != null) {
+                readers.returnConnectionToPool(reader);
+            }
+            Metrics.recordSince(query.from().getName(), Query.Type.SELECT, start);
+            span.end();
+        }
     }
 
     @Override
-    public void executeQueries() throws DatabaseWriteException {
+    public AggregateResult[] aggregate(Aggregate query) throws DatabaseReadException {
+        long start = System.nanoTime();
+        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.AGGREGATE, query.from().getName());
+        Connection reader = null;
         try {
-            conn.setAutoCommit(false);
-            synchronized (lock) {
-                for (Query query : super.queue) {
-                    switch(query.getType()) {
-                        case DELETE:
-                            this.remove((Delete) query, conn);
-                            break;
-                        case INSERT:
-                            this.insert((Insert) query, conn);
-                            break;
-                        case UPDATE:
-                            this.update((Update) query, conn);
-                            break;
-                        case SELECT:
-                            // Aren't capable of returning anything, so just skip it.
-                            break;
-                        case UPDATE_SCHEMA:
-                            this.updateSchema((UpdateSchema) query, conn);
-                            break;
+            reader = this.getReader();
+            List<AggregateResult> toRet = this.aggregate(query, reader);
+            span.setAttribute(Tracing.ROWS, toRet.size());
+            return toRet.toArray(new AggregateResult[toRet.size()]);
+        }
+        catch (DatabaseReadException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            if (reader != null) {
+                readers.returnConnectionToPool(reader);
+            }
+            Metrics.recordSince(query.from().getName(), Query.Type.AGGREGATE, start);
+            span.end();
+        }
+    }
+
+    @Override
+    public DataAccessCursor stream(Class<? extends DataAccess> table) throws DatabaseReadException {
+        final DataAccess template = newTemplate(table);
+        final Connection reader = this.getReader();
+        PreparedStatement ps = null;
+
+        try {
+            final HashSet<Column> layout = template.getTableLayout();
+            ps = reader.prepareStatement(String.format(SELECT_TABLE, template.getName()), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            Metrics.get().recordPrepare(template.getName());
+            final ResultSet rs = ps.executeQuery();
+            final PreparedStatement st = ps;
+
+            return new DataAccessCursor() {
+                private HashMap<String, Object> dataSet = new HashMap<String, Object>();
+
+                @Override
+                protected DataAccess read() throws DatabaseReadException {
+                    try {
+                        if (!rs.next()) {
+                            return null;
+                        }
+                        DataAccess access = readRow(rs, template, layout, dataSet, null);
+                        dataSet.clear();
+                        return access;
+                    }
+                    catch (SQLException ex) {
+                        throw new DatabaseReadException("Error streaming SQLite table " + template.getName(), ex);
                     }
+                    catch (DatabaseAccessException ex) {
+                        throw new DatabaseReadException("Error streaming SQLite table " + template.getName(), ex);
+                    }
+                    catch (InstantiationException ex) {
+                        throw new DatabaseReadException("Error streaming SQLite table " + template.getName(), ex);
+                    }
+                    catch (IllegalAccessException ex) {
+                        throw new DatabaseReadException("Error streaming SQLite table " + template.getName(), ex);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    closeRS(rs);
+                    closePS(st);
+                    readers.returnConnectionToPool(reader);
+                }
+            };
+        }
+        catch (SQLException ex) {
+            this.closePS(ps);
+            readers.returnConnectionToPool(reader);
+            throw new DatabaseReadException("Error streaming SQLite table " + template.getName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            readers.returnConnectionToPool(reader);
+            throw new DatabaseReadException("Error streaming SQLite table " + template.getName(), ex);
+        }
+    }
+
+    @Override
+    public int bulkLoad(final Class<? extends DataAccess> table, final Iterator<? extends DataAccess> rows) throws DatabaseWriteException {
+        try {
+            return this.write(new Callable<Integer>() {
+                @Override
+                public Integer call() throws DatabaseWriteException {
+                    return bulkLoad(table, rows, conn);
                 }
+            });
+        }
+        finally {
+            this.recordWrite();
+        }
+    }
+
+    /**
+     * Inserts all rows as a prepared batch in a single transaction.
+     * Syncing to disk is turned off for the duration of the load.
+     */
+    public int bulkLoad(Class<? extends DataAccess> table, Iterator<? extends DataAccess> rows, Connection conn) throws DatabaseWriteException {
+        Statement pragma = null;
+        PreparedStatement ps = null;
+        String synchronous = null;
+        int count = 0;
+
+        try {
+            DataAccess template = newTemplate(table);
+            List<Column> columns = this.getInsertColumns(template);
+            StringBuilder fields = new StringBuilder(), values = new StringBuilder();
+
+            for (Column column : columns) {
+                fields.append("`").append(column.columnName()).append("`").append(",");
+                values.append("?").append(",");
             }
-            conn.setAutoCommit(true);
-        } catch (SQLException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            /* Deletes the trailing comma's for proper syntax */
+            fields.deleteCharAt(fields.length() - 1);
+            values.deleteCharAt(values.length() - 1);
+
+            // PRAGMA synchronous cannot be changed inside a transaction
+            pragma = conn.createStatement();
+            ResultSet rs = pragma.executeQuery("PRAGMA synchronous");
+            if (rs.next()) {
+                synchronous = rs.getString(1);
+            }
+            this.closeRS(rs);
+            pragma.execute("PRAGMA synchronous = OFF");
+
+            conn.setAutoCommit(false);
+            ps = conn.prepareStatement(String.format(INSERT, template.getName(), fields, values));
+            Metrics.get().recordPrepare(template.getName());
+            int pending = 0;
+
+            while (rows.hasNext()) {
+                this.bindRow(ps, 1, columns, rows.next());
+                ps.addBatch();
+                if (++pending == BULK_BATCH_SIZE) {
+                    ps.executeBatch();
+                    count += pending;
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                ps.executeBatch();
+                count += pending;
+            }
+            conn.commit();
+            Metrics.get().recordRowsWritten(template.getName(), count);
+        }
+        catch (SQLException ex) {
+            this.rollback(conn);
+            throw new DatabaseWriteException("Error bulk loading SQLite table for " + table.getSimpleName(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            this.rollback(conn);
+            throw new DatabaseWriteException("Error bulk loading SQLite table for " + table.getSimpleName(), ex);
+        }
+        catch (DatabaseReadException ex) {
+            throw new DatabaseWriteException(ex.getMessage(), ex);
+        }
+        finally {
+            this.closePS(ps);
+            try {
+                conn.setAutoCommit(true);
+                if (pragma != null && synchronous != null) {
+                    pragma.execute("PRAGMA synchronous = " + synchronous);
+                }
+            }
+            catch (SQLException ex) {
+                PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            }
+            this.closePS(pragma);
+        }
+        return count;
+    }
+
+    /** Transactions run on the writer thread, with the writer connection */
+    @Override
+    protected <T> T beginTransaction(final Transaction.Isolation isolation, final TransactionWork<T> work) throws DatabaseWriteException {
+        return this.write(new Callable<T>() {
+            @Override
+            public T call() throws DatabaseWriteException {
+                return JDBCTransaction.run(SQLiteDatabase.this, conn, isolation, work, SQLiteDatabase.this);
+            }
+        });
+    }
+
+    @Override
+    public void updateSchema(final UpdateSchema... udpateSchema) throws DatabaseWriteException {
+        boolean current = true;
+
+        for (UpdateSchema query : udpateSchema) {
+            current &= schema.isCurrent(query.from());
+        }
+        if (current) {
+            // Every table is known to be up to date, no need to wait for the writer
+            return;
+        }
+        try {
+            this.write(new Callable<Void>() {
+                @Override
+                public Void call() throws DatabaseWriteException {
+                    for (Query query : udpateSchema) {
+                        long start = System.nanoTime();
+                        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.UPDATE_SCHEMA, query.from().getName());
+                        try {
+                            updateSchema((UpdateSchema) query, conn);
+                        }
+                        catch (DatabaseWriteException ex) {
+                            span.recordError(ex);
+                            throw ex;
+                        }
+                        finally {
+                            span.end();
+                        }
+                        Metrics.recordSince(query.from().getName(), Query.Type.UPDATE_SCHEMA, start);
+                    }
+                    return null;
+                }
+            });
+        }
+        finally {
+            this.recordWrite();
         }
     }
 
+    /**
+     * Executes write queries on the given connection, without committing. Failures are thrown.
+     * Must only be called on the writer thread.
+     *
+     * @param queries
+     * @param conn
+     *
+     * @throws DatabaseWriteException
+     */
     @Override
-    public void updateSchema(UpdateSchema... udpateSchema) throws DatabaseWriteException {
-        for (Query query : udpateSchema) {
-            this.updateSchema((UpdateSchema) query, conn);
+    public void executeQueries(List<Query> queries, Connection conn) throws DatabaseWriteException {
+        for (Query query : queries) {
+            if (query.getType() == Query.Type.SELECT || query.getType() == Query.Type.AGGREGATE) {
+                // Aren't capable of returning anything, so just skip it.
+                continue;
+            }
+            long start = System.nanoTime();
+            TraceSpan span = Tracing.startQuery(DB_SYSTEM, query.getType(), query.from().getName());
+
+            try {
+                switch(query.getType()) {
+                    case DELETE:
+                        this.remove((Delete) query, conn);
+                        break;
+                    case INSERT:
+                        this.insert((Insert) query, conn);
+                        break;
+                    case UPDATE:
+                        this.update((Update) query, conn);
+                        break;
+                    case UPDATE_SCHEMA:
+                        this.updateSchema((UpdateSchema) query, conn);
+                        break;
+                }
+            }
+            catch (DatabaseWriteException ex) {
+                span.recordError(ex);
+                throw ex;
+            }
+            finally {
+                span.end();
+            }
+            Metrics.recordSince(query.from().getName(), query.getType(), start);
         }
     }
 
     public void insert(Insert query, Connection conn) throws DatabaseWriteException {
+        long start = System.nanoTime();
         if (this.doesEntryExist(conn, query.from())) {
             return;
         }
         PreparedStatement ps = null;
 
         try {
+            long mapStart = System.nanoTime();
             StringBuilder fields = new StringBuilder(), values = new StringBuilder();
             HashMap<Column, Object> columns = query.from().toDatabaseEntryList();
             Iterator<Column> it = columns.keySet().iterator();
@@ -154,14 +608,18 @@ public class SQLiteDatabase extends Database {
             fields.deleteCharAt(fields.length() - 1);
             values.deleteCharAt(values.length() - 1);
 
-            ps = conn.prepareStatement(String.format(INSERT, query.from().getName(), fields, values));
+            String statement = String.format(INSERT, query.from().getName(), fields, values);
+            long mapping = System.nanoTime() - mapStart;
+            ps = conn.prepareStatement(statement);
+            Metrics.get().recordPrepare(query.from().getName());
 
             /* Inserts values to columns */
+            mapStart = System.nanoTime();
             int i = 1;
             for (Column c : columns.keySet()) {
                 if (!c.autoIncrement()) {
                     if (c.isList()) {
-                        ps.setObject(i, JDBCHelper.getListString((List<?>) columns.get(c)));
+                        ps.setObject(i, JDBCHelper.getListValue(c, columns.get(c)));
                     }
                     else {
                         ps.setObject(i, JDBCHelper.convert(columns.get(c)));
@@ -169,16 +627,22 @@ public class SQLiteDatabase extends Database {
                     i++;
                 }
             }
+            mapping += System.nanoTime() - mapStart;
 
             if (ps.executeUpdate() == 0) {
                 throw new DatabaseWriteException("Error inserting MySQL: no rows updated!");
             }
+            Metrics.get().recordRowsWritten(query.from().getName(), 1);
+            long elapsed = System.nanoTime() - start;
+            if (SlowQueryLog.isSlow(elapsed)) {
+                SlowQueryLog.log(query.from().getName(), Query.Type.INSERT, statement, this.getBinds(columns), 1, elapsed - mapping, mapping);
+            }
         }
         catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error inserting SQLite into " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dtie.getMessage(), dtie);
+            throw new DatabaseWriteException("Error inserting SQLite into " + query.from().getName() + ": " + dtie.getMessage(), dtie);
         }
         finally {
             this.closePS(ps);
@@ -186,14 +650,17 @@ public class SQLiteDatabase extends Database {
     }
 
     public void update(Update query, Connection conn) throws DatabaseWriteException {
+        long start = System.nanoTime();
         if (!this.doesEntryExist(conn, query.from())) {
             return;
         }
         ResultSet rs = null;
 
         try {
+            long mapStart = System.nanoTime();
             HashMap<Column, Object> columns = query.from().toDatabaseEntryList();
             Select select = this.getSelectFromWhere(query);
+            long mapping = System.nanoTime() - mapStart;
 
             rs = this.getResultSet(conn, select);
 
@@ -204,13 +671,18 @@ public class SQLiteDatabase extends Database {
                     while (it.hasNext()) {
                         column = it.next();
                         if (column.isList()) {
-                            rs.updateObject(column.columnName(), JDBCHelper.getListString((List<?>) columns.get(column)));
+                            rs.updateObject(column.columnName(), JDBCHelper.getListValue(column, columns.get(column)));
                         }
                         else {
-                            rs.updateObject(column.columnName(), columns.get(column));
+                            rs.updateObject(column.columnName(), JDBCHelper.convert(columns.get(column)));
                         }
                     }
                     rs.updateRow();
+                    Metrics.get().recordRowsWritten(query.from().getName(), 1);
+                    long elapsed = System.nanoTime() - start;
+                    if (SlowQueryLog.isSlow(elapsed)) {
+                        SlowQueryLog.log(query.from().getName(), Query.Type.UPDATE, this.getSelectStatement(select), this.getBinds(columns), 1, elapsed - mapping, mapping);
+                    }
                 }
                 else {
                     throw new DatabaseWriteException("Error updating DataAccess to MySQL, no such entry: " + query.from().toString());
@@ -218,13 +690,13 @@ public class SQLiteDatabase extends Database {
             }
         }
         catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error updating SQLite in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dtie.getMessage(), dtie);
+            throw new DatabaseWriteException("Error updating SQLite in " + query.from().getName() + ": " + dtie.getMessage(), dtie);
         }
         catch (DatabaseReadException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            throw new DatabaseWriteException("Error updating SQLite in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         finally {
             try {
@@ -239,6 +711,7 @@ public class SQLiteDatabase extends Database {
     }
 
     public void remove(Delete query, Connection conn) throws DatabaseWriteException {
+        long start = System.nanoTime();
         ResultSet rs = null;
 
         try {
@@ -249,18 +722,23 @@ public class SQLiteDatabase extends Database {
             if (rs != null) {
                 if (rs.next()) {
                     rs.deleteRow();
+                    Metrics.get().recordRowsWritten(query.from().getName(), 1);
+                    long elapsed = System.nanoTime() - start;
+                    if (SlowQueryLog.isSlow(elapsed)) {
+                        SlowQueryLog.log(query.from().getName(), Query.Type.DELETE, this.getSelectStatement(select), select.getWheres(), 1, elapsed, 0);
+                    }
                 }
             }
 
         }
         catch (DatabaseReadException dre) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dre.getMessage(), dre);
+            throw new DatabaseWriteException("Error deleting SQLite from " + query.from().getName() + ": " + dre.getMessage(), dre);
         }
         catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            throw new DatabaseWriteException("Error deleting SQLite from " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            throw new DatabaseWriteException("Error deleting SQLite from " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         finally {
             try {
@@ -274,7 +752,20 @@ public class SQLiteDatabase extends Database {
         }
     }
 
+    /**
+     * Loads the rows of a select on the given connection.
+     *
+     * @param query
+     * @param conn
+     *
+     * @return the rows
+     *
+     * @throws DatabaseReadException
+     *         when the select failed, a failing statement keeps its SQLException as cause
+     */
     public List<DataAccess> load(Select query, Connection conn) throws DatabaseReadException {
+        long start = System.nanoTime();
+        long mapping = 0;
         List<DataAccess> toRet = new ArrayList<DataAccess>();
         ResultSet rs = null;
         HashMap<String, Object> dataSet = new HashMap<String, Object>();
@@ -282,46 +773,32 @@ public class SQLiteDatabase extends Database {
             rs = this.getResultSet(conn, query);
 
             if (rs != null) {
-                while (rs.next()) {
+                Column key = this.getLazyKey(query);
+                HashSet<Column> layout = key != null ? new HashSet<Column>(Collections.singleton(key)) : query.from().getTableLayout();
 
-
-                    for (Column column : query.from().getTableLayout()) {
-                        if (column.isList()) {
-                            dataSet.put(column.columnName(), JDBCHelper.getList(column.dataType(), rs.getString(column.columnName())));
-                        }
-                        else if (rs.getObject(column.columnName()) instanceof Boolean) {
-                            dataSet.put(column.columnName(), rs.getBoolean(column.columnName()));
-                        }
-                        else {
-                            dataSet.put(column.columnName(), rs.getObject(column.columnName()));
-                        }
-                    }
-
-                    DataAccess access = null;
-                    access = query.from().getClass().newInstance();
-                    access.load(dataSet);
-                    toRet.add(access);
+                while (rs.next()) {
+                    long mapStart = System.nanoTime();
+                    toRet.add(this.readRow(rs, query.from(), layout, dataSet, key != null ? this : null));
                     dataSet.clear(); // Don't forget to clear the hashmap for the next dataset :)
+                    mapping += System.nanoTime() - mapStart;
                 }
             }
         }
-        catch (DatabaseReadException dre) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dre.getMessage(), dre);
-        }
         catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            // Keeps the SQLException as cause, transactions retry on SQLITE_BUSY by it
+            throw new DatabaseReadException("Error Querying SQLite in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            PBDatabaseAPI.logger().log(Level.WARNING, dtie.getMessage(), dtie);
+            throw new DatabaseReadException("Error Querying SQLite in " + query.from().getName() + ": " + dtie.getMessage(), dtie);
         }
         catch (DatabaseAccessException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
+            throw new DatabaseReadException("Error Querying SQLite in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (InstantiationException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            throw new DatabaseReadException("Error Querying SQLite in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (IllegalAccessException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            throw new DatabaseReadException("Error Querying SQLite in " + query.from().getName() + ": " + ex.getMessage(), ex);
         }
         finally {
             try {
@@ -333,60 +810,76 @@ public class SQLiteDatabase extends Database {
                 PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
             }
         }
+        long elapsed = System.nanoTime() - start;
+        if (SlowQueryLog.isSlow(elapsed)) {
+            SlowQueryLog.log(query.from().getName(), Query.Type.SELECT, this.getSelectStatement(query), query.getWheres(), toRet.size(), elapsed - mapping, mapping);
+        }
         return toRet;
     }
 
-    public void updateSchema(UpdateSchema query, Connection conn) throws DatabaseWriteException {
+    public List<AggregateResult> aggregate(Aggregate query, Connection conn) throws DatabaseReadException {
+        long start = System.nanoTime();
+        List<AggregateResult> toRet = new ArrayList<AggregateResult>();
         PreparedStatement ps = null;
         ResultSet rs = null;
+        String statement = null;
 
         try {
-            // First check if the table exists, if it doesn't we'll skip the rest
-            // of this method since we're creating it fresh.
-            DatabaseMetaData metadata = conn.getMetaData();
-            rs = metadata.getTables(null, null, query.from().getName(), null);
-            if (!rs.first()) {
-                this.createTable(conn, query.from());
-            }
-            else {
+            List<String> groupBy = query.getGroupBy();
+            StringBuilder columns = new StringBuilder(), conditions = new StringBuilder(), grouping = new StringBuilder();
 
-                LinkedList<String> toRemove = new LinkedList<String>();
-                HashMap<String, Column> toAdd = new HashMap<String, Column>();
-                Iterator<Column> it = query.from().getTableLayout().iterator();
-
-                Column column;
-                while (it.hasNext()) {
-                    column = it.next();
-                    toAdd.put(column.columnName(), column);
-                }
+            for (String column : groupBy) {
+                columns.append("`").append(column).append("`, ");
+                grouping.append(grouping.length() == 0 ? " GROUP BY " : ", ").append("`").append(column).append("`");
+            }
+            columns.append(JDBCHelper.getAggregateExpression(query));
+            for (QueryEntry entry : query.getWheres()) {
+                conditions.append(conditions.length() == 0 ? " WHERE " : " AND ").append("`").append(entry.getColumnName()).append("`=?");
+            }
+            statement = String.format(AGGREGATE, columns, query.from().getName(), conditions, grouping);
+            ps = conn.prepareStatement(statement);
+            Metrics.get().recordPrepare(query.from().getName());
 
-                for (String col : this.getColumnNames(query.from())) {
-                    if (!toAdd.containsKey(col)) {
-                        toRemove.add(col);
-                    }
-                    else {
-                        toAdd.remove(col);
-                    }
+            int i = 1;
+            for (QueryEntry entry : query.getWheres()) {
+                ps.setObject(i, JDBCHelper.convert(entry.getColumnValue()));
+                i++;
+            }
+            Column.DataType type = null;
+            for (Column column : query.from().getTableLayout()) {
+                if (column.columnName().equals(query.column())) {
+                    type = column.dataType();
                 }
+            }
+            rs = ps.executeQuery();
+            while (rs.next()) {
+                List<Object> group = new ArrayList<Object>(groupBy.size());
 
-                for (String name : toRemove) {
-                    this.deleteColumn(conn, query.from().getName(), name);
-                }
-                for (Map.Entry<String, Column> entry : toAdd.entrySet()) {
-                    this.insertColumn(conn, query.from().getName(), entry.getValue());
+                for (int j = 1; j <= groupBy.size(); j++) {
+                    group.add(rs.getObject(j));
                 }
+                toRet.add(new AggregateResult(group, JDBCHelper.getAggregateValue(rs, groupBy.size() + 1, query.function(), type)));
             }
         }
-        catch (SQLException sqle) {
-            throw new DatabaseWriteException("Error updating MySQL schema: " + sqle.getMessage());
+        catch (SQLException ex) {
+            throw new DatabaseReadException("Error Querying SQLite aggregate in " + query.from().getName(), ex);
         }
         catch (DatabaseTableInconsistencyException dtie) {
-            PBDatabaseAPI.logger().log(Level.WARNING, "Error updating MySQL schema." + dtie.getMessage(), dtie);
+            throw new DatabaseReadException("Error Querying SQLite aggregate in " + query.from().getName(), dtie);
         }
         finally {
             this.closeRS(rs);
             this.closePS(ps);
         }
+        long elapsed = System.nanoTime() - start;
+        if (SlowQueryLog.isSlow(elapsed)) {
+            SlowQueryLog.log(query.from().getName(), Query.Type.AGGREGATE, statement, query.getWheres(), toRet.size(), elapsed, 0);
+        }
+        return toRet;
+    }
+
+    public void updateSchema(UpdateSchema query, Connection conn) throws DatabaseWriteException {
+        schema.updateSchema(conn, query.from());
     }
 
     public ResultSet getResultSet(Connection conn, Select select) throws DatabaseReadException {
@@ -394,39 +887,79 @@ public class SQLiteDatabase extends Database {
         ResultSet toRet = null;
 
         try {
-            if (select.getWheres().size() > 0) {
-                StringBuilder sb = new StringBuilder();
-
-                for (QueryEntry entry : select.getWheres()) {
-                    sb.append(" AND `").append(entry.getColumnName()).append("`=?");
-                }
-                sb.delete(0, 5);
+            ps = conn.prepareStatement(this.getSelectStatement(select));
+            Metrics.get().recordPrepare(select.from().getName());
 
-                ps = conn.prepareStatement(String.format(SELECT, select.from().getName(), sb, select.limit()));
-
-                int i = 0;
-                for (QueryEntry entry : select.getWheres()) {
-                    ps.setObject(i + 1, JDBCHelper.convert(entry.getColumnValue()));
-                    i++;
-                }
-                toRet = ps.executeQuery();
-            }
-            else {
-                ps = conn.prepareStatement(String.format(SELECT_ALL, select.from().getName(), select.limit()));
-
-                toRet = ps.executeQuery();
+            int i = 0;
+            for (QueryEntry entry : select.getWheres()) {
+                ps.setObject(i + 1, JDBCHelper.convert(entry.getColumnValue()));
+                i++;
             }
+            toRet = ps.executeQuery();
         }
         catch (SQLException ex) {
-            throw new DatabaseReadException("Error Querying MySQL ResultSet in "
-                    + select.from().getName());
+            throw new DatabaseReadException("Error Querying SQLite ResultSet in " + select.from().getName() + ": " + ex.getMessage(), ex);
         }
         catch (Exception ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            Logger.getLogger(SQLiteDatabase.class.getName()).log(Level.SEVERE, null, ex);
         }
         return toRet;
     }
 
+    /**
+     * Gets the SQL of a Select, with a ? for the value of every where.
+     *
+     * @param select
+     *
+     * @return the SELECT statement
+     */
+    private String getSelectStatement(Select select) {
+        Column key = this.getLazyKey(select);
+        String columns = key != null ? "`" + key.columnName() + "`" : "*";
+
+        if (select.getWheres().isEmpty()) {
+            return String.format(SELECT_ALL, columns, select.from().getName(), select.limit());
+        }
+        StringBuilder sb = new StringBuilder();
+
+        for (QueryEntry entry : select.getWheres()) {
+            sb.append(sb.length() == 0 ? "" : " AND ").append("`").append(entry.getColumnName()).append("`=?");
+        }
+        return String.format(SELECT, columns, select.from().getName(), sb, select.limit());
+    }
+
+    /**
+     * Gets the only column a lazy Select reads, see { @link Select#lazy() }.
+     *
+     * @param select
+     *
+     * @return the primary key, or null if all columns are read
+     */
+    private Column getLazyKey(Select select) {
+        if (!select.isLazy()) {
+            return null;
+        }
+        try {
+            return select.from().getPrimaryKey();
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            // Tables without a usable layout are read as a whole
+            return null;
+        }
+    }
+
+    /** Gets the values of a row as QueryEntries, for the slow query log */
+    private List<QueryEntry> getBinds(HashMap<Column, Object> columns) {
+        List<QueryEntry> binds = new ArrayList<QueryEntry>(columns.size());
+
+        for (Map.Entry<Column, Object> entry : columns.entrySet()) {
+            if (!entry.getKey().autoIncrement()) {
+                binds.add(new QueryEntry(entry.getKey().columnName(), entry.getValue()));
+            }
+        }
+        return binds;
+    }
+
     public boolean doesEntryExist(Connection conn, DataAccess data) throws DatabaseWriteException {
 //        Connection conn = pool.getConnectionFromPool();
         ResultSet rs = null;
@@ -458,127 +991,101 @@ public class SQLiteDatabase extends Database {
         return toRet;
     }
 
-    public List<String> getColumnNames(DataAccess data) {
-        Statement statement = null;
-        ResultSet resultSet = null;
-
-        ArrayList<String> columns = new ArrayList<String>();
-        String columnName;
-
+    public Select getSelectFromWhere(Where where) {
+        Select select = null;
         try {
-            statement = conn.createStatement();
-            resultSet = statement.executeQuery("SHOW COLUMNS FROM `" + data.getName() + "`");
-            while (resultSet.next()) {
-                columnName = resultSet.getString("field");
-                columns.add(columnName);
-            }
-        }
-        catch (SQLException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage(), ex);
-        }
-        finally {
-            this.closeRS(resultSet);
-            if (statement != null) {
-                try {
-                    statement.close();
-                }
-                catch (SQLException ex) {
-                    Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
-                }
+            HashMap<Column, Object> columns = where.from().toDatabaseEntryList();
+            select = (Select)Query.Type.SELECT.newQuery();
+            select.from(where.from()).limit(1);
+            for (Column c : columns.keySet()) {
+                select.where(c.columnName(), columns.get(c.columnName()));
             }
+        } catch (DatabaseTableInconsistencyException ex) {
+            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
         }
-        return columns;
+        return select;
     }
 
-    public void createTable(Connection conn, DataAccess data) throws DatabaseWriteException {
-        PreparedStatement ps = null;
-
-        try {
-            StringBuilder fields = new StringBuilder();
-            HashMap<Column, Object> columns = data.toDatabaseEntryList();
-            Iterator<Column> it = columns.keySet().iterator();
-            String primary = null;
-
-            Column column;
-            while (it.hasNext()) {
-                column = it.next();
-                fields.append("`").append(column.columnName()).append("` ");
-                fields.append(JDBCHelper.getDataTypeSyntax(column.dataType()));
-                if (column.autoIncrement()) {
-                    fields.append(" AUTO_INCREMENT");
-                }
-                if (column.columnType().equals(Column.ColumnType.PRIMARY)) {
-                    primary = column.columnName();
-                }
-                if (it.hasNext()) {
-                    fields.append(", ");
-                }
+    /**
+     * Creates a DataAccess from the current row of the ResultSet.
+     *
+     * @param rs
+     * @param template
+     *         the DataAccess describing the table
+     * @param layout
+     *         the table layout of the template
+     * @param dataSet
+     *         map to collect the row data in
+     * @param partialOf
+     *         the database partial rows fetch their other columns from, null if the layout holds all columns
+     *
+     * @return a new, loaded DataAccess
+     */
+    private DataAccess readRow(ResultSet rs, DataAccess template, HashSet<Column> layout, HashMap<String, Object> dataSet, Database partialOf) throws SQLException, DatabaseAccessException, InstantiationException, IllegalAccessException {
+        for (Column column : layout) {
+            if (column.isList()) {
+                dataSet.put(column.columnName(), JDBCHelper.getList(column, rs));
             }
-            if (primary != null) {
-                fields.append(", PRIMARY KEY(`").append(primary).append("`)");
+            else {
+                dataSet.put(column.columnName(), JDBCHelper.getValue(column, rs));
             }
-            ps = conn.prepareStatement(String.format(CREATE_TABLE, data.getName(), fields.toString()));
-            ps.execute();
         }
-        catch (SQLException ex) {
-            throw new DatabaseWriteException("Error creating MySQL table '" + data.getName() + "'. " + ex.getMessage());
+        DataAccess access = template.getClass().newInstance();
+        if (partialOf != null) {
+            access.loadPartial(dataSet, partialOf);
         }
-        catch (DatabaseTableInconsistencyException ex) {
-            PBDatabaseAPI.logger().log(Level.WARNING, ex.getMessage() + " Error creating MySQL table '" + data.getName() + "'. ", ex);
-        }
-        finally {
-            this.closePS(ps);
+        else {
+            access.load(dataSet);
         }
+        return access;
     }
 
-    public void insertColumn(Connection conn, String tableName, Column column) throws DatabaseWriteException {
-        PreparedStatement ps = null;
+    /**
+     * Gets the columns that are written on insert, that is all but auto-increment columns.
+     *
+     * @param template
+     *
+     * @return the columns in a fixed order
+     *
+     * @throws DatabaseTableInconsistencyException
+     */
+    private List<Column> getInsertColumns(DataAccess template) throws DatabaseTableInconsistencyException {
+        List<Column> columns = new ArrayList<Column>();
 
-        try {
-            if (column != null && !column.columnName().trim().equals("")) {
-                ps = conn.prepareStatement(String.format(DELETE_COLUMN, tableName, column.columnName(), JDBCHelper.getDataTypeSyntax(column.dataType())));
-                ps.execute();
+        for (Column column : template.getTableLayout()) {
+            if (!column.autoIncrement()) {
+                columns.add(column);
             }
         }
-        catch (SQLException ex) {
-            throw new DatabaseWriteException("Error adding MySQL collumn: " + column.columnName());
-        }
-        finally {
-            this.closePS(ps);
-        }
-
+        return columns;
     }
 
-    public void deleteColumn(Connection conn, String tableName, String columnName) throws DatabaseWriteException {
-        PreparedStatement ps = null;
+    /**
+     * Binds the values of a row to the statement, starting at the given parameter index.
+     *
+     * @return the next free parameter index
+     */
+    private int bindRow(PreparedStatement ps, int index, List<Column> columns, DataAccess row) throws SQLException, DatabaseTableInconsistencyException {
+        HashMap<Column, Object> values = row.toDatabaseEntryList();
 
-        try {
-            if (columnName != null && !columnName.trim().equals("")) {
-                ps = conn.prepareStatement(String.format(DELETE_COLUMN, tableName, columnName));
-                ps.execute();
-            }
-        }
-        catch (SQLException ex) {
-            throw new DatabaseWriteException("Error deleting MySQL collumn: " + columnName);
-        }
-        finally {
-            this.closePS(ps);
+        for (Column column : columns) {
+            ps.setObject(index++, JDBCHelper.getDatabaseValue(column, values.get(column)));
         }
+        return index;
     }
 
-    public Select getSelectFromWhere(Where where) {
-        Select select = null;
+    /**
+     * Rolls back the current transaction of the connection, if possible.
+     *
+     * @param conn
+     */
+    private void rollback(Connection conn) {
         try {
-            HashMap<Column, Object> columns = where.from().toDatabaseEntryList();
-            select = (Select)Query.Type.SELECT.newQuery();
-            select.from(where.from()).limit(1);
-            for (Column c : columns.keySet()) {
-                select.where(c.columnName(), columns.get(c.columnName()));
-            }
-        } catch (DatabaseTableInconsistencyException ex) {
-            Logger.getLogger(MySQLDatabase.class.getName()).log(Level.SEVERE, null, ex);
+            conn.rollback();
+        }
+        catch (SQLException ex) {
+            PBDatabaseAPI.logger().log(Level.WARNING, "Error rolling back SQLite transaction.", ex);
         }
-        return select;
     }
 
     /**
@@ -0,0 +1,406 @@
+package net.playblack.pbdbapi.sqlite;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import net.playblack.pbdbapi.Column;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.IndexDefinition;
+import net.playblack.pbdbapi.PBDatabaseAPI;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+
+/**
+ * Creates and updates SQLite tables for DataAccess layouts.
+ * The columns of every table that has been checked are cached, so a table is only
+ * introspected the first time it is seen, or after it has been invalidated.
+ * SQLite cannot drop columns, so tables are rebuilt when columns are removed.
+ * Index names are global in SQLite, so declared indexes are created with the table name as prefix.
+ */
+public class SQLiteSchemaManager {
+
+    /** Takes: Table Name, Column Data */
+    private final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS `%s` (%s)";
+    /** Takes: Table Name, Column Definition */
+    private final String INSERT_COLUMN = "ALTER TABLE `%s` ADD COLUMN %s";
+    /** Takes: Table Name */
+    private final String TABLE_INFO = "PRAGMA table_info(`%s`)";
+    /** Takes: Table Name */
+    private final String INDEX_LIST = "PRAGMA index_list(`%s`)";
+    /** Takes: Index Name */
+    private final String INDEX_INFO = "PRAGMA index_info(`%s`)";
+    /** Takes: Target Table, Columns, Columns, Source Table */
+    private final String COPY_TABLE = "INSERT INTO `%s` (%s) SELECT %s FROM `%s`";
+    /** Takes: Table Name */
+    private final String DROP_TABLE = "DROP TABLE `%s`";
+    /** Takes: Old Table Name, New Table Name */
+    private final String RENAME_TABLE = "ALTER TABLE `%s` RENAME TO `%s`";
+    /** Takes: UNIQUE or nothing, Index Name, Table Name, Columns */
+    private final String CREATE_INDEX = "CREATE %sINDEX IF NOT EXISTS `%s` ON `%s` (%s)";
+    /** Takes: Index Name */
+    private final String DROP_INDEX = "DROP INDEX IF EXISTS `%s`";
+
+    /** Table name to the columns and indexes the table is known to have */
+    private final ConcurrentHashMap<String, Set<Object>> tables = new ConcurrentHashMap<String, Set<Object>>();
+
+    /**
+     * Checks if the table of the given DataAccess is known to match its layout.
+     * This never touches the database.
+     *
+     * @param data
+     *
+     * @return true if the table does not need to be updated
+     */
+    public boolean isCurrent(DataAccess data) {
+        Set<Object> known = tables.get(data.getName());
+
+        if (known == null) {
+            return false;
+        }
+        try {
+            return known.equals(getSignature(data));
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Makes sure the table of the given DataAccess exists and has exactly its columns.
+     *
+     * @param conn
+     *         the writer connection
+     * @param data
+     *
+     * @throws DatabaseWriteException
+     */
+    public void updateSchema(Connection conn, DataAccess data) throws DatabaseWriteException {
+        if (this.isCurrent(data)) {
+            return;
+        }
+        String table = data.getName();
+
+        try {
+            List<Column> layout = sortedLayout(data);
+            Set<String> wanted = getColumnNames(data.getTableLayout());
+            Set<String> existing = this.getColumnNames(conn, table);
+
+            if (existing.isEmpty()) {
+                this.execute(conn, String.format(CREATE_TABLE, table, getColumnDefinitions(layout)));
+            }
+            else if (!existing.equals(wanted)) {
+                boolean rebuild = !wanted.containsAll(existing);
+                List<Column> toAdd = new ArrayList<Column>();
+
+                for (Column column : layout) {
+                    if (!existing.contains(column.columnName())) {
+                        // ADD COLUMN cannot add keys
+                        rebuild |= column.columnType() == Column.ColumnType.PRIMARY || column.autoIncrement();
+                        toAdd.add(column);
+                    }
+                }
+                if (rebuild) {
+                    this.rebuildTable(conn, table, layout, existing);
+                }
+                else {
+                    for (Column column : toAdd) {
+                        this.execute(conn, String.format(INSERT_COLUMN, table, getColumnDefinition(column)));
+                    }
+                }
+            }
+            this.updateIndexes(conn, data);
+            tables.put(table, getSignature(data));
+        }
+        catch (SQLException ex) {
+            tables.remove(table);
+            throw new DatabaseWriteException("Error updating SQLite schema of " + table + ": " + ex.getMessage(), ex);
+        }
+        catch (DatabaseTableInconsistencyException ex) {
+            throw new DatabaseWriteException("Error updating SQLite schema of " + table + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Forgets what is known about a table, so it is introspected again on the next update.
+     * Call this after changing the table outside of the API.
+     *
+     * @param table
+     *         the table name
+     */
+    public void invalidate(String table) {
+        tables.remove(table);
+    }
+
+    /** Forgets what is known about all tables */
+    public void invalidateAll() {
+        tables.clear();
+    }
+
+    /**
+     * Gets the names of the columns of a table, as they are in the database.
+     *
+     * @param conn
+     * @param table
+     *
+     * @return the column names, empty if the table does not exist
+     *
+     * @throws SQLException
+     */
+    public Set<String> getColumnNames(Connection conn, String table) throws SQLException {
+        Set<String> columns = new LinkedHashSet<String>();
+        Statement st = conn.createStatement();
+
+        try {
+            ResultSet rs = st.executeQuery(String.format(TABLE_INFO, table));
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+            rs.close();
+        }
+        finally {
+            st.close();
+        }
+        return columns;
+    }
+
+    /**
+     * Gets the indexes created for a table through this manager, by their name without table prefix.
+     * Indexes SQLite creates for constraints are not included.
+     *
+     * @param conn
+     * @param table
+     *
+     * @return the indexes
+     *
+     * @throws SQLException
+     */
+    public Map<String, IndexDefinition> getIndexes(Connection conn, String table) throws SQLException {
+        Map<String, IndexDefinition> indexes = new LinkedHashMap<String, IndexDefinition>();
+        Map<String, Boolean> found = new LinkedHashMap<String, Boolean>();
+        Statement st = conn.createStatement();
+
+        try {
+            ResultSet rs = st.executeQuery(String.format(INDEX_LIST, table));
+            while (rs.next()) {
+                String name = rs.getString("name");
+                // Automatic indexes are named sqlite_autoindex_*, the origin column needs SQLite 3.8.9
+                if (name.startsWith(table + "_")) {
+                    found.put(name, rs.getInt("unique") != 0);
+                }
+            }
+            rs.close();
+            for (Map.Entry<String, Boolean> index : found.entrySet()) {
+                List<String> columns = new ArrayList<String>();
+
+                rs = st.executeQuery(String.format(INDEX_INFO, index.getKey()));
+                while (rs.next()) {
+                    // Rows are ordered by position in the index
+                    columns.add(rs.getString("name"));
+                }
+                rs.close();
+                String name = index.getKey().substring(table.length() + 1);
+                indexes.put(name, new IndexDefinition(name, columns, index.getValue()));
+            }
+        }
+        finally {
+            st.close();
+        }
+        return indexes;
+    }
+
+    /**
+     * Creates and drops indexes, so that the table has exactly the indexes declared by the DataAccess.
+     */
+    private void updateIndexes(Connection conn, DataAccess data) throws SQLException, DatabaseTableInconsistencyException {
+        String table = data.getName();
+        Map<String, IndexDefinition> declared = data.getIndexes();
+        Map<String, IndexDefinition> existing = this.getIndexes(conn, table);
+
+        for (IndexDefinition index : existing.values()) {
+            if (!index.equals(declared.get(index.getName()))) {
+                this.execute(conn, String.format(DROP_INDEX, table + "_" + index.getName()));
+            }
+        }
+        for (IndexDefinition index : declared.values()) {
+            if (!index.equals(existing.get(index.getName()))) {
+                StringBuilder columns = new StringBuilder();
+
+                for (String column : index.getColumns()) {
+                    columns.append(columns.length() == 0 ? "`" : ", `").append(column).append("`");
+                }
+                this.execute(conn, String.format(CREATE_INDEX, index.isUnique() ? "UNIQUE " : "", table + "_" + index.getName(), table, columns));
+            }
+        }
+    }
+
+    /**
+     * Gets the SQLite type for a column.
+     *
+     * @param column
+     *
+     * @return the type name
+     */
+    public static String getDataTypeSyntax(Column column) {
+        if (column.isList()) {
+            return column.listEncoding() == Column.ListEncoding.BINARY ? "BLOB" : "TEXT";
+        }
+        switch (column.dataType()) {
+            case BYTE:
+            case SHORT:
+            case INTEGER:
+            case LONG:
+                return "INTEGER";
+            case FLOAT:
+            case DOUBLE:
+                return "REAL";
+            case BOOLEAN:
+                return "BOOLEAN";
+            case VARCHAR:
+                // Only for documentation, SQLite does not enforce the length
+                return "VARCHAR(" + (column.length() > 0 ? column.length() : 255) + ")";
+            case BINARY:
+            case UUID:
+                return "BLOB";
+            case TIMESTAMP:
+                // Stored as milliseconds since the epoch
+                return "INTEGER";
+            case DECIMAL:
+                // TEXT affinity, NUMERIC would round through REAL
+                return "TEXT";
+            default:
+                return "TEXT";
+        }
+    }
+
+    /**
+     * Recreates a table with the given layout and copies over the data of all columns
+     * that exist in both the old and the new table.
+     */
+    private void rebuildTable(Connection conn, String table, List<Column> layout, Set<String> existing) throws SQLException {
+        String temp = table + "_rebuild";
+        StringBuilder common = new StringBuilder();
+
+        for (Column column : layout) {
+            if (existing.contains(column.columnName())) {
+                common.append(common.length() == 0 ? "" : ", ").append("`").append(column.columnName()).append("`");
+            }
+        }
+        boolean autoCommit = conn.getAutoCommit();
+
+        if (autoCommit) {
+            conn.setAutoCommit(false);
+        }
+        try {
+            this.execute(conn, String.format(CREATE_TABLE, temp, getColumnDefinitions(layout)));
+            if (common.length() > 0) {
+                this.execute(conn, String.format(COPY_TABLE, temp, common, common, table));
+            }
+            this.execute(conn, String.format(DROP_TABLE, table));
+            this.execute(conn, String.format(RENAME_TABLE, temp, table));
+            if (autoCommit) {
+                conn.commit();
+            }
+        }
+        catch (SQLException ex) {
+            if (autoCommit) {
+                try {
+                    conn.rollback();
+                }
+                catch (SQLException e) {
+                    PBDatabaseAPI.logger().log(Level.WARNING, "Error rolling back SQLite table rebuild.", e);
+                }
+            }
+            throw ex;
+        }
+        finally {
+            if (autoCommit) {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private String getColumnDefinitions(List<Column> layout) {
+        StringBuilder fields = new StringBuilder();
+        String primary = null;
+        boolean hasRowKey = false;
+
+        for (Column column : layout) {
+            hasRowKey |= column.autoIncrement();
+        }
+        for (Column column : layout) {
+            if (fields.length() > 0) {
+                fields.append(", ");
+            }
+            fields.append(getColumnDefinition(column));
+            if (column.columnType() == Column.ColumnType.PRIMARY && !column.autoIncrement() && !hasRowKey) {
+                primary = column.columnName();
+            }
+        }
+        if (primary != null) {
+            fields.append(", PRIMARY KEY(`").append(primary).append("`)");
+        }
+        return fields.toString();
+    }
+
+    private String getColumnDefinition(Column column) {
+        StringBuilder sb = new StringBuilder("`").append(column.columnName()).append("` ");
+
+        if (column.autoIncrement()) {
+            // Only an INTEGER PRIMARY KEY can auto-increment in SQLite
+            return sb.append("INTEGER PRIMARY KEY AUTOINCREMENT").toString();
+        }
+        return sb.append(getDataTypeSyntax(column)).toString();
+    }
+
+    private void execute(Connection conn, String sql) throws SQLException {
+        Statement st = conn.createStatement();
+
+        try {
+            st.execute(sql);
+        }
+        finally {
+            st.close();
+        }
+    }
+
+    /** The column names and indexes of a DataAccess, to compare against the cache */
+    private static Set<Object> getSignature(DataAccess data) throws DatabaseTableInconsistencyException {
+        Set<Object> signature = new HashSet<Object>(getColumnNames(data.getTableLayout()));
+
+        signature.addAll(data.getIndexes().values());
+        return signature;
+    }
+
+    private static Set<String> getColumnNames(Set<Column> layout) {
+        Set<String> names = new HashSet<String>();
+
+        for (Column column : layout) {
+            names.add(column.columnName());
+        }
+        return names;
+    }
+
+    private static List<Column> sortedLayout(DataAccess data) throws DatabaseTableInconsistencyException {
+        List<Column> layout = new ArrayList<Column>(data.getTableLayout());
+
+        Collections.sort(layout, new Comparator<Column>() {
+            @Override
+            public int compare(Column o1, Column o2) {
+                return o1.columnName().compareTo(o2.columnName());
+            }
+        });
+        return layout;
+    }
+}
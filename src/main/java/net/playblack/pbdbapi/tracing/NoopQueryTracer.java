@@ -0,0 +1,36 @@
+package net.playblack.pbdbapi.tracing;
+
+/**
+ * A tracer that records nothing. This is the default.
+ */
+public final class NoopQueryTracer implements QueryTracer {
+
+    public static final NoopQueryTracer INSTANCE = new NoopQueryTracer();
+
+    /** The span returned for everything */
+    public static final TraceSpan SPAN = new TraceSpan() {
+        @Override
+        public void setAttribute(String key, String value) {
+        }
+
+        @Override
+        public void setAttribute(String key, long value) {
+        }
+
+        @Override
+        public void recordError(Throwable error) {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    private NoopQueryTracer() {
+    }
+
+    @Override
+    public TraceSpan startSpan(String name, boolean client) {
+        return SPAN;
+    }
+}
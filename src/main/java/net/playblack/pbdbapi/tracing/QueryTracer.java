@@ -0,0 +1,24 @@
+package net.playblack.pbdbapi.tracing;
+
+/**
+ * Receives spans around database work: queries, each operation of
+ * { @link net.playblack.pbdbapi.Database#executeQueries() }, schema updates and
+ * waiting for a pooled connection. Install one with { @link Tracing#setTracer(QueryTracer) }.
+ * <p/>
+ * Spans are started and ended on the same thread, so a tracer may make a span current
+ * while it is open. Pool waits then show up as children of the query that waited.
+ */
+public interface QueryTracer {
+
+    /**
+     * Starts a span.
+     *
+     * @param name
+     *         the span name, ie: SELECT users or pool.borrow
+     * @param client
+     *         true if the span covers a call to the database, false for work within the API
+     *
+     * @return the span, never null
+     */
+    TraceSpan startSpan(String name, boolean client);
+}
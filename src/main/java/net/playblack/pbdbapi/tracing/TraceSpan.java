@@ -0,0 +1,34 @@
+package net.playblack.pbdbapi.tracing;
+
+/**
+ * A span started by a { @link QueryTracer }. Spans must be ended on the thread that started them.
+ */
+public interface TraceSpan {
+
+    /**
+     * Sets an attribute of this span.
+     *
+     * @param key
+     * @param value
+     */
+    void setAttribute(String key, String value);
+
+    /**
+     * Sets a numeric attribute of this span.
+     *
+     * @param key
+     * @param value
+     */
+    void setAttribute(String key, long value);
+
+    /**
+     * Marks this span as failed.
+     *
+     * @param error
+     *         the exception the operation failed with
+     */
+    void recordError(Throwable error);
+
+    /** Ends this span. Nothing may be recorded afterwards */
+    void end();
+}
@@ -0,0 +1,85 @@
+package net.playblack.pbdbapi.tracing;
+
+import net.playblack.pbdbapi.queries.Query;
+
+/**
+ * Holds the { @link QueryTracer } the backends report to. By default nothing is traced.
+ * Attribute names follow the OpenTelemetry database conventions where there is one.
+ */
+public final class Tracing {
+
+    /** The backend: mysql, sqlite or xml */
+    public static final String DB_SYSTEM = "db.system";
+    /** The operation, ie: SELECT or UPDATE_SCHEMA */
+    public static final String DB_OPERATION = "db.operation";
+    /** The table the operation works on */
+    public static final String DB_TABLE = "db.sql.table";
+    /** Rows returned by a query */
+    public static final String ROWS = "pbdbapi.rows";
+
+    private static volatile QueryTracer tracer = NoopQueryTracer.INSTANCE;
+
+    private Tracing() {
+    }
+
+    /**
+     * Gets the current tracer.
+     *
+     * @return the tracer, never null
+     */
+    public static QueryTracer get() {
+        return tracer;
+    }
+
+    /**
+     * Sets the tracer all backends report to.
+     *
+     * @param tracer
+     *         the tracer, or null to stop tracing
+     */
+    public static void setTracer(QueryTracer tracer) {
+        Tracing.tracer = tracer == null ? NoopQueryTracer.INSTANCE : tracer;
+    }
+
+    /**
+     * Starts a span around a database operation.
+     *
+     * @param system
+     *         the backend, ie: mysql
+     * @param operation
+     * @param table
+     *
+     * @return the span, which must be ended
+     */
+    public static TraceSpan startQuery(String system, Query.Type operation, String table) {
+        QueryTracer current = tracer;
+
+        if (current == NoopQueryTracer.INSTANCE) {
+            return NoopQueryTracer.SPAN;
+        }
+        TraceSpan span = current.startSpan(operation + " " + table, true);
+        span.setAttribute(DB_SYSTEM, system);
+        span.setAttribute(DB_OPERATION, operation.name());
+        span.setAttribute(DB_TABLE, table);
+        return span;
+    }
+
+    /**
+     * Starts a span around borrowing a connection from a pool.
+     *
+     * @param system
+     *         the backend, ie: mysql
+     *
+     * @return the span, which must be ended
+     */
+    public static TraceSpan startBorrow(String system) {
+        QueryTracer current = tracer;
+
+        if (current == NoopQueryTracer.INSTANCE) {
+            return NoopQueryTracer.SPAN;
+        }
+        TraceSpan span = current.startSpan("pool.borrow", false);
+        span.setAttribute(DB_SYSTEM, system);
+        return span;
+    }
+}
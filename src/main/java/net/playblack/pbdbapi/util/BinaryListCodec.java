@@ -0,0 +1,345 @@
+package net.playblack.pbdbapi.util;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.playblack.pbdbapi.Column.DataType;
+
+/**
+ * Encodes list columns into a compact binary form and back.
+ * <p/>
+ * Layout: a magic byte (0xFF, which never occurs in UTF-8 text), a version byte,
+ * the element count as varint and then the elements:
+ * <ul>
+ * <li>byte, short, integer and long: zigzag varints, small values of either sign take a single byte</li>
+ * <li>float and double: 4 and 8 bytes, big endian</li>
+ * <li>boolean: a byte per element</li>
+ * <li>string and all other types: the { @link TextValues } text as UTF-8, prefixed with its length + 1 as varint. A length of 0 is null</li>
+ * </ul>
+ * Values that do not start with the magic byte are decoded as text through { @link ListCodec },
+ * so columns that still hold the text encoding can be read while they are migrated.
+ */
+public final class BinaryListCodec {
+
+    public static final byte MAGIC = (byte) 0xFF;
+    public static final byte VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BinaryListCodec() {
+    }
+
+    /**
+     * Checks if the given bytes hold a binary encoded list.
+     *
+     * @param data
+     *
+     * @return true if the data starts with the binary header
+     */
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length >= 2 && data[0] == MAGIC;
+    }
+
+    /**
+     * Encodes a list.
+     *
+     * @param type
+     *         the data type of the elements
+     * @param list
+     *
+     * @return the encoded list
+     */
+    public static byte[] encode(DataType type, List<?> list) {
+        Buffer out = new Buffer(list.size() * 2 + 8);
+        int size = list.size();
+
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.writeVarint(size);
+        switch (type) {
+            case INTEGER:
+                if (list instanceof IntArrayList) {
+                    IntArrayList ints = (IntArrayList) list;
+                    for (int i = 0; i < size; i++) {
+                        out.writeVarint(zigzag(ints.getInt(i)));
+                    }
+                }
+                else {
+                    for (Object o : list) {
+                        out.writeVarint(zigzag(((Number) o).longValue()));
+                    }
+                }
+                break;
+            case BYTE:
+            case SHORT:
+            case LONG:
+                if (list instanceof LongArrayList) {
+                    LongArrayList longs = (LongArrayList) list;
+                    for (int i = 0; i < size; i++) {
+                        out.writeVarint(zigzag(longs.getLong(i)));
+                    }
+                }
+                else {
+                    for (Object o : list) {
+                        out.writeVarint(zigzag(((Number) o).longValue()));
+                    }
+                }
+                break;
+            case FLOAT:
+                for (Object o : list) {
+                    out.writeInt(Float.floatToIntBits(((Number) o).floatValue()));
+                }
+                break;
+            case DOUBLE:
+                if (list instanceof DoubleArrayList) {
+                    DoubleArrayList doubles = (DoubleArrayList) list;
+                    for (int i = 0; i < size; i++) {
+                        out.writeLong(Double.doubleToLongBits(doubles.getDouble(i)));
+                    }
+                }
+                else {
+                    for (Object o : list) {
+                        out.writeLong(Double.doubleToLongBits(((Number) o).doubleValue()));
+                    }
+                }
+                break;
+            case BOOLEAN:
+                for (Object o : list) {
+                    out.write((byte) (Boolean.TRUE.equals(o) ? 1 : 0));
+                }
+                break;
+            default:
+                for (Object o : list) {
+                    if (o == null) {
+                        out.writeVarint(0);
+                        continue;
+                    }
+                    byte[] bytes = TextValues.format(o).getBytes(UTF8);
+                    out.writeVarint(bytes.length + 1L);
+                    out.write(bytes);
+                }
+                break;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a list, which may be binary or text encoded.
+     *
+     * @param type
+     *         the data type of the elements
+     * @param data
+     *         the encoded list, may be null
+     *
+     * @return the decoded list, of the same types { @link ListCodec#decode(DataType, String) } returns
+     *
+     * @throws IllegalArgumentException
+     *         if the data is corrupt
+     */
+    public static List<?> decode(DataType type, byte[] data) {
+        if (!isBinary(data)) {
+            return ListCodec.decode(type, data == null ? null : new String(data, UTF8));
+        }
+        if (data[1] != VERSION) {
+            throw new IllegalArgumentException("Unknown binary list version " + data[1]);
+        }
+        Reader in = new Reader(data, 2);
+        long size = in.readVarint();
+
+        if (size > data.length) {
+            // Every element takes at least one byte
+            throw new IllegalArgumentException("Binary list is truncated");
+        }
+        return decode(type, in, (int) size);
+    }
+
+    private static List<?> decode(DataType type, Reader in, int size) {
+
+        switch (type) {
+            case INTEGER: {
+                IntArrayList list = new IntArrayList(size);
+                for (int i = 0; i < size; i++) {
+                    list.addInt((int) unzigzag(in.readVarint()));
+                }
+                return list;
+            }
+            case LONG: {
+                LongArrayList list = new LongArrayList(size);
+                for (int i = 0; i < size; i++) {
+                    list.addLong(unzigzag(in.readVarint()));
+                }
+                return list;
+            }
+            case DOUBLE: {
+                DoubleArrayList list = new DoubleArrayList(size);
+                for (int i = 0; i < size; i++) {
+                    list.addDouble(Double.longBitsToDouble(in.readLong()));
+                }
+                return list;
+            }
+            case BYTE: {
+                ArrayList<Byte> list = new ArrayList<Byte>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add((byte) unzigzag(in.readVarint()));
+                }
+                return list;
+            }
+            case SHORT: {
+                ArrayList<Short> list = new ArrayList<Short>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add((short) unzigzag(in.readVarint()));
+                }
+                return list;
+            }
+            case FLOAT: {
+                ArrayList<Float> list = new ArrayList<Float>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(Float.intBitsToFloat(in.readInt()));
+                }
+                return list;
+            }
+            case BOOLEAN: {
+                ArrayList<Boolean> list = new ArrayList<Boolean>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(in.read() != 0);
+                }
+                return list;
+            }
+            default: {
+                ArrayList<String> list = new ArrayList<String>(size);
+                for (int i = 0; i < size; i++) {
+                    int length = (int) in.readVarint();
+                    if (length == 0) {
+                        list.add(null);
+                        continue;
+                    }
+                    list.add(new String(in.data, in.skip(length - 1), length - 1, UTF8));
+                }
+                return ListCodec.parseStrings(type, list);
+            }
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Growable output buffer */
+    private static final class Buffer {
+
+        private byte[] data;
+        private int pos;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void write(byte b) {
+            ensure(1);
+            data[pos++] = b;
+        }
+
+        void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, data, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[pos++] = (byte) value;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                data[pos++] = (byte) (value >>> shift);
+            }
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                data[pos++] = (byte) (value >>> shift);
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, pos);
+        }
+
+        private void ensure(int bytes) {
+            if (pos + bytes > data.length) {
+                data = Arrays.copyOf(data, Math.max(pos + bytes, data.length * 2));
+            }
+        }
+    }
+
+    /** Reads from an encoded list, failing with IllegalArgumentException on truncated data */
+    private static final class Reader {
+
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data, int pos) {
+            this.data = data;
+            this.pos = pos;
+        }
+
+        byte read() {
+            if (pos >= data.length) {
+                throw new IllegalArgumentException("Binary list is truncated");
+            }
+            return data[pos++];
+        }
+
+        long readVarint() {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in binary list");
+        }
+
+        int readInt() {
+            int value = 0;
+
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (read() & 0xFF);
+            }
+            return value;
+        }
+
+        long readLong() {
+            long value = 0;
+
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (read() & 0xFF);
+            }
+            return value;
+        }
+
+        int skip(int length) {
+            if (length < 0 || pos + length > data.length) {
+                throw new IllegalArgumentException("Binary list is truncated");
+            }
+            int start = pos;
+            pos += length;
+            return start;
+        }
+    }
+}
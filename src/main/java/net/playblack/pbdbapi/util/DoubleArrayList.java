@@ -0,0 +1,123 @@
+package net.playblack.pbdbapi.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A List of Doubles backed by a double array.
+ * Elements are only boxed when they are read through the List interface,
+ * use { @link #getDouble(int) } and { @link #addDouble(double) } to avoid that.
+ */
+public class DoubleArrayList extends AbstractList<Double> implements RandomAccess {
+
+    private double[] data;
+    private int size;
+
+    public DoubleArrayList() {
+        this(10);
+    }
+
+    public DoubleArrayList(int capacity) {
+        data = new double[Math.max(1, capacity)];
+    }
+
+    /**
+     * Creates a list holding a copy of the given values.
+     *
+     * @param values
+     */
+    public DoubleArrayList(double[] values) {
+        data = Arrays.copyOf(values, Math.max(1, values.length));
+        size = values.length;
+    }
+
+    /**
+     * Creates a list backed by the given array, without copying it.
+     * Changes to the list write through to the array until the list grows beyond it.
+     *
+     * @param values
+     *
+     * @return a list view of the array
+     */
+    public static DoubleArrayList wrap(double[] values) {
+        DoubleArrayList list = new DoubleArrayList(0);
+
+        list.data = values;
+        list.size = values.length;
+        return list;
+    }
+
+    public double getDouble(int index) {
+        checkIndex(index);
+        return data[index];
+    }
+
+    public void addDouble(double value) {
+        ensureCapacity(size + 1);
+        data[size++] = value;
+    }
+
+    /** @return a copy of the values in this list */
+    public double[] toDoubleArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    @Override
+    public Double get(int index) {
+        return getDouble(index);
+    }
+
+    @Override
+    public Double set(int index, Double value) {
+        checkIndex(index);
+        double old = data[index];
+        data[index] = value;
+        return old;
+    }
+
+    @Override
+    public void add(int index, Double value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(data, index, data, index + 1, size - index);
+        data[index] = value;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Double remove(int index) {
+        checkIndex(index);
+        double old = data[index];
+        System.arraycopy(data, index + 1, data, index, size - index - 1);
+        size--;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length + (data.length >> 1)));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
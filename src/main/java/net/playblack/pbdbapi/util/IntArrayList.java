@@ -0,0 +1,123 @@
+package net.playblack.pbdbapi.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A List of Integers backed by an int array.
+ * Elements are only boxed when they are read through the List interface,
+ * use { @link #getInt(int) } and { @link #addInt(int) } to avoid that.
+ */
+public class IntArrayList extends AbstractList<Integer> implements RandomAccess {
+
+    private int[] data;
+    private int size;
+
+    public IntArrayList() {
+        this(10);
+    }
+
+    public IntArrayList(int capacity) {
+        data = new int[Math.max(1, capacity)];
+    }
+
+    /**
+     * Creates a list holding a copy of the given values.
+     *
+     * @param values
+     */
+    public IntArrayList(int[] values) {
+        data = Arrays.copyOf(values, Math.max(1, values.length));
+        size = values.length;
+    }
+
+    /**
+     * Creates a list backed by the given array, without copying it.
+     * Changes to the list write through to the array until the list grows beyond it.
+     *
+     * @param values
+     *
+     * @return a list view of the array
+     */
+    public static IntArrayList wrap(int[] values) {
+        IntArrayList list = new IntArrayList(0);
+
+        list.data = values;
+        list.size = values.length;
+        return list;
+    }
+
+    public int getInt(int index) {
+        checkIndex(index);
+        return data[index];
+    }
+
+    public void addInt(int value) {
+        ensureCapacity(size + 1);
+        data[size++] = value;
+    }
+
+    /** @return a copy of the values in this list */
+    public int[] toIntArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    @Override
+    public Integer get(int index) {
+        return getInt(index);
+    }
+
+    @Override
+    public Integer set(int index, Integer value) {
+        checkIndex(index);
+        int old = data[index];
+        data[index] = value;
+        return old;
+    }
+
+    @Override
+    public void add(int index, Integer value) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(data, index, data, index + 1, size - index);
+        data[index] = value;
+        size++;
+        modCount++;
+    }
+
+    @Override
+    public Integer remove(int index) {
+        checkIndex(index);
+        int old = data[index];
+        System.arraycopy(data, index + 1, data, index, size - index - 1);
+        size--;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length + (data.length >> 1)));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package net.playblack.pbdbapi.util;
+
+import java.util.AbstractList;
+import java.util.List;
+import net.playblack.pbdbapi.Column.DataType;
+
+/**
+ * The value of a lazy list column, see { @link net.playblack.pbdbapi.Column#lazy() }.
+ * Holds the column as it was read from the database and decodes it the first time the list is used.
+ * Afterwards all calls go to the decoded list, which is the same list an eager column would hold.
+ * <p/>
+ * A list that was never used is written back as it was read, without encoding it again.
+ */
+public final class LazyList<E> extends AbstractList<E> {
+
+    private final DataType type;
+    private Object raw;
+    private List<E> list;
+
+    /**
+     * Creates a list that decodes the given value on first use.
+     *
+     * @param type
+     *         the data type of the elements
+     * @param raw
+     *         a text encoded String, a binary encoded byte array or a List of element texts, may be null
+     */
+    public LazyList(DataType type, Object raw) {
+        this.type = type;
+        this.raw = raw;
+    }
+
+    /**
+     * Checks if the list was decoded, that is if it was used.
+     *
+     * @return true if decoded
+     */
+    public synchronized boolean isDecoded() {
+        return list != null;
+    }
+
+    /**
+     * Gets the value as it was read from the database.
+     *
+     * @return the raw value, or null once the list was decoded
+     */
+    public synchronized Object getRaw() {
+        return raw;
+    }
+
+    /**
+     * Decodes the list if that did not happen yet.
+     *
+     * @return the decoded list
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<E> get() {
+        if (list == null) {
+            if (raw instanceof byte[]) {
+                list = (List<E>) BinaryListCodec.decode(type, (byte[]) raw);
+            }
+            else if (raw instanceof List) {
+                list = (List<E>) ListCodec.parse(type, (List<String>) raw);
+            }
+            else {
+                list = (List<E>) ListCodec.decode(type, raw == null ? null : raw.toString());
+            }
+            raw = null;
+        }
+        return list;
+    }
+
+    /**
+     * Copies the list. An undecoded list stays undecoded, the copy shares only the raw value, which is never changed.
+     *
+     * @return the copy
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized LazyList<E> copy() {
+        LazyList<E> copy = new LazyList<E>(type, raw);
+
+        if (list != null) {
+            copy.list = (List<E>) ListColumns.copy(list.getClass(), list);
+        }
+        return copy;
+    }
+
+    @Override
+    public E get(int index) {
+        return this.get().get(index);
+    }
+
+    @Override
+    public int size() {
+        return this.get().size();
+    }
+
+    @Override
+    public E set(int index, E element) {
+        modCount++;
+        return this.get().set(index, element);
+    }
+
+    @Override
+    public void add(int index, E element) {
+        modCount++;
+        this.get().add(index, element);
+    }
+
+    @Override
+    public E remove(int index) {
+        modCount++;
+        return this.get().remove(index);
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        this.get().clear();
+    }
+}
@@ -0,0 +1,353 @@
+package net.playblack.pbdbapi.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.playblack.pbdbapi.Column.DataType;
+
+/**
+ * Encodes list columns into a single string and back.
+ * Elements are separated by a pilcrow (&#182;). Separators and backslashes inside of
+ * string elements are escaped with a backslash.
+ * <p/>
+ * Decoding is a single pass over the string without regular expressions. Integer, long and double
+ * lists are decoded into { @link IntArrayList }, { @link LongArrayList } and { @link DoubleArrayList },
+ * which do not box their elements.
+ */
+public final class ListCodec {
+
+    public static final char SEPARATOR = '\u00B6';
+    public static final char ESCAPE = '\\';
+
+    private ListCodec() {
+    }
+
+    /**
+     * Encodes a list into its string representation.
+     *
+     * @param list
+     *
+     * @return the encoded list
+     */
+    public static String encode(List<?> list) {
+        StringBuilder sb = new StringBuilder(list.size() * 8);
+
+        if (list instanceof IntArrayList) {
+            IntArrayList ints = (IntArrayList) list;
+            for (int i = 0; i < ints.size(); i++) {
+                if (i > 0) {
+                    sb.append(SEPARATOR);
+                }
+                sb.append(ints.getInt(i));
+            }
+        }
+        else if (list instanceof LongArrayList) {
+            LongArrayList longs = (LongArrayList) list;
+            for (int i = 0; i < longs.size(); i++) {
+                if (i > 0) {
+                    sb.append(SEPARATOR);
+                }
+                sb.append(longs.getLong(i));
+            }
+        }
+        else if (list instanceof DoubleArrayList) {
+            DoubleArrayList doubles = (DoubleArrayList) list;
+            for (int i = 0; i < doubles.size(); i++) {
+                if (i > 0) {
+                    sb.append(SEPARATOR);
+                }
+                sb.append(doubles.getDouble(i));
+            }
+        }
+        else {
+            boolean first = true;
+            for (Object o : list) {
+                if (!first) {
+                    sb.append(SEPARATOR);
+                }
+                first = false;
+                if (o instanceof Number || o instanceof Boolean) {
+                    sb.append(o);
+                }
+                else {
+                    appendEscaped(sb, TextValues.format(o));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Decodes a list from its string representation.
+     *
+     * @param type
+     *         the data type of the elements
+     * @param field
+     *         the encoded list, may be null
+     *
+     * @return the decoded list, empty if the field is null or empty
+     *
+     * @throws NumberFormatException
+     *         if a numeric element cannot be parsed
+     */
+    public static List<?> decode(DataType type, String field) {
+        if (field == null || field.length() == 0) {
+            return newList(type);
+        }
+        switch (type) {
+            case INTEGER: {
+                IntArrayList list = new IntArrayList();
+                for (int start = 0, end; start <= field.length(); start = end + 1) {
+                    end = nextSeparator(field, start);
+                    list.addInt(parseInt(field, start, end));
+                }
+                return list;
+            }
+            case LONG: {
+                LongArrayList list = new LongArrayList();
+                for (int start = 0, end; start <= field.length(); start = end + 1) {
+                    end = nextSeparator(field, start);
+                    list.addLong(parseLong(field, start, end));
+                }
+                return list;
+            }
+            case DOUBLE: {
+                DoubleArrayList list = new DoubleArrayList();
+                for (int start = 0, end; start <= field.length(); start = end + 1) {
+                    end = nextSeparator(field, start);
+                    list.addDouble(Double.parseDouble(field.substring(start, end)));
+                }
+                return list;
+            }
+            case BYTE: {
+                ArrayList<Byte> list = new ArrayList<Byte>();
+                for (int start = 0, end; start <= field.length(); start = end + 1) {
+                    end = nextSeparator(field, start);
+                    int value = parseInt(field, start, end);
+                    list.add(value == (byte) value ? Byte.valueOf((byte) value) : Byte.valueOf(field.substring(start, end)));
+                }
+                return list;
+            }
+            case SHORT: {
+                ArrayList<Short> list = new ArrayList<Short>();
+                for (int start = 0, end; start <= field.length(); start = end + 1) {
+                    end = nextSeparator(field, start);
+                    int value = parseInt(field, start, end);
+                    list.add(value == (short) value ? Short.valueOf((short) value) : Short.valueOf(field.substring(start, end)));
+                }
+                return list;
+            }
+            case FLOAT: {
+                ArrayList<Float> list = new ArrayList<Float>();
+                for (int start = 0, end; start <= field.length(); start = end + 1) {
+                    end = nextSeparator(field, start);
+                    list.add(Float.valueOf(field.substring(start, end)));
+                }
+                return list;
+            }
+            case BOOLEAN: {
+                ArrayList<Boolean> list = new ArrayList<Boolean>();
+                for (int start = 0, end; start <= field.length(); start = end + 1) {
+                    end = nextSeparator(field, start);
+                    list.add(end - start == 4 && field.regionMatches(true, start, "true", 0, 4));
+                }
+                return list;
+            }
+            default:
+                return parseStrings(type, decodeStrings(field));
+        }
+    }
+
+    /**
+     * Parses list elements that are stored one by one, as the XML database does.
+     *
+     * @param type
+     *         the data type of the elements
+     * @param elements
+     *         the text of each element
+     *
+     * @return the list, of the type { @link #decode(DataType, String) } returns
+     *
+     * @throws NumberFormatException
+     *         if a numeric element cannot be parsed
+     */
+    public static List<?> parse(DataType type, List<String> elements) {
+        switch (type) {
+            case INTEGER: {
+                IntArrayList list = new IntArrayList(elements.size());
+                for (String element : elements) {
+                    list.addInt(Integer.parseInt(element));
+                }
+                return list;
+            }
+            case LONG: {
+                LongArrayList list = new LongArrayList(elements.size());
+                for (String element : elements) {
+                    list.addLong(Long.parseLong(element));
+                }
+                return list;
+            }
+            case DOUBLE: {
+                DoubleArrayList list = new DoubleArrayList(elements.size());
+                for (String element : elements) {
+                    list.addDouble(Double.parseDouble(element));
+                }
+                return list;
+            }
+            case BYTE: {
+                ArrayList<Byte> list = new ArrayList<Byte>(elements.size());
+                for (String element : elements) {
+                    list.add(Byte.valueOf(element));
+                }
+                return list;
+            }
+            case SHORT: {
+                ArrayList<Short> list = new ArrayList<Short>(elements.size());
+                for (String element : elements) {
+                    list.add(Short.valueOf(element));
+                }
+                return list;
+            }
+            case FLOAT: {
+                ArrayList<Float> list = new ArrayList<Float>(elements.size());
+                for (String element : elements) {
+                    list.add(Float.valueOf(element));
+                }
+                return list;
+            }
+            case BOOLEAN: {
+                ArrayList<Boolean> list = new ArrayList<Boolean>(elements.size());
+                for (String element : elements) {
+                    list.add(Boolean.valueOf(element));
+                }
+                return list;
+            }
+            default:
+                return parseStrings(type, new ArrayList<String>(elements));
+        }
+    }
+
+    /**
+     * Parses decoded string elements of TIMESTAMP, BINARY, UUID and DECIMAL lists.
+     * Lists of other types are returned as they are.
+     */
+    static List<?> parseStrings(DataType type, List<String> strings) {
+        switch (type) {
+            case TIMESTAMP:
+            case BINARY:
+            case UUID:
+            case DECIMAL:
+                ArrayList<Object> list = new ArrayList<Object>(strings.size());
+                for (String s : strings) {
+                    list.add(TextValues.parse(s, type));
+                }
+                return list;
+            default:
+                return strings;
+        }
+    }
+
+    /**
+     * Creates an empty list of the type { @link #decode(DataType, String) } returns for the given data type.
+     *
+     * @param type
+     *
+     * @return a new mutable list
+     */
+    public static List<?> newList(DataType type) {
+        switch (type) {
+            case INTEGER:
+                return new IntArrayList();
+            case LONG:
+                return new LongArrayList();
+            case DOUBLE:
+                return new DoubleArrayList();
+            default:
+                return new ArrayList<Object>();
+        }
+    }
+
+    private static List<String> decodeStrings(String field) {
+        ArrayList<String> list = new ArrayList<String>();
+        StringBuilder escaped = null;
+        int start = 0;
+
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+
+            if (c == ESCAPE && i + 1 < field.length()) {
+                char next = field.charAt(i + 1);
+                if (next == SEPARATOR || next == ESCAPE) {
+                    if (escaped == null) {
+                        escaped = new StringBuilder();
+                    }
+                    escaped.append(field, start, i).append(next);
+                    start = ++i + 1;
+                }
+            }
+            else if (c == SEPARATOR) {
+                list.add(element(field, start, i, escaped));
+                start = i + 1;
+            }
+        }
+        list.add(element(field, start, field.length(), escaped));
+        return list;
+    }
+
+    private static String element(String field, int start, int end, StringBuilder escaped) {
+        if (escaped == null || escaped.length() == 0) {
+            return field.substring(start, end);
+        }
+        String value = escaped.append(field, start, end).toString();
+        escaped.setLength(0);
+        return value;
+    }
+
+    private static void appendEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == SEPARATOR || c == ESCAPE) {
+                sb.append(ESCAPE);
+            }
+            sb.append(c);
+        }
+    }
+
+    private static int nextSeparator(String field, int start) {
+        int end = field.indexOf(SEPARATOR, start);
+        return end < 0 ? field.length() : end;
+    }
+
+    private static int parseInt(String field, int start, int end) {
+        long value = parseLong(field, start, end);
+
+        if (value != (int) value) {
+            // Let Integer report the overflow
+            return Integer.parseInt(field.substring(start, end));
+        }
+        return (int) value;
+    }
+
+    private static long parseLong(String field, int start, int end) {
+        boolean negative = false;
+        int i = start;
+
+        if (i < end && (field.charAt(i) == '-' || field.charAt(i) == '+')) {
+            negative = field.charAt(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > 18) {
+            // Empty, or too long to be sure it does not overflow
+            return Long.parseLong(field.substring(start, end).trim());
+        }
+        long value = 0;
+
+        for (; i < end; i++) {
+            int digit = field.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(field.substring(start, end).trim());
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+}
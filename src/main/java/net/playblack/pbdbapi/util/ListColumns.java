@@ -0,0 +1,187 @@
+package net.playblack.pbdbapi.util;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Converts between the values of list columns and the field types of DataAccess classes.
+ * Besides Lists, list columns can be declared as int[], long[], double[] and byte[] fields,
+ * or as { @link IntArrayList }, { @link LongArrayList } and { @link DoubleArrayList } fields.
+ */
+public final class ListColumns {
+
+    private ListColumns() {
+    }
+
+    /**
+     * Gets a List view of a list column value. Arrays are wrapped without copying them.
+     *
+     * @param value
+     *         a List or primitive array
+     *
+     * @return the value as List, or null if the value is null
+     *
+     * @throws IllegalArgumentException
+     *         if the value is neither a List nor a supported array
+     */
+    public static List<?> asList(Object value) {
+        if (value == null || value instanceof List) {
+            return (List<?>) value;
+        }
+        if (value instanceof int[]) {
+            return IntArrayList.wrap((int[]) value);
+        }
+        if (value instanceof long[]) {
+            return LongArrayList.wrap((long[]) value);
+        }
+        if (value instanceof double[]) {
+            return DoubleArrayList.wrap((double[]) value);
+        }
+        if (value instanceof byte[]) {
+            return new ByteArrayView((byte[]) value);
+        }
+        throw new IllegalArgumentException("Not a list column value: " + value.getClass().getName());
+    }
+
+    /**
+     * Converts a decoded list into the type of the field it is assigned to.
+     * Values that cannot be converted are returned as they are.
+     *
+     * @param type
+     *         the field type
+     * @param value
+     *         the decoded value
+     *
+     * @return the value to assign to the field
+     */
+    public static Object toFieldValue(Class<?> type, Object value) {
+        if (value == null || type.isInstance(value) || !(value instanceof List)) {
+            return value;
+        }
+        List<?> list = (List<?>) value;
+
+        if (type == int[].class) {
+            if (list instanceof IntArrayList) {
+                return ((IntArrayList) list).toIntArray();
+            }
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ((Number) list.get(i)).intValue();
+            }
+            return array;
+        }
+        if (type == long[].class) {
+            if (list instanceof LongArrayList) {
+                return ((LongArrayList) list).toLongArray();
+            }
+            long[] array = new long[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ((Number) list.get(i)).longValue();
+            }
+            return array;
+        }
+        if (type == double[].class) {
+            if (list instanceof DoubleArrayList) {
+                return ((DoubleArrayList) list).toDoubleArray();
+            }
+            double[] array = new double[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ((Number) list.get(i)).doubleValue();
+            }
+            return array;
+        }
+        if (type == byte[].class) {
+            byte[] array = new byte[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = ((Number) list.get(i)).byteValue();
+            }
+            return array;
+        }
+        if (type == IntArrayList.class) {
+            IntArrayList ints = new IntArrayList(list.size());
+            for (Object o : list) {
+                ints.addInt(((Number) o).intValue());
+            }
+            return ints;
+        }
+        if (type == LongArrayList.class) {
+            LongArrayList longs = new LongArrayList(list.size());
+            for (Object o : list) {
+                longs.addLong(((Number) o).longValue());
+            }
+            return longs;
+        }
+        if (type == DoubleArrayList.class) {
+            DoubleArrayList doubles = new DoubleArrayList(list.size());
+            for (Object o : list) {
+                doubles.addDouble(((Number) o).doubleValue());
+            }
+            return doubles;
+        }
+        if (type.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<Object>(list);
+        }
+        if (type.isAssignableFrom(LinkedList.class)) {
+            return new LinkedList<Object>(list);
+        }
+        return value;
+    }
+
+    /**
+     * Copies the value of a list column, so that the copy can be changed without changing the value.
+     *
+     * @param type
+     *         the field type
+     * @param value
+     *         a List or primitive array
+     *
+     * @return the copy, or null if the value is null
+     */
+    public static Object copy(Class<?> type, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof int[]) {
+            return ((int[]) value).clone();
+        }
+        if (value instanceof long[]) {
+            return ((long[]) value).clone();
+        }
+        if (value instanceof double[]) {
+            return ((double[]) value).clone();
+        }
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        if (value instanceof LazyList) {
+            return ((LazyList<?>) value).copy();
+        }
+        // Keep the class of the list if the field takes it, IntArrayList stays IntArrayList
+        Object copy = toFieldValue(value.getClass(), new ArrayList<Object>(asList(value)));
+
+        return type.isInstance(copy) ? copy : toFieldValue(type, copy);
+    }
+
+    /** Read-only List view of a byte array */
+    private static final class ByteArrayView extends AbstractList<Byte> implements RandomAccess {
+
+        private final byte[] data;
+
+        ByteArrayView(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public Byte get(int index) {
+            return data[index];
+        }
+
+        @Override
+        public int size() {
+            return data.length;
+        }
+    }
+}
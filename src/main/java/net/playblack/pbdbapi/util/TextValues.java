@@ -0,0 +1,159 @@
+package net.playblack.pbdbapi.util;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.UUID;
+import net.playblack.pbdbapi.Column.DataType;
+
+/**
+ * Text representation of column values, as used by the XML backend and table exports.
+ * <ul>
+ * <li>TIMESTAMP: ISO-8601 in UTC with milliseconds, ie: 2014-03-01T12:30:00.000Z</li>
+ * <li>BINARY: lower case hex</li>
+ * <li>UUID: the canonical 36 character form</li>
+ * <li>DECIMAL: plain notation without exponent</li>
+ * </ul>
+ * All other values are written with String.valueOf
+ */
+public final class TextValues {
+
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private TextValues() {
+    }
+
+    /**
+     * Formats a value as text.
+     *
+     * @param value
+     *
+     * @return the text representation
+     */
+    public static String format(Object value) {
+        if (value instanceof Date) {
+            return timestampFormat().format((Date) value);
+        }
+        if (value instanceof byte[]) {
+            return toHex((byte[]) value);
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        return String.valueOf(value);
+    }
+
+    /**
+     * Parses the text of a TIMESTAMP, BINARY, UUID or DECIMAL column.
+     * Other types are returned as text.
+     *
+     * @param text
+     * @param type
+     *
+     * @return the parsed value
+     *
+     * @throws IllegalArgumentException
+     *         if the text is not valid for the type
+     */
+    public static Object parse(String text, DataType type) {
+        if (text == null || text.equals("null")) {
+            return null;
+        }
+        switch (type) {
+            case TIMESTAMP:
+                try {
+                    return new Timestamp(timestampFormat().parse(text).getTime());
+                }
+                catch (ParseException e) {
+                    throw new IllegalArgumentException("Invalid timestamp: " + text);
+                }
+            case BINARY:
+                return fromHex(text);
+            case UUID:
+                return java.util.UUID.fromString(text);
+            case DECIMAL:
+                return new BigDecimal(text);
+            default:
+                return text;
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    public static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hex string: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex string: " + hex);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the 16 byte big endian representation of a UUID.
+     *
+     * @param uuid
+     *
+     * @return the bytes
+     */
+    public static byte[] toBytes(UUID uuid) {
+        byte[] bytes = new byte[16];
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (msb >>> (56 - i * 8));
+            bytes[i + 8] = (byte) (lsb >>> (56 - i * 8));
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads a UUID from its 16 byte big endian representation.
+     *
+     * @param bytes
+     *
+     * @return the UUID
+     */
+    public static UUID toUUID(byte[] bytes) {
+        if (bytes.length != 16) {
+            throw new IllegalArgumentException("A UUID needs 16 bytes, got " + bytes.length);
+        }
+        long msb = 0;
+        long lsb = 0;
+
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (bytes[i] & 0xFF);
+            lsb = (lsb << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new UUID(msb, lsb);
+    }
+
+    /** SimpleDateFormat is not thread safe, so every call gets its own */
+    private static SimpleDateFormat timestampFormat() {
+        SimpleDateFormat format = new SimpleDateFormat(TIMESTAMP_FORMAT);
+
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format;
+    }
+}
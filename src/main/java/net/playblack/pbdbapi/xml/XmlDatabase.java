@@ -1,28 +1,47 @@
 package net.playblack.pbdbapi.xml;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.math.BigDecimal;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.xml.stream.XMLStreamException;
+import net.playblack.pbdbapi.AggregateResult;
 import net.playblack.pbdbapi.Column;
 import net.playblack.pbdbapi.Column.DataType;
 import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.DataAccessCursor;
 import net.playblack.pbdbapi.Database;
+import net.playblack.pbdbapi.IndexDefinition;
+import net.playblack.pbdbapi.Transaction;
+import net.playblack.pbdbapi.TransactionWork;
 import net.playblack.pbdbapi.exceptions.DatabaseAccessException;
 import net.playblack.pbdbapi.exceptions.DatabaseReadException;
 import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
 import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.metrics.Metrics;
+import net.playblack.pbdbapi.metrics.SlowQueryLog;
+import net.playblack.pbdbapi.queries.Aggregate;
 import net.playblack.pbdbapi.queries.Delete;
 import net.playblack.pbdbapi.queries.Insert;
 import net.playblack.pbdbapi.queries.Query;
+import static net.playblack.pbdbapi.queries.Query.Type.AGGREGATE;
 import static net.playblack.pbdbapi.queries.Query.Type.DELETE;
 import static net.playblack.pbdbapi.queries.Query.Type.INSERT;
 import static net.playblack.pbdbapi.queries.Query.Type.SELECT;
@@ -32,6 +51,15 @@ import net.playblack.pbdbapi.queries.QueryEntry;
 import net.playblack.pbdbapi.queries.Select;
 import net.playblack.pbdbapi.queries.Update;
 import net.playblack.pbdbapi.queries.UpdateSchema;
+import net.playblack.pbdbapi.queries.Where;
+import net.playblack.pbdbapi.tracing.TraceSpan;
+import net.playblack.pbdbapi.tracing.Tracing;
+import net.playblack.pbdbapi.util.DoubleArrayList;
+import net.playblack.pbdbapi.util.IntArrayList;
+import net.playblack.pbdbapi.util.LazyList;
+import net.playblack.pbdbapi.util.ListColumns;
+import net.playblack.pbdbapi.util.LongArrayList;
+import net.playblack.pbdbapi.util.TextValues;
 import org.jdom2.Content;
 import org.jdom2.Document;
 import org.jdom2.Element;
@@ -51,6 +79,9 @@ public class XmlDatabase extends Database {
     }
 
     private static XmlDatabase instance;
+    private final Object lock = new Object();
+    /** The db.system of trace spans */
+    private final String DB_SYSTEM = "xml";
 
     public static XmlDatabase getInstance() {
         if (instance == null) {
@@ -66,14 +97,393 @@ public class XmlDatabase extends Database {
 
     
     @Override
-    public DataAccess[] query(Select query) throws DatabaseReadException {
-        return this.load(query);
+    protected DataAccess[] executeSelect(Select query) throws DatabaseReadException {
+        long start = System.nanoTime();
+        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.SELECT, query.from().getName());
+        DataAccess[] toRet;
+
+        try {
+            toRet = this.load(query);
+            span.setAttribute(Tracing.ROWS, toRet.length);
+        }
+        catch (DatabaseReadException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            span.end();
+        }
+        Metrics.recordSince(query.from().getName(), Query.Type.SELECT, start);
+        Metrics.get().recordRowsRead(query.from().getName(), toRet.length);
+        this.logIfSlow(query, start, toRet.length);
+        return toRet;
+    }
+
+    @Override
+    public AggregateResult[] aggregate(Aggregate query) throws DatabaseReadException {
+        long start = System.nanoTime();
+        TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.AGGREGATE, query.from().getName());
+        AggregateResult[] toRet;
+
+        try {
+            toRet = this.aggregateTable(query);
+            span.setAttribute(Tracing.ROWS, toRet.length);
+        }
+        catch (DatabaseReadException ex) {
+            span.recordError(ex);
+            throw ex;
+        }
+        finally {
+            Metrics.recordSince(query.from().getName(), Query.Type.AGGREGATE, start);
+            span.end();
+        }
+        this.logIfSlow(query, start, toRet.length);
+        return toRet;
+    }
+
+    AggregateResult[] aggregateTable(Aggregate query) throws DatabaseReadException {
+        File file = new File("db/" + query.from().getName() + ".xml");
+
+        if (!file.exists()) {
+            throw new DatabaseReadException("Table " + query.from().getName() + " does not exist!");
+        }
+        List<QueryEntry> entries = query.getWheres();
+        List<String> groupBy = query.getGroupBy();
+        HashSet<String> columns = new HashSet<String>(groupBy);
+
+        for (QueryEntry e : entries) {
+            columns.add(e.getColumnName());
+        }
+        if (query.column() != null) {
+            columns.add(query.column());
+        }
+        // One accumulator per group: { count, sum, min/max }
+        LinkedHashMap<List<Object>, Object[]> groups = new LinkedHashMap<List<Object>, Object[]>();
+        XmlTableScanner scanner = null;
+
+        try {
+            scanner = this.openScanner(file, columns);
+            while (scanner.next()) {
+                int equalFields = 0;
+
+                for (QueryEntry e : entries) {
+                    String text = scanner.getText(e.getColumnName());
+
+                    if (text != null && text.equals(TextValues.format(e.getColumnValue()))) {
+                        equalFields++;
+                    }
+                }
+                if (equalFields != entries.size()) {
+                    continue; // Not the entry we're looking for
+                }
+                List<Object> group = new ArrayList<Object>(groupBy.size());
+
+                for (String column : groupBy) {
+                    group.add(parseValue(scanner.getText(column), scanner.getDataType(column)));
+                }
+                Object[] acc = groups.get(group);
+
+                if (acc == null) {
+                    acc = new Object[] {0L, null, null};
+                    groups.put(group, acc);
+                }
+                accumulate(acc, query, scanner);
+            }
+        }
+        catch (IOException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (XMLStreamException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+        }
+        if (groups.isEmpty() && groupBy.isEmpty()) {
+            // Ungrouped aggregates always yield one row, just like SQL
+            groups.put(new ArrayList<Object>(), new Object[] {0L, null, null});
+        }
+        AggregateResult[] toRet = new AggregateResult[groups.size()];
+        int i = 0;
+
+        for (Map.Entry<List<Object>, Object[]> group : groups.entrySet()) {
+            Object[] acc = group.getValue();
+            Object value;
+
+            switch (query.function()) {
+                case COUNT:
+                    value = acc[0];
+                    break;
+                case SUM:
+                    value = acc[1];
+                    break;
+                default:
+                    value = acc[2];
+                    break;
+            }
+            toRet[i++] = new AggregateResult(group.getKey(), value);
+        }
+        return toRet;
+    }
+
+    @Override
+    public DataAccessCursor stream(Class<? extends DataAccess> table) throws DatabaseReadException {
+        final DataAccess template = newTemplate(table);
+        File file = new File("db/" + template.getName() + ".xml");
+
+        if (!file.exists()) {
+            throw new DatabaseReadException("Table " + template.getName() + " does not exist!");
+        }
+        try {
+            final HashSet<Column> layout = template.getTableLayout();
+            final XmlTableScanner scanner = this.openScanner(file, null);
+
+            return new DataAccessCursor() {
+                @Override
+                protected DataAccess read() throws DatabaseReadException {
+                    try {
+                        if (!scanner.next()) {
+                            return null;
+                        }
+                        HashMap<String, Object> dataSet = new HashMap<String, Object>();
+
+                        for (Column column : layout) {
+                            if (!scanner.hasColumn(column.columnName())) {
+                                continue;
+                            }
+                            if (column.isList() && column.lazy()) {
+                                dataSet.put(column.columnName(), new LazyList<Object>(column.dataType(), scanner.getList(column.columnName())));
+                            }
+                            else if (column.isList()) {
+                                ArrayList<Object> list = new ArrayList<Object>();
+
+                                for (String text : scanner.getList(column.columnName())) {
+                                    list.add(parseValue(text, column.dataType()));
+                                }
+                                dataSet.put(column.columnName(), list);
+                            }
+                            else {
+                                dataSet.put(column.columnName(), parseValue(scanner.getText(column.columnName()), column.dataType()));
+                            }
+                        }
+                        DataAccess access = template.getInstance();
+                        access.load(dataSet);
+                        return access;
+                    }
+                    catch (XMLStreamException e) {
+                        throw new DatabaseReadException(e.getMessage(), e);
+                    }
+                    catch (DatabaseAccessException e) {
+                        throw new DatabaseReadException(e.getMessage(), e);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    scanner.close();
+                }
+            };
+        }
+        catch (IOException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (XMLStreamException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseReadException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int bulkLoad(Class<? extends DataAccess> table, Iterator<? extends DataAccess> rows) throws DatabaseWriteException {
+        // Rewrites the whole table file, a transaction writing it back at the same time would lose the rows
+        synchronized (lock) {
+            XmlTableWriter writer = null;
+            int count = 0;
+
+            try {
+                DataAccess template = newTemplate(table);
+                File file = new File("db/" + template.getName() + ".xml");
+
+                writer = new XmlTableWriter(file, template.getName(), template.getTableLayout());
+                while (rows.hasNext()) {
+                    writer.write(rows.next());
+                    count++;
+                }
+                writer.commit();
+                writer = null;
+                Metrics.get().recordRowsWritten(template.getName(), count);
+                Metrics.get().recordBytesWritten(template.getName(), file.length());
+            }
+            catch (DatabaseReadException e) {
+                throw new DatabaseWriteException(e.getMessage(), e);
+            }
+            catch (IOException e) {
+                throw new DatabaseWriteException(e.getMessage(), e);
+            }
+            catch (XMLStreamException e) {
+                throw new DatabaseWriteException(e.getMessage(), e);
+            }
+            catch (DatabaseTableInconsistencyException e) {
+                throw new DatabaseWriteException(e.getMessage(), e);
+            }
+            finally {
+                if (writer != null) {
+                    writer.abort();
+                }
+                this.recordWrite();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Adds the current entry of the scanner to the given accumulator
+     *
+     * @param acc
+     *         { count, sum, min/max }
+     * @param query
+     * @param scanner
+     */
+    @SuppressWarnings("unchecked")
+    private void accumulate(Object[] acc, Aggregate query, XmlTableScanner scanner) {
+        if (query.column() == null) {
+            acc[0] = (Long) acc[0] + 1;
+            return;
+        }
+        String text = scanner.getText(query.column());
+
+        if (text == null || text.equals("null")) {
+            return;
+        }
+        DataType type = scanner.getDataType(query.column());
+        Object value = parseValue(text, type);
+
+        acc[0] = (Long) acc[0] + 1;
+        switch (query.function()) {
+            case SUM:
+                if (!(value instanceof Number)) {
+                    break;
+                }
+                if (type == DataType.FLOAT || type == DataType.DOUBLE) {
+                    acc[1] = (acc[1] == null ? 0D : (Double) acc[1]) + ((Number) value).doubleValue();
+                }
+                else if (type == DataType.DECIMAL) {
+                    acc[1] = (acc[1] == null ? BigDecimal.ZERO : (BigDecimal) acc[1]).add(toBigDecimal((Number) value));
+                }
+                else {
+                    acc[1] = (acc[1] == null ? 0L : (Long) acc[1]) + ((Number) value).longValue();
+                }
+                break;
+            case MIN:
+                if (!(value instanceof Comparable)) {
+                    break;
+                }
+                if (acc[2] == null || ((Comparable<Object>) value).compareTo(acc[2]) < 0) {
+                    acc[2] = value;
+                }
+                break;
+            case MAX:
+                if (!(value instanceof Comparable)) {
+                    break;
+                }
+                if (acc[2] == null || ((Comparable<Object>) value).compareTo(acc[2]) > 0) {
+                    acc[2] = value;
+                }
+                break;
+            default:
+                break;
+        }
     }
 
+    /**
+     * Parses the text of a column into the type given by its DataType
+     *
+     * @param text
+     * @param type
+     *
+     * @return the parsed value, or the text if it cannot be parsed
+     */
+    /** Converts the value exactly, so DECIMAL sums do not lose digits */
+    private static BigDecimal toBigDecimal(Number value) {
+        return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+    }
+
+    private Object parseValue(String text, DataType type) {
+        if (text == null || type == null) {
+            return text;
+        }
+        try {
+            switch (type) {
+                case BYTE:
+                    return Byte.parseByte(text);
+                case SHORT:
+                    return Short.parseShort(text);
+                case INTEGER:
+                    return Integer.parseInt(text);
+                case LONG:
+                    return Long.parseLong(text);
+                case FLOAT:
+                    return Float.parseFloat(text);
+                case DOUBLE:
+                    return Double.parseDouble(text);
+                case BOOLEAN:
+                    return Boolean.valueOf(text);
+                default:
+                    return TextValues.parse(text, type);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            return text;
+        }
+    }
+
+    /** Runs one transaction at a time, which makes them serializable */
     @Override
-    public void executeQueries() throws DatabaseWriteException {
+    protected <T> T beginTransaction(Transaction.Isolation isolation, TransactionWork<T> work) throws DatabaseWriteException {
+        // The table files are read, changed and written back, so writes must not overlap
         synchronized (lock) {
-            for (Query query : super.queue) {
+            XmlTransaction transaction = new XmlTransaction(this, isolation);
+
+            try {
+                T result = this.runWork(transaction, work);
+                if (!transaction.isRollbackOnly()) {
+                    transaction.commit();
+                }
+                return result;
+            }
+            catch (DatabaseReadException ex) {
+                throw new DatabaseWriteException("Transaction failed: " + ex.getMessage(), ex);
+            }
+            catch (IOException ex) {
+                throw new DatabaseWriteException("Could not commit transaction: " + ex.getMessage(), ex);
+            }
+            finally {
+                transaction.close();
+            }
+        }
+    }
+
+    /**
+     * Executes write queries. Within a transaction the changed tables are staged instead of written.
+     *
+     * @param queries
+     *
+     * @throws DatabaseWriteException
+     */
+    void execute(List<Query> queries) throws DatabaseWriteException {
+        for (Query query : queries) {
+            if (query.getType() == Query.Type.SELECT || query.getType() == Query.Type.AGGREGATE) {
+                // Aren't capable of returning anything, so just skip it.
+                continue;
+            }
+            long start = System.nanoTime();
+            TraceSpan span = Tracing.startQuery(DB_SYSTEM, query.getType(), query.from().getName());
+
+            try {
                 switch(query.getType()) {
                     case DELETE:
                         this.delete((Delete) query);
@@ -84,21 +494,60 @@ public class XmlDatabase extends Database {
                     case UPDATE:
                         this.update((Update) query);
                         break;
-                    case SELECT:
-                        // Aren't capable of returning anything, so just skip it.
-                        break;
                     case UPDATE_SCHEMA:
                         this.updateSchema((UpdateSchema) query);
                         break;
                 }
             }
+            catch (DatabaseWriteException ex) {
+                span.recordError(ex);
+                throw ex;
+            }
+            finally {
+                span.end();
+            }
+            Metrics.recordSince(query.from().getName(), query.getType(), start);
+            this.logIfSlow(query, start, 1);
+        }
+    }
+
+    /**
+     * Logs a query to the slow query log if it took too long.
+     * There is no SQL for XML, so only the operation, table and where values are logged.
+     */
+    private void logIfSlow(Query query, long start, long rows) {
+        long elapsed = System.nanoTime() - start;
+
+        if (SlowQueryLog.isSlow(elapsed)) {
+            List<QueryEntry> binds = query instanceof Where ? ((Where) query).getWheres() : null;
+            SlowQueryLog.log(query.from().getName(), query.getType(), null, binds, rows, elapsed, 0);
         }
     }
 
     @Override
     public void updateSchema(UpdateSchema... udpateSchema) throws DatabaseWriteException {
-        for (UpdateSchema schema : udpateSchema) {
-            this.updateSchema(schema);
+        // Rewrites the table files, just like transactions and bulk loads
+        synchronized (lock) {
+            try {
+                for (UpdateSchema schema : udpateSchema) {
+                    long start = System.nanoTime();
+                    TraceSpan span = Tracing.startQuery(DB_SYSTEM, Query.Type.UPDATE_SCHEMA, schema.from().getName());
+                    try {
+                        this.updateSchema(schema);
+                    }
+                    catch (DatabaseWriteException ex) {
+                        span.recordError(ex);
+                        throw ex;
+                    }
+                    finally {
+                        span.end();
+                    }
+                    Metrics.recordSince(schema.from().getName(), Query.Type.UPDATE_SCHEMA, start);
+                }
+            }
+            finally {
+                this.recordWrite();
+            }
         }
     }
     
@@ -118,9 +567,7 @@ public class XmlDatabase extends Database {
         Document dbTable;
 
         try {
-            FileInputStream in = new FileInputStream(file);
-            dbTable = fileBuilder.build(in);
-            in.close();
+            dbTable = this.readTable(file);
             insertData(file, data, dbTable);
         }
         catch (JDOMException e) {
@@ -142,9 +589,7 @@ public class XmlDatabase extends Database {
             throw new DatabaseWriteException("Table " + data.getName() + " does not exist!");
         }
         try {
-            FileInputStream in = new FileInputStream(file);
-            Document table = fileBuilder.build(in);
-            in.close();
+            Document table = this.readTable(file);
 
             updateData(file, table, data, query.getWheres());
         }
@@ -166,9 +611,7 @@ public class XmlDatabase extends Database {
             throw new DatabaseWriteException("Table " + query.from().getName() + " does not exist!");
         }
         try {
-            FileInputStream in = new FileInputStream(file);
-            Document table = fileBuilder.build(in);
-            in.close();
+            Document table = this.readTable(file);
 
             removeData(file, table, query.getWheres());
         }
@@ -187,11 +630,9 @@ public class XmlDatabase extends Database {
             throw new DatabaseReadException("Table " + query.from().getName() + " does not exist!");
         }
         try {
-            FileInputStream in = new FileInputStream(file);
-            Document table = fileBuilder.build(in);
-            in.close();
+            Document table = this.readTable(file);
 
-            toRet = loadData(query.from(), table, query.getWheres());
+            toRet = loadData(query, table);
         }
         catch (JDOMException e) {
             throw new DatabaseReadException(e.getMessage(), e);
@@ -218,9 +659,7 @@ public class XmlDatabase extends Database {
             }
         }
         try {
-            FileInputStream in = new FileInputStream(file);
-            Document table = fileBuilder.build(in);
-            in.close();
+            Document table = this.readTable(file);
 
             HashSet<Column> tableLayout = schema.from().getTableLayout();
 
@@ -245,7 +684,8 @@ public class XmlDatabase extends Database {
         Document doc = new Document();
 
         doc.setRootElement(new Element(rootName));
-        write(file.getPath(), doc);
+        // Tables are created right away, even within a transaction
+        writeFile(file.getPath(), doc);
     }
 
     /**
@@ -308,7 +748,7 @@ public class XmlDatabase extends Database {
      * @throws DatabaseTableInconsistencyException
      *
      */
-    private void insertData(File file, DataAccess data, Document dbTable) throws IOException, DatabaseTableInconsistencyException {
+    private void insertData(File file, DataAccess data, Document dbTable) throws IOException, DatabaseTableInconsistencyException, DatabaseWriteException {
         HashMap<Column, Object> entry = data.toDatabaseEntryList();
 
         if (data.isInconsistent()) {
@@ -338,8 +778,65 @@ public class XmlDatabase extends Database {
             if (!foundDupe) {
             }
         }
+        this.checkUniqueIndexes(dbTable, data, Collections.singletonList(set));
         dbTable.getRootElement().addContent(set);
         write(file.getPath(), dbTable);
+        Metrics.get().recordRowsWritten(data.getName(), 1);
+    }
+
+    /**
+     * Checks that the changed entries do not collide with other entries of the table
+     * on any of the unique indexes of the DataAccess. Like in SQL, entries with null values do not collide.
+     *
+     * @param doc
+     *         the table
+     * @param data
+     *         the DataAccess that declares the indexes
+     * @param changed
+     *         the new or updated entries
+     *
+     * @throws DatabaseWriteException
+     *         if a changed entry has the same values as another entry
+     * @throws DatabaseTableInconsistencyException
+     */
+    private void checkUniqueIndexes(Document doc, DataAccess data, Collection<Element> changed) throws DatabaseWriteException, DatabaseTableInconsistencyException {
+        Set<Element> skip = Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>());
+
+        skip.addAll(changed);
+        for (IndexDefinition index : data.getIndexes().values()) {
+            if (!index.isUnique()) {
+                continue;
+            }
+            HashSet<List<String>> keys = new HashSet<List<String>>();
+
+            for (Element element : doc.getRootElement().getChildren()) {
+                if (!skip.contains(element)) {
+                    keys.add(getIndexKey(element, index));
+                }
+            }
+            for (Element element : changed) {
+                List<String> key = getIndexKey(element, index);
+
+                if (key != null && !keys.add(key)) {
+                    throw new DatabaseWriteException("Duplicate entry " + key + " for unique index " + index.getName() + " in " + data.getName());
+                }
+            }
+        }
+    }
+
+    /** Gets the values of the indexed columns of an entry, or null if any of them is null */
+    private List<String> getIndexKey(Element element, IndexDefinition index) {
+        List<String> key = new ArrayList<String>(index.getColumns().size());
+
+        for (String column : index.getColumns()) {
+            String text = element.getChildText(column);
+
+            if (text == null || text.equals("null")) {
+                return null;
+            }
+            key.add(text);
+        }
+        return key;
     }
 
     /**
@@ -358,6 +855,7 @@ public class XmlDatabase extends Database {
      */
     private void updateData(File file, Document table, DataAccess data, List<QueryEntry> entries) throws IOException, DatabaseTableInconsistencyException, DatabaseWriteException {
         boolean hasUpdated = false;
+        List<Element> updated = new ArrayList<Element>();
         for (Element element : table.getRootElement().getChildren()) {
 
             int equalFields = 0;
@@ -366,7 +864,7 @@ public class XmlDatabase extends Database {
                 Element child = element.getChild(e.getColumnName());
 
                 if (child != null) {
-                    if (child.getText().equals(String.valueOf(e.getColumnValue()))) {
+                    if (child.getText().equals(TextValues.format(e.getColumnValue()))) {
                         equalFields++;
                     }
                 }
@@ -394,9 +892,12 @@ public class XmlDatabase extends Database {
                 addToElement(table, child, dataSet.get(column), column);
                 hasUpdated = true;
             }
+            updated.add(element);
         }
         if (hasUpdated) {
+            this.checkUniqueIndexes(table, data, updated);
             write(file.getPath(), table);
+            Metrics.get().recordRowsWritten(data.getName(), updated.size());
         }
         else {
             // No fields found, that means it is a new entry
@@ -413,7 +914,7 @@ public class XmlDatabase extends Database {
                 Element child = element.getChild(e.getColumnName());
 
                 if (child != null) {
-                    if (child.getText().equals(String.valueOf(e.getColumnValue()))) {
+                    if (child.getText().equals(TextValues.format(e.getColumnValue()))) {
                         equalFields++;
                     }
                 }
@@ -428,10 +929,27 @@ public class XmlDatabase extends Database {
             e.detach();
         }
         write(file.getPath(), table);
+        Metrics.get().recordRowsWritten(table.getRootElement().getName(), toremove.size());
     }
 
-    private DataAccess[] loadData(DataAccess data, Document table, List<QueryEntry> entries) throws DatabaseAccessException {
+    private DataAccess[] loadData(Select query, Document table) throws DatabaseAccessException {
+        DataAccess data = query.from();
+        List<QueryEntry> entries = query.getWheres();
         List<DataAccess> toRet = new ArrayList<DataAccess>();
+        Column key = null;
+        HashSet<String> lazyLists = new HashSet<String>();
+
+        try {
+            key = query.isLazy() ? data.getPrimaryKey() : null;
+            for (Column column : data.getTableLayout()) {
+                if (column.isList() && column.lazy()) {
+                    lazyLists.add(column.columnName());
+                }
+            }
+        }
+        catch (DatabaseTableInconsistencyException e) {
+            throw new DatabaseAccessException(e.getMessage());
+        }
         for (Element element : table.getRootElement().getChildren()) {
             int equalFields = 0;
 
@@ -439,7 +957,7 @@ public class XmlDatabase extends Database {
                 Element child = element.getChild(e.getColumnName());
 
                 if (child != null) {
-                    if (child.getText().equals(String.valueOf(e.getColumnValue()))) {
+                    if (child.getText().equals(TextValues.format(e.getColumnValue()))) {
                         equalFields++;
                     }
                 }
@@ -449,11 +967,27 @@ public class XmlDatabase extends Database {
             }
             HashMap<String, Object> dataSet = new HashMap<String, Object>();
             for (Element child : element.getChildren()) {
+                if (key != null && !key.columnName().equals(child.getName())) {
+                    continue; // Lazy selects only load the primary key
+                }
                 DataType type = DataType.fromString(child.getAttributeValue("data-type"));
-                addTypeToMap(child, dataSet, type);
+
+                if (lazyLists.contains(child.getName()) && Boolean.valueOf(child.getAttributeValue("is-list"))) {
+                    dataSet.put(child.getName(), new LazyList<Object>(type, getListTexts(child)));
+                }
+                else {
+                    addTypeToMap(child, dataSet, type);
+                }
             }
             try {
-                data.getClass().newInstance().load(dataSet);
+                DataAccess access = data.getClass().newInstance();
+                if (key != null) {
+                    access.loadPartial(dataSet, this);
+                }
+                else {
+                    access.load(dataSet);
+                }
+                toRet.add(access);
             } catch (InstantiationException ex) {
                 Logger.getLogger(XmlDatabase.class.getName()).log(Level.SEVERE, null, ex);
             } catch (IllegalAccessException ex) {
@@ -471,7 +1005,7 @@ public class XmlDatabase extends Database {
                 Element child = element.getChild(fields[i]);
 
                 if (child != null) {
-                    if (child.getText().equals(String.valueOf(values[i]))) {
+                    if (child.getText().equals(TextValues.format(values[i]))) {
                         equalFields++;
                     }
                 }
@@ -575,6 +1109,22 @@ public class XmlDatabase extends Database {
         }
     }
 
+    /**
+     * Gets the texts of the elements of a list column, for a { @link LazyList } to parse later.
+     *
+     * @param child
+     *
+     * @return the element texts
+     */
+    private List<String> getListTexts(Element child) {
+        List<String> texts = new ArrayList<String>();
+
+        for (Element el : child.getChildren()) {
+            texts.add(el.getText());
+        }
+        return texts;
+    }
+
     /**
      * Add data to a data set from the given xml element and type
      *
@@ -600,10 +1150,10 @@ public class XmlDatabase extends Database {
 
             case DOUBLE:
                 if (Boolean.valueOf(child.getAttributeValue("is-list"))) {
-                    ArrayList<Double> byteList = new ArrayList<Double>();
+                    DoubleArrayList byteList = new DoubleArrayList();
 
                     for (Element el : child.getChildren()) {
-                        byteList.add(Double.parseDouble(el.getText()));
+                        byteList.addDouble(Double.parseDouble(el.getText()));
                     }
                     dataSet.put(child.getName(), byteList);
                 }
@@ -628,10 +1178,10 @@ public class XmlDatabase extends Database {
 
             case INTEGER:
                 if (Boolean.valueOf(child.getAttributeValue("is-list"))) {
-                    ArrayList<Integer> byteList = new ArrayList<Integer>();
+                    IntArrayList byteList = new IntArrayList();
 
                     for (Element el : child.getChildren()) {
-                        byteList.add(Integer.parseInt(el.getText()));
+                        byteList.addInt(Integer.parseInt(el.getText()));
                     }
                     dataSet.put(child.getName(), byteList);
                 }
@@ -642,10 +1192,10 @@ public class XmlDatabase extends Database {
 
             case LONG:
                 if (Boolean.valueOf(child.getAttributeValue("is-list"))) {
-                    ArrayList<Long> byteList = new ArrayList<Long>();
+                    LongArrayList byteList = new LongArrayList();
 
                     for (Element el : child.getChildren()) {
-                        byteList.add(Long.parseLong(el.getText()));
+                        byteList.addLong(Long.parseLong(el.getText()));
                     }
                     dataSet.put(child.getName(), byteList);
                 }
@@ -696,6 +1246,37 @@ public class XmlDatabase extends Database {
                 }
                 break;
 
+            case VARCHAR:
+                if (Boolean.valueOf(child.getAttributeValue("is-list"))) {
+                    ArrayList<String> byteList = new ArrayList<String>();
+
+                    for (Element el : child.getChildren()) {
+                        byteList.add(el.getText());
+                    }
+                    dataSet.put(child.getName(), byteList);
+                }
+                else {
+                    dataSet.put(child.getName(), child.getText());
+                }
+                break;
+
+            case BINARY:
+            case UUID:
+            case TIMESTAMP:
+            case DECIMAL:
+                if (Boolean.valueOf(child.getAttributeValue("is-list"))) {
+                    ArrayList<Object> byteList = new ArrayList<Object>();
+
+                    for (Element el : child.getChildren()) {
+                        byteList.add(TextValues.parse(el.getText(), type));
+                    }
+                    dataSet.put(child.getName(), byteList);
+                }
+                else {
+                    dataSet.put(child.getName(), TextValues.parse(child.getText(), type));
+                }
+                break;
+
             default:
                 break;
         }
@@ -715,7 +1296,7 @@ public class XmlDatabase extends Database {
             element.setText(String.valueOf(getIncrementId(doc, col)));
         }
         else if (col.isList()) {
-            List<?> entries = (List<?>) obj;
+            List<?> entries = ListColumns.asList(obj);
 
             // First detach everything so there won't be dupes
             for (Element el : element.getChildren()) {
@@ -726,22 +1307,79 @@ public class XmlDatabase extends Database {
             }
             // Add fresh data
             for (Object entry : entries) {
-                element.addContent(new Element("list-element").setText(String.valueOf(entry)));
+                element.addContent(new Element("list-element").setText(TextValues.format(entry)));
             }
         }
         else {
-            element.setText(String.valueOf(obj));
+            element.setText(TextValues.format(obj));
+        }
+    }
+
+    /**
+     * Reads a table, or gets its staged document within a transaction.
+     *
+     * @param file
+     *
+     * @return the document, which may be changed and written back
+     *
+     * @throws JDOMException
+     * @throws IOException
+     */
+    private Document readTable(File file) throws JDOMException, IOException {
+        XmlTransaction transaction = this.getTransaction();
+        Document staged = transaction == null ? null : transaction.getStaged(file.getPath());
+
+        if (staged != null) {
+            return staged;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return fileBuilder.build(in);
+        }
+        finally {
+            in.close();
         }
     }
 
+    /** Opens a scanner on a table file, or on its staged document within a transaction */
+    private XmlTableScanner openScanner(File file, Set<String> columns) throws IOException, XMLStreamException {
+        XmlTransaction transaction = this.getTransaction();
+        Document staged = transaction == null ? null : transaction.getStaged(file.getPath());
+
+        if (staged != null) {
+            byte[] bytes = xmlSerializer.outputString(staged).getBytes(Charset.forName("UTF-8"));
+            return new XmlTableScanner(new ByteArrayInputStream(bytes), columns);
+        }
+        return new XmlTableScanner(file, columns);
+    }
+
+    /** @return the transaction of the current thread, or null */
+    private XmlTransaction getTransaction() {
+        Transaction transaction = this.getCurrentTransaction();
+        return transaction instanceof XmlTransaction ? (XmlTransaction) transaction : null;
+    }
+
+    /** Writes a table, or stages it within a transaction */
     private void write(String path, Document doc) throws IOException {
+        XmlTransaction transaction = this.getTransaction();
+
+        if (transaction != null) {
+            transaction.stage(path, doc);
+            return;
+        }
+        this.writeFile(path, doc);
+    }
+
+    void writeFile(String path, Document doc) throws IOException {
         sortElements(doc);
         File file = new File(path);
         RandomAccessFile f = new RandomAccessFile(file.getPath(), "rw");
         f.getChannel().lock();
         f.setLength(0);
-        f.write(xmlSerializer.outputString(doc).getBytes(Charset.forName("UTF-8")));
+        byte[] bytes = xmlSerializer.outputString(doc).getBytes(Charset.forName("UTF-8"));
+        f.write(bytes);
         f.close();
+        Metrics.get().recordBytesWritten(doc.getRootElement().getName(), bytes.length);
     }
 
     private void sortElements(Document doc) {
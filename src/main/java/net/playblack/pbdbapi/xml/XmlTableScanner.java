@@ -0,0 +1,203 @@
+package net.playblack.pbdbapi.xml;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import net.playblack.pbdbapi.Column.DataType;
+
+/**
+ * Reads an XML table file entry by entry using StAX, without building a document.
+ * Only the raw text of each column is kept, and only for the current entry.
+ */
+final class XmlTableScanner {
+
+    private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    private final InputStream in;
+    private final XMLStreamReader reader;
+    private final Set<String> columns;
+    private final HashMap<String, String> text = new HashMap<String, String>();
+    private final HashMap<String, List<String>> lists = new HashMap<String, List<String>>();
+    private final HashMap<String, DataType> types = new HashMap<String, DataType>();
+    private int depth = 0;
+
+    /**
+     * Opens the given table file.
+     *
+     * @param file
+     *         the table file
+     * @param columns
+     *         the columns to read, or null to read all columns
+     *
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    XmlTableScanner(File file, Set<String> columns) throws IOException, XMLStreamException {
+        this(new BufferedInputStream(new FileInputStream(file)), columns);
+    }
+
+    /**
+     * Reads a table from a stream, which is closed with the scanner.
+     *
+     * @param in
+     *         the table as UTF-8 encoded XML
+     * @param columns
+     *         the columns to read, or null to read all columns
+     *
+     * @throws XMLStreamException
+     */
+    XmlTableScanner(InputStream in, Set<String> columns) throws XMLStreamException {
+        this.in = in;
+        this.columns = columns;
+        try {
+            this.reader = factory.createXMLStreamReader(in, "UTF-8");
+        }
+        catch (XMLStreamException e) {
+            try {
+                in.close();
+            }
+            catch (IOException ioe) {
+                // Nothing we can do
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Advances to the next entry of the table.
+     *
+     * @return true if there was another entry, false at the end of the table
+     *
+     * @throws XMLStreamException
+     */
+    boolean next() throws XMLStreamException {
+        text.clear();
+        lists.clear();
+        boolean inEntry = false;
+        String column = null;
+        List<String> list = null;
+        StringBuilder sb = new StringBuilder();
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    if (depth == 2) {
+                        inEntry = true;
+                    }
+                    else if (depth == 3 && inEntry) {
+                        column = reader.getLocalName();
+                        if (columns != null && !columns.contains(column)) {
+                            column = null;
+                            break;
+                        }
+                        types.put(column, DataType.fromString(String.valueOf(reader.getAttributeValue(null, "data-type"))));
+                        if (Boolean.valueOf(reader.getAttributeValue(null, "is-list"))) {
+                            list = new ArrayList<String>();
+                            lists.put(column, list);
+                        }
+                        else {
+                            list = null;
+                        }
+                    }
+                    sb.setLength(0);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    if (column != null) {
+                        sb.append(reader.getText());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth == 4 && column != null && list != null) {
+                        list.add(sb.toString());
+                    }
+                    else if (depth == 3 && column != null) {
+                        if (list == null) {
+                            text.put(column, sb.toString());
+                        }
+                        column = null;
+                    }
+                    depth--;
+                    if (depth == 1 && inEntry) {
+                        return true;
+                    }
+                    sb.setLength(0);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the text of a non-list column of the current entry.
+     *
+     * @param column
+     *
+     * @return the text, or null if the entry does not have this column
+     */
+    String getText(String column) {
+        return text.get(column);
+    }
+
+    /**
+     * Gets the elements of a list column of the current entry.
+     *
+     * @param column
+     *
+     * @return the list elements, or null if the entry does not have this list column
+     */
+    List<String> getList(String column) {
+        return lists.get(column);
+    }
+
+    /**
+     * Gets the data type of a column as declared in the table file.
+     *
+     * @param column
+     *
+     * @return the DataType or null if the column has not been seen yet
+     */
+    DataType getDataType(String column) {
+        return types.get(column);
+    }
+
+    /**
+     * Checks if the current entry has a column with the given name.
+     *
+     * @param column
+     *
+     * @return true if the column is present
+     */
+    boolean hasColumn(String column) {
+        return text.containsKey(column) || lists.containsKey(column);
+    }
+
+    /** Closes the underlying file */
+    void close() {
+        try {
+            reader.close();
+        }
+        catch (XMLStreamException e) {
+            // Closing the stream below is all that matters
+        }
+        try {
+            in.close();
+        }
+        catch (IOException e) {
+            // Nothing we can do
+        }
+    }
+}
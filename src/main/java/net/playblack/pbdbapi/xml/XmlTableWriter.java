@@ -0,0 +1,232 @@
+package net.playblack.pbdbapi.xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import net.playblack.pbdbapi.Column;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
+import net.playblack.pbdbapi.util.ListColumns;
+import net.playblack.pbdbapi.util.TextValues;
+
+/**
+ * Appends entries to an XML table without building a document.
+ * The existing table is copied event by event into a temporary file, new entries are
+ * written behind it and the temporary file replaces the table on commit.
+ */
+final class XmlTableWriter {
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    static {
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+    }
+
+    private final File file;
+    private final File temp;
+    private final OutputStream out;
+    private final XMLStreamWriter writer;
+    private final List<Column> columns;
+    /** Last used id per auto-increment column */
+    private final HashMap<String, Integer> incrementIds = new HashMap<String, Integer>();
+
+    /**
+     * Opens the table and copies all existing entries to a temporary file.
+     *
+     * @param file
+     *         the table file, which may not exist yet
+     * @param tableName
+     *         the name of the table, used as root element for new files
+     * @param layout
+     *         the table layout
+     *
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    XmlTableWriter(File file, String tableName, Set<Column> layout) throws IOException, XMLStreamException {
+        this.file = file;
+        this.temp = new File(file.getPath() + ".tmp");
+        this.columns = new ArrayList<Column>(layout);
+        Collections.sort(columns, new Comparator<Column>() {
+            @Override
+            public int compare(Column o1, Column o2) {
+                return o1.columnName().compareTo(o2.columnName());
+            }
+        });
+        for (Column column : columns) {
+            if (column.autoIncrement()) {
+                incrementIds.put(column.columnName(), 0);
+            }
+        }
+        this.out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16);
+        this.writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+        if (file.exists() && file.length() > 0) {
+            copyEntries();
+        }
+        else {
+            writer.writeStartElement(tableName);
+        }
+    }
+
+    /** Copies everything but the closing root tag of the existing table */
+    private void copyEntries() throws IOException, XMLStreamException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(in, "UTF-8");
+        int depth = 0;
+        String column = null;
+
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        if (depth == 3) {
+                            column = reader.getLocalName();
+                        }
+                        writer.writeStartElement(reader.getLocalName());
+                        for (int i = 0; i < reader.getAttributeCount(); i++) {
+                            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (depth == 3 && incrementIds.containsKey(column)) {
+                            try {
+                                incrementIds.put(column, Integer.valueOf(reader.getText().trim()));
+                            }
+                            catch (NumberFormatException e) {
+                                // Not a valid id, keep the last one
+                            }
+                        }
+                        if (depth > 0) {
+                            writer.writeCharacters(reader.getText());
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (depth == 1) {
+                            // Leave the root open, new entries go here
+                            return;
+                        }
+                        writer.writeEndElement();
+                        depth--;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        finally {
+            reader.close();
+            in.close();
+        }
+    }
+
+    /**
+     * Appends a new entry for the given row. Auto-increment columns get the next free id.
+     *
+     * @param row
+     *
+     * @throws XMLStreamException
+     * @throws DatabaseTableInconsistencyException
+     */
+    void write(DataAccess row) throws XMLStreamException, DatabaseTableInconsistencyException {
+        Map<Column, Object> values = row.toDatabaseEntryList();
+
+        if (row.isInconsistent()) {
+            // Just an extra precaution
+            throw new DatabaseTableInconsistencyException("DataAccess is marked inconsistent!");
+        }
+        writer.writeCharacters("\n  ");
+        writer.writeStartElement("entry");
+        for (Column column : columns) {
+            Object value = values.get(column);
+
+            writer.writeCharacters("\n    ");
+            writer.writeStartElement(column.columnName());
+            writer.writeAttribute("auto-increment", String.valueOf(column.autoIncrement()));
+            writer.writeAttribute("data-type", column.dataType().name());
+            writer.writeAttribute("column-type", column.columnType().name());
+            writer.writeAttribute("is-list", String.valueOf(column.isList()));
+            if (column.autoIncrement()) {
+                int id = incrementIds.get(column.columnName()) + 1;
+
+                incrementIds.put(column.columnName(), id);
+                writer.writeCharacters(String.valueOf(id));
+            }
+            else if (column.isList()) {
+                if (value != null) {
+                    for (Object entry : ListColumns.asList(value)) {
+                        writer.writeCharacters("\n      ");
+                        writer.writeStartElement("list-element");
+                        writer.writeCharacters(TextValues.format(entry));
+                        writer.writeEndElement();
+                    }
+                    writer.writeCharacters("\n    ");
+                }
+            }
+            else {
+                writer.writeCharacters(TextValues.format(value));
+            }
+            writer.writeEndElement();
+        }
+        writer.writeCharacters("\n  ");
+        writer.writeEndElement();
+    }
+
+    /**
+     * Closes the table and replaces the old table file with the new one.
+     *
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    void commit() throws IOException, XMLStreamException {
+        writer.writeCharacters("\n");
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.close();
+        out.close();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file.getPath());
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not move " + temp.getPath() + " to " + file.getPath());
+        }
+    }
+
+    /** Discards all written entries, leaving the table untouched */
+    void abort() {
+        try {
+            writer.close();
+        }
+        catch (XMLStreamException e) {
+            // Closing the stream below is all that matters
+        }
+        try {
+            out.close();
+        }
+        catch (IOException e) {
+            // Nothing we can do
+        }
+        temp.delete();
+    }
+}
@@ -0,0 +1,124 @@
+package net.playblack.pbdbapi.xml;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.playblack.pbdbapi.AggregateResult;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.Transaction;
+import net.playblack.pbdbapi.exceptions.DatabaseReadException;
+import net.playblack.pbdbapi.exceptions.DatabaseWriteException;
+import net.playblack.pbdbapi.queries.Aggregate;
+import net.playblack.pbdbapi.queries.Query;
+import net.playblack.pbdbapi.queries.Select;
+import org.jdom2.Document;
+
+/**
+ * A transaction of the XML backend. Changed tables are kept as documents instead of being written,
+ * and only written to their files on commit. A savepoint keeps copies of the documents changed so far.
+ * <p/>
+ * Files are written one after the other, so a crash during commit can leave some tables committed.
+ */
+final class XmlTransaction extends Transaction {
+
+    private final XmlDatabase database;
+    /** File path to the changed document of each table */
+    private LinkedHashMap<String, Document> staged = new LinkedHashMap<String, Document>();
+    /** Savepoint name to the staged documents at the time, oldest first */
+    private final LinkedHashMap<String, LinkedHashMap<String, Document>> savepoints = new LinkedHashMap<String, LinkedHashMap<String, Document>>();
+
+    XmlTransaction(XmlDatabase database, Isolation isolation) {
+        super(isolation);
+        this.database = database;
+    }
+
+    /**
+     * Gets the staged document of a table.
+     *
+     * @param path
+     *         the path of the table file
+     *
+     * @return the document, or null if the table was not changed
+     */
+    Document getStaged(String path) {
+        return staged.get(path);
+    }
+
+    void stage(String path, Document doc) {
+        staged.put(path, doc);
+    }
+
+    /** Writes all changed tables */
+    void commit() throws IOException {
+        for (Map.Entry<String, Document> table : staged.entrySet()) {
+            database.writeFile(table.getKey(), table.getValue());
+        }
+    }
+
+    /** Ends the transaction, dropping everything that was not committed */
+    void close() {
+        this.end();
+        staged.clear();
+        savepoints.clear();
+    }
+
+    @Override
+    public DataAccess[] query(Select query) throws DatabaseReadException {
+        return database.load(query);
+    }
+
+    @Override
+    public AggregateResult[] aggregate(Aggregate query) throws DatabaseReadException {
+        return database.aggregateTable(query);
+    }
+
+    @Override
+    protected void executeQueries(List<Query> queries) throws DatabaseWriteException {
+        database.execute(queries);
+    }
+
+    @Override
+    protected void createSavepoint(String name) {
+        // Like SQL, a savepoint with the name of an existing one replaces it
+        savepoints.remove(name);
+        savepoints.put(name, copy(staged));
+    }
+
+    @Override
+    protected void rollbackSavepoint(String name) throws DatabaseWriteException {
+        LinkedHashMap<String, Document> snapshot = this.dropAfter(name, false);
+        // Keep the snapshot untouched, it can be rolled back to again
+        staged = copy(snapshot);
+    }
+
+    @Override
+    protected void removeSavepoint(String name) throws DatabaseWriteException {
+        this.dropAfter(name, true);
+    }
+
+    /** Removes the savepoints set after the given one, and the savepoint itself if asked to */
+    private LinkedHashMap<String, Document> dropAfter(String name, boolean inclusive) throws DatabaseWriteException {
+        LinkedHashMap<String, Document> snapshot = savepoints.get(name);
+
+        if (snapshot == null) {
+            throw new DatabaseWriteException("No such savepoint: " + name);
+        }
+        List<String> names = new ArrayList<String>(savepoints.keySet());
+
+        for (String later : names.subList(names.indexOf(name) + (inclusive ? 0 : 1), names.size())) {
+            savepoints.remove(later);
+        }
+        return snapshot;
+    }
+
+    private static LinkedHashMap<String, Document> copy(Map<String, Document> documents) {
+        LinkedHashMap<String, Document> copy = new LinkedHashMap<String, Document>();
+
+        for (Map.Entry<String, Document> table : documents.entrySet()) {
+            copy.put(table.getKey(), table.getValue().clone());
+        }
+        return copy;
+    }
+}
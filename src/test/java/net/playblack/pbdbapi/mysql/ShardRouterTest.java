@@ -0,0 +1,134 @@
+package net.playblack.pbdbapi.mysql;
+
+import junit.framework.TestCase;
+import net.playblack.pbdbapi.Column;
+import net.playblack.pbdbapi.DataAccess;
+import net.playblack.pbdbapi.ShardKey;
+import net.playblack.pbdbapi.exceptions.DatabaseTableInconsistencyException;
+
+/**
+ * Tests how the shard key of a table maps values to shards.
+ * The tables are never instantiated, a DataAccess registers its table on creation.
+ */
+public class ShardRouterTest extends TestCase {
+
+    public static abstract class HashRow extends DataAccess {
+
+        @Column(columnName = "id", dataType = Column.DataType.LONG, columnType = Column.ColumnType.PRIMARY)
+        @ShardKey
+        public Long id;
+
+        public HashRow() {
+            super("hash_rows");
+        }
+    }
+
+    public static abstract class RangeRow extends DataAccess {
+
+        @Column(columnName = "id", dataType = Column.DataType.INTEGER, columnType = Column.ColumnType.PRIMARY)
+        @ShardKey(strategy = ShardKey.Strategy.RANGE, ranges = { 1000, 5000 })
+        public Integer id;
+
+        public RangeRow() {
+            super("range_rows");
+        }
+    }
+
+    public static abstract class PlainRow extends DataAccess {
+
+        @Column(columnName = "id", dataType = Column.DataType.INTEGER, columnType = Column.ColumnType.PRIMARY)
+        public Integer id;
+
+        public PlainRow() {
+            super("plain_rows");
+        }
+    }
+
+    public static abstract class UnorderedRangeRow extends DataAccess {
+
+        @Column(columnName = "id", dataType = Column.DataType.INTEGER, columnType = Column.ColumnType.PRIMARY)
+        @ShardKey(strategy = ShardKey.Strategy.RANGE, ranges = { 5000, 1000 })
+        public Integer id;
+
+        public UnorderedRangeRow() {
+            super("unordered_range_rows");
+        }
+    }
+
+    public void testHashIsStableAndInRange() throws DatabaseTableInconsistencyException {
+        ShardRouter.Route route = ShardRouter.findRoute(HashRow.class);
+
+        for (long id = -50; id < 50; id++) {
+            int shard = route.getShard(id, 4);
+
+            assertTrue(shard >= 0 && shard < 4);
+            assertEquals(shard, route.getShard(id, 4));
+        }
+    }
+
+    public void testHashSpreadsRows() throws DatabaseTableInconsistencyException {
+        ShardRouter.Route route = ShardRouter.findRoute(HashRow.class);
+        int[] counts = new int[4];
+
+        for (long id = 0; id < 400; id++) {
+            counts[route.getShard(id, 4)]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 0);
+        }
+    }
+
+    public void testHashIntegerAndLongLandOnSameShard() throws DatabaseTableInconsistencyException {
+        ShardRouter.Route route = ShardRouter.findRoute(HashRow.class);
+
+        for (int id = -50; id < 50; id++) {
+            assertEquals(route.getShard(Long.valueOf(id), 3), route.getShard(Integer.valueOf(id), 3));
+            assertEquals(route.getShard(Long.valueOf(id), 3), route.getShard(Short.valueOf((short) id), 3));
+        }
+        assertEquals(route.getShard(Long.valueOf(Integer.MAX_VALUE), 5), route.getShard(Integer.valueOf(Integer.MAX_VALUE), 5));
+        assertEquals(route.getShard(Long.valueOf(Integer.MIN_VALUE), 5), route.getShard(Integer.valueOf(Integer.MIN_VALUE), 5));
+    }
+
+    public void testRange() throws DatabaseTableInconsistencyException {
+        ShardRouter.Route route = ShardRouter.findRoute(RangeRow.class);
+
+        assertEquals(0, route.getShard(-7, 3));
+        assertEquals(0, route.getShard(999, 3));
+        assertEquals(1, route.getShard(1000, 3));
+        assertEquals(1, route.getShard(4999L, 3));
+        assertEquals(2, route.getShard(5000, 3));
+        assertEquals(2, route.getShard(Long.MAX_VALUE, 3));
+        assertEquals(route.getShard(1000L, 3), route.getShard(1000, 3));
+    }
+
+    public void testRangeOutOfShards() {
+        try {
+            ShardRouter.findRoute(RangeRow.class).getShard(5000, 2);
+            fail("5000 has no shard when there are only 2");
+        }
+        catch (DatabaseTableInconsistencyException expected) {
+        }
+    }
+
+    public void testRangeNeedsNumber() {
+        try {
+            ShardRouter.findRoute(RangeRow.class).getShard("1000", 3);
+            fail("Ranges only take numbers");
+        }
+        catch (DatabaseTableInconsistencyException expected) {
+        }
+    }
+
+    public void testRangesMustAscend() {
+        try {
+            ShardRouter.findRoute(UnorderedRangeRow.class);
+            fail("Ranges out of order were accepted");
+        }
+        catch (DatabaseTableInconsistencyException expected) {
+        }
+    }
+
+    public void testTableWithoutKey() throws DatabaseTableInconsistencyException {
+        assertSame(ShardRouter.Route.NONE, ShardRouter.findRoute(PlainRow.class));
+    }
+}
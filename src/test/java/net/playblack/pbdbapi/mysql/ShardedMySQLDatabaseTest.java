@@ -0,0 +1,109 @@
+package net.playblack.pbdbapi.mysql;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+import net.playblack.pbdbapi.AggregateResult;
+import net.playblack.pbdbapi.queries.Aggregate;
+
+/**
+ * Tests how { @link ShardedMySQLDatabase } merges the results of several shards.
+ */
+public class ShardedMySQLDatabaseTest extends TestCase {
+
+    public void testMergeRowsKeepsShardOrder() {
+        List<String> merged = ShardedMySQLDatabase.mergeRows(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c")), 10);
+
+        assertEquals(Arrays.asList("a", "b", "c"), merged);
+    }
+
+    public void testMergeRowsAppliesLimit() {
+        List<String> merged = ShardedMySQLDatabase.mergeRows(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d")), 3);
+
+        assertEquals(Arrays.asList("a", "b", "c"), merged);
+    }
+
+    public void testMergeRowsOfEmptyShards() {
+        List<String> empty = Collections.emptyList();
+
+        assertEquals(Arrays.asList("a"), ShardedMySQLDatabase.mergeRows(Arrays.asList(empty, Arrays.asList("a"), empty), 5));
+    }
+
+    public void testMergeRowsOfOneShard() {
+        List<String> rows = Arrays.asList("a", "b");
+
+        assertSame(rows, ShardedMySQLDatabase.mergeRows(Collections.singletonList(rows), 2));
+    }
+
+    public void testMergeCount() {
+        List<AggregateResult> merged = merge(new Aggregate().count().groupBy("g"),
+                Arrays.asList(result("x", 2L), result("y", 1L)),
+                Arrays.asList(result("x", 3L), result("z", 4L)));
+
+        assertEquals(3, merged.size());
+        assertEquals(5L, value(merged, "x"));
+        assertEquals(1L, value(merged, "y"));
+        assertEquals(4L, value(merged, "z"));
+    }
+
+    public void testMergeSum() {
+        List<AggregateResult> merged = merge(new Aggregate().sum("v"),
+                Arrays.asList(result(null, 1.5D)),
+                Arrays.asList(result(null, 2L)),
+                Arrays.asList(result(null, null)));
+
+        assertEquals(3.5D, merged.get(0).doubleValue(), 0D);
+    }
+
+    public void testMergeSumOfLongsStaysLong() {
+        List<AggregateResult> merged = merge(new Aggregate().sum("v"),
+                Arrays.asList(result(null, Long.MAX_VALUE - 1)),
+                Arrays.asList(result(null, 1L)));
+
+        assertEquals(Long.MAX_VALUE, merged.get(0).getValue());
+    }
+
+    public void testMergeSumOfDecimalsStaysExact() {
+        List<AggregateResult> merged = merge(new Aggregate().sum("v"),
+                Arrays.asList(result(null, new BigDecimal("0.1"))),
+                Arrays.asList(result(null, new BigDecimal("0.2"))),
+                Arrays.asList(result(null, 3L)));
+
+        assertEquals(new BigDecimal("3.3"), merged.get(0).getValue());
+    }
+
+    public void testMergeMinAndMax() {
+        List<AggregateResult> min = merge(new Aggregate().min("v"),
+                Arrays.asList(result(null, 5)),
+                Arrays.asList(result(null, null)),
+                Arrays.asList(result(null, -2)));
+        List<AggregateResult> max = merge(new Aggregate().max("v"),
+                Arrays.asList(result(null, 5)),
+                Arrays.asList(result(null, null)),
+                Arrays.asList(result(null, -2)));
+
+        assertEquals(-2, min.get(0).getValue());
+        assertEquals(5, max.get(0).getValue());
+    }
+
+    private static List<AggregateResult> merge(Aggregate query, List<AggregateResult>... shards) {
+        return ShardedMySQLDatabase.mergeAggregates(query, Arrays.asList(shards));
+    }
+
+    private static Object value(List<AggregateResult> results, String group) {
+        for (AggregateResult result : results) {
+            if (group.equals(result.getGroupValue(0))) {
+                return result.getValue();
+            }
+        }
+        fail("No group " + group);
+        return null;
+    }
+
+    private static AggregateResult result(String group, Object value) {
+        List<Object> groups = group == null ? Collections.<Object> emptyList() : Collections.<Object> singletonList(group);
+        return new AggregateResult(groups, value);
+    }
+}